@@ -0,0 +1,70 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.ldapuserimport;
+
+import java.util.List;
+import java.util.Map;
+
+import org.xwiki.component.annotation.Role;
+import org.xwiki.job.Job;
+import org.xwiki.job.JobException;
+import org.xwiki.stability.Unstable;
+
+/**
+ * Browse the LDAP directory tree one level at a time and import the users of an organizational unit.
+ *
+ * @version $Id$
+ * @since 1.7.10
+ */
+@Role
+@Unstable
+public interface LDAPOrganizationalUnitManager
+{
+    /**
+     * Get the organizational units and containers located directly under the given DN. Each level is cached, so that
+     * browsing the tree back and forth doesn't query the LDAP server again.
+     *
+     * @param parentDN the DN of the parent entry, or an empty value for the LDAP base DN
+     * @return the child entries, each one holding its {@code dn}, {@code name}, {@code description} and
+     *     {@code hasChildren} (when provided by the LDAP server)
+     * @throws Exception in case of exceptions
+     */
+    List<Map<String, String>> getChildren(String parentDN) throws Exception;
+
+    /**
+     * Get the users located anywhere under the given organizational unit.
+     *
+     * @param organizationalUnitDN the DN of the organizational unit
+     * @param handler receives each user, as soon as it is read, with its {@code uid} and {@code dn}
+     * @return the number of users found
+     * @throws Exception in case of exceptions
+     */
+    int getUsers(String organizationalUnitDN, LDAPResultHandler handler) throws Exception;
+
+    /**
+     * Start a job importing all the users located under the given organizational unit.
+     *
+     * @param organizationalUnitDN the DN of the organizational unit
+     * @param groupName the group to add the imported users in, or {@code null}
+     * @return the import job
+     * @throws JobException if an error occurs starting the import job
+     */
+    Job importUsers(String organizationalUnitDN, String groupName) throws JobException;
+}
@@ -0,0 +1,46 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.ldapuserimport;
+
+import java.io.IOException;
+import java.util.Map;
+
+import org.xwiki.stability.Unstable;
+
+/**
+ * Receives the LDAP users or groups one by one, as soon as they are read from the LDAP search results, so that
+ * callers can stream them without holding the whole result in memory.
+ *
+ * @version $Id$
+ * @since 1.7.10
+ */
+@Unstable
+@FunctionalInterface
+public interface LDAPResultHandler
+{
+    /**
+     * Handle one result entry.
+     *
+     * @param id the identifier of the entry (the user uid, the group cn or the organizational unit ou)
+     * @param entry the entry details, as returned by the map based methods of {@link LDAPUserImportManager}
+     * @throws IOException if the entry could not be written to the output
+     */
+    void handle(String id, Map<String, String> entry) throws IOException;
+}
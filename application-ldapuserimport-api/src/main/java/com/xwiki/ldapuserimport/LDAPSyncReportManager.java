@@ -0,0 +1,66 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.ldapuserimport;
+
+import java.util.List;
+
+import org.xwiki.component.annotation.Role;
+import org.xwiki.stability.Unstable;
+
+/**
+ * Store the reports of the group synchronization runs and query their history.
+ *
+ * @version $Id$
+ * @since 1.7.10
+ */
+@Role
+@Unstable
+public interface LDAPSyncReportManager
+{
+    /**
+     * Store the report of a synchronization run. Only the most recent runs of each group are kept.
+     *
+     * @param report the report to store
+     */
+    void saveReport(SyncRunReport report);
+
+    /**
+     * @return the names of the XWiki groups having at least one stored report
+     */
+    List<String> getGroups();
+
+    /**
+     * @param groupName the name of the XWiki group
+     * @param limit the maximum number of reports to return
+     * @return the most recent reports of the group, the most recent first
+     */
+    List<SyncRunReport> getReports(String groupName, int limit);
+
+    /**
+     * Compute how the duration of the synchronization of a group evolves, as the slope of the linear regression of the
+     * durations of its last successful runs. A positive value means that the synchronization gets slower.
+     *
+     * @param groupName the name of the XWiki group
+     * @param runs the number of recent runs to consider
+     * @return the average variation of the run duration from one run to the next, in milliseconds, or {@code 0} if
+     *     there are less than two runs
+     */
+    double getDurationTrend(String groupName, int runs);
+}
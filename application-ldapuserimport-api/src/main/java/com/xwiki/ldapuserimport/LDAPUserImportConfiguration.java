@@ -19,7 +19,9 @@
  */
 package com.xwiki.ldapuserimport;
 
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 import org.xwiki.component.annotation.Role;
 import org.xwiki.stability.Unstable;
@@ -55,6 +57,29 @@ public interface LDAPUserImportConfiguration
         GROUP_EDITORS
     }
 
+    /**
+     * Define how the changes made by the synchronization are recorded in the history of the documents.
+     *
+     * @since 1.7.10
+     */
+    enum SyncHistoryPolicy
+    {
+        /**
+         * Create a new version for each change.
+         */
+        VERSION,
+
+        /**
+         * Create a new minor version for each change.
+         */
+        MINOR_VERSION,
+
+        /**
+         * Update the current version of the document, without recording the change in its history.
+         */
+        NO_VERSION
+    }
+
     /**
      * @return the list of LDAP user attributes
      */
@@ -147,4 +172,114 @@ public interface LDAPUserImportConfiguration
     {
         return false;
     }
+
+    /**
+     * @return the additional LDAP search bases in which users and groups are searched, besides the LDAP base DN; each
+     *     search base is a base DN optionally followed by {@code |host:port}, the server on which to search it
+     * @since 1.7.10
+     */
+    default List<String> getSearchBases()
+    {
+        return Collections.emptyList();
+    }
+
+    /**
+     * @return the maximum number of seconds to wait for the results of each search base
+     * @since 1.7.10
+     */
+    default int getSearchBaseTimeout()
+    {
+        return 10;
+    }
+
+    /**
+     * @return the maximum number of minutes the synchronization of the mapped groups may run before stopping and
+     *     leaving the remaining users and groups to the next run, or 0 for no limit
+     * @since 1.7.10
+     */
+    default int getSyncTimeBudget()
+    {
+        return 0;
+    }
+
+    /**
+     * @return the freshness requirement of the mapped groups: the maximum number of hours between two synchronizations
+     *     of each group, the {@code *} key applying to the groups not listed (24 hours when not set)
+     * @since 1.7.10
+     */
+    default Map<String, Integer> getGroupSyncFreshness()
+    {
+        return Collections.emptyMap();
+    }
+
+    /**
+     * @return the number of users whose pages are saved in a single database transaction by the import and the
+     *     synchronization of users, 1 to save each page in its own transaction
+     * @since 1.7.10
+     */
+    default int getSaveBatchSize()
+    {
+        return 1;
+    }
+
+    /**
+     * @return how the changes made by the synchronization to the user profiles, to the groups and to the group
+     *     mapping are recorded in the history of these documents
+     * @since 1.7.10
+     */
+    default SyncHistoryPolicy getSyncHistoryPolicy()
+    {
+        return SyncHistoryPolicy.VERSION;
+    }
+
+    /**
+     * @return the number of versions kept in the history of the groups updated by the synchronization, or 0 to keep
+     *     all the versions
+     * @since 1.7.10
+     */
+    default int getGroupHistorySize()
+    {
+        return 0;
+    }
+
+    /**
+     * @return the number of LDAP members from which the members of a mapped group are stored in sub-groups, or 0 to
+     *     always store the members in the group document
+     * @since 1.7.10
+     */
+    default int getGroupShardThreshold()
+    {
+        return 0;
+    }
+
+    /**
+     * @return the number of members a group update holds in memory at a time: the members of the groups having more
+     *     members are sorted in temporary files and updated by chunks of this size, or 0 to hold all the members in
+     *     memory
+     * @since 1.7.10
+     */
+    default int getMembershipSpillThreshold()
+    {
+        return 0;
+    }
+
+    /**
+     * @return the number of users whose LDAP data is read ahead while the pages of the previous users are saved, or 0
+     *     to read the data of each user just before saving its page
+     * @since 1.7.10
+     */
+    default int getSyncReadAhead()
+    {
+        return 0;
+    }
+
+    /**
+     * @return the number of minutes during which the users and the group members not found in LDAP are not searched
+     *     again, or 0 to search them each time
+     * @since 1.7.10
+     */
+    default int getNegativeCacheDuration()
+    {
+        return 0;
+    }
 }
@@ -23,6 +23,7 @@ import java.util.List;
 import java.util.Map;
 
 import org.xwiki.component.annotation.Role;
+import org.xwiki.stability.Unstable;
 
 /**
  * @version $Id$
@@ -55,6 +56,43 @@ public interface LDAPUserImportManager
      */
     Map<String, Map<String, String>> importUsers(String[] usersList, String groupName) throws Exception;
 
+    /**
+     * Stream the users that have the searched value contained in any of the provided fields value, as they are read
+     * from LDAP.
+     *
+     * @param singleField the field to only filter when the single field search is enabled
+     * @param allFields the list of all configured fields
+     * @param searchInput the value to search for
+     * @param isFullSearch allowing to choose if the search is a "contains" search or a "begin with" search
+     * @param limit the maximum number of users to handle, or a negative value to use the configured limit
+     * @param handler the handler receiving the matching users
+     * @return the number of handled users
+     * @throws Exception in case of exceptions
+     * @since 1.7.10
+     */
+    @Unstable
+    default int getUsers(String singleField, String allFields, String searchInput, boolean isFullSearch, int limit,
+        LDAPResultHandler handler) throws Exception
+    {
+        return handleAll(getUsers(singleField, allFields, searchInput, isFullSearch), limit, handler);
+    }
+
+    /**
+     * Import the selected users, handing each imported user to the given handler as soon as it is imported.
+     *
+     * @param usersList the list of users to be imported
+     * @param groupName the group to add users in
+     * @param handler the handler receiving the imported user profiles and URLs
+     * @return the number of imported users
+     * @throws Exception in case of exceptions
+     * @since 1.7.10
+     */
+    @Unstable
+    default int importUsers(String[] usersList, String groupName, LDAPResultHandler handler) throws Exception
+    {
+        return handleAll(importUsers(usersList, groupName), -1, handler);
+    }
+
     /**
      * Check if the current user is allowed to import users.
      *
@@ -99,6 +137,20 @@ public interface LDAPUserImportManager
      */
     boolean updateGroup(String xWikiGroupName) throws Exception;
 
+    /**
+     * Check whether an XWiki group is being synchronized by another cluster node, in which case it can't be updated on
+     * this node until that synchronization finishes.
+     *
+     * @param xWikiGroupName the group name
+     * @return {@code true} if the group is being synchronized by another cluster node
+     * @since 1.7.10
+     */
+    @Unstable
+    default boolean isGroupUpdateRunningElsewhere(String xWikiGroupName)
+    {
+        return false;
+    }
+
     /**
      * Create or update users from LDAP in all the XWiki groups that are included in the groups mapping.
      *
@@ -106,6 +158,19 @@ public interface LDAPUserImportManager
      */
     void updateGroups() throws Exception;
 
+    /**
+     * Create or update users from LDAP in the XWiki groups included in the groups mapping which are due for
+     * synchronization, depending on how often they changed during their previous synchronizations.
+     *
+     * @throws Exception in case of exceptions
+     * @since 1.7.10
+     */
+    @Unstable
+    default void updateDueGroups() throws Exception
+    {
+        updateGroups();
+    }
+
     /**
      * Get all the LDAP groups from a domain. Each group contains information about the relation with the current XWiki
      * group (associated or not).
@@ -133,6 +198,27 @@ public interface LDAPUserImportManager
     Map<String, Map<String, String>> getLDAPGroups(String searchInput, String xWikiGroupName,
         boolean isFullSearch, boolean isOUSearch) throws Exception;
 
+    /**
+     * Stream the LDAP groups or Organizational Units from a domain, as they are read from LDAP. Each group contains
+     * information about the relation with the current XWiki group (associated or not).
+     *
+     * @param searchInput the value to search for
+     * @param xWikiGroupName the group name
+     * @param isFullSearch allowing to choose if the search is a "contains" search or a "begin with" search
+     * @param isOUSearch denotes whether the search is done over LDAP groups or organizational units
+     * @param limit the maximum number of groups to handle, or a negative value to use the configured limit
+     * @param handler the handler receiving the matching groups
+     * @return the number of handled groups
+     * @throws Exception in case of exceptions
+     * @since 1.7.10
+     */
+    @Unstable
+    default int getLDAPGroups(String searchInput, String xWikiGroupName, boolean isFullSearch, boolean isOUSearch,
+        int limit, LDAPResultHandler handler) throws Exception
+    {
+        return handleAll(getLDAPGroups(searchInput, xWikiGroupName, isFullSearch, isOUSearch), limit, handler);
+    }
+
     /**
      * Associate a list of LDAP groups to an XWiki group.
      *
@@ -142,4 +228,20 @@ public interface LDAPUserImportManager
      * @throws Exception in case of exceptions
      */
     boolean associateGroups(String[] ldapGroupsList, String xWikiGroupName) throws Exception;
+
+    private static int handleAll(Map<String, Map<String, String>> entries, int limit, LDAPResultHandler handler)
+        throws Exception
+    {
+        int count = 0;
+        if (entries != null) {
+            for (Map.Entry<String, Map<String, String>> entry : entries.entrySet()) {
+                if (limit >= 0 && count >= limit) {
+                    break;
+                }
+                handler.handle(entry.getKey(), entry.getValue());
+                count++;
+            }
+        }
+        return count;
+    }
 }
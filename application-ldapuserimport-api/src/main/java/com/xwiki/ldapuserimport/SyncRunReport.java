@@ -0,0 +1,225 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.ldapuserimport;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.xwiki.stability.Unstable;
+
+/**
+ * The report of one synchronization run of an XWiki group with the LDAP groups it is mapped to.
+ *
+ * @version $Id$
+ * @since 1.7.10
+ */
+@Unstable
+public class SyncRunReport
+{
+    /**
+     * The number of LDAP group members enumerated.
+     */
+    public static final String MEMBERS = "members";
+
+    /**
+     * The number of new users imported.
+     */
+    public static final String USERS_IMPORTED = "usersImported";
+
+    /**
+     * The number of existing users synchronized.
+     */
+    public static final String USERS_SYNCHRONIZED = "usersSynchronized";
+
+    /**
+     * The number of group members skipped, because their profile could not be checked.
+     */
+    public static final String USERS_SKIPPED = "usersSkipped";
+
+    /**
+     * The number of users that failed to be imported or synchronized.
+     */
+    public static final String USERS_FAILED = "usersFailed";
+
+    /**
+     * The number of users added to the XWiki group.
+     */
+    public static final String MEMBERSHIPS_ADDED = "membershipsAdded";
+
+    /**
+     * The number of users removed from the XWiki group.
+     */
+    public static final String MEMBERSHIPS_REMOVED = "membershipsRemoved";
+
+    /**
+     * The number of LDAP binds and searches.
+     */
+    public static final String LDAP_ROUND_TRIPS = "ldapRoundTrips";
+
+    /**
+     * The number of wiki documents saved.
+     */
+    public static final String DOCUMENT_SAVES = "documentSaves";
+
+    /**
+     * The number of LDAP searches skipped because the searched user or group member was recently not found.
+     */
+    public static final String NEGATIVE_CACHE_HITS = "negativeCacheHits";
+
+    private final String groupName;
+
+    private Date startDate;
+
+    private Date endDate;
+
+    private String error;
+
+    private final Map<String, Long> counters = new LinkedHashMap<>();
+
+    private final Map<String, Long> phaseDurations = new LinkedHashMap<>();
+
+    /**
+     * @param groupName the name of the synchronized XWiki group
+     */
+    public SyncRunReport(String groupName)
+    {
+        this.groupName = groupName;
+    }
+
+    /**
+     * @return the name of the synchronized XWiki group
+     */
+    public String getGroupName()
+    {
+        return this.groupName;
+    }
+
+    /**
+     * @return the date when the run started
+     */
+    public Date getStartDate()
+    {
+        return this.startDate;
+    }
+
+    /**
+     * @param startDate the date when the run started
+     */
+    public void setStartDate(Date startDate)
+    {
+        this.startDate = startDate;
+    }
+
+    /**
+     * @return the date when the run ended, or {@code null} if it is still running
+     */
+    public Date getEndDate()
+    {
+        return this.endDate;
+    }
+
+    /**
+     * @param endDate the date when the run ended
+     */
+    public void setEndDate(Date endDate)
+    {
+        this.endDate = endDate;
+    }
+
+    /**
+     * @return the duration of the run in milliseconds, or {@code -1} if it did not end yet
+     */
+    public long getDuration()
+    {
+        if (this.startDate == null || this.endDate == null) {
+            return -1;
+        }
+        return this.endDate.getTime() - this.startDate.getTime();
+    }
+
+    /**
+     * @return the message of the error that stopped the run, or {@code null} if the run completed
+     */
+    public String getError()
+    {
+        return this.error;
+    }
+
+    /**
+     * @param error the message of the error that stopped the run
+     */
+    public void setError(String error)
+    {
+        this.error = error;
+    }
+
+    /**
+     * @return {@code true} if the run completed without error
+     */
+    public boolean isSuccessful()
+    {
+        return this.error == null;
+    }
+
+    /**
+     * @return the counters of the run, such as {@link #USERS_IMPORTED}, by name
+     */
+    public synchronized Map<String, Long> getCounters()
+    {
+        return Collections.unmodifiableMap(new LinkedHashMap<>(this.counters));
+    }
+
+    /**
+     * @param counter the counter name
+     * @return the counter value, {@code 0} if nothing was counted
+     */
+    public synchronized long getCounter(String counter)
+    {
+        return this.counters.getOrDefault(counter, 0L);
+    }
+
+    /**
+     * @param counter the counter name
+     * @param value the value to add to the counter
+     */
+    public synchronized void addCounter(String counter, long value)
+    {
+        this.counters.merge(counter, value, Long::sum);
+    }
+
+    /**
+     * @return the duration in milliseconds of each synchronization phase, in the order in which they ran
+     */
+    public synchronized Map<String, Long> getPhaseDurations()
+    {
+        return Collections.unmodifiableMap(new LinkedHashMap<>(this.phaseDurations));
+    }
+
+    /**
+     * @param phase the phase name
+     * @param duration the time spent in the phase, in milliseconds
+     */
+    public synchronized void addPhaseDuration(String phase, long duration)
+    {
+        this.phaseDurations.merge(phase, duration, Long::sum);
+    }
+}
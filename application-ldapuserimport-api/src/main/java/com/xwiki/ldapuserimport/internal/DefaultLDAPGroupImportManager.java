@@ -47,6 +47,7 @@ import com.xpn.xwiki.XWikiContext;
 import com.xwiki.ldapuserimport.LDAPGroupImportManager;
 import com.xwiki.ldapuserimport.LDAPUserImportConfiguration;
 import com.xwiki.ldapuserimport.internal.job.DefaultLDAPGroupImportJob;
+import com.xwiki.ldapuserimport.internal.metrics.LDAPMetrics;
 import com.xwiki.ldapuserimport.job.LDAPGroupImportRequest;
 
 import static com.novell.ldap.LDAPConnection.SCOPE_SUB;
@@ -77,13 +78,19 @@ public class DefaultLDAPGroupImportManager implements LDAPGroupImportManager
     @Inject
     private Provider<XWikiContext> xWikiContextProvider;
 
+    @Inject
+    private XWikiLDAPFactory xWikiLDAPFactory;
+
+    @Inject
+    private LDAPMetrics metrics;
+
     @Override
     public Map<String, List<XWikiLDAPSearchAttribute>> getImportableGroups(String groupSearchDN,
         String groupSearchFilter, List<String> groupSearchAttributes)
     {
         XWikiContext context = xWikiContextProvider.get();
         XWikiLDAPConfig configuration = xWikiLDAPConfigProvider.get();
-        XWikiLDAPConnection connection = new XWikiLDAPConnection(configuration);
+        XWikiLDAPConnection connection = xWikiLDAPFactory.getLDAPConnection(configuration);
         Map<String, List<XWikiLDAPSearchAttribute>> results = new HashMap<>();
 
         try {
@@ -98,6 +105,7 @@ public class DefaultLDAPGroupImportManager implements LDAPGroupImportManager
                 if (entry == null) {
                     break;
                 }
+                metrics.countEntry(entry);
                 List<XWikiLDAPSearchAttribute> attributeList = new ArrayList<>();
                 connection.ldapToXWikiAttribute(attributeList, entry.getAttributeSet());
                 results.put(entry.getDN(), attributeList);
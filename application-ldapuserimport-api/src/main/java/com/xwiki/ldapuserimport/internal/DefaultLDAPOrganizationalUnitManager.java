@@ -0,0 +1,272 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.ldapuserimport.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.LRUCacheConfiguration;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.contrib.ldap.PagedLDAPSearchResults;
+import org.xwiki.contrib.ldap.XWikiLDAPConfig;
+import org.xwiki.contrib.ldap.XWikiLDAPConnection;
+import org.xwiki.contrib.ldap.XWikiLDAPException;
+import org.xwiki.job.Job;
+import org.xwiki.job.JobException;
+import org.xwiki.job.JobExecutor;
+
+import com.novell.ldap.LDAPConnection;
+import com.novell.ldap.LDAPDN;
+import com.novell.ldap.LDAPEntry;
+import com.xpn.xwiki.XWikiContext;
+import com.xwiki.ldapuserimport.LDAPOrganizationalUnitManager;
+import com.xwiki.ldapuserimport.LDAPResultHandler;
+import com.xwiki.ldapuserimport.internal.job.LDAPOrganizationalUnitImportJob;
+import com.xwiki.ldapuserimport.internal.metrics.LDAPMetrics;
+import com.xwiki.ldapuserimport.job.LDAPOrganizationalUnitImportRequest;
+
+import static com.xwiki.ldapuserimport.internal.XWikiLDAPUtilsHelper.CN;
+import static com.xwiki.ldapuserimport.internal.XWikiLDAPUtilsHelper.LDAP_BASE_DN;
+import static com.xwiki.ldapuserimport.internal.XWikiLDAPUtilsHelper.UID;
+import static com.xwiki.ldapuserimport.internal.XWikiLDAPUtilsHelper.getFilterFromObjectClasses;
+import static com.xwiki.ldapuserimport.internal.XWikiLDAPUtilsHelper.getServer;
+import static com.xwiki.ldapuserimport.internal.XWikiLDAPUtilsHelper.getUsersFilter;
+
+/**
+ * Default implementation of {@link LDAPOrganizationalUnitManager}, listing one level of the directory tree at a time
+ * with {@link LDAPConnection#SCOPE_ONE} searches.
+ *
+ * @version $Id$
+ * @since 1.7.10
+ */
+@Component
+@Singleton
+public class DefaultLDAPOrganizationalUnitManager implements LDAPOrganizationalUnitManager, Initializable,
+    Disposable
+{
+    private static final String DN_KEY = "dn";
+
+    private static final String NAME = "name";
+
+    private static final String DESCRIPTION = "description";
+
+    private static final String HAS_SUBORDINATES = "hasSubordinates";
+
+    /**
+     * The entries that can hold users: organizational units, but also the containers (e.g. CN=Users in Active
+     * Directory) and the domain components.
+     */
+    private static final String CHILDREN_FILTER =
+        getFilterFromObjectClasses("organizationalUnit,container,domain,builtinDomain");
+
+    private static final String[] CHILD_ATTRIBUTES = { DESCRIPTION, HAS_SUBORDINATES };
+
+    private static final LDAPResultSchema CHILD_SCHEMA = LDAPResultSchema.create(Arrays.asList(DN_KEY, NAME),
+        Arrays.asList(CHILD_ATTRIBUTES), Collections.singletonMap(HAS_SUBORDINATES, "hasChildren"));
+
+    private static final LDAPResultSchema USER_SCHEMA = LDAPResultSchema.create(Arrays.asList(UID, DN_KEY));
+
+    private static final String CACHE_KEY_SEPARATOR = "|";
+
+    private static final int CACHE_SIZE = 1000;
+
+    private static final int CACHE_MAX_IDLE = 600;
+
+    @Inject
+    private Logger logger;
+
+    @Inject
+    private Provider<XWikiContext> contextProvider;
+
+    @Inject
+    private Provider<XWikiLDAPConfig> xwikiLDAPConfigProvider;
+
+    @Inject
+    private XWikiLDAPFactory xWikiLDAPFactory;
+
+    @Inject
+    private CacheManager cacheManager;
+
+    @Inject
+    private JobExecutor jobExecutor;
+
+    @Inject
+    private LDAPMetrics metrics;
+
+    private Cache<List<LDAPResultRecord>> childrenCache;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        try {
+            this.childrenCache = this.cacheManager.createNewCache(
+                new LRUCacheConfiguration("ldapuserimport.organizationalUnits", CACHE_SIZE, CACHE_MAX_IDLE));
+        } catch (CacheException e) {
+            throw new InitializationException("Failed to create the LDAP organizational units cache.", e);
+        }
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        this.childrenCache.dispose();
+    }
+
+    @Override
+    public List<Map<String, String>> getChildren(String parentDN) throws Exception
+    {
+        XWikiContext context = contextProvider.get();
+        String currentWikiId = context.getWikiId();
+        // Make sure to use the main wiki configuration source.
+        context.setWikiId(context.getMainXWiki());
+
+        try {
+            XWikiLDAPConfig configuration = xwikiLDAPConfigProvider.get();
+            String baseDN = StringUtils.isBlank(parentDN) ? configuration.getLDAPParam(LDAP_BASE_DN, "") : parentDN;
+            // The same DN can name different entries on different servers or under different configured bases.
+            String cacheKey = String.join(CACHE_KEY_SEPARATOR, getServer(configuration),
+                configuration.getLDAPParam(LDAP_BASE_DN, ""), baseDN).toLowerCase(Locale.ROOT);
+            List<LDAPResultRecord> children = this.childrenCache.get(cacheKey);
+            if (children == null) {
+                children = searchChildren(configuration, baseDN, context);
+                this.childrenCache.set(cacheKey, children);
+            }
+            // Hand over new map views, so that the cached level can't be modified by the callers.
+            return children.stream().map(LDAPResultRecord::asMap).collect(Collectors.toList());
+        } finally {
+            context.setWikiId(currentWikiId);
+        }
+    }
+
+    private List<LDAPResultRecord> searchChildren(XWikiLDAPConfig configuration, String baseDN,
+        XWikiContext context) throws Exception
+    {
+        XWikiLDAPConnection connection = xWikiLDAPFactory.getLDAPConnection(configuration);
+        List<LDAPResultRecord> children = new ArrayList<>();
+        try {
+            connection.open(configuration.getLDAPBindDN(), configuration.getLDAPBindPassword(), context);
+            PagedLDAPSearchResults result = connection.searchPaginated(baseDN, LDAPConnection.SCOPE_ONE,
+                CHILDREN_FILTER, CHILD_ATTRIBUTES, false);
+            while (result.hasMore()) {
+                LDAPEntry entry = result.next();
+                // Entry can be null on unfollowed referrals.
+                if (entry == null) {
+                    break;
+                }
+                metrics.countEntry(entry);
+                children.add(LDAPResultRecord.builder(CHILD_SCHEMA).setAttributes(entry)
+                    .set(DN_KEY, entry.getDN())
+                    .set(NAME, getName(entry.getDN()))
+                    .build());
+            }
+        } catch (XWikiLDAPException e) {
+            logger.error(e.getFullMessage());
+            throw e;
+        } catch (Exception e) {
+            logger.error("Failed to list the children of [{}].", baseDN, e);
+            throw e;
+        } finally {
+            connection.close();
+        }
+        children.sort(Comparator.comparing(child -> child.get(NAME), String.CASE_INSENSITIVE_ORDER));
+        return Collections.unmodifiableList(children);
+    }
+
+    private String getName(String dn)
+    {
+        String[] rdns = LDAPDN.explodeDN(dn, true);
+        return rdns != null && rdns.length > 0 ? rdns[0] : dn;
+    }
+
+    @Override
+    public int getUsers(String organizationalUnitDN, LDAPResultHandler handler) throws Exception
+    {
+        XWikiContext context = contextProvider.get();
+        String currentWikiId = context.getWikiId();
+        // Make sure to use the main wiki configuration source.
+        context.setWikiId(context.getMainXWiki());
+
+        XWikiLDAPConfig configuration = xwikiLDAPConfigProvider.get();
+        XWikiLDAPConnection connection = xWikiLDAPFactory.getLDAPConnection(configuration);
+        int count = 0;
+        try {
+            connection.open(configuration.getLDAPBindDN(), configuration.getLDAPBindPassword(), context);
+            String uidAttribute = configuration.getLDAPParam(XWikiLDAPConfig.PREF_LDAP_UID, CN);
+            // An empty "begins with" search matches every user having a value for the UID attribute.
+            String filter = getUsersFilter("", new String[] { uidAttribute }, configuration, false);
+            PagedLDAPSearchResults result = connection.searchPaginated(organizationalUnitDN,
+                LDAPConnection.SCOPE_SUB, filter, new String[] { uidAttribute }, false);
+            while (result.hasMore()) {
+                LDAPEntry entry = result.next();
+                if (entry == null) {
+                    break;
+                }
+                metrics.countEntry(entry);
+                if (entry.getAttribute(uidAttribute) != null) {
+                    String uid = entry.getAttribute(uidAttribute).getStringValue();
+                    handler.handle(uid,
+                        LDAPResultRecord.builder(USER_SCHEMA).set(UID, uid).set(DN_KEY, entry.getDN()).build().asMap());
+                    count++;
+                }
+            }
+        } catch (XWikiLDAPException e) {
+            logger.error(e.getFullMessage());
+            throw e;
+        } catch (Exception e) {
+            logger.error("Failed to get the users of the organizational unit [{}].", organizationalUnitDN, e);
+            throw e;
+        } finally {
+            connection.close();
+            context.setWikiId(currentWikiId);
+        }
+        return count;
+    }
+
+    @Override
+    public Job importUsers(String organizationalUnitDN, String groupName) throws JobException
+    {
+        LDAPOrganizationalUnitImportRequest request = new LDAPOrganizationalUnitImportRequest();
+        request.setId("ldap", "organizationalUnitImport", contextProvider.get().getWikiId(),
+            String.valueOf(System.currentTimeMillis()));
+        request.setOrganizationalUnitDN(organizationalUnitDN);
+        request.setGroupName(groupName);
+
+        return jobExecutor.execute(LDAPOrganizationalUnitImportJob.JOB_TYPE, request);
+    }
+}
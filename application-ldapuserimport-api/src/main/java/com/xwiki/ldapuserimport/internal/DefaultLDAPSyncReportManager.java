@@ -0,0 +1,273 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.ldapuserimport.internal;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.environment.Environment;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.xwiki.ldapuserimport.LDAPSyncReportManager;
+import com.xwiki.ldapuserimport.SyncRunReport;
+
+/**
+ * Store the synchronization reports in the permanent directory, as one file per group holding one JSON report per
+ * line, the oldest first.
+ *
+ * @version $Id$
+ * @since 1.7.10
+ */
+@Component
+@Singleton
+public class DefaultLDAPSyncReportManager implements LDAPSyncReportManager
+{
+    private static final String REPORTS_DIRECTORY = "ldapuserimport/syncReports";
+
+    private static final String EXTENSION = ".jsonl";
+
+    private static final int MAX_REPORTS = 100;
+
+    private static final String GROUP = "group";
+
+    private static final String START = "start";
+
+    private static final String END = "end";
+
+    private static final String ERROR = "error";
+
+    private static final String COUNTERS = "counters";
+
+    private static final String PHASES = "phases";
+
+    private final JsonFactory jsonFactory = new JsonFactory();
+
+    @Inject
+    private Environment environment;
+
+    @Inject
+    private Logger logger;
+
+    @Override
+    public synchronized void saveReport(SyncRunReport report)
+    {
+        try {
+            File file = getFile(report.getGroupName());
+            List<String> lines = readLines(file);
+            lines.add(serialize(report));
+            if (lines.size() > MAX_REPORTS) {
+                lines = lines.subList(lines.size() - MAX_REPORTS, lines.size());
+            }
+
+            // Replace the file at once, so that readers never see a partially written history.
+            file.getParentFile().mkdirs();
+            File temporaryFile = new File(file.getParentFile(), file.getName() + ".tmp");
+            Files.write(temporaryFile.toPath(), lines, StandardCharsets.UTF_8);
+            Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            this.logger.warn("Failed to store the synchronization report of the group [{}].",
+                report.getGroupName(), e);
+        }
+    }
+
+    @Override
+    public List<String> getGroups()
+    {
+        List<String> groups = new ArrayList<>();
+        File[] files = getDirectory().listFiles((directory, name) -> name.endsWith(EXTENSION));
+        if (files != null) {
+            for (File file : files) {
+                try {
+                    groups.add(URLDecoder.decode(StringUtils.removeEnd(file.getName(), EXTENSION),
+                        StandardCharsets.UTF_8.name()));
+                } catch (UnsupportedEncodingException e) {
+                    // Should never happen since UTF-8 is always supported.
+                }
+            }
+        }
+        Collections.sort(groups);
+        return groups;
+    }
+
+    @Override
+    public synchronized List<SyncRunReport> getReports(String groupName, int limit)
+    {
+        List<SyncRunReport> reports = new ArrayList<>();
+        try {
+            List<String> lines = readLines(getFile(groupName));
+            for (int i = lines.size() - 1; i >= 0 && reports.size() < limit; i--) {
+                reports.add(parse(lines.get(i)));
+            }
+        } catch (IOException e) {
+            this.logger.warn("Failed to read the synchronization reports of the group [{}].", groupName, e);
+        }
+        return reports;
+    }
+
+    @Override
+    public double getDurationTrend(String groupName, int runs)
+    {
+        List<Long> durations = new ArrayList<>();
+        for (SyncRunReport report : getReports(groupName, MAX_REPORTS)) {
+            if (durations.size() >= runs) {
+                break;
+            }
+            if (report.isSuccessful() && report.getDuration() >= 0) {
+                durations.add(report.getDuration());
+            }
+        }
+        int count = durations.size();
+        if (count < 2) {
+            return 0;
+        }
+
+        // Least squares slope, where x is the run index, the oldest run first.
+        Collections.reverse(durations);
+        double meanX = (count - 1) / 2.0;
+        double meanY = durations.stream().mapToLong(Long::longValue).average().orElse(0);
+        double covariance = 0;
+        double variance = 0;
+        for (int x = 0; x < count; x++) {
+            covariance += (x - meanX) * (durations.get(x) - meanY);
+            variance += (x - meanX) * (x - meanX);
+        }
+        return covariance / variance;
+    }
+
+    private File getDirectory()
+    {
+        return new File(this.environment.getPermanentDirectory(), REPORTS_DIRECTORY);
+    }
+
+    private File getFile(String groupName) throws UnsupportedEncodingException
+    {
+        return new File(getDirectory(), URLEncoder.encode(groupName, StandardCharsets.UTF_8.name()) + EXTENSION);
+    }
+
+    private List<String> readLines(File file) throws IOException
+    {
+        List<String> lines = new ArrayList<>();
+        if (file.exists()) {
+            try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (StringUtils.isNotBlank(line)) {
+                        lines.add(line);
+                    }
+                }
+            }
+        }
+        return lines;
+    }
+
+    private String serialize(SyncRunReport report) throws IOException
+    {
+        StringWriter writer = new StringWriter();
+        try (JsonGenerator generator = this.jsonFactory.createGenerator(writer)) {
+            generator.writeStartObject();
+            generator.writeStringField(GROUP, report.getGroupName());
+            if (report.getStartDate() != null) {
+                generator.writeNumberField(START, report.getStartDate().getTime());
+            }
+            if (report.getEndDate() != null) {
+                generator.writeNumberField(END, report.getEndDate().getTime());
+            }
+            if (report.getError() != null) {
+                generator.writeStringField(ERROR, report.getError());
+            }
+            writeMap(generator, COUNTERS, report.getCounters());
+            writeMap(generator, PHASES, report.getPhaseDurations());
+            generator.writeEndObject();
+        }
+        return writer.toString();
+    }
+
+    private void writeMap(JsonGenerator generator, String name, Map<String, Long> values) throws IOException
+    {
+        generator.writeObjectFieldStart(name);
+        for (Map.Entry<String, Long> value : values.entrySet()) {
+            generator.writeNumberField(value.getKey(), value.getValue());
+        }
+        generator.writeEndObject();
+    }
+
+    private SyncRunReport parse(String line) throws IOException
+    {
+        try (JsonParser parser = this.jsonFactory.createParser(line)) {
+            // The group is always serialized first.
+            parser.nextToken();
+            parser.nextValue();
+            SyncRunReport report = new SyncRunReport(parser.getValueAsString());
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                parser.nextToken();
+                if (START.equals(field)) {
+                    report.setStartDate(new Date(parser.getLongValue()));
+                } else if (END.equals(field)) {
+                    report.setEndDate(new Date(parser.getLongValue()));
+                } else if (ERROR.equals(field)) {
+                    report.setError(parser.getValueAsString());
+                } else if (COUNTERS.equals(field)) {
+                    readMap(parser, report, true);
+                } else if (PHASES.equals(field)) {
+                    readMap(parser, report, false);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            return report;
+        }
+    }
+
+    private void readMap(JsonParser parser, SyncRunReport report, boolean counters) throws IOException
+    {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            parser.nextToken();
+            if (counters) {
+                report.addCounter(name, parser.getLongValue());
+            } else {
+                report.addPhaseDuration(name, parser.getLongValue());
+            }
+        }
+    }
+}
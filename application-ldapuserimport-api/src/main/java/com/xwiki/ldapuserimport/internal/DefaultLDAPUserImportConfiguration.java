@@ -21,13 +21,17 @@ package com.xwiki.ldapuserimport.internal;
 
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 
 import javax.inject.Inject;
 import javax.inject.Provider;
 import javax.inject.Singleton;
 
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
 import org.slf4j.Logger;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.component.phase.Initializable;
@@ -64,6 +68,14 @@ public class DefaultLDAPUserImportConfiguration implements LDAPUserImportConfigu
 
     private static final String DEFAULT_GROUP_PAGE_NAME = "${uid}Group";
 
+    private static final int DEFAULT_SEARCH_BASE_TIMEOUT = 10;
+
+    private static final int DEFAULT_SAVE_BATCH_SIZE = 100;
+
+    private static final int DEFAULT_SYNC_READ_AHEAD = 50;
+
+    private static final String LINE_BREAK = "\\R";
+
     private DocumentReference configurationReference;
 
     @Inject
@@ -228,6 +240,114 @@ public class DefaultLDAPUserImportConfiguration implements LDAPUserImportConfigu
         return object != null && object.getIntValue("mapOverExistingGroups") == 1;
     }
 
+    @Override
+    public List<String> getSearchBases()
+    {
+        BaseObject object = getObject();
+        if (object != null) {
+            String searchBases = object.getStringValue("searchBases");
+            if (StringUtils.isNotBlank(searchBases)) {
+                return Arrays.stream(searchBases.split(LINE_BREAK)).map(String::trim).filter(StringUtils::isNotEmpty)
+                    .collect(Collectors.toList());
+            }
+        }
+        return Collections.emptyList();
+    }
+
+    @Override
+    public int getSearchBaseTimeout()
+    {
+        BaseObject object = getObject();
+        int timeout = object != null ? object.getIntValue("searchBaseTimeout") : 0;
+        return timeout > 0 ? timeout : DEFAULT_SEARCH_BASE_TIMEOUT;
+    }
+
+    @Override
+    public int getSyncTimeBudget()
+    {
+        BaseObject object = getObject();
+        return object != null ? Math.max(object.getIntValue("syncTimeBudget"), 0) : 0;
+    }
+
+    @Override
+    public Map<String, Integer> getGroupSyncFreshness()
+    {
+        Map<String, Integer> freshness = new HashMap<>();
+        BaseObject object = getObject();
+        if (object != null) {
+            for (String line : object.getStringValue("groupSyncFreshness").split(LINE_BREAK)) {
+                String groupName = StringUtils.substringBeforeLast(line, "=").trim();
+                int hours = NumberUtils.toInt(StringUtils.substringAfterLast(line, "=").trim());
+                if (StringUtils.isNotEmpty(groupName) && hours > 0) {
+                    freshness.put(groupName, hours);
+                }
+            }
+        }
+        return freshness;
+    }
+
+    @Override
+    public int getSaveBatchSize()
+    {
+        BaseObject object = getObject();
+        int batchSize = object != null ? object.getIntValue("saveBatchSize") : 0;
+        return batchSize > 0 ? batchSize : DEFAULT_SAVE_BATCH_SIZE;
+    }
+
+    @Override
+    public SyncHistoryPolicy getSyncHistoryPolicy()
+    {
+        BaseObject object = getObject();
+
+        if (object != null) {
+            String value = object.getStringValue("syncHistory");
+
+            if ("minorVersion".equals(value)) {
+                return SyncHistoryPolicy.MINOR_VERSION;
+            } else if ("noVersion".equals(value)) {
+                return SyncHistoryPolicy.NO_VERSION;
+            }
+        }
+
+        return SyncHistoryPolicy.VERSION;
+    }
+
+    @Override
+    public int getGroupHistorySize()
+    {
+        BaseObject object = getObject();
+        return object != null ? Math.max(object.getIntValue("groupHistorySize"), 0) : 0;
+    }
+
+    @Override
+    public int getGroupShardThreshold()
+    {
+        BaseObject object = getObject();
+        return object != null ? Math.max(object.getIntValue("groupShardThreshold"), 0) : 0;
+    }
+
+    @Override
+    public int getMembershipSpillThreshold()
+    {
+        BaseObject object = getObject();
+        return object != null ? Math.max(object.getIntValue("membershipSpillThreshold"), 0) : 0;
+    }
+
+    @Override
+    public int getSyncReadAhead()
+    {
+        BaseObject object = getObject();
+        int readAhead = object != null ? object.getIntValue("syncReadAhead") : 0;
+        return readAhead > 0 ? readAhead : DEFAULT_SYNC_READ_AHEAD;
+    }
+
+    @Override
+    public int getNegativeCacheDuration()
+    {
+        BaseObject object = getObject();
+        return object != null ? Math.max(object.getIntValue("negativeCacheDuration"), 0) : 0;
+    }
+
     private BaseObject getObject()
     {
         XWikiContext context = contextProvider.get();
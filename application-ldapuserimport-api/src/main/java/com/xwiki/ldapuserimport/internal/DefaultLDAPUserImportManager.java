@@ -19,17 +19,26 @@
  */
 package com.xwiki.ldapuserimport.internal;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 import javax.inject.Inject;
@@ -38,7 +47,10 @@ import javax.inject.Provider;
 import javax.inject.Singleton;
 
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.apache.commons.lang3.tuple.Pair;
 import org.slf4j.Logger;
+import org.suigeneris.jrcs.rcs.Version;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.component.manager.ComponentManager;
 import org.xwiki.configuration.ConfigurationSource;
@@ -49,6 +61,7 @@ import org.xwiki.contrib.ldap.XWikiLDAPConnection;
 import org.xwiki.contrib.ldap.XWikiLDAPException;
 import org.xwiki.contrib.ldap.XWikiLDAPSearchAttribute;
 import org.xwiki.contrib.ldap.XWikiLDAPUtils;
+import org.xwiki.environment.Environment;
 import org.xwiki.model.ModelContext;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.DocumentReferenceResolver;
@@ -58,8 +71,10 @@ import org.xwiki.rendering.syntax.Syntax;
 import org.xwiki.security.authorization.ContextualAuthorizationManager;
 import org.xwiki.security.authorization.Right;
 
+import com.novell.ldap.LDAPAttribute;
 import com.novell.ldap.LDAPConnection;
 import com.novell.ldap.LDAPEntry;
+import com.novell.ldap.LDAPException;
 import com.novell.ldap.LDAPReferralException;
 import com.xpn.xwiki.XWiki;
 import com.xpn.xwiki.XWikiContext;
@@ -67,8 +82,13 @@ import com.xpn.xwiki.XWikiException;
 import com.xpn.xwiki.doc.XWikiDocument;
 import com.xpn.xwiki.objects.BaseObject;
 import com.xpn.xwiki.objects.classes.BaseClass;
+import com.xwiki.ldapuserimport.LDAPResultHandler;
+import com.xwiki.ldapuserimport.LDAPSyncReportManager;
 import com.xwiki.ldapuserimport.LDAPUserImportConfiguration;
+import com.xwiki.ldapuserimport.LDAPUserImportConfiguration.SyncHistoryPolicy;
 import com.xwiki.ldapuserimport.LDAPUserImportManager;
+import com.xwiki.ldapuserimport.SyncRunReport;
+import com.xwiki.ldapuserimport.internal.metrics.LDAPMetrics;
 
 import static com.xwiki.ldapuserimport.internal.XWikiLDAPUtilsHelper.CN;
 import static com.xwiki.ldapuserimport.internal.XWikiLDAPUtilsHelper.LDAP_BASE_DN;
@@ -96,6 +116,12 @@ public class DefaultLDAPUserImportManager implements LDAPUserImportManager
 
     private static final String USERNAME = "username";
 
+    private static final String SPILL_DIRECTORY = "ldapuserimport";
+
+    private static final char SPILL_SEPARATOR = '\t';
+
+    private static final int MAX_GROUP_CHANGES = 500;
+
     private static final Map<String, String> DEFAULT_LDAP_FIELDS_MAPPING = new HashMap<String, String>()
     {
         {
@@ -121,6 +147,26 @@ public class DefaultLDAPUserImportManager implements LDAPUserImportManager
 
     private static final String FAILED_TO_GET_RESULTS = "Failed to get results";
 
+    private static final String EXISTS = "exists";
+
+    private static final String DESCRIPTION = "description";
+
+    private static final String XWIKI_GROUP = "xwikiGroup";
+
+    private static final String IS_ASSOCIATED = "isAssociated";
+
+    private static final List<String> USER_KEYS =
+        Arrays.asList(USER_PROFILE_URL_KEY, USER_PROFILE_KEY, USERNAME, EXISTS);
+
+    private static final LDAPResultSchema EXISTING_USER_SCHEMA =
+        LDAPResultSchema.create(Arrays.asList(USERNAME, USER_PROFILE_KEY));
+
+    private static final List<String> GROUP_KEYS = Arrays.asList(DN, XWIKI_GROUP, IS_ASSOCIATED);
+
+    private static final LDAPResultSchema GROUP_SCHEMA = LDAPResultSchema.create(GROUP_KEYS, CN, DESCRIPTION);
+
+    private static final LDAPResultSchema OU_SCHEMA = LDAPResultSchema.create(GROUP_KEYS, OU, DESCRIPTION);
+
     private static final DocumentReference OIDC_CLASS =
         new DocumentReference(XWiki.DEFAULT_MAIN_WIKI, Arrays.asList(XWiki.SYSTEM_SPACE, "OIDC"), "UserClass");
 
@@ -159,12 +205,79 @@ public class DefaultLDAPUserImportManager implements LDAPUserImportManager
     @Inject
     private XWikiLDAPFactory xWikiLDAPFactory;
 
+    @Inject
+    private LDAPPhotoSynchronizer photoSynchronizer;
+
+    @Inject
+    private LDAPMultiBaseSearcher multiBaseSearcher;
+
+    @Inject
+    private LDAPMetrics metrics;
+
+    @Inject
+    private LDAPSyncReportManager syncReportManager;
+
+    @Inject
+    private LDAPRateLimiter rateLimiter;
+
+    @Inject
+    private LDAPGroupUpdateCoordinator groupUpdateCoordinator;
+
+    @Inject
+    private LDAPGroupSyncDistributor groupSyncDistributor;
+
+    @Inject
+    private LDAPSyncCheckpointManager checkpointManager;
+
+    @Inject
+    private LDAPGroupSyncScheduler groupSyncScheduler;
+
+    @Inject
+    private LDAPSaveBatcher saveBatcher;
+
+    @Inject
+    private LDAPGroupShardManager groupShardManager;
+
+    @Inject
+    private Environment environment;
+
+    @Inject
+    private LDAPUserPrefetcher userPrefetcher;
+
+    @Inject
+    private LDAPNegativeCache negativeCache;
+
+    @Inject
+    private LDAPUserPageNameCache userPageNameCache;
+
+    /**
+     * Receives the members of the mapped LDAP groups.
+     */
+    @FunctionalInterface
+    private interface GroupMembersConsumer
+    {
+        /**
+         * @param members the members of a mapped LDAP group, as a pair of dn and uidAttribute
+         * @throws IOException if the members failed to be written to a temporary file
+         */
+        void accept(Map<String, String> members) throws IOException;
+    }
+
     /**
      * Get all the users that have the searched value contained in any of the provided fields value.
      */
     @Override
     public Map<String, Map<String, String>> getUsers(String singleField, String allFields,
         String searchInput, boolean isFullSearch) throws Exception
+    {
+        SortedMap<String, Map<String, String>> usersMap = new TreeMap<>();
+        getUsers(singleField, allFields, searchInput, isFullSearch, -1, usersMap::put);
+        return usersMap;
+    }
+
+    @Override
+    public int getUsers(String singleField, String allFields, String searchInput, boolean isFullSearch, int limit,
+        LDAPResultHandler handler) throws Exception
     {
         XWikiContext context = contextProvider.get();
         String currentWikiId = context.getWikiId();
@@ -172,14 +285,8 @@ public class DefaultLDAPUserImportManager implements LDAPUserImportManager
         context.setWikiId(context.getMainXWiki());
 
         XWikiLDAPConfig configuration = xwikiLDAPConfigProvider.get();
-        XWikiLDAPConnection connection = xWikiLDAPFactory.getLDAPConnection(configuration);
-        String loginDN = configuration.getLDAPBindDN();
-        String password = configuration.getLDAPBindPassword();
 
         try {
-            connection.open(loginDN, password, context);
-            String base = configuration.getLDAPParam(LDAP_BASE_DN, "");
-
             String[] attributeNameTable = getUserAttributes(configuration, DEFAULT_LDAP_FIELDS_MAPPING);
 
             String filter;
@@ -191,14 +298,13 @@ public class DefaultLDAPUserImportManager implements LDAPUserImportManager
                 filter = getUsersFilter(searchInput, attributeNameTable, configuration, isFullSearch);
             }
 
-            PagedLDAPSearchResults result =
-                connection.searchPaginated(base, LDAPConnection.SCOPE_SUB, filter, attributeNameTable, false);
-            if (result.hasMore()) {
-                return getUsers(configuration, connection, result, context);
-            } else {
-                logger.debug("There are no result for base dn: [{}], search scope: [{}], filter: [{}], fields: [{}]",
-                    base, LDAPConnection.SCOPE_SUB, filter, attributeNameTable);
+            List<LDAPSearchBase> searchBases = multiBaseSearcher.getSearchBases(configuration);
+            if (!searchBases.isEmpty()) {
+                // Each search base is searched on its own connection.
+                return handleUsers(configuration, searchBases, filter, attributeNameTable, context,
+                    getResultsLimit(limit), handler);
             }
+            return searchUsers(configuration, filter, attributeNameTable, context, getResultsLimit(limit), handler);
         } catch (XWikiLDAPException e) {
             logger.error(e.getFullMessage());
             throw e;
@@ -206,44 +312,45 @@ public class DefaultLDAPUserImportManager implements LDAPUserImportManager
             logger.error("Failed to search for value [{}] in the fields [{}]", searchInput, allFields, e);
             throw e;
         } finally {
-            connection.close();
             context.setWikiId(currentWikiId);
         }
-        return Collections.emptyMap();
     }
 
-    private Map<String, Map<String, String>> getUsers(XWikiLDAPConfig configuration, XWikiLDAPConnection connection,
-        PagedLDAPSearchResults result, XWikiContext context) throws Exception
+    private int searchUsers(XWikiLDAPConfig configuration, String filter, String[] attributeNameTable,
+        XWikiContext context, int limit, LDAPResultHandler handler) throws Exception
+    {
+        XWikiLDAPConnection connection = xWikiLDAPFactory.getLDAPConnection(configuration);
+        try {
+            connection.open(configuration.getLDAPBindDN(), configuration.getLDAPBindPassword(), context);
+            String base = configuration.getLDAPParam(LDAP_BASE_DN, "");
+            PagedLDAPSearchResults result =
+                connection.searchPaginated(base, LDAPConnection.SCOPE_SUB, filter, attributeNameTable, false);
+            if (result.hasMore()) {
+                return handleUsers(configuration, connection, result, context, limit, handler);
+            } else {
+                logger.debug("There are no result for base dn: [{}], search scope: [{}], filter: [{}], fields: [{}]",
+                    base, LDAPConnection.SCOPE_SUB, filter, attributeNameTable);
+            }
+        } finally {
+            connection.close();
+        }
+        return 0;
+    }
+
+    private int getResultsLimit(int limit)
+    {
+        return limit < 0 ? ldapUserImportConfiguration.getMaxUserImportWizardResults() : limit;
+    }
+
+    private int handleUsers(XWikiLDAPConfig configuration, XWikiLDAPConnection connection,
+        PagedLDAPSearchResults result, XWikiContext context, int limit, LDAPResultHandler handler) throws Exception
     {
         XWikiLDAPUtils ldapUtils = xWikiLDAPFactory.getLDAPUtils(connection, configuration);
-        LDAPEntry resultEntry = null;
+        int count = 0;
 
         try {
-            resultEntry = result.next();
-            if (resultEntry != null) {
-                Map<String, String> fieldsMap = getUserFieldsMap(configuration, DEFAULT_LDAP_FIELDS_MAPPING);
-                int maxDisplayedUsersNb = ldapUserImportConfiguration.getMaxUserImportWizardResults();
-                boolean hasMore;
-                Map<String, Map<String, String>> usersMap = new HashMap<>();
-                do {
-                    Map<String, String> user = getUserDetails(connection, fieldsMap, ldapUtils, context, resultEntry);
-                    if (!user.isEmpty()) {
-                        usersMap.put(user.get(UID), user);
-                    }
-                    hasMore = result.hasMore();
-                    resultEntry = hasMore ? result.next() : null;
-                } while (resultEntry != null && usersMap.size() < maxDisplayedUsersNb);
-                // Only do the sorting on the UI side when we have less results than the limit or exactly the limit.
-                // hasMore is false when usersMap.size() <= maxDisplayedUsersNb.
-                if (!hasMore) {
-                    SortedMap<String, Map<String, String>> sortedUsersMap = new TreeMap<>();
-                    for (String userId : usersMap.keySet()) {
-                        sortedUsersMap.put(userId, usersMap.get(userId));
-                    }
-                    return sortedUsersMap;
-                }
-                return usersMap;
-            } else {
+            LDAPEntry resultEntry = result.next();
+            if (resultEntry == null) {
                 /*
                  * For some weird reason result.hasMore() can be true before the first call to next() even if nothing is
                  * found.
@@ -251,6 +358,15 @@ public class DefaultLDAPUserImportManager implements LDAPUserImportManager
                 logger.debug("The LDAP request returned no result (hasMore() is true but first next() call "
                     + "returned nothing)");
             }
+            LDAPResultSchema schema = getUserSchema(configuration);
+            // Hand each user over as soon as it is read, so that only the current entry is kept in memory.
+            while (resultEntry != null && count < limit) {
+                metrics.countEntry(resultEntry);
+                if (handleUser(schema, configuration, ldapUtils, context, resultEntry, handler)) {
+                    count++;
+                }
+                resultEntry = count < limit && result.hasMore() ? result.next() : null;
+            }
         } catch (Exception e) {
             logger.error(FAILED_TO_GET_RESULTS, e);
             if (e instanceof LDAPReferralException) {
@@ -258,65 +374,256 @@ public class DefaultLDAPUserImportManager implements LDAPUserImportManager
             }
             throw e;
         }
-        return Collections.emptyMap();
+        return count;
+    }
+
+    /**
+     * The keys of the user search hits are shared by all the entries of a search: the fixed keys computed from the
+     * user profile followed by the requested LDAP attributes, renamed according to the fields mapping.
+     */
+    private LDAPResultSchema getUserSchema(XWikiLDAPConfig configuration)
+    {
+        List<String> ldapAttributes =
+            new ArrayList<>(Arrays.asList(getUserAttributes(configuration, DEFAULT_LDAP_FIELDS_MAPPING)));
+        // The DN is part of the attributes returned by XWikiLDAPUtils#searchUserAttributesByUid.
+        ldapAttributes.add(DN);
+        return LDAPResultSchema.create(USER_KEYS, ldapAttributes,
+            getUserFieldsMap(configuration, DEFAULT_LDAP_FIELDS_MAPPING));
     }
 
-    private Map<String, String> getUserDetails(XWikiLDAPConnection connection, Map<String, String> fieldsMap,
+    private int handleUsers(XWikiLDAPConfig configuration, List<LDAPSearchBase> searchBases, String filter,
+        String[] attributeNameTable, XWikiContext context, int limit, LDAPResultHandler handler) throws Exception
+    {
+        // The LDAP utils are only used to compute the user page names, which doesn't need a connection.
+        XWikiLDAPUtils ldapUtils = xWikiLDAPFactory.getLDAPUtils(null, configuration);
+        LDAPResultSchema schema = getUserSchema(configuration);
+        AtomicInteger count = new AtomicInteger();
+        if (limit > 0) {
+            multiBaseSearcher.search(searchBases, filter, attributeNameTable, limit, entry -> {
+                if (handleUser(schema, configuration, ldapUtils, context, entry, handler)) {
+                    count.incrementAndGet();
+                }
+                return count.get() < limit;
+            });
+        }
+        return count.get();
+    }
+
+    private boolean handleUser(LDAPResultSchema schema, XWikiLDAPConfig configuration, XWikiLDAPUtils ldapUtils,
+        XWikiContext context, LDAPEntry resultEntry, LDAPResultHandler handler) throws IOException
+    {
+        Map<String, String> user = getUserDetails(schema, configuration, ldapUtils, context, resultEntry);
+        if (!user.isEmpty()) {
+            handler.handle(user.get(UID), user);
+            return true;
+        }
+        return false;
+    }
+
+    private Map<String, String> getUserDetails(LDAPResultSchema schema, XWikiLDAPConfig configuration,
         XWikiLDAPUtils ldapUtils, XWikiContext context, LDAPEntry resultEntry)
     {
         String uidFieldValue = getAttributeValue(ldapUtils.getUidAttributeName(), resultEntry);
         if (StringUtils.isNoneBlank(uidFieldValue)) {
-            List<XWikiLDAPSearchAttribute> searchAttributeList = new ArrayList<>();
-            connection.ldapToXWikiAttribute(searchAttributeList, resultEntry.getAttributeSet());
-            String userPageName = ldapUtils.getUserPageName(searchAttributeList, context);
-            DocumentReference userReference =
-                new DocumentReference(XWiki.DEFAULT_MAIN_WIKI, XWiki.SYSTEM_SPACE, userPageName);
-            return getUserDetails(fieldsMap, searchAttributeList, userReference, context);
+            LDAPResultRecord.Builder user = LDAPResultRecord.builder(schema).setAttributes(resultEntry);
+            LDAPUserPageNameCache.UserPage userPage = userPageNameCache.getUserPage(ldapUtils, configuration,
+                getPageNameAttributes(schema, resultEntry), context);
+            return getUserDetails(user, userPage.getReference(), userPage.getSerializedReference(), context);
         }
         return Collections.emptyMap();
     }
 
-    private Map<String, String> getUserDetails(Map<String, String> fieldsMap, List<XWikiLDAPSearchAttribute> attributes,
-        DocumentReference userReference, XWikiContext context)
+    private List<XWikiLDAPSearchAttribute> getPageNameAttributes(LDAPResultSchema schema, LDAPEntry resultEntry)
+    {
+        // Only the requested attributes are available to the page name formatter, so there is no need to convert the
+        // whole attribute set of the entry. The value is selected as in the result record, so that the page name and
+        // the displayed fields agree on multi-valued attributes.
+        List<XWikiLDAPSearchAttribute> attributes = new ArrayList<>(schema.getLDAPAttributeCount());
+        for (int i = 0; i < schema.getLDAPAttributeCount(); i++) {
+            String name = schema.getLDAPAttribute(i);
+            String value = LDAPResultRecord.getValue(resultEntry.getAttribute(name));
+            if (value != null) {
+                attributes.add(new XWikiLDAPSearchAttribute(name, value));
+            }
+        }
+        return attributes;
+    }
+
+    private Map<String, String> getUserDetails(LDAPResultRecord.Builder user, DocumentReference userReference,
+        XWikiContext context)
+    {
+        return getUserDetails(user, userReference,
+            serializer.serialize(userReference, modelContext.getCurrentEntityReference()), context);
+    }
+
+    private Map<String, String> getUserDetails(LDAPResultRecord.Builder user, DocumentReference userReference,
+        String userProfile, XWikiContext context)
     {
-        Map<String, String> user = new HashMap<>();
         boolean userExists = false;
         try {
-            userExists = context.getWiki().exists(userReference, context);
+            userExists = exists(userReference, context);
         } catch (XWikiException e) {
             logger.error("An exception was thrown while checking if [{}] exists.", userReference);
             return Collections.emptyMap();
         }
         if (userExists) {
-            user.put(USER_PROFILE_URL_KEY, context.getWiki().getURL(userReference, context));
+            user.set(USER_PROFILE_URL_KEY, context.getWiki().getURL(userReference, context));
         }
-        user.put(USER_PROFILE_KEY, serializer.serialize(userReference, modelContext.getCurrentEntityReference()));
-        user.put(USERNAME, userReference.getName());
-        user.put("exists", Boolean.toString(userExists));
+        user.set(USER_PROFILE_KEY, userProfile);
+        user.set(USERNAME, userReference.getName());
+        user.set(EXISTS, Boolean.toString(userExists));
+        return user.build().asMap();
+    }
 
-        for (XWikiLDAPSearchAttribute attribute : attributes) {
-            String value = attribute.value;
-            String name = attribute.name;
-            if (fieldsMap.containsKey(name)) {
-                user.put(fieldsMap.get(name), value);
-            } else {
-                user.put(name, value);
+    private boolean exists(DocumentReference reference, XWikiContext context) throws XWikiException
+    {
+        try (LDAPMetrics.Sample sample = metrics.start(LDAPMetrics.WIKI_EXISTS)) {
+            return context.getWiki().exists(reference, context);
+        }
+    }
+
+    private XWikiDocument getDocument(DocumentReference reference, XWikiContext context) throws XWikiException
+    {
+        try (LDAPMetrics.Sample sample = metrics.start(LDAPMetrics.WIKI_GET_DOCUMENT)) {
+            return context.getWiki().getDocument(reference, context);
+        }
+    }
+
+    private XWikiDocument getDocument(String reference, XWikiContext context) throws XWikiException
+    {
+        try (LDAPMetrics.Sample sample = metrics.start(LDAPMetrics.WIKI_GET_DOCUMENT)) {
+            return context.getWiki().getDocument(reference, context);
+        }
+    }
+
+    private void saveDocument(XWikiDocument document, XWikiContext context) throws XWikiException
+    {
+        try (LDAPMetrics.Sample sample = metrics.start(LDAPMetrics.WIKI_SAVE_DOCUMENT)) {
+            context.getWiki().saveDocument(document, context);
+        }
+    }
+
+    private void saveDocument(XWikiDocument document, String comment, XWikiContext context) throws XWikiException
+    {
+        try (LDAPMetrics.Sample sample = metrics.start(LDAPMetrics.WIKI_SAVE_DOCUMENT)) {
+            context.getWiki().saveDocument(document, comment, context);
+        }
+    }
+
+    /**
+     * Save a document changed by LDAP User Import, recording the change in the history of the document according to
+     * the configured policy.
+     *
+     * @param document the document to save
+     * @param comment the comment of the change, or {@code null} for none
+     * @param context the XWiki context
+     * @throws XWikiException in case of exception
+     */
+    private void saveSyncDocument(XWikiDocument document, String comment, XWikiContext context)
+        throws XWikiException
+    {
+        SyncHistoryPolicy historyPolicy = ldapUserImportConfiguration.getSyncHistoryPolicy();
+        if (historyPolicy == SyncHistoryPolicy.NO_VERSION && !document.isNew()) {
+            try (LDAPMetrics.Sample sample = metrics.start(LDAPMetrics.WIKI_SAVE_DOCUMENT)) {
+                saveBatcher.saveWithoutVersion(document, comment, context);
             }
+        } else if (historyPolicy == SyncHistoryPolicy.MINOR_VERSION || historyPolicy == SyncHistoryPolicy.NO_VERSION) {
+            try (LDAPMetrics.Sample sample = metrics.start(LDAPMetrics.WIKI_SAVE_DOCUMENT)) {
+                context.getWiki().saveDocument(document, StringUtils.defaultString(comment), true, context);
+            }
+        } else if (comment == null) {
+            saveDocument(document, context);
+        } else {
+            saveDocument(document, comment, context);
         }
-        return user;
     }
 
-    private String getAttributeValue(String fieldName, LDAPEntry resultEntry)
+    /**
+     * Delete the oldest versions of a group updated by LDAP User Import, according to the configured history size.
+     *
+     * @param groupDoc the group document
+     * @param context the XWiki context
+     */
+    private void compactGroupHistory(XWikiDocument groupDoc, XWikiContext context)
     {
-        String value = "";
-        if (resultEntry.getAttribute(fieldName) != null) {
-            value = resultEntry.getAttribute(fieldName).getStringValue();
+        int historySize = ldapUserImportConfiguration.getGroupHistorySize();
+        if (historySize > 0) {
+            try {
+                Version[] versions = groupDoc.getRevisions(context);
+                // Nothing to delete while the history is not longer than the configured size.
+                int deletedVersions = versions.length - historySize;
+                if (deletedVersions > 0) {
+                    String lastDeletedVersion = versions[deletedVersions - 1].toString();
+                    context.getWiki().deleteDocumentVersions(groupDoc, versions[0].toString(), lastDeletedVersion,
+                        context);
+                    logger.debug("Deleted the versions [{}] to [{}] of the group [{}].", versions[0],
+                        lastDeletedVersion, groupDoc.getDocumentReference());
+                }
+            } catch (XWikiException e) {
+                logger.warn("Failed to delete the oldest versions of the group [{}]. Root cause: [{}]",
+                    groupDoc.getDocumentReference(), ExceptionUtils.getRootCauseMessage(e));
+            }
         }
-        return value;
+    }
+
+    private XWikiDocument syncUser(XWikiLDAPUtils ldapUtils, XWikiDocument userProfile,
+        List<XWikiLDAPSearchAttribute> attributes, String userDN, String uid, XWikiContext context)
+        throws XWikiException
+    {
+        try (LDAPMetrics.Sample sample = metrics.start(LDAPMetrics.LDAP_SYNC_USER)) {
+            return ldapUtils.syncUser(userProfile, attributes, userDN, uid, context);
+        }
+    }
+
+    private String getAttributeValue(String fieldName, List<XWikiLDAPSearchAttribute> attributes)
+    {
+        if (attributes != null) {
+            for (XWikiLDAPSearchAttribute attribute : attributes) {
+                if (fieldName.equals(attribute.name)) {
+                    return attribute.value;
+                }
+            }
+        }
+        return null;
+    }
+
+    private String getAttributeValue(String fieldName, LDAPEntry resultEntry)
+    {
+        String value = LDAPResultRecord.getValue(resultEntry.getAttribute(fieldName));
+        return value != null ? value : "";
     }
 
     @Override
     public Map<String, Map<String, String>> importUsers(String[] usersList, String groupName) throws Exception
+    {
+        SortedMap<String, Map<String, String>> users = new TreeMap<>();
+        importUsers(usersList, groupName, users::put);
+        return users;
+    }
+
+    @Override
+    public int importUsers(String[] usersList, String groupName, LDAPResultHandler handler) throws Exception
+    {
+        List<DocumentReference> photoUsers = new ArrayList<>();
+        // The users were explicitly selected, they are searched again even if they were recently not found.
+        int importedUsers = importUsers(usersList, groupName, false, photoUsers, handler);
+        photoSynchronizer.schedule(photoUsers, contextProvider.get().getWikiId());
+        return importedUsers;
+    }
+
+    /**
+     * Import the selected users, leaving the synchronization of their LDAP photo to a later stage.
+     *
+     * @param usersList the list of users to be imported
+     * @param groupName the group to add users in
+     * @param skipUnknownUsers {@code true} to skip the users recently not found in LDAP
+     * @param photoUsers collects the imported users whose LDAP photo should be synchronized afterwards
+     * @param handler the handler receiving the imported user profiles and URLs
+     * @return the number of imported users
+     * @throws Exception in case of exceptions
+     */
+    private int importUsers(String[] usersList, String groupName, boolean skipUnknownUsers,
+        List<DocumentReference> photoUsers, LDAPResultHandler handler) throws Exception
     {
         if (usersList.length > 0) {
             XWikiContext context = contextProvider.get();
@@ -325,50 +632,148 @@ public class DefaultLDAPUserImportManager implements LDAPUserImportManager
             context.setWikiId(context.getMainXWiki());
 
             XWikiLDAPConfig configuration = xwikiLDAPConfigProvider.get();
+            boolean updatePhotos = photoSynchronizer.detachPhotoUpdate(configuration);
             XWikiLDAPConnection connection = xWikiLDAPFactory.getLDAPConnection(configuration);
             XWikiLDAPUtils ldapUtils = xWikiLDAPFactory.getLDAPUtils(connection, configuration);
 
             try {
                 connection.open(configuration.getLDAPBindDN(), configuration.getLDAPBindPassword(), context);
 
-                SortedMap<String, Map<String, String>> users = new TreeMap<>();
+                List<String> userProfiles = new ArrayList<>();
 
                 String[] attributeNameTable = getUserAttributes(configuration, DEFAULT_LDAP_FIELDS_MAPPING);
-                Map<String, String> fieldsMap = getUserFieldsMap(configuration, DEFAULT_LDAP_FIELDS_MAPPING);
-                for (String user : usersList) {
-                    try {
-                        List<XWikiLDAPSearchAttribute> attributes =
-                            ldapUtils.searchUserAttributesByUid(user, attributeNameTable);
-                        XWikiDocument userDoc =
-                            ldapUtils.syncUser(null, attributes, ldapUtils.searchUserDNByUid(user), user, context);
-
-                        // Make sure to get the latest version of the document, after LDAP synchronization.
-                        userDoc = context.getWiki().getDocument(userDoc.getDocumentReference(), context);
-                        addOIDCObject(userDoc, user, context);
-
-                        Map<String, String> userMap =
-                            getUserDetails(fieldsMap, attributes, userDoc.getDocumentReference(), context);
-
-                        users.put(user, userMap);
-                    } catch (XWikiException e) {
-                        logger.error("The ldap user [{}] could not be imported in XWiki.", user, e);
-                    } catch (Exception e) {
-                        logger.error("Failed to import user [{}] from ldap to xwiki.", user, e);
+                LDAPResultSchema schema = getUserSchema(configuration);
+                List<LDAPSearchBase> searchBases = multiBaseSearcher.getSearchBases(configuration);
+                LDAPSyncCheckpoint checkpoint = checkpointManager.getCurrent();
+                List<String> userIds =
+                    skipUnknownUsers ? getKnownUsers(Arrays.asList(usersList)) : Arrays.asList(usersList);
+                // The LDAP data of the next users is read while the current users are saved. The users are saved in
+                // grouped database transactions, and reported once committed.
+                try (LDAPUserPrefetcher.Prefetch prefetch =
+                    userPrefetcher.prefetch(userIds, configuration, ldapUtils, attributeNameTable);
+                    LDAPSaveBatcher.Batch batch = saveBatcher.open()) {
+                    for (String user : userIds) {
+                        if (checkpoint != null) {
+                            // Stop at a user boundary once the time budget of the synchronization is exhausted.
+                            checkpoint.checkBudget();
+                        }
+                        LDAPUserPrefetcher.LDAPUserData userData = prefetch.next();
+                        batch.submit(
+                            () -> importUser(userData, ldapUtils, attributeNameTable, schema, searchBases, context),
+                            importedUser -> {
+                                if (updatePhotos) {
+                                    photoUsers.add(importedUser.getKey());
+                                }
+                                userProfiles.add(importedUser.getValue().get(USER_PROFILE_KEY));
+                                handle(handler, user, importedUser.getValue());
+                                if (checkpoint != null) {
+                                    checkpoint.markUserDone(user);
+                                }
+                            }, e -> onImportFailure(user, e));
                     }
+                } catch (UncheckedIOException e) {
+                    throw e.getCause();
                 }
 
-                addUsersInGroup(groupName, users);
+                addUsersInGroup(groupName, userProfiles);
 
-                return users;
+                return userProfiles.size();
             } catch (XWikiException e) {
                 logger.error(e.getFullMessage());
                 throw e;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw e;
             } finally {
                 connection.close();
                 context.setWikiId(currentWikiId);
             }
         }
-        return Collections.emptyMap();
+        return 0;
+    }
+
+    private Pair<DocumentReference, Map<String, String>> importUser(LDAPUserPrefetcher.LDAPUserData userData,
+        XWikiLDAPUtils ldapUtils, String[] attributeNameTable, LDAPResultSchema schema,
+        List<LDAPSearchBase> searchBases, XWikiContext context) throws Exception
+    {
+        String user = userData.getUid();
+        List<XWikiLDAPSearchAttribute> attributes = getAttributes(userData);
+        String userDN;
+        if ((attributes == null || attributes.isEmpty()) && !searchBases.isEmpty()) {
+            // The user was found in one of the additional search bases.
+            attributes = multiBaseSearcher.searchUserAttributesByUid(searchBases, user, attributeNameTable);
+            userDN = getAttributeValue(DN, attributes);
+        } else {
+            userDN = userData.getDN();
+        }
+        if (attributes == null || attributes.isEmpty()) {
+            negativeCache.addUnknownUser(user);
+        } else {
+            // The user may have been added to LDAP since it was last searched.
+            negativeCache.removeUnknownUser(user);
+        }
+        XWikiDocument userDoc = syncUser(ldapUtils, null, attributes, userDN, user, context);
+
+        // Make sure to get the latest version of the document, after LDAP synchronization.
+        userDoc = getDocument(userDoc.getDocumentReference(), context);
+        addOIDCObject(userDoc, user, context);
+
+        return Pair.of(userDoc.getDocumentReference(),
+            getUserDetails(LDAPResultRecord.builder(schema).setAttributes(attributes),
+                userDoc.getDocumentReference(), context));
+    }
+
+    /**
+     * @param users the identifiers of the users to import or synchronize
+     * @return the users which were not recently found missing in LDAP
+     */
+    private List<String> getKnownUsers(Collection<String> users)
+    {
+        List<String> knownUsers = new ArrayList<>(users.size());
+        for (String user : users) {
+            if (negativeCache.isUnknownUser(user)) {
+                logger.debug("Skipping the LDAP user [{}], which was recently not found.", user);
+            } else {
+                knownUsers.add(user);
+            }
+        }
+        return knownUsers;
+    }
+
+    private List<XWikiLDAPSearchAttribute> getAttributes(LDAPUserPrefetcher.LDAPUserData userData) throws Exception
+    {
+        try {
+            return userData.getAttributes();
+        } catch (Exception e) {
+            if (LDAPNegativeCache.isReferral(e)) {
+                // The user is in another directory, the next searches would fail the same way.
+                negativeCache.addUnknownUser(userData.getUid());
+            }
+            throw e;
+        }
+    }
+
+    private void onImportFailure(String user, Exception e)
+    {
+        // The failures are counted where they happen, the users skipped on purpose are not failures.
+        metrics.count(LDAPMetrics.USER_FAILURES, 1);
+        if (e instanceof LDAPCircuitOpenException) {
+            // The LDAP server is unavailable, the remaining users would fail the same way.
+            throw (LDAPCircuitOpenException) e;
+        } else if (e instanceof XWikiException) {
+            logger.error("The ldap user [{}] could not be imported in XWiki.", user, e);
+        } else {
+            logger.error("Failed to import user [{}] from ldap to xwiki.", user, e);
+        }
+    }
+
+    private void handle(LDAPResultHandler handler, String user, Map<String, String> userMap)
+    {
+        try {
+            handler.handle(user, userMap);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
     /**
@@ -385,7 +790,7 @@ public class DefaultLDAPUserImportManager implements LDAPUserImportManager
     private void addOIDCObject(XWikiDocument userDoc, String subject, XWikiContext context) throws Exception
     {
         boolean addOIDCObj = ldapUserImportConfiguration.getAddOIDCObject();
-        boolean oIDCClassExists = context.getWiki().exists(OIDC_CLASS, context);
+        boolean oIDCClassExists = exists(OIDC_CLASS, context);
         if (addOIDCObj && oIDCClassExists) {
             try {
                 BaseObject oIDCObj = userDoc.getXObject(OIDC_CLASS, true, context);
@@ -393,7 +798,7 @@ public class DefaultLDAPUserImportManager implements LDAPUserImportManager
                 oIDCObj.setStringValue("subject", subject);
                 oIDCObj.setStringValue("issuer", ldapUserImportConfiguration.getOIDCIssuer());
                 if (!oIDCObj.equals(clonedOIDCObject)) {
-                    context.getWiki().saveDocument(userDoc, "OIDC user object added.", context);
+                    saveSyncDocument(userDoc, "OIDC user object added.", context);
                 }
             } catch (XWikiException e) {
                 logger.error("Failed to attach OIDC object of [{}] type to the [{}] user profile.", OIDC_CLASS, userDoc,
@@ -409,18 +814,17 @@ public class DefaultLDAPUserImportManager implements LDAPUserImportManager
      * membership is compared to the LDAP group one.
      *
      * @param groupName the XWiki group
-     * @param users the list of users to be added in a group
+     * @param userProfiles the profiles of the users to be added in a group
      * @throws XWikiException in case of exception
      */
-    private void addUsersInGroup(String groupName, Map<String, Map<String, String>> users) throws Exception
+    private void addUsersInGroup(String groupName, List<String> userProfiles) throws Exception
     {
         if (StringUtils.isNoneBlank(groupName)) {
             XWikiContext context = contextProvider.get();
             DocumentReference groupReference = documentReferenceResolver.resolve(groupName);
-            XWikiDocument groupDocument = context.getWiki().getDocument(groupReference, context);
+            XWikiDocument groupDocument = getDocument(groupReference, context);
             boolean shouldSave = false;
-            for (Entry<String, Map<String, String>> user : users.entrySet()) {
-                String userFullName = user.getValue().get(USER_PROFILE_KEY);
+            for (String userFullName : userProfiles) {
                 if (!context.getWiki().getUser(userFullName, context).isUserInGroup(groupName)) {
                     BaseObject memberObject = groupDocument.newXObject(GROUP_CLASS_REFERENCE, context);
                     memberObject.setStringValue(MEMBER, userFullName);
@@ -428,7 +832,7 @@ public class DefaultLDAPUserImportManager implements LDAPUserImportManager
                 }
             }
             if (shouldSave) {
-                context.getWiki().saveDocument(groupDocument, "Added users to group by LDAP User Import", context);
+                saveSyncDocument(groupDocument, "Added users to group by LDAP User Import", context);
             }
         }
     }
@@ -502,6 +906,23 @@ public class DefaultLDAPUserImportManager implements LDAPUserImportManager
      * @throws Exception in case of error while accessing the members or their case-sensitive values
      */
     private Map<String, String> getGroupMembers(String xWikiGroupName, boolean caseSensitive) throws Exception
+    {
+        Map<String, String> members = new HashMap<>();
+        getGroupMembers(xWikiGroupName, caseSensitive, members::putAll);
+        return members;
+    }
+
+    /**
+     * Get members of an LDAP group, knowing the associated XWiki Group, one mapped LDAP group at a time.
+     *
+     * @param xWikiGroupName XWiki Group name
+     * @param caseSensitive {@code true} if the resulted values should respect the defined case-sensitive values, or
+     *     {@code false} if lowercase values will be used
+     * @param consumer receives the members of each mapped LDAP group, as a pair of dn and uidAttribute
+     * @throws Exception in case of error while accessing the members or their case-sensitive values
+     */
+    private void getGroupMembers(String xWikiGroupName, boolean caseSensitive, GroupMembersConsumer consumer)
+        throws Exception
     {
         XWikiContext context = contextProvider.get();
         String currentWikiId = context.getWikiId();
@@ -525,19 +946,17 @@ public class DefaultLDAPUserImportManager implements LDAPUserImportManager
                     .collect(Collectors.toSet());
                 ldapGroupDNs.addAll(filters);
             }
-            Map<String, String> members = new HashMap<>();
             for (String ldapGroupDN : ldapGroupDNs) {
                 Map<String, String> groupMembers = ldapUtils.getGroupMembers(ldapGroupDN, context);
                 if (groupMembers == null) {
                     continue;
                 }
                 if (caseSensitive) {
-                    members.putAll(getGroupMembersCaseSensitive(groupMembers, ldapUtils));
+                    consumer.accept(getGroupMembersCaseSensitive(groupMembers, ldapUtils, connection, configuration));
                 } else {
-                    members.putAll(groupMembers);
+                    consumer.accept(groupMembers);
                 }
             }
-            return members;
         } catch (XWikiException e) {
             logger.error(e.getFullMessage());
             throw e;
@@ -552,96 +971,350 @@ public class DefaultLDAPUserImportManager implements LDAPUserImportManager
      *
      * @param groupMembers group members as a pair of dn and uidAttribute in lowercase
      * @param ldapUtils LDAP communication tool
+     * @param connection the LDAP connection, on which the searches are pipelined when possible
+     * @param configuration the LDAP configuration
      * @return the group members as a pair of case-sensitive dn and uidAttribute
+     * @throws LDAPException if the pipelined searches failed
      */
-    private Map<String, String> getGroupMembersCaseSensitive(Map<String, String> groupMembers, XWikiLDAPUtils ldapUtils)
+    private Map<String, String> getGroupMembersCaseSensitive(Map<String, String> groupMembers, XWikiLDAPUtils ldapUtils,
+        XWikiLDAPConnection connection, XWikiLDAPConfig configuration) throws LDAPException
     {
         logger.debug("Collect case-sensitive information for this group.");
-        Map<String, String> membersCaseSensitive = new HashMap<>();
+        // Skip the members recently not found, e.g. the stale or foreign-domain members of the group.
+        Map<String, String> members = new HashMap<>();
         for (Entry<String, String> member : groupMembers.entrySet()) {
+            if (!negativeCache.isUnknownMember(member.getKey()) && !negativeCache.isUnknownUser(member.getValue())) {
+                members.put(member.getKey(), member.getValue());
+            }
+        }
+        if (connection instanceof InstrumentedXWikiLDAPConnection && members.size() > 1) {
+            return getGroupMembersCaseSensitive(members, ldapUtils.getUidAttributeName(),
+                (InstrumentedXWikiLDAPConnection) connection, configuration);
+        }
+        Map<String, String> membersCaseSensitive = new HashMap<>();
+        for (Entry<String, String> member : members.entrySet()) {
             // Search for the exact values.
             List<XWikiLDAPSearchAttribute> attributes = ldapUtils.searchUserAttributesByUid(member.getValue(),
                 new String[] { ldapUtils.getUidAttributeName() });
 
+            XWikiLDAPSearchAttribute uidAttribute = null;
+            XWikiLDAPSearchAttribute dn = null;
             if (attributes != null) {
                 // Collect the case-sensitive values from the search response.
-                XWikiLDAPSearchAttribute uidAttribute =
+                uidAttribute =
                     attributes.stream().filter(entry -> entry.name.equals(ldapUtils.getUidAttributeName())).findFirst()
                         .orElse(null);
-                XWikiLDAPSearchAttribute dn =
-                    attributes.stream().filter(entry -> entry.name.equals(DN)).findFirst().orElse(null);
-                if (uidAttribute != null && dn != null) {
-                    membersCaseSensitive.put(dn.value, uidAttribute.value);
-                }
+                dn = attributes.stream().filter(entry -> entry.name.equals(DN)).findFirst().orElse(null);
+            }
+            if (uidAttribute != null && dn != null) {
+                membersCaseSensitive.put(dn.value, uidAttribute.value);
+            } else {
+                addUnknownMember(member);
             }
         }
 
         return membersCaseSensitive;
     }
 
+    /**
+     * Collect the case-sensitive values of the group members, pipelining the searches of the members on the
+     * connection.
+     */
+    private Map<String, String> getGroupMembersCaseSensitive(Map<String, String> groupMembers,
+        String uidAttributeName, InstrumentedXWikiLDAPConnection connection, XWikiLDAPConfig configuration)
+        throws LDAPException
+    {
+        List<Entry<String, String>> members = new ArrayList<>(groupMembers.entrySet());
+        List<String> filters = new ArrayList<>(members.size());
+        for (Entry<String, String> member : members) {
+            filters.add(XWikiLDAPUtilsHelper.getUserFilter(configuration, member.getValue()));
+        }
+        Map<Integer, LDAPException> failures = new HashMap<>();
+        List<LDAPEntry> entries = connection.searchEntries(configuration.getLDAPParam(LDAP_BASE_DN, ""), filters,
+            new String[] { uidAttributeName }, failures);
+
+        Map<String, String> membersCaseSensitive = new HashMap<>();
+        for (int i = 0; i < members.size(); i++) {
+            LDAPException failure = failures.get(i);
+            LDAPEntry entry = entries.get(i);
+            LDAPAttribute uidAttribute = entry != null ? entry.getAttribute(uidAttributeName) : null;
+            if (failure != null) {
+                logger.warn("Failed to search for the LDAP user [{}]. Root cause: [{}]", members.get(i).getValue(),
+                    ExceptionUtils.getRootCauseMessage(failure));
+                if (LDAPNegativeCache.isReferral(failure)) {
+                    addUnknownMember(members.get(i));
+                }
+            } else if (uidAttribute != null) {
+                membersCaseSensitive.put(entry.getDN(), uidAttribute.getStringValue());
+            } else {
+                addUnknownMember(members.get(i));
+            }
+        }
+        return membersCaseSensitive;
+    }
+
+    private void addUnknownMember(Entry<String, String> member)
+    {
+        logger.debug("The LDAP group member [{}] was not found, it won't be searched again for a while.",
+            member.getKey());
+        negativeCache.addUnknownMember(member.getKey());
+        negativeCache.addUnknownUser(member.getValue());
+    }
+
     @Override
     public boolean updateGroup(String xWikiGroupName) throws Exception
+    {
+        // Concurrent updates of the same group share a single synchronization run.
+        return groupUpdateCoordinator.update(xWikiGroupName, () -> synchronizeGroup(xWikiGroupName));
+    }
+
+    @Override
+    public boolean isGroupUpdateRunningElsewhere(String xWikiGroupName)
+    {
+        return groupUpdateCoordinator.isRunningElsewhere(xWikiGroupName);
+    }
+
+    private boolean synchronizeGroup(String xWikiGroupName) throws Exception
+    {
+        SyncRunReport report = new SyncRunReport(xWikiGroupName);
+        report.setStartDate(new Date());
+        metrics.attach(report);
+        // The synchronization leaves a share of the LDAP server to the interactive searches.
+        try (LDAPRateLimiter.Scope scope = rateLimiter.batch()) {
+            return updateGroup(xWikiGroupName, report);
+        } catch (Exception e) {
+            report.setError(ExceptionUtils.getRootCauseMessage(e));
+            throw e;
+        } finally {
+            metrics.detach();
+            report.setEndDate(new Date());
+            syncReportManager.saveReport(report);
+            // The reports are kept per node, the scheduler needs the synchronizations of the whole cluster.
+            groupSyncScheduler.recordSync(report);
+        }
+    }
+
+    private boolean updateGroup(String xWikiGroupName, SyncRunReport report) throws Exception
     {
         XWikiContext context = contextProvider.get();
         String currentWikiId = context.getWikiId();
         // Make sure to use the main wiki configuration source.
         context.setWikiId(context.getMainXWiki());
 
-        XWikiLDAPConfig configuration = xwikiLDAPConfigProvider.get();
-        XWikiLDAPConnection connection = xWikiLDAPFactory.getLDAPConnection(configuration);
-        XWikiLDAPUtils ldapUtils = xWikiLDAPFactory.getLDAPUtils(connection, configuration);
+        try {
+            XWikiLDAPConfig configuration = xwikiLDAPConfigProvider.get();
+            XWikiLDAPConnection connection = xWikiLDAPFactory.getLDAPConnection(configuration);
+            XWikiLDAPUtils ldapUtils = xWikiLDAPFactory.getLDAPUtils(connection, configuration);
 
+            int spillThreshold = ldapUserImportConfiguration.getMembershipSpillThreshold();
+            Path spillDirectory = environment.getTemporaryDirectory().toPath().resolve(SPILL_DIRECTORY);
+            try (LDAPSortedSpill ldapMembers = new LDAPSortedSpill(spillDirectory, spillThreshold)) {
+                // Get group members in case-sensitive since the uidAttribute value will be used for the page name.
+                // Retrieve all the ldap users that are part of the ldap groups mapped by the xwiki group.
+                Map<String, String> users;
+                try (LDAPMetrics.Sample sample = metrics.start(LDAPMetrics.PHASE + "getGroupMembers")) {
+                    users = getGroupMembers(xWikiGroupName, spillThreshold, ldapMembers);
+                }
+                if (users == null) {
+                    updateGroupInChunks(xWikiGroupName, ldapMembers, spillThreshold, spillDirectory, report,
+                        context, currentWikiId, configuration, connection, ldapUtils);
+                    return false;
+                }
+
+                Map<String, String> groupMembersMap = new HashMap<>();
+                List<DocumentReference> photoUsers = new ArrayList<>();
+                updateUsers(xWikiGroupName, users, groupMembersMap, photoUsers, report, context, currentWikiId,
+                    configuration, connection, ldapUtils);
+
+                try (LDAPMetrics.Sample sample = metrics.start(LDAPMetrics.PHASE + "synchronizeGroupMembership")) {
+                    synchronizeGroupMembership(xWikiGroupName, groupMembersMap, configuration, connection,
+                        ldapUtils, context, report);
+                }
+
+                // The photos are synchronized in the background, once the users and the group membership are up to
+                // date.
+                photoSynchronizer.schedule(photoUsers, currentWikiId);
+            }
+        } finally {
+            context.setWikiId(currentWikiId);
+        }
+        return false;
+    }
+
+    /**
+     * Get the LDAP members of a mapped group, in memory as long as they are not more than the spill threshold.
+     *
+     * @param spillThreshold the maximum number of members held in memory, or 0 for no limit
+     * @param ldapMembers receives the members, sorted in temporary files, when they are more than the spill threshold
+     * @return the members, as a pair of uidAttribute and dn, or {@code null} if they were too many and were added to
+     *     {@code ldapMembers} instead
+     */
+    private Map<String, String> getGroupMembers(String xWikiGroupName, int spillThreshold,
+        LDAPSortedSpill ldapMembers) throws Exception
+    {
+        Map<String, String> users = new HashMap<>();
+        AtomicBoolean spilled = new AtomicBoolean();
+        getGroupMembers(xWikiGroupName, true, members -> {
+            if (spilled.get()) {
+                addMembers(members, ldapMembers);
+            } else {
+                users.putAll(members);
+                if (spillThreshold > 0 && users.size() > spillThreshold) {
+                    // Too many members to hold them in memory.
+                    spilled.set(true);
+                    addMembers(users, ldapMembers);
+                    users.clear();
+                }
+            }
+        });
+        return spilled.get() ? null : users;
+    }
+
+    private void addMembers(Map<String, String> members, LDAPSortedSpill ldapMembers) throws IOException
+    {
+        for (Entry<String, String> member : members.entrySet()) {
+            ldapMembers.add(member.getKey() + SPILL_SEPARATOR + member.getValue());
+        }
+    }
+
+    /**
+     * Import or synchronize the given LDAP members of a mapped group.
+     *
+     * @param users the LDAP members, as a pair of dn and uidAttribute
+     * @param groupMembersMap collects the XWiki users matching the LDAP members
+     * @param photoUsers collects the users whose photo should be synchronized
+     */
+    private void updateUsers(String xWikiGroupName, Map<String, String> users, Map<String, String> groupMembersMap,
+        List<DocumentReference> photoUsers, SyncRunReport report, XWikiContext context, String currentWikiId,
+        XWikiLDAPConfig configuration, XWikiLDAPConnection connection, XWikiLDAPUtils ldapUtils) throws Exception
+    {
+        report.addCounter(SyncRunReport.MEMBERS, users.size());
         List<String> newUsersList = new ArrayList<>();
         Map<String, Map<String, String>> existingUsersMap = new HashMap<>();
-        Map<String, String> groupMembersMap = new HashMap<>();
-
-        // Get group members in case-sensitive since the uidAttribute value will be used for the page name.
-        // Retrieve all the ldap users that are part of the ldap groups mapped by the xwiki group.
-        Map<String, String> users = getGroupMembers(xWikiGroupName, true);
 
         // Fill in the list of new users to be imported, the map of existing users to be synchronized and the users that
         // are members of the current group to update the group membership (can contain non-LDAP users).
-        splitUsersList(context, ldapUtils, users, newUsersList, existingUsersMap, groupMembersMap);
+        try (LDAPMetrics.Sample sample = metrics.start(LDAPMetrics.PHASE + "splitUsersList")) {
+            splitUsersList(context, configuration, ldapUtils, users, newUsersList, existingUsersMap,
+                groupMembersMap);
+        }
+        report.addCounter(SyncRunReport.USERS_SKIPPED, users.size() - groupMembersMap.size());
 
         String[] newUsersArray = newUsersList.toArray(new String[newUsersList.size()]);
         // Call with null to not add users in group as the membership synch is done by synchronizeGroupMemberShip().
-        importUsers(newUsersArray, null);
+        try (LDAPMetrics.Sample sample = metrics.start(LDAPMetrics.PHASE + "importUsers")) {
+            int importedUsers = importUsers(newUsersArray, null, true, photoUsers, (uid, user) -> { });
+            report.addCounter(SyncRunReport.USERS_IMPORTED, importedUsers);
+        }
 
-        synchronizeUsers(xWikiGroupName, context, currentWikiId, configuration, connection, ldapUtils,
-            existingUsersMap);
+        try (LDAPMetrics.Sample sample = metrics.start(LDAPMetrics.PHASE + "synchronizeUsers")) {
+            int synchronizedUsers = synchronizeUsers(xWikiGroupName, context, currentWikiId, configuration,
+                connection, ldapUtils, existingUsersMap, photoUsers);
+            report.addCounter(SyncRunReport.USERS_SYNCHRONIZED, synchronizedUsers);
+        }
+    }
 
-        synchronizeGroupMembership(xWikiGroupName, groupMembersMap, configuration, connection, ldapUtils, context);
+    /**
+     * Same as {@link #updateGroup(String, SyncRunReport)}, for groups with more members than the spill threshold:
+     * the members are sorted in temporary files, the users are updated one chunk of members at a time, and the group
+     * membership is reconciled by merging the sorted LDAP members with the sorted XWiki members.
+     */
+    private void updateGroupInChunks(String xWikiGroupName, LDAPSortedSpill ldapMembers, int chunkSize,
+        Path spillDirectory, SyncRunReport report, XWikiContext context, String currentWikiId,
+        XWikiLDAPConfig configuration, XWikiLDAPConnection connection, XWikiLDAPUtils ldapUtils) throws Exception
+    {
+        try (LDAPSortedSpill groupMembers = new LDAPSortedSpill(spillDirectory, chunkSize)) {
+            int memberCount = 0;
+            Map<String, String> users = new HashMap<>();
+            Iterator<String> lines = ldapMembers.iterator();
+            while (lines.hasNext()) {
+                String line = lines.next();
+                int separator = line.lastIndexOf(SPILL_SEPARATOR);
+                users.put(line.substring(0, separator), line.substring(separator + 1));
+                if (users.size() >= chunkSize || !lines.hasNext()) {
+                    // The users of the previous chunk may have been synchronized from the current wiki.
+                    context.setWikiId(context.getMainXWiki());
+                    Map<String, String> groupMembersMap = new HashMap<>();
+                    List<DocumentReference> photoUsers = new ArrayList<>();
+                    updateUsers(xWikiGroupName, users, groupMembersMap, photoUsers, report, context, currentWikiId,
+                        configuration, connection, ldapUtils);
+                    for (String groupMember : groupMembersMap.keySet()) {
+                        groupMembers.add(groupMember);
+                    }
+                    memberCount += groupMembersMap.size();
+                    photoSynchronizer.schedule(photoUsers, currentWikiId);
+                    users.clear();
+                }
+            }
 
-        context.setWikiId(currentWikiId);
-        return false;
+            try (LDAPMetrics.Sample sample = metrics.start(LDAPMetrics.PHASE + "synchronizeGroupMembership")) {
+                synchronizeGroupMembership(xWikiGroupName, groupMembers, memberCount, spillDirectory, chunkSize,
+                    context, report);
+            }
+        }
     }
 
-    private void synchronizeUsers(String xWikiGroupName, XWikiContext context, String currentWikiId,
+    private int synchronizeUsers(String xWikiGroupName, XWikiContext context, String currentWikiId,
         XWikiLDAPConfig configuration, XWikiLDAPConnection connection, XWikiLDAPUtils ldapUtils,
-        Map<String, Map<String, String>> usersToSynchronizeMap) throws Exception
+        Map<String, Map<String, String>> usersToSynchronizeMap, List<DocumentReference> photoUsers) throws Exception
     {
+        AtomicInteger synchronizedUsers = new AtomicInteger();
         try {
             connection.open(configuration.getLDAPBindDN(), configuration.getLDAPBindPassword(), context);
             configuration.setFinalProperty("ldap_update_user", "1");
+            boolean updatePhotos = photoSynchronizer.detachPhotoUpdate(configuration);
 
-            for (Entry<String, Map<String, String>> userToSynchronize : usersToSynchronizeMap.entrySet()) {
-                try {
-                    String userId = userToSynchronize.getKey();
+            LDAPSyncCheckpoint checkpoint = checkpointManager.getCurrent();
+            String[] attributeNameTable = getUserAttributes(configuration, DEFAULT_LDAP_FIELDS_MAPPING);
+            List<String> userIds = new ArrayList<>();
+            for (String userId : usersToSynchronizeMap.keySet()) {
+                if (checkpoint != null && checkpoint.isUserDone(userId)) {
+                    // Already synchronized by the run interrupted by its time budget.
+                    synchronizedUsers.incrementAndGet();
+                } else {
+                    userIds.add(userId);
+                }
+            }
+            userIds = getKnownUsers(userIds);
+            // The LDAP data of the next users is read while the current users are saved. The users are saved in
+            // grouped database transactions, and counted once committed.
+            try (LDAPUserPrefetcher.Prefetch prefetch =
+                userPrefetcher.prefetch(userIds, configuration, ldapUtils, attributeNameTable);
+                LDAPSaveBatcher.Batch batch = saveBatcher.open()) {
+                for (String userId : userIds) {
+                    if (checkpoint != null) {
+                        checkpoint.checkBudget();
+                    }
+                    LDAPUserPrefetcher.LDAPUserData userData = prefetch.next();
                     DocumentReference userReference = new DocumentReference(XWiki.DEFAULT_MAIN_WIKI, XWiki.SYSTEM_SPACE,
-                        userToSynchronize.getValue().get(USERNAME));
-                    List<XWikiLDAPSearchAttribute> attributes =
-                        ldapUtils.searchUserAttributesByUid(userId,
-                            getUserAttributes(configuration, DEFAULT_LDAP_FIELDS_MAPPING));
-                    XWikiDocument userDoc = context.getWiki().getDocument(userReference, context);
-                    ldapUtils.syncUser(userDoc, attributes, ldapUtils.searchUserDNByUid(userId), userId, context);
-                    // Make sure to get the latest version of the document, after LDAP synchronization.
-                    userDoc = context.getWiki().getDocument(userReference, context);
-                    addOIDCObject(userDoc, userId, context);
-                } catch (Exception e) {
-                    logger.error("Failed to synchronize the ldap user [{}] to the already existing xwiki user [{}].",
-                        userToSynchronize.getKey(), userToSynchronize.getValue().get(USERNAME), e);
+                        usersToSynchronizeMap.get(userId).get(USERNAME));
+                    batch.submit(() -> synchronizeUser(userData, userReference, ldapUtils, context),
+                        synchronizedUser -> {
+                            if (updatePhotos) {
+                                photoUsers.add(synchronizedUser);
+                            }
+                            synchronizedUsers.incrementAndGet();
+                            if (checkpoint != null) {
+                                checkpoint.markUserDone(userId);
+                            }
+                        }, e -> {
+                            metrics.count(LDAPMetrics.USER_FAILURES, 1);
+                            if (e instanceof LDAPCircuitOpenException) {
+                                // The LDAP server is unavailable, the remaining users would fail the same way.
+                                throw (LDAPCircuitOpenException) e;
+                            }
+                            logger.error(
+                                "Failed to synchronize the ldap user [{}] to the already existing xwiki user [{}].",
+                                userId, userReference.getName(), e);
+                        });
                 }
             }
+            return synchronizedUsers.get();
+        } catch (LDAPSyncBudgetExhaustedException e) {
+            throw e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw e;
         } catch (Exception e) {
             logger.error("The user synchronization failed. An error occurred in communicating with the ldap server.",
                 e);
@@ -652,12 +1325,27 @@ public class DefaultLDAPUserImportManager implements LDAPUserImportManager
         }
     }
 
+    private DocumentReference synchronizeUser(LDAPUserPrefetcher.LDAPUserData userData,
+        DocumentReference userReference, XWikiLDAPUtils ldapUtils, XWikiContext context) throws Exception
+    {
+        List<XWikiLDAPSearchAttribute> attributes = getAttributes(userData);
+        if (attributes == null || attributes.isEmpty()) {
+            negativeCache.addUnknownUser(userData.getUid());
+        }
+        XWikiDocument userDoc = getDocument(userReference, context);
+        syncUser(ldapUtils, userDoc, attributes, userData.getDN(), userData.getUid(), context);
+        // Make sure to get the latest version of the document, after LDAP synchronization.
+        userDoc = getDocument(userReference, context);
+        addOIDCObject(userDoc, userData.getUid(), context);
+        return userReference;
+    }
+
     protected XWikiDocument getGroupDocument(String groupName, XWikiContext context) throws XWikiException
     {
         BaseClass groupClass = context.getWiki().getGroupClass(context);
 
         // Get document representing group
-        XWikiDocument groupDoc = context.getWiki().getDocument(groupName, context);
+        XWikiDocument groupDoc = getDocument(groupName, context);
         return groupDoc;
     }
 
@@ -671,7 +1359,7 @@ public class DefaultLDAPUserImportManager implements LDAPUserImportManager
             }
 
             // Save modifications
-            context.getWiki().saveDocument(groupDoc, context);
+            saveSyncDocument(groupDoc, null, context);
             logger.debug("Saving xwiki group [{}]", groupName);
         } catch (Exception e) {
             logger.error("Failed saving group [{}]", groupName, e);
@@ -699,8 +1387,8 @@ public class DefaultLDAPUserImportManager implements LDAPUserImportManager
     }
 
     private void synchronizeGroupMembership(String xWikiGroupName, Map<String, String> groupMembersMap,
-        XWikiLDAPConfig configuration, XWikiLDAPConnection connection, XWikiLDAPUtils ldapUtils, XWikiContext context)
-        throws Exception
+        XWikiLDAPConfig configuration, XWikiLDAPConnection connection, XWikiLDAPUtils ldapUtils, XWikiContext context,
+        SyncRunReport report) throws Exception
     {
         Map<String, Set<String>> groupMappings = configuration.getGroupMappings();
         // Filter the group mapping to update only the membership of the users in the current group.
@@ -710,23 +1398,31 @@ public class DefaultLDAPUserImportManager implements LDAPUserImportManager
         try {
 
             int nbUsers = 0;
-            int maxNbUsers = 500;
+            int maxNbUsers = MAX_GROUP_CHANGES;
             XWikiDocument groupDoc = getGroupDocument(xWikiGroupName, context);
             Set<String> usersNotInLDAPGroups = new HashSet<>();
+            long initialChanges = getMembershipChanges(report);
             synchronized (groupDoc) {
+                if (synchronizeGroupShards(groupDoc, groupMembersMap, context, report)) {
+                    return;
+                }
                 BaseClass groupClass = context.getWiki().getGroupClass(context);
                 // Clean the users that are already in the group.
                 updateGroupMembersMap(groupMembersMap, groupDoc, groupClass, usersNotInLDAPGroups);
                 nbUsers = addUsersToGroup(xWikiGroupName, groupMembersMap, context, groupDoc, nbUsers, maxNbUsers);
+                report.addCounter(SyncRunReport.MEMBERSHIPS_ADDED, groupMembersMap.size());
                 if (ldapUserImportConfiguration.getForceUserGroupMembershipUpdate()) {
                     nbUsers =
                         removeUsersFromGroup(xWikiGroupName, context, usersNotInLDAPGroups, groupDoc, groupClass,
                             nbUsers,
-                            maxNbUsers);
+                            maxNbUsers, report);
                 }
                 if (nbUsers > 0) {
                     saveGroupDocument(groupDoc, xWikiGroupName, context);
                 }
+                if (getMembershipChanges(report) > initialChanges) {
+                    compactGroupHistory(groupDoc, context);
+                }
             }
         } catch (XWikiException e) {
             logger.error(e.getFullMessage());
@@ -734,6 +1430,164 @@ public class DefaultLDAPUserImportManager implements LDAPUserImportManager
         }
     }
 
+    /**
+     * Same as {@link #synchronizeGroupMembership(String, Map, XWikiLDAPConfig, XWikiLDAPConnection, XWikiLDAPUtils,
+     * XWikiContext, SyncRunReport)}, with the XWiki users matching the LDAP members sorted in temporary files.
+     */
+    private void synchronizeGroupMembership(String xWikiGroupName, LDAPSortedSpill ldapMembers, int memberCount,
+        Path spillDirectory, int chunkSize, XWikiContext context, SyncRunReport report) throws Exception
+    {
+        XWikiDocument groupDoc = getGroupDocument(xWikiGroupName, context);
+        long initialChanges = getMembershipChanges(report);
+        synchronized (groupDoc) {
+            BaseClass groupClass = context.getWiki().getGroupClass(context);
+            try (LDAPSortedSpill groupMembers = new LDAPSortedSpill(spillDirectory, chunkSize)) {
+                List<BaseObject> memberObjects = groupDoc.getXObjects(groupClass.getDocumentReference());
+                if (memberObjects != null) {
+                    for (BaseObject memberObj : memberObjects) {
+                        String member = memberObj != null ? memberObj.getStringValue(MEMBER) : null;
+                        if (StringUtils.isNotEmpty(member)) {
+                            groupMembers.add(member);
+                        }
+                    }
+                }
+                if (synchronizeGroupShards(groupDoc, ldapMembers, memberCount, groupMembers, spillDirectory,
+                    chunkSize, context, report)) {
+                    return;
+                }
+
+                Predicate<String> removable = getRemovableMembers(context);
+                AtomicInteger groupChanges = new AtomicInteger();
+                LDAPSortedSpill.mergeJoin(ldapMembers.iterator(), groupMembers.iterator(), member -> {
+                    addUserToXWikiGroup(member, groupDoc, xWikiGroupName, context);
+                    report.addCounter(SyncRunReport.MEMBERSHIPS_ADDED, 1);
+                    if (groupChanges.incrementAndGet() % MAX_GROUP_CHANGES == 0) {
+                        saveGroupDocument(groupDoc, xWikiGroupName, context);
+                    }
+                }, member -> {
+                    BaseObject groupObj = groupDoc.getXObject(groupClass.getDocumentReference(), MEMBER, member);
+                    if (removable != null && groupObj != null && removable.test(member)) {
+                        groupDoc.removeXObject(groupObj);
+                        report.addCounter(SyncRunReport.MEMBERSHIPS_REMOVED, 1);
+                        if (groupChanges.incrementAndGet() % MAX_GROUP_CHANGES == 0) {
+                            saveGroupDocument(groupDoc, xWikiGroupName, context);
+                        }
+                    }
+                }, member -> { });
+                if (groupChanges.get() % MAX_GROUP_CHANGES > 0) {
+                    saveGroupDocument(groupDoc, xWikiGroupName, context);
+                }
+            }
+            if (getMembershipChanges(report) > initialChanges) {
+                compactGroupHistory(groupDoc, context);
+            }
+        }
+    }
+
+    /**
+     * Update the members of a group whose members are stored in sub-groups, sharding the group first if it reached
+     * the configured size.
+     *
+     * @return {@code false} if the members of the group are stored in the group document itself
+     */
+    private boolean synchronizeGroupShards(XWikiDocument groupDoc, Map<String, String> groupMembersMap,
+        XWikiContext context, SyncRunReport report) throws XWikiException
+    {
+        LDAPGroupShardManager.GroupSaver saver = getShardSaver(context);
+        List<DocumentReference> shards = groupShardManager.getShards(groupDoc);
+        if (shards.isEmpty() && isShardThresholdReached(groupMembersMap.size())) {
+            shards = groupShardManager.shard(groupDoc, groupMembersMap.size(), groupMembersMap::containsKey, saver,
+                context);
+        }
+        if (shards.isEmpty()) {
+            return false;
+        }
+
+        groupShardManager.synchronize(shards, groupMembersMap, getRemovableMembers(context), saver, report, context);
+        return true;
+    }
+
+    /**
+     * Same as {@link #synchronizeGroupShards(XWikiDocument, Map, XWikiContext, SyncRunReport)}, with the members
+     * sorted in temporary files.
+     */
+    private boolean synchronizeGroupShards(XWikiDocument groupDoc, LDAPSortedSpill ldapMembers, int memberCount,
+        LDAPSortedSpill groupMembers, Path spillDirectory, int chunkSize, XWikiContext context, SyncRunReport report)
+        throws IOException, XWikiException
+    {
+        LDAPGroupShardManager.GroupSaver saver = getShardSaver(context);
+        List<DocumentReference> shards = groupShardManager.getShards(groupDoc);
+        if (shards.isEmpty() && isShardThresholdReached(memberCount)) {
+            // Only the members of the group document itself are held in memory, which they already are.
+            Set<String> movedMembers = new HashSet<>();
+            LDAPSortedSpill.mergeJoin(ldapMembers.iterator(), groupMembers.iterator(), member -> { },
+                member -> { }, movedMembers::add);
+            shards = groupShardManager.shard(groupDoc, memberCount, movedMembers::contains, saver, context);
+        }
+        if (shards.isEmpty()) {
+            return false;
+        }
+
+        try (LDAPSortedSpill shardedMembers = new LDAPSortedSpill(spillDirectory, chunkSize)) {
+            Iterator<String> members = ldapMembers.iterator();
+            while (members.hasNext()) {
+                shardedMembers.add(LDAPGroupShardManager.toShardedLine(members.next(), shards.size()));
+            }
+            groupShardManager.synchronize(shards, shardedMembers.iterator(), getRemovableMembers(context), saver,
+                report, context);
+        }
+        return true;
+    }
+
+    /**
+     * The group document is saved whenever its members change, so the number of membership changes tells whether
+     * the group was saved, even when the saves don't create new versions (see {@link SyncHistoryPolicy#NO_VERSION}).
+     */
+    private static long getMembershipChanges(SyncRunReport report)
+    {
+        return report.getCounter(SyncRunReport.MEMBERSHIPS_ADDED)
+            + report.getCounter(SyncRunReport.MEMBERSHIPS_REMOVED);
+    }
+
+    private boolean isShardThresholdReached(int memberCount)
+    {
+        int shardThreshold = ldapUserImportConfiguration.getGroupShardThreshold();
+        return shardThreshold > 0 && memberCount >= shardThreshold;
+    }
+
+    private LDAPGroupShardManager.GroupSaver getShardSaver(XWikiContext context)
+    {
+        return (document, comment) -> {
+            saveSyncDocument(document, comment, context);
+            compactGroupHistory(document, context);
+        };
+    }
+
+    /**
+     * @return tells which members missing from the LDAP groups should be removed from the group, or {@code null} to
+     *     not remove members
+     */
+    private Predicate<String> getRemovableMembers(XWikiContext context) throws XWikiException
+    {
+        if (ldapUserImportConfiguration.getForceUserGroupMembershipUpdate()) {
+            LDAPProfileXClass ldapXClass = xWikiLDAPFactory.getLDAPProfileXClass(context);
+            return member -> isLDAPUser(member, ldapXClass, context);
+        }
+        return null;
+    }
+
+    private boolean isLDAPUser(String member, LDAPProfileXClass ldapXClass, XWikiContext context)
+    {
+        try {
+            XWikiDocument userProfile = getDocument(documentReferenceResolver.resolve(member), context);
+            return ldapXClass.getDn(userProfile) != null || ldapXClass.getUid(userProfile) != null;
+        } catch (XWikiException e) {
+            logger.warn("Failed to check if [{}] is an LDAP user, keeping it in the group. Root cause: [{}]", member,
+                ExceptionUtils.getRootCauseMessage(e));
+            return false;
+        }
+    }
+
     private int addUsersToGroup(String xWikiGroupName, Map<String, String> groupMembersMap, XWikiContext context,
         XWikiDocument groupDoc, int nbUsers, int maxNbUsers)
     {
@@ -754,15 +1608,15 @@ public class DefaultLDAPUserImportManager implements LDAPUserImportManager
     }
 
     private int removeUsersFromGroup(String xWikiGroupName, XWikiContext context, Set<String> usersNotInLDAPGroups,
-        XWikiDocument groupDoc, BaseClass groupClass, int nbUsers, int maxNbUsers) throws XWikiException
+        XWikiDocument groupDoc, BaseClass groupClass, int nbUsers, int maxNbUsers, SyncRunReport report)
+        throws XWikiException
     {
         // Remove the users that are part of the xwiki group but not of the ldap group. They were probably
         // removed from the ldap group.
         int groupUpdates = nbUsers;
         LDAPProfileXClass ldapXClass = xWikiLDAPFactory.getLDAPProfileXClass(context);
         for (String userNotInLDAPGroups : usersNotInLDAPGroups) {
-            XWikiDocument userProfile = context.getWiki()
-                .getDocument(documentReferenceResolver.resolve(userNotInLDAPGroups), context);
+            XWikiDocument userProfile = getDocument(documentReferenceResolver.resolve(userNotInLDAPGroups), context);
             // Do not remove non-ldap users.
             if (ldapXClass.getDn(userProfile) == null && ldapXClass.getUid(userProfile) == null) {
                 continue;
@@ -773,6 +1627,7 @@ public class DefaultLDAPUserImportManager implements LDAPUserImportManager
             if (groupObj != null) {
                 groupDoc.removeXObject(groupObj);
                 groupUpdates++;
+                report.addCounter(SyncRunReport.MEMBERSHIPS_REMOVED, 1);
             }
             if (groupUpdates >= maxNbUsers) {
                 groupUpdates = 0;
@@ -806,35 +1661,35 @@ public class DefaultLDAPUserImportManager implements LDAPUserImportManager
         }
     }
 
-    private void splitUsersList(XWikiContext context, XWikiLDAPUtils ldapUtils, Map<String, String> users,
-        List<String> usersToImportList, Map<String, Map<String, String>> usersToSynchronizeMap,
-        Map<String, String> groupMembersMap)
+    private void splitUsersList(XWikiContext context, XWikiLDAPConfig configuration, XWikiLDAPUtils ldapUtils,
+        Map<String, String> users, List<String> usersToImportList,
+        Map<String, Map<String, String>> usersToSynchronizeMap, Map<String, String> groupMembersMap)
     {
         for (Entry<String, String> entry : users.entrySet()) {
             String uidAttribute = entry.getValue();
             // Check if user exists to know if should be imported on synchronized, using the existing profile.
             List<XWikiLDAPSearchAttribute> searchAttributeList = new ArrayList<>();
             searchAttributeList.add(new XWikiLDAPSearchAttribute(ldapUtils.getUidAttributeName(), uidAttribute));
-            String userPageName = ldapUtils.getUserPageName(searchAttributeList, context);
+            LDAPUserPageNameCache.UserPage userPage =
+                userPageNameCache.getUserPage(ldapUtils, configuration, searchAttributeList, context);
 
-            DocumentReference userReference =
-                new DocumentReference(XWiki.DEFAULT_MAIN_WIKI, XWiki.SYSTEM_SPACE, userPageName);
+            DocumentReference userReference = userPage.getReference();
             boolean userExists = false;
             try {
-                userExists = context.getWiki().exists(userReference, context);
+                userExists = exists(userReference, context);
             } catch (XWikiException e) {
                 logger.error("Failed to check whether [{}] exists or not.", userReference);
                 continue;
             }
-            groupMembersMap.put(serializer.serialize(userReference, modelContext.getCurrentEntityReference()),
-                entry.getKey());
+            String userProfile = userPage.getSerializedReference();
+            groupMembersMap.put(userProfile, entry.getKey());
             if (!userExists) {
                 usersToImportList.add(uidAttribute);
             } else {
-                Map<String, String> user = new HashMap<>();
-                user.put(USERNAME, userPageName);
-                user.put(USER_PROFILE_KEY,
-                    serializer.serialize(userReference, modelContext.getCurrentEntityReference()));
+                Map<String, String> user = LDAPResultRecord.builder(EXISTING_USER_SCHEMA)
+                    .set(USERNAME, userPage.getName())
+                    .set(USER_PROFILE_KEY, userProfile)
+                    .build().asMap();
                 usersToSynchronizeMap.put(uidAttribute, user);
             }
         }
@@ -844,9 +1699,18 @@ public class DefaultLDAPUserImportManager implements LDAPUserImportManager
     public void updateGroups() throws Exception
     {
         if (ldapUserImportConfiguration.getTriggerGroupUpdate()) {
-            for (String xWikiGroupName : getXWikiMappedGroups()) {
-                updateGroup(xWikiGroupName);
-            }
+            // The mapped groups are shared between the cluster nodes.
+            groupSyncDistributor.updateGroups(getXWikiMappedGroups());
+        }
+    }
+
+    @Override
+    public void updateDueGroups() throws Exception
+    {
+        if (ldapUserImportConfiguration.getTriggerGroupUpdate()) {
+            // Only the groups whose change rate or freshness requires it are synchronized, and they are shared between
+            // the cluster nodes.
+            groupSyncDistributor.updateGroups(groupSyncScheduler.getDueGroups(getXWikiMappedGroups()));
         }
     }
 
@@ -860,6 +1724,15 @@ public class DefaultLDAPUserImportManager implements LDAPUserImportManager
     @Override
     public Map<String, Map<String, String>> getLDAPGroups(String searchInput, String xWikiGroupName,
         boolean isFullSearch, boolean isOUSearch) throws Exception
+    {
+        SortedMap<String, Map<String, String>> ldapGroups = new TreeMap<>();
+        getLDAPGroups(searchInput, xWikiGroupName, isFullSearch, isOUSearch, -1, ldapGroups::put);
+        return ldapGroups;
+    }
+
+    @Override
+    public int getLDAPGroups(String searchInput, String xWikiGroupName, boolean isFullSearch, boolean isOUSearch,
+        int limit, LDAPResultHandler handler) throws Exception
     {
         XWikiContext context = contextProvider.get();
         String currentWikiId = context.getWikiId();
@@ -867,76 +1740,69 @@ public class DefaultLDAPUserImportManager implements LDAPUserImportManager
         context.setWikiId(context.getMainXWiki());
 
         XWikiLDAPConfig configuration = xwikiLDAPConfigProvider.get();
-        XWikiLDAPConnection connection = xWikiLDAPFactory.getLDAPConnection(configuration);
-
-        Map<String, Map<String, String>> ldapGroups = new HashMap<>();
 
         try {
-            connection.open(configuration.getLDAPBindDN(), configuration.getLDAPBindPassword(), context);
             String filter = isOUSearch
                 ? XWikiLDAPUtilsHelper.getSearchFilter("organizationalUnit", searchInput, new String[] { OU },
                 isFullSearch) : getGroupsFilter(searchInput, configuration, isFullSearch);
-            String base = configuration.getLDAPParam(LDAP_BASE_DN, "");
+            String[] attributeNameTable = new String[] { isOUSearch ? OU : CN, DESCRIPTION };
 
-            String[] attributeNameTable = new String[] { isOUSearch ? OU : CN, "description" };
+            List<LDAPSearchBase> searchBases = multiBaseSearcher.getSearchBases(configuration);
+            if (!searchBases.isEmpty()) {
+                // Each search base is searched on its own connection.
+                return handleLDAPGroups(configuration, searchBases, filter, attributeNameTable, xWikiGroupName,
+                    isOUSearch, getResultsLimit(limit), handler);
+            }
+            return searchLDAPGroups(configuration, filter, attributeNameTable, xWikiGroupName, isOUSearch,
+                getResultsLimit(limit), handler, context);
+        } catch (XWikiLDAPException e) {
+            logger.error(e.getFullMessage());
+            throw e;
+        } catch (Exception e) {
+            logger.error("Failed to search for value [{}] in the fields [{}].", e);
+            throw e;
+        } finally {
+            context.setWikiId(currentWikiId);
+        }
+    }
 
+    private int searchLDAPGroups(XWikiLDAPConfig configuration, String filter, String[] attributeNameTable,
+        String xWikiGroupName, boolean isOUSearch, int limit, LDAPResultHandler handler, XWikiContext context)
+        throws Exception
+    {
+        XWikiLDAPConnection connection = xWikiLDAPFactory.getLDAPConnection(configuration);
+        try {
+            connection.open(configuration.getLDAPBindDN(), configuration.getLDAPBindPassword(), context);
+            String base = configuration.getLDAPParam(LDAP_BASE_DN, "");
             PagedLDAPSearchResults result =
                 connection.searchPaginated(base, LDAPConnection.SCOPE_SUB, filter, attributeNameTable, false);
             if (result.hasMore()) {
-                ldapGroups =
-                    getLDAPGroups(configuration, connection, result, context, xWikiGroupName, isFullSearch, isOUSearch);
+                return handleLDAPGroups(configuration, result, xWikiGroupName, isOUSearch, limit, handler);
             } else {
                 logger.debug("There are no result for base dn: [{}], search scope: [{}], filter: [{}], fields: [{}].",
                     base, LDAPConnection.SCOPE_SUB, filter, CN);
-                return null;
             }
-        } catch (XWikiLDAPException e) {
-            logger.error(e.getFullMessage());
-            throw e;
-        } catch (Exception e) {
-            logger.error("Failed to search for value [{}] in the fields [{}].", e);
-            throw e;
         } finally {
             connection.close();
-            context.setWikiId(currentWikiId);
         }
-        return ldapGroups;
+        return 0;
     }
 
-    private Map<String, Map<String, String>> getLDAPGroups(XWikiLDAPConfig configuration,
-        XWikiLDAPConnection connection, PagedLDAPSearchResults result, XWikiContext context, String xWikiGroupName,
-        boolean isFullSearch, boolean isOUSearch) throws Exception
+    private int handleLDAPGroups(XWikiLDAPConfig configuration, PagedLDAPSearchResults result,
+        String xWikiGroupName, boolean isOUSearch, int limit, LDAPResultHandler handler) throws Exception
     {
-        LDAPEntry resultEntry = null;
+        int count = 0;
 
         try {
-            resultEntry = result.next();
-            if (resultEntry != null) {
-                int maxDisplayedUsersNb = ldapUserImportConfiguration.getMaxUserImportWizardResults();
-                boolean hasMore;
-                Map<String, Map<String, String>> groupsMap = new HashMap<>();
-                Map<String, Set<String>> ldapGroupMapping = configuration.getGroupMappings();
-                do {
-                    Map<String, String> group =
-                        getLDAPGroupDetails(connection, xWikiGroupName, resultEntry, ldapGroupMapping);
-                    if (isOUSearch) {
-                        groupsMap.put(group.get(OU), group);
-                    } else {
-                        groupsMap.put(group.get(CN), group);
-                    }
-                    hasMore = result.hasMore();
-                    resultEntry = hasMore ? result.next() : null;
-                } while (resultEntry != null && groupsMap.size() < maxDisplayedUsersNb);
-                // Only do the sorting on the UI side when we have less results than the limit or exactly the limit.
-                // hasMore is false when groupsMap.size() <= maxDisplayedUsersNb.
-                if (!hasMore) {
-                    SortedMap<String, Map<String, String>> sortedGroupsMap = new TreeMap<>();
-                    for (String groupId : groupsMap.keySet()) {
-                        sortedGroupsMap.put(groupId, groupsMap.get(groupId));
-                    }
-                    return sortedGroupsMap;
-                }
-                return groupsMap;
+            LDAPEntry resultEntry = result.next();
+            Map<String, Set<String>> ldapGroupMapping = configuration.getGroupMappings();
+            LDAPResultSchema schema = isOUSearch ? OU_SCHEMA : GROUP_SCHEMA;
+            while (resultEntry != null && count < limit) {
+                metrics.countEntry(resultEntry);
+                Map<String, String> group = getLDAPGroupDetails(schema, xWikiGroupName, resultEntry, ldapGroupMapping);
+                handler.handle(group.get(isOUSearch ? OU : CN), group);
+                count++;
+                resultEntry = count < limit && result.hasMore() ? result.next() : null;
             }
         } catch (Exception e) {
             logger.error(FAILED_TO_GET_RESULTS, e);
@@ -945,21 +1811,32 @@ public class DefaultLDAPUserImportManager implements LDAPUserImportManager
             }
             throw e;
         }
-        return Collections.emptyMap();
+        return count;
     }
 
-    private Map<String, String> getLDAPGroupDetails(XWikiLDAPConnection connection, String xWikiGroupName,
-        LDAPEntry resultEntry, Map<String, Set<String>> groupMappings)
+    private int handleLDAPGroups(XWikiLDAPConfig configuration, List<LDAPSearchBase> searchBases, String filter,
+        String[] attributeNameTable, String xWikiGroupName, boolean isOUSearch, int limit,
+        LDAPResultHandler handler) throws Exception
     {
-        List<XWikiLDAPSearchAttribute> searchAttributeList = new ArrayList<>();
-        connection.ldapToXWikiAttribute(searchAttributeList, resultEntry.getAttributeSet());
-
-        Map<String, String> group = new HashMap<>();
-        for (XWikiLDAPSearchAttribute attribute : searchAttributeList) {
-            group.put(attribute.name, attribute.value);
+        Map<String, Set<String>> ldapGroupMapping = configuration.getGroupMappings();
+        LDAPResultSchema schema = isOUSearch ? OU_SCHEMA : GROUP_SCHEMA;
+        AtomicInteger count = new AtomicInteger();
+        if (limit > 0) {
+            multiBaseSearcher.search(searchBases, filter, attributeNameTable, limit, entry -> {
+                Map<String, String> group = getLDAPGroupDetails(schema, xWikiGroupName, entry, ldapGroupMapping);
+                handler.handle(group.get(isOUSearch ? OU : CN), group);
+                return count.incrementAndGet() < limit;
+            });
         }
+        return count.get();
+    }
+
+    private Map<String, String> getLDAPGroupDetails(LDAPResultSchema schema, String xWikiGroupName,
+        LDAPEntry resultEntry, Map<String, Set<String>> groupMappings)
+    {
+        LDAPResultRecord.Builder group = LDAPResultRecord.builder(schema).setAttributes(resultEntry);
         String ldapGroupDN = resultEntry.getDN();
-        group.put(DN, ldapGroupDN);
+        group.set(DN, ldapGroupDN);
         boolean isAssociated = false;
         if (StringUtils.isNotBlank(xWikiGroupName)) {
             if (groupMappings.get(xWikiGroupName) != null && groupMappings.get(xWikiGroupName).contains(ldapGroupDN)) {
@@ -973,13 +1850,13 @@ public class DefaultLDAPUserImportManager implements LDAPUserImportManager
                     isAssociated = true;
                     // Due to limitations to the return format of #getLDAPGroupDetails,
                     // we currently cannot return more than one group mapping.
-                    group.put("xwikiGroup", mapping.getKey());
+                    group.set(XWIKI_GROUP, mapping.getKey());
                 }
             }
         }
 
-        group.put("isAssociated", Boolean.toString(isAssociated));
-        return group;
+        group.set(IS_ASSOCIATED, Boolean.toString(isAssociated));
+        return group.build().asMap();
     }
 
     @Override
@@ -1000,7 +1877,7 @@ public class DefaultLDAPUserImportManager implements LDAPUserImportManager
 
             try {
 
-                XWikiDocument configSourceDoc = context.getWiki().getDocument(configSourceDocRef, context);
+                XWikiDocument configSourceDoc = getDocument(configSourceDocRef, context);
 
                 Set<String> ldapGroupsSetToAdd = new HashSet<String>(Arrays.asList(ldapGroupsArray));
                 Map<String, Set<String>> groupMapping = xwikiLDAPConfigProvider.get().getGroupMappings();
@@ -1034,8 +1911,7 @@ public class DefaultLDAPUserImportManager implements LDAPUserImportManager
 
                 preferencesObject.setLargeStringValue("ldap_group_mapping", groupMappingString);
 
-                context.getWiki().saveDocument(configSourceDoc,
-                    "Updated the LDAP group mapping by LDAP User Import app", context);
+                saveSyncDocument(configSourceDoc, "Updated the LDAP group mapping by LDAP User Import app", context);
                 return true;
             } catch (XWikiException e) {
                 logger.error("Failed to associate LDAP group to XWiki group", e);
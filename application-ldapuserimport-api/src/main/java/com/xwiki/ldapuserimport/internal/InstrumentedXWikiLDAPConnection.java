@@ -0,0 +1,451 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.ldapuserimport.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.xwiki.contrib.ldap.PagedLDAPSearchResults;
+import org.xwiki.contrib.ldap.XWikiLDAPConfig;
+import org.xwiki.contrib.ldap.XWikiLDAPConnection;
+import org.xwiki.contrib.ldap.XWikiLDAPException;
+import org.xwiki.contrib.ldap.XWikiLDAPSearchAttribute;
+
+import com.novell.ldap.LDAPConnection;
+import com.novell.ldap.LDAPEntry;
+import com.novell.ldap.LDAPException;
+import com.novell.ldap.LDAPMessage;
+import com.novell.ldap.LDAPResponse;
+import com.novell.ldap.LDAPSearchConstraints;
+import com.novell.ldap.LDAPSearchQueue;
+import com.novell.ldap.LDAPSearchResult;
+import com.novell.ldap.LDAPSearchResults;
+import com.novell.ldap.LDAPSearchResultReference;
+import com.xpn.xwiki.XWikiContext;
+import com.xwiki.ldapuserimport.internal.metrics.LDAPMetrics;
+
+/**
+ * An {@link XWikiLDAPConnection} recording the metrics of the binds and searches it performs, guarded by the
+ * {@link LDAPCircuitBreaker.Circuit circuit} of its LDAP server and throttled by the {@link LDAPRateLimiter}. When its
+ * LDAP server fails or becomes unavailable, the connection fails over to another replica (see
+ * {@link LDAPServerRouter}), binding again with the same credentials.
+ *
+ * @version $Id$
+ * @since 1.7.10
+ */
+public class InstrumentedXWikiLDAPConnection extends XWikiLDAPConnection
+{
+    private static final String DN = "dn";
+
+    /**
+     * The maximum number of pipelined searches waiting for their results.
+     */
+    private static final int PIPELINE_DEPTH = 64;
+
+    private final XWikiLDAPConfig configuration;
+
+    private final LDAPMetrics metrics;
+
+    private final LDAPCircuitBreaker circuitBreaker;
+
+    private final LDAPRateLimiter rateLimiter;
+
+    private final LDAPServerRouter router;
+
+    private LDAPCircuitBreaker.Circuit circuit;
+
+    private boolean opened;
+
+    /**
+     * Whether a guarded search is in progress on this connection, which is not shared between threads.
+     */
+    private boolean searching;
+
+    private String ldapUserName;
+
+    private String password;
+
+    private XWikiContext context;
+
+    /**
+     * An LDAP operation in progress.
+     */
+    private final class Call
+    {
+        private final LDAPCircuitBreaker.Circuit callCircuit;
+
+        private final String server;
+
+        private final long start;
+
+        private final LDAPRateLimiter.Permit permit;
+
+        private final boolean timed;
+
+        private Throwable failure;
+
+        Call()
+        {
+            this(true);
+        }
+
+        /**
+         * @param timed {@code false} if the duration of the operation doesn't reflect the latency of the server
+         */
+        Call(boolean timed)
+        {
+            // Fail fast (or fail over) if the server is unavailable, before waiting for the rate limiter.
+            long now;
+            try {
+                now = acquire(circuit);
+            } catch (LDAPCircuitOpenException e) {
+                if (!failOver()) {
+                    throw e;
+                }
+                now = acquire(circuit);
+            }
+            this.callCircuit = circuit;
+            this.server = XWikiLDAPUtilsHelper.getServer(configuration);
+            this.permit = rateLimiter != null ? rateLimiter.acquire() : null;
+            this.timed = timed;
+            this.start = now;
+        }
+
+        void end()
+        {
+            if (this.callCircuit != null) {
+                this.callCircuit.release(this.start, this.failure != null, this.timed);
+            }
+            if (rateLimiter != null) {
+                rateLimiter.release(this.permit, this.failure);
+            }
+            if (router != null && this.failure == null && this.timed) {
+                router.record(this.server, System.nanoTime() - this.start);
+            }
+        }
+    }
+
+    /**
+     * Receives the results of pipelined searches, see {@link #searchPipelined(String, List, String[],
+     * PipelinedSearchHandler)}.
+     *
+     * @version $Id$
+     */
+    public interface PipelinedSearchHandler
+    {
+        /**
+         * @param search the index of the search
+         * @param entry an entry found by the search
+         */
+        void onEntry(int search, LDAPEntry entry);
+
+        /**
+         * @param search the index of the search
+         * @param failure the reason why the search failed
+         */
+        void onFailure(int search, LDAPException failure);
+
+        /**
+         * @param search the index of the search
+         * @param referrals the URLs of the search result reference returned by the search, which is not followed
+         */
+        void onReferral(int search, String[] referrals);
+    }
+
+    /**
+     * @param configuration the LDAP configuration
+     * @param metrics the metrics to record the operations in
+     * @param circuitBreaker the circuit breaker of the LDAP servers, or {@code null} to always call the server
+     * @param rateLimiter the rate limiter of the LDAP operations, or {@code null} to not limit them
+     * @param router the router among the replicas of the LDAP server, or {@code null} to never fail over
+     */
+    public InstrumentedXWikiLDAPConnection(XWikiLDAPConfig configuration, LDAPMetrics metrics,
+        LDAPCircuitBreaker circuitBreaker, LDAPRateLimiter rateLimiter, LDAPServerRouter router)
+    {
+        super(configuration);
+        this.configuration = configuration;
+        this.metrics = metrics;
+        this.circuitBreaker = circuitBreaker;
+        this.rateLimiter = rateLimiter;
+        this.router = router;
+        this.circuit = circuitBreaker != null ? circuitBreaker.getCircuit(configuration) : null;
+    }
+
+    @Override
+    public boolean open(String ldapUserName, String password, XWikiContext context) throws XWikiLDAPException
+    {
+        Set<String> failedServers = new HashSet<>();
+        while (true) {
+            Call call = new Call();
+            try (LDAPMetrics.Sample sample = this.metrics.start(LDAPMetrics.LDAP_BIND)) {
+                boolean result = super.open(ldapUserName, password, context);
+                this.opened = true;
+                this.ldapUserName = ldapUserName;
+                this.password = password;
+                this.context = context;
+                return result;
+            } catch (XWikiLDAPException | RuntimeException e) {
+                call.failure = e;
+                failedServers.add(call.server);
+                if (!(e instanceof XWikiLDAPException) || !switchServer(failedServers)) {
+                    throw e;
+                }
+            } finally {
+                call.end();
+            }
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        this.opened = false;
+        super.close();
+    }
+
+    @Override
+    public PagedLDAPSearchResults searchPaginated(String base, int scope, String filter, String[] attrs,
+        boolean typesOnly) throws LDAPException
+    {
+        // Each page, including the first one, is requested through search(), where it is timed and guarded. The
+        // entries are counted by the callers as they read them.
+        return super.searchPaginated(base, scope, filter, attrs, typesOnly);
+    }
+
+    @Override
+    public LDAPSearchResults search(String base, int scope, String filter, String[] attrs, boolean typesOnly,
+        LDAPSearchConstraints constraints) throws LDAPException
+    {
+        if (this.searching) {
+            // Already guarded by the calling operation.
+            return super.search(base, scope, filter, attrs, typesOnly, constraints);
+        }
+        Call call = new Call();
+        this.searching = true;
+        try (LDAPMetrics.Sample sample = this.metrics.start(LDAPMetrics.LDAP_SEARCH_PAGE)) {
+            return super.search(base, scope, filter, attrs, typesOnly, constraints);
+        } catch (LDAPException | RuntimeException e) {
+            call.failure = e;
+            throw e;
+        } finally {
+            this.searching = false;
+            call.end();
+        }
+    }
+
+    @Override
+    public List<XWikiLDAPSearchAttribute> searchLDAP(String baseDN, String query, String[] attr, int ldapScope)
+    {
+        // The failures of this search are only logged by XWikiLDAPConnection, so mostly its latency is considered.
+        List<XWikiLDAPSearchAttribute> attributes;
+        Call call = new Call();
+        this.searching = true;
+        try (LDAPMetrics.Sample sample = this.metrics.start(LDAPMetrics.LDAP_SEARCH)) {
+            attributes = super.searchLDAP(baseDN, query, attr, ldapScope);
+        } catch (RuntimeException e) {
+            call.failure = e;
+            throw e;
+        } finally {
+            this.searching = false;
+            call.end();
+        }
+        if (attributes != null) {
+            long entries = 0;
+            long bytes = 0;
+            for (XWikiLDAPSearchAttribute attribute : attributes) {
+                if (DN.equals(attribute.name)) {
+                    entries++;
+                } else if (attribute.value != null) {
+                    bytes += attribute.value.length();
+                }
+            }
+            this.metrics.count(LDAPMetrics.LDAP_ENTRIES, entries);
+            this.metrics.count(LDAPMetrics.LDAP_BYTES, bytes);
+        }
+        return attributes;
+    }
+
+    /**
+     * Search the subtree of a base DN with several filters, sending the searches on this connection without waiting
+     * for the results of the previous ones, so that their round trips overlap. The results are handed to the handler as
+     * they arrive, in the calling thread, and the method returns once all the searches are done.
+     *
+     * @param base the base DN of the searches
+     * @param filters the filters of the searches
+     * @param attrs the attributes to retrieve
+     * @param handler receives the results of the searches
+     * @throws LDAPException if the searches could not be sent or their results could not be read
+     */
+    public void searchPipelined(String base, List<String> filters, String[] attrs, PipelinedSearchHandler handler)
+        throws LDAPException
+    {
+        // The searches share a single connection, so they are guarded like a single operation, but each one is
+        // subject to the rate limit. Their overall duration grows with their number, so it is not checked against
+        // the latency threshold of the circuit breaker.
+        Call call = new Call(false);
+        try (LDAPMetrics.Sample sample = this.metrics.start(LDAPMetrics.LDAP_SEARCH_PIPELINED)) {
+            LDAPConnection ldapConnection = getConnection();
+            LDAPSearchQueue queue = null;
+            Map<Integer, Integer> pendingSearches = new HashMap<>();
+            int sent = 0;
+            while (sent < filters.size() || !pendingSearches.isEmpty()) {
+                if (sent < filters.size() && pendingSearches.size() < PIPELINE_DEPTH) {
+                    if (sent > 0 && this.rateLimiter != null) {
+                        this.rateLimiter.acquireToken();
+                    }
+                    queue = ldapConnection.search(base, LDAPConnection.SCOPE_SUB, filters.get(sent), attrs, false,
+                        queue, (LDAPSearchConstraints) null);
+                    // The message of the new search is the only one of the queue not pending yet.
+                    for (int messageID : queue.getMessageIDs()) {
+                        pendingSearches.putIfAbsent(messageID, sent);
+                    }
+                    sent++;
+                } else {
+                    handleResponse(queue.getResponse(), pendingSearches, handler);
+                }
+            }
+        } catch (LDAPException | RuntimeException e) {
+            call.failure = e;
+            throw e;
+        } finally {
+            call.end();
+        }
+    }
+
+    /**
+     * Pipeline searches expected to find a single entry each, like the searches of users by identifier, see
+     * {@link #searchPipelined(String, List, String[], PipelinedSearchHandler)}.
+     *
+     * @param base the base DN of the searches
+     * @param filters the filters of the searches
+     * @param attrs the attributes to retrieve
+     * @param failures collects the failures of the searches, by search index, including the searches which found no
+     *     entry but returned a referral, since the referrals are not followed
+     * @return the first entry found by each search, {@code null} for the searches which found no entry
+     * @throws LDAPException if the searches could not be sent or their results could not be read
+     */
+    public List<LDAPEntry> searchEntries(String base, List<String> filters, String[] attrs,
+        Map<Integer, LDAPException> failures) throws LDAPException
+    {
+        List<LDAPEntry> entries = new ArrayList<>(Collections.nCopies(filters.size(), null));
+        Map<Integer, String[]> referrals = new HashMap<>();
+        searchPipelined(base, filters, attrs, new PipelinedSearchHandler()
+        {
+            @Override
+            public void onEntry(int search, LDAPEntry entry)
+            {
+                if (entries.get(search) == null) {
+                    entries.set(search, entry);
+                }
+            }
+
+            @Override
+            public void onFailure(int search, LDAPException failure)
+            {
+                failures.put(search, failure);
+            }
+
+            @Override
+            public void onReferral(int search, String[] urls)
+            {
+                referrals.put(search, urls);
+            }
+        });
+        for (Map.Entry<Integer, String[]> referral : referrals.entrySet()) {
+            if (entries.get(referral.getKey()) == null) {
+                failures.putIfAbsent(referral.getKey(), new LDAPException(
+                    LDAPException.resultCodeToString(LDAPException.REFERRAL), LDAPException.REFERRAL,
+                    "Referral to " + String.join(", ", referral.getValue())));
+            }
+        }
+        return entries;
+    }
+
+    private void handleResponse(LDAPMessage message, Map<Integer, Integer> pendingSearches,
+        PipelinedSearchHandler handler)
+    {
+        Integer search = pendingSearches.get(message.getMessageID());
+        if (search == null) {
+            return;
+        }
+        if (message instanceof LDAPSearchResult) {
+            LDAPEntry entry = ((LDAPSearchResult) message).getEntry();
+            this.metrics.countEntry(entry);
+            handler.onEntry(search, entry);
+        } else if (message instanceof LDAPSearchResultReference) {
+            // The search result references (referrals) are not followed, but reported.
+            handler.onReferral(search, ((LDAPSearchResultReference) message).getReferrals());
+        } else if (message instanceof LDAPResponse) {
+            // The search is done.
+            pendingSearches.remove(message.getMessageID());
+            LDAPResponse response = (LDAPResponse) message;
+            int resultCode = response.getResultCode();
+            if (resultCode != LDAPException.SUCCESS && resultCode != LDAPException.NO_SUCH_OBJECT) {
+                handler.onFailure(search, new LDAPException(LDAPException.resultCodeToString(resultCode), resultCode,
+                    response.getErrorMessage(), response.getMatchedDN()));
+            }
+        }
+    }
+
+    private static long acquire(LDAPCircuitBreaker.Circuit circuit)
+    {
+        return circuit != null ? circuit.acquire() : System.nanoTime();
+    }
+
+    private boolean switchServer(Set<String> excludedServers)
+    {
+        if (this.router != null && this.router.failOver(this.configuration, excludedServers)) {
+            this.circuit = this.circuitBreaker != null ? this.circuitBreaker.getCircuit(this.configuration) : null;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Move the connection to another replica, because its server is unavailable.
+     *
+     * @return {@code true} if the connection was moved
+     */
+    private boolean failOver()
+    {
+        Set<String> failedServers = new HashSet<>();
+        failedServers.add(XWikiLDAPUtilsHelper.getServer(this.configuration));
+        while (switchServer(failedServers)) {
+            if (!this.opened) {
+                return true;
+            }
+            try {
+                super.close();
+                if (super.open(this.ldapUserName, this.password, this.context)) {
+                    return true;
+                }
+            } catch (XWikiLDAPException e) {
+                // Try the next replica.
+            }
+            failedServers.add(XWikiLDAPUtilsHelper.getServer(this.configuration));
+        }
+        return false;
+    }
+}
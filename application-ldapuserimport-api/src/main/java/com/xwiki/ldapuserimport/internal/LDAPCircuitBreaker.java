@@ -0,0 +1,248 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.ldapuserimport.internal;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.math.NumberUtils;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.ldap.XWikiLDAPConfig;
+
+import com.xwiki.ldapuserimport.internal.metrics.LDAPMetrics;
+
+/**
+ * Stop calling an LDAP server which keeps failing or answering too slowly, instead of waiting for the socket timeout
+ * on every call.
+ * <p>
+ * Each LDAP server has a circuit which opens after a number of consecutive failed or slow calls.
+ * While a circuit is open, the calls fail immediately with a {@link LDAPCircuitOpenException}. Once the open duration
+ * has elapsed, a single probe call is let through: the circuit closes if it succeeds, or opens again for twice as long
+ * (up to 16 times the configured duration) if it fails.
+ * <p>
+ * The circuits are configured with the LDAP parameters (in {@code xwiki.cfg} or in the global preferences):
+ * <ul>
+ * <li>{@value #FAILURE_THRESHOLD_PARAM}: the number of consecutive failures opening the circuit, 0 to never open it
+ * (default 5)</li>
+ * <li>{@value #LATENCY_THRESHOLD_PARAM}: the number of milliseconds after which a call counts as failed, 0 to not
+ * consider the latency (default 15000)</li>
+ * <li>{@value #OPEN_DURATION_PARAM}: the number of seconds during which the circuit stays open (default
+ * 30)</li>
+ * </ul>
+ *
+ * @version $Id$
+ * @since 1.7.10
+ */
+@Component(roles = LDAPCircuitBreaker.class)
+@Singleton
+public class LDAPCircuitBreaker
+{
+    /**
+     * The number of consecutive failures opening the circuit.
+     */
+    public static final String FAILURE_THRESHOLD_PARAM = "ldap_circuit_breaker_failures";
+
+    /**
+     * The number of milliseconds after which a call counts as failed.
+     */
+    public static final String LATENCY_THRESHOLD_PARAM = "ldap_circuit_breaker_latency";
+
+    /**
+     * The number of seconds during which the circuit stays open.
+     */
+    public static final String OPEN_DURATION_PARAM = "ldap_circuit_breaker_open_duration";
+
+    /**
+     * The metric counting the times a circuit opened.
+     */
+    public static final String CIRCUIT_OPENED = "ldap.circuitOpened";
+
+    private static final int FAILURE_THRESHOLD = 5;
+
+    private static final int LATENCY_THRESHOLD = 15000;
+
+    private static final int OPEN_DURATION = 30;
+
+    private static final int MAX_BACKOFF = 16;
+
+    private final Map<String, Circuit> circuits = new ConcurrentHashMap<>();
+
+    @Inject
+    private Logger logger;
+
+    @Inject
+    private LDAPMetrics metrics;
+
+    private enum State
+    {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    /**
+     * The circuit of one LDAP server.
+     */
+    public final class Circuit
+    {
+        private final String server;
+
+        private int failureThreshold;
+
+        private long latencyThreshold;
+
+        private long openDuration;
+
+        private State state = State.CLOSED;
+
+        private int failures;
+
+        private int backoff = 1;
+
+        private long openUntil;
+
+        private boolean probing;
+
+        private Circuit(String server)
+        {
+            this.server = server;
+        }
+
+        private synchronized void configure(XWikiLDAPConfig configuration)
+        {
+            this.failureThreshold = getParam(configuration, FAILURE_THRESHOLD_PARAM, FAILURE_THRESHOLD);
+            this.latencyThreshold = getParam(configuration, LATENCY_THRESHOLD_PARAM, LATENCY_THRESHOLD);
+            this.openDuration = TimeUnit.SECONDS.toNanos(getParam(configuration, OPEN_DURATION_PARAM, OPEN_DURATION));
+        }
+
+        /**
+         * Check that the server can be called, before calling it.
+         *
+         * @return the start time of the call, to give to {@link #release(long, boolean)}
+         * @throws LDAPCircuitOpenException if the server is considered unavailable
+         */
+        public synchronized long acquire()
+        {
+            long now = System.nanoTime();
+            if (this.state == State.OPEN && now - this.openUntil >= 0) {
+                logger.info("Probing the LDAP server [{}].", this.server);
+                this.state = State.HALF_OPEN;
+            } else if (this.state == State.OPEN || this.probing) {
+                throw new LDAPCircuitOpenException(String.format(
+                    "The LDAP server [%s] is unavailable, it will be called again in [%s] seconds.", this.server,
+                    Math.max(1, TimeUnit.NANOSECONDS.toSeconds(this.openUntil - now))));
+            }
+            this.probing = this.state == State.HALF_OPEN;
+            return now;
+        }
+
+        /**
+         * Record the outcome of a call.
+         *
+         * @param start the value returned by {@link #acquire()}
+         * @param failed {@code true} if the call failed
+         */
+        public void release(long start, boolean failed)
+        {
+            release(start, failed, true);
+        }
+
+        /**
+         * Record the outcome of a call.
+         *
+         * @param start the value returned by {@link #acquire()}
+         * @param failed {@code true} if the call failed
+         * @param timed {@code false} if the duration of the call doesn't reflect the latency of the server (e.g. for
+         *     many pipelined operations), in which case a long call is not counted as a failure
+         */
+        public synchronized void release(long start, boolean failed, boolean timed)
+        {
+            long duration = System.nanoTime() - start;
+            boolean slow = timed && this.latencyThreshold > 0
+                && TimeUnit.NANOSECONDS.toMillis(duration) > this.latencyThreshold;
+            this.probing = false;
+            if (failed || slow) {
+                this.failures++;
+                if (this.state == State.HALF_OPEN) {
+                    this.backoff = Math.min(this.backoff * 2, MAX_BACKOFF);
+                    open();
+                } else if (this.failureThreshold > 0 && this.failures >= this.failureThreshold) {
+                    open();
+                }
+            } else {
+                if (this.state != State.CLOSED) {
+                    logger.info("The LDAP server [{}] is available again.", this.server);
+                }
+                this.state = State.CLOSED;
+                this.failures = 0;
+                this.backoff = 1;
+            }
+        }
+
+        private void open()
+        {
+            this.state = State.OPEN;
+            this.openUntil = System.nanoTime() + this.openDuration * this.backoff;
+            metrics.count(CIRCUIT_OPENED, 1);
+            logger.warn("The LDAP server [{}] failed [{}] consecutive times, it won't be called during [{}] seconds.",
+                this.server, this.failures, TimeUnit.NANOSECONDS.toSeconds(this.openDuration * this.backoff));
+        }
+
+        /**
+         * @return {@code true} if the server is currently considered unavailable
+         */
+        public synchronized boolean isOpen()
+        {
+            return this.state == State.OPEN && System.nanoTime() - this.openUntil < 0;
+        }
+    }
+
+    /**
+     * @param configuration the LDAP configuration
+     * @return the circuit of the LDAP server of the configuration
+     */
+    public Circuit getCircuit(XWikiLDAPConfig configuration)
+    {
+        String server = XWikiLDAPUtilsHelper.getServer(configuration);
+        Circuit circuit = this.circuits.computeIfAbsent(server, Circuit::new);
+        circuit.configure(configuration);
+        return circuit;
+    }
+
+    /**
+     * @param server an LDAP server, as {@code host:port}
+     * @return {@code true} if the server is currently considered unavailable
+     */
+    public boolean isOpen(String server)
+    {
+        Circuit circuit = this.circuits.get(server);
+        return circuit != null && circuit.isOpen();
+    }
+
+    private static int getParam(XWikiLDAPConfig configuration, String name, int defaultValue)
+    {
+        return NumberUtils.toInt(configuration.getLDAPParam(name, null), defaultValue);
+    }
+}
@@ -0,0 +1,293 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.ldapuserimport.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.model.reference.LocalDocumentReference;
+import org.xwiki.rendering.syntax.Syntax;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xwiki.ldapuserimport.SyncRunReport;
+
+/**
+ * Store the members of a large mapped group in sub-groups, so that a synchronization only loads and saves the
+ * sub-groups holding the changed members, instead of a single document with one object per member.
+ * <p>
+ * A sharded group {@code XWiki.BigGroup} has the hidden sub-groups {@code XWiki.BigGroupShard0} to
+ * {@code XWiki.BigGroupShardN} as members, and each LDAP member belongs to the sub-group selected by the hash of its
+ * reference. XWiki resolves the members of nested groups, for both the rights and the group APIs, so the members of
+ * the sub-groups are members of the group. The number of sub-groups is chosen when the group is sharded, from the
+ * number of members, and is kept afterwards so that the members don't move between sub-groups.
+ *
+ * @version $Id$
+ * @since 1.7.10
+ */
+@Component(roles = LDAPGroupShardManager.class)
+@Singleton
+public class LDAPGroupShardManager
+{
+    /**
+     * The suffix of the names of the sub-groups, followed by their index.
+     */
+    public static final String SHARD_SUFFIX = "Shard";
+
+    /**
+     * The average number of members of a sub-group, when sharding a group.
+     */
+    public static final int SHARD_CAPACITY = 1000;
+
+    private static final LocalDocumentReference GROUP_CLASS_REFERENCE =
+        new LocalDocumentReference(XWiki.SYSTEM_SPACE, "XWikiGroups");
+
+    private static final String MEMBER = "member";
+
+    private static final int SHARD_INDEX_LENGTH = 8;
+
+    private static final String SAVE_COMMENT = "Updated the group members by LDAP User Import";
+
+    @Inject
+    private Logger logger;
+
+    @Inject
+    @Named("local")
+    private EntityReferenceSerializer<String> localSerializer;
+
+    /**
+     * Save a group document according to the history policy of the synchronization.
+     */
+    @FunctionalInterface
+    public interface GroupSaver
+    {
+        /**
+         * @param groupDocument the group document to save
+         * @param comment the comment of the change
+         * @throws XWikiException in case of exception
+         */
+        void save(XWikiDocument groupDocument, String comment) throws XWikiException;
+    }
+
+    /**
+     * @param groupDoc the document of a mapped group
+     * @return the references of the sub-groups of the group, empty if the group is not sharded
+     */
+    public List<DocumentReference> getShards(XWikiDocument groupDoc)
+    {
+        List<BaseObject> memberObjects = groupDoc.getXObjects(GROUP_CLASS_REFERENCE);
+        if (memberObjects == null || memberObjects.isEmpty()) {
+            return Collections.emptyList();
+        }
+        Set<String> members = new HashSet<>();
+        for (BaseObject memberObject : memberObjects) {
+            if (memberObject != null) {
+                members.add(memberObject.getStringValue(MEMBER));
+            }
+        }
+
+        List<DocumentReference> shards = new ArrayList<>();
+        DocumentReference shard = getShard(groupDoc.getDocumentReference(), 0);
+        while (members.contains(this.localSerializer.serialize(shard))) {
+            shards.add(shard);
+            shard = getShard(groupDoc.getDocumentReference(), shards.size());
+        }
+        return shards;
+    }
+
+    /**
+     * Shard a group: add its sub-groups as members, and remove from it the LDAP members which will be stored in the
+     * sub-groups.
+     *
+     * @param groupDoc the document of the group to shard
+     * @param memberCount the number of LDAP members of the group
+     * @param ldapMember tells which members of the group are LDAP members
+     * @param saver saves the group document
+     * @param context the XWiki context
+     * @return the references of the new sub-groups
+     * @throws XWikiException in case of exception
+     */
+    public List<DocumentReference> shard(XWikiDocument groupDoc, int memberCount, Predicate<String> ldapMember,
+        GroupSaver saver, XWikiContext context) throws XWikiException
+    {
+        int shardCount = Math.max(2, (memberCount + SHARD_CAPACITY - 1) / SHARD_CAPACITY);
+        List<DocumentReference> shards = new ArrayList<>();
+        for (int i = 0; i < shardCount; i++) {
+            DocumentReference shard = getShard(groupDoc.getDocumentReference(), i);
+            BaseObject memberObject = groupDoc.newXObject(GROUP_CLASS_REFERENCE, context);
+            memberObject.setStringValue(MEMBER, this.localSerializer.serialize(shard));
+            shards.add(shard);
+        }
+        List<BaseObject> memberObjects = groupDoc.getXObjects(GROUP_CLASS_REFERENCE);
+        for (BaseObject memberObject : new ArrayList<>(memberObjects)) {
+            if (memberObject != null && ldapMember.test(memberObject.getStringValue(MEMBER))) {
+                groupDoc.removeXObject(memberObject);
+            }
+        }
+        prepare(groupDoc);
+        saver.save(groupDoc, SAVE_COMMENT);
+        this.logger.info("Stored the members of the group [{}] in [{}] sub-groups.", groupDoc.getDocumentReference(),
+            shardCount);
+        return shards;
+    }
+
+    /**
+     * Update the members of the sub-groups of a group, saving only the sub-groups whose members changed.
+     *
+     * @param shards the sub-groups of the group
+     * @param ldapMembers the LDAP members of the group
+     * @param removable tells which members missing from the LDAP members should be removed from the group, or
+     *     {@code null} to not remove members
+     * @param saver saves the sub-group documents
+     * @param report the report of the synchronization
+     * @param context the XWiki context
+     * @throws XWikiException in case of exception
+     */
+    public void synchronize(List<DocumentReference> shards, Map<String, String> ldapMembers,
+        Predicate<String> removable, GroupSaver saver, SyncRunReport report, XWikiContext context)
+        throws XWikiException
+    {
+        Map<Integer, Set<String>> expectedMembers = new HashMap<>();
+        for (String member : ldapMembers.keySet()) {
+            expectedMembers.computeIfAbsent(getShardIndex(member, shards.size()), i -> new HashSet<>()).add(member);
+        }
+
+        for (int i = 0; i < shards.size(); i++) {
+            synchronizeShard(shards.get(i), expectedMembers.getOrDefault(i, Collections.emptySet()), removable, saver,
+                report, context);
+        }
+    }
+
+    /**
+     * Update the members of the sub-groups of a group, when its LDAP members are too many to be held in memory. Only
+     * the members of one sub-group are held in memory at a time.
+     *
+     * @param shards the sub-groups of the group
+     * @param shardedMembers the LDAP members of the group, formatted with {@link #toShardedLine(String, int)} and
+     *     sorted
+     * @param removable tells which members missing from the LDAP members should be removed from the group, or
+     *     {@code null} to not remove members
+     * @param saver saves the sub-group documents
+     * @param report the report of the synchronization
+     * @param context the XWiki context
+     * @throws XWikiException in case of exception
+     */
+    public void synchronize(List<DocumentReference> shards, Iterator<String> shardedMembers,
+        Predicate<String> removable, GroupSaver saver, SyncRunReport report, XWikiContext context)
+        throws XWikiException
+    {
+        String line = shardedMembers.hasNext() ? shardedMembers.next() : null;
+        for (int i = 0; i < shards.size(); i++) {
+            Set<String> expectedMembers = new HashSet<>();
+            while (line != null && Integer.parseInt(line.substring(0, SHARD_INDEX_LENGTH)) == i) {
+                expectedMembers.add(line.substring(SHARD_INDEX_LENGTH + 1));
+                line = shardedMembers.hasNext() ? shardedMembers.next() : null;
+            }
+            synchronizeShard(shards.get(i), expectedMembers, removable, saver, report, context);
+        }
+    }
+
+    /**
+     * @param member a member of a sharded group
+     * @param shardCount the number of sub-groups of the group
+     * @return a line starting with the index of the sub-group storing the member, so that sorting such lines groups
+     *     the members by sub-group
+     */
+    public static String toShardedLine(String member, int shardCount)
+    {
+        return String.format("%0" + SHARD_INDEX_LENGTH + "d\t%s", getShardIndex(member, shardCount), member);
+    }
+
+    private void synchronizeShard(DocumentReference shard, Set<String> expectedMembers, Predicate<String> removable,
+        GroupSaver saver, SyncRunReport report, XWikiContext context) throws XWikiException
+    {
+        XWikiDocument shardDoc = context.getWiki().getDocument(shard, context);
+        Set<String> membersToAdd = new HashSet<>(expectedMembers);
+        boolean changed = false;
+        List<BaseObject> memberObjects = shardDoc.getXObjects(GROUP_CLASS_REFERENCE);
+        if (memberObjects != null) {
+            for (BaseObject memberObject : new ArrayList<>(memberObjects)) {
+                if (memberObject == null) {
+                    continue;
+                }
+                String member = memberObject.getStringValue(MEMBER);
+                if (!membersToAdd.remove(member) && removable != null && removable.test(member)) {
+                    shardDoc.removeXObject(memberObject);
+                    report.addCounter(SyncRunReport.MEMBERSHIPS_REMOVED, 1);
+                    changed = true;
+                }
+            }
+        }
+        for (String member : membersToAdd) {
+            BaseObject memberObject = shardDoc.newXObject(GROUP_CLASS_REFERENCE, context);
+            memberObject.setStringValue(MEMBER, member);
+            changed = true;
+        }
+        report.addCounter(SyncRunReport.MEMBERSHIPS_ADDED, membersToAdd.size());
+        if (changed || shardDoc.isNew()) {
+            prepare(shardDoc);
+            shardDoc.setHidden(true);
+            saver.save(shardDoc, SAVE_COMMENT);
+        }
+    }
+
+    /**
+     * @param member a member of a sharded group
+     * @param shardCount the number of sub-groups of the group
+     * @return the index of the sub-group storing the member
+     */
+    public static int getShardIndex(String member, int shardCount)
+    {
+        // String#hashCode is specified, so the index doesn't depend on the JVM.
+        return Math.floorMod(member.hashCode(), shardCount);
+    }
+
+    private DocumentReference getShard(DocumentReference groupReference, int index)
+    {
+        return new DocumentReference(groupReference.getName() + SHARD_SUFFIX + index,
+            groupReference.getLastSpaceReference());
+    }
+
+    private void prepare(XWikiDocument groupDoc)
+    {
+        if (groupDoc.isNew()) {
+            groupDoc.setSyntax(Syntax.XWIKI_2_0);
+            groupDoc.setContent("{{include reference='XWiki.XWikiGroupSheet' /}}");
+        }
+    }
+}
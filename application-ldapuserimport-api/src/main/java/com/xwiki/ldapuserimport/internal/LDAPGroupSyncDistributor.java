@@ -0,0 +1,582 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.ldapuserimport.internal;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.hibernate.Session;
+import org.hibernate.query.Query;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.context.ExecutionContextException;
+import org.xwiki.context.ExecutionContextManager;
+import org.xwiki.contrib.ldap.XWikiLDAPConfig;
+import org.xwiki.job.DefaultRequest;
+import org.xwiki.job.JobStatusStore;
+import org.xwiki.job.event.status.JobStatus;
+import org.xwiki.logging.LoggerManager;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.LocalDocumentReference;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.observation.remote.RemoteObservationManagerConfiguration;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xwiki.ldapuserimport.LDAPUserImportConfiguration;
+import com.xwiki.ldapuserimport.LDAPUserImportManager;
+import com.xwiki.ldapuserimport.job.LDAPGroupSyncStatus;
+
+/**
+ * Share the synchronization of the mapped groups between the nodes of a cluster.
+ * <p>
+ * The node starting the synchronization notifies a {@link LDAPGroupsUpdateEvent} to the other nodes, then all the
+ * nodes synchronize the groups for which they manage to take the lease. The leases are stored in the shared database,
+ * as hidden documents holding a {@link #LEASE_CLASS_REFERENCE} object, created by the node which starts the
+ * synchronization. A lease is taken with a conditional update of the database, which only succeeds if the lease still
+ * has the owner and the expiration date read before taking it, so that a single node gets it. The leases are then
+ * renewed while the group is synchronized, and updated in the database without adding versions to their documents.
+ * The node which started the synchronization waits for all the groups to be synchronized, publishing the progress of
+ * the whole cluster as a {@link LDAPGroupSyncStatus}, and takes over the groups whose lease expired because their node
+ * went down.
+ * <p>
+ * The lease duration is configured with the {@value #LEASE_DURATION_PARAM} LDAP parameter, in seconds (default 300).
+ * Without remote observation, the groups are simply synchronized one after the other on the current node.
+ * <p>
+ * When the configured time budget is exhausted, the synchronization stops at a user or group boundary and its
+ * progress is stored by the {@link LDAPSyncCheckpointManager}, so that the next run resumes it.
+ *
+ * @version $Id$
+ * @since 1.7.10
+ */
+@Component(roles = LDAPGroupSyncDistributor.class)
+@Singleton
+public class LDAPGroupSyncDistributor implements Initializable, Disposable
+{
+    /**
+     * The number of seconds during which a group lease is valid if it is not renewed.
+     */
+    public static final String LEASE_DURATION_PARAM = "ldap_sync_lease_duration";
+
+    /**
+     * The reference of the class storing the lease of a group.
+     */
+    public static final LocalDocumentReference LEASE_CLASS_REFERENCE =
+        new LocalDocumentReference("LDAPUserImport", "LDAPGroupSyncLeaseClass");
+
+    private static final List<String> LEASES_SPACE = Arrays.asList("LDAPUserImport", "GroupSyncLeases");
+
+    private static final String RUN = "run";
+
+    private static final String NONE = "none";
+
+    private static final String OWNER = "owner";
+
+    private static final String EXPIRES = "expires";
+
+    private static final String STATUS = "status";
+
+    private static final String RUNNING = "running";
+
+    private static final String DONE = "done";
+
+    private static final String FAILED = "failed";
+
+    private static final String STOPPED = "stopped";
+
+    private static final int LEASE_DURATION = 300;
+
+    private static final long POLL_INTERVAL = 10000;
+
+    private static final String LEASE_ID = "leaseId";
+
+    private static final String PROPERTY_NAME = "name";
+
+    private static final String VALUE = "value";
+
+    private static final String EXPECTED_OWNER = "expectedOwner";
+
+    private static final String EXPECTED_RUN = "expectedRun";
+
+    private static final String EXPECTED_EXPIRES = "expectedExpires";
+
+    private static final String LEASE_STATE_QUERY = "select owner.value, run.value, status.value, expires.value"
+        + " from StringProperty as owner, StringProperty as run, StringProperty as status, LongProperty as expires"
+        + " where owner.id.id = :leaseId and owner.id.name = 'owner' and run.id.id = :leaseId and run.id.name = 'run'"
+        + " and status.id.id = :leaseId and status.id.name = 'status'"
+        + " and expires.id.id = :leaseId and expires.id.name = 'expires'";
+
+    /**
+     * Take a lease, only if it still has the owner and the expiration date read before.
+     */
+    private static final String CLAIM_STATEMENT = "update LongProperty as expires set expires.value = :value"
+        + " where expires.id.id = :leaseId and expires.id.name = 'expires' and expires.value = :expectedExpires"
+        + " and exists (select owner.value from StringProperty as owner where owner.id.id = :leaseId"
+        + " and owner.id.name = 'owner' and owner.value = :expectedOwner)";
+
+    /**
+     * Extend a lease, only if it is still held by the node for the same run.
+     */
+    private static final String RENEW_STATEMENT = "update LongProperty as expires set expires.value = :value"
+        + " where expires.id.id = :leaseId and expires.id.name = 'expires'"
+        + " and exists (select owner.value from StringProperty as owner where owner.id.id = :leaseId"
+        + " and owner.id.name = 'owner' and owner.value = :expectedOwner)"
+        + " and exists (select run.value from StringProperty as run where run.id.id = :leaseId"
+        + " and run.id.name = 'run' and run.value = :expectedRun)";
+
+    private static final String SET_STRING_STATEMENT = "update StringProperty as property set property.value = :value"
+        + " where property.id.id = :leaseId and property.id.name = :name";
+
+    private final String nodeId = getHostName() + '-' + UUID.randomUUID().toString().substring(0, 8);
+
+    /**
+     * The groups whose lease is held by the current node, with the synchronization run.
+     */
+    private final Map<String, String> heldLeases = new ConcurrentHashMap<>();
+
+    @Inject
+    private Logger logger;
+
+    @Inject
+    private Provider<XWikiContext> contextProvider;
+
+    @Inject
+    private Provider<XWikiLDAPConfig> xwikiLDAPConfigProvider;
+
+    @Inject
+    private Provider<LDAPUserImportManager> userImportManagerProvider;
+
+    @Inject
+    private RemoteObservationManagerConfiguration remoteObservationManagerConfiguration;
+
+    @Inject
+    private ObservationManager observationManager;
+
+    @Inject
+    private LDAPUserImportConfiguration ldapUserImportConfiguration;
+
+    @Inject
+    private LDAPSyncCheckpointManager checkpointManager;
+
+    @Inject
+    private ExecutionContextManager executionContextManager;
+
+    @Inject
+    private Execution execution;
+
+    @Inject
+    private JobStatusStore jobStatusStore;
+
+    @Inject
+    private LoggerManager loggerManager;
+
+    private volatile long leaseDuration = TimeUnit.SECONDS.toMillis(LEASE_DURATION);
+
+    private ExecutorService executor;
+
+    private ScheduledExecutorService renewer;
+
+    @Override
+    public void initialize()
+    {
+        this.executor = Executors.newSingleThreadExecutor(
+            new BasicThreadFactory.Builder().namingPattern("LDAP group synchronization").daemon(true).build());
+        this.renewer = Executors.newSingleThreadScheduledExecutor(
+            new BasicThreadFactory.Builder().namingPattern("LDAP group lease renewal").daemon(true).build());
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        this.executor.shutdownNow();
+        this.renewer.shutdownNow();
+    }
+
+    /**
+     * Synchronize the given groups, sharing them with the other cluster nodes, and wait for all of them to be
+     * synchronized.
+     *
+     * @param groupNames the names of the XWiki groups to synchronize
+     * @throws Exception if the synchronization could not be distributed
+     */
+    public void updateGroups(List<String> groupNames) throws Exception
+    {
+        int timeBudget = this.ldapUserImportConfiguration.getSyncTimeBudget();
+        long deadline = timeBudget > 0 ? System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(timeBudget) : 0;
+        // Resume the run interrupted by the time budget, if any.
+        LDAPSyncCheckpoint checkpoint = this.checkpointManager.load(null, deadline);
+        LDAPGroupSyncStatus status = startStatus(checkpoint.getRunId(), groupNames);
+        try (LDAPSyncCheckpointManager.Scope scope = this.checkpointManager.attach(checkpoint)) {
+            if (this.remoteObservationManagerConfiguration.isEnabled()) {
+                updateClusterGroups(checkpoint, groupNames, status);
+            } else {
+                updateLocalGroups(checkpoint, groupNames, status);
+            }
+        } catch (LDAPSyncBudgetExhaustedException e) {
+            this.logger.warn("Stopped the synchronization of the mapped groups, it will be resumed by the next run: {}",
+                e.getMessage());
+            this.checkpointManager.save(checkpoint);
+            return;
+        } finally {
+            endStatus(status);
+        }
+        this.checkpointManager.clear();
+    }
+
+    /**
+     * Take a share of a synchronization started by another cluster node.
+     *
+     * @param event the event notified by the node which started the synchronization
+     */
+    public void onRemoteEvent(LDAPGroupsUpdateEvent event)
+    {
+        setLeaseDuration(event.getLeaseDuration());
+        this.executor.execute(() -> runInContext(event.getUserReference(), () -> {
+            try {
+                LDAPSyncCheckpoint checkpoint = this.checkpointManager.load(event.getRunId(), event.getDeadline());
+                try (LDAPSyncCheckpointManager.Scope scope = this.checkpointManager.attach(checkpoint)) {
+                    updateLeasedGroups(event.getRunId(), event.getGroupNames());
+                } catch (LDAPSyncBudgetExhaustedException e) {
+                    this.checkpointManager.save(checkpoint);
+                }
+            } catch (XWikiException e) {
+                this.logger.error("Failed to take part in the synchronization of the mapped groups.", e);
+            }
+        }));
+    }
+
+    /**
+     * @param runId the identifier of the synchronization run
+     * @param groupNames the synchronized groups
+     * @return the status of each group in the synchronization run, with the node synchronizing it
+     * @throws XWikiException if the leases could not be read
+     */
+    public Map<String, String> getProgress(String runId, List<String> groupNames) throws XWikiException
+    {
+        XWikiContext context = this.contextProvider.get();
+        Map<String, String> progress = new LinkedHashMap<>();
+        for (String groupName : groupNames) {
+            BaseObject lease = getLeaseDocument(groupName, context).getXObject(LEASE_CLASS_REFERENCE);
+            // The leases are updated in the database only, their documents are not up to date.
+            Object[] state = lease != null ? getLeaseState(lease.getId(), context) : null;
+            if (state != null && runId.equals(state[1])) {
+                progress.put(groupName, state[2] + " (" + state[0] + ')');
+            }
+        }
+        return progress;
+    }
+
+    private LDAPGroupSyncStatus startStatus(String runId, List<String> groupNames)
+    {
+        DefaultRequest request = new DefaultRequest();
+        request.setId(LDAPGroupSyncStatus.JOB_ID);
+        LDAPGroupSyncStatus status =
+            new LDAPGroupSyncStatus(request, runId, groupNames, this.observationManager, this.loggerManager);
+        status.setStartDate(new Date());
+        status.setState(JobStatus.State.RUNNING);
+        this.jobStatusStore.storeAsync(status);
+        return status;
+    }
+
+    private void endStatus(LDAPGroupSyncStatus status)
+    {
+        status.setEndDate(new Date());
+        status.setState(JobStatus.State.FINISHED);
+        this.jobStatusStore.storeAsync(status);
+    }
+
+    private void updateLocalGroups(LDAPSyncCheckpoint checkpoint, List<String> groupNames,
+        LDAPGroupSyncStatus status) throws Exception
+    {
+        Map<String, String> progress = new LinkedHashMap<>();
+        for (String groupName : groupNames) {
+            if (!checkpoint.isGroupDone(groupName)) {
+                checkpoint.checkBudget();
+                progress.put(groupName, RUNNING + " (" + this.nodeId + ')');
+                status.setGroupStatuses(progress);
+                this.userImportManagerProvider.get().updateGroup(groupName);
+                checkpoint.markGroupDone(groupName);
+            }
+            progress.put(groupName, DONE + " (" + this.nodeId + ')');
+            status.setGroupStatuses(progress);
+        }
+    }
+
+    private void setLeaseDuration(long leaseDuration)
+    {
+        if (leaseDuration > 0) {
+            this.leaseDuration = leaseDuration;
+        }
+    }
+
+    private void updateClusterGroups(LDAPSyncCheckpoint checkpoint, List<String> groupNames,
+        LDAPGroupSyncStatus status) throws Exception
+    {
+        String runId = checkpoint.getRunId();
+        XWikiLDAPConfig configuration = this.xwikiLDAPConfigProvider.get();
+        setLeaseDuration(TimeUnit.SECONDS.toMillis(
+            NumberUtils.toInt(configuration.getLDAPParam(LEASE_DURATION_PARAM, null), LEASE_DURATION)));
+        // The leases are created before the other nodes start taking them.
+        createLeases(groupNames);
+        this.observationManager.notify(new LDAPGroupsUpdateEvent(runId, groupNames,
+            this.contextProvider.get().getUserReference(), this.leaseDuration, checkpoint.getDeadline()), runId);
+
+        updateLeasedGroups(runId, groupNames);
+        awaitGroups(checkpoint, groupNames, status);
+    }
+
+    private void updateLeasedGroups(String runId, List<String> groupNames)
+    {
+        LDAPSyncCheckpoint checkpoint = this.checkpointManager.getCurrent();
+        for (String groupName : groupNames) {
+            try {
+                // Stop at a group boundary once the time budget is exhausted.
+                checkpoint.checkBudget();
+                if (acquire(runId, groupName)) {
+                    String status = FAILED;
+                    try {
+                        this.userImportManagerProvider.get().updateGroup(groupName);
+                        status = DONE;
+                    } catch (LDAPSyncBudgetExhaustedException e) {
+                        status = STOPPED;
+                        throw e;
+                    } finally {
+                        release(runId, groupName, status);
+                    }
+                }
+            } catch (LDAPSyncBudgetExhaustedException e) {
+                throw e;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                this.logger.error("Failed to synchronize the group [{}].", groupName, e);
+            }
+        }
+    }
+
+    private void awaitGroups(LDAPSyncCheckpoint checkpoint, List<String> groupNames, LDAPGroupSyncStatus status)
+        throws XWikiException, InterruptedException
+    {
+        while (true) {
+            status.setGroupStatuses(getProgress(checkpoint.getRunId(), groupNames));
+            this.jobStatusStore.storeAsync(status);
+            long finished = status.getFinishedGroupCount();
+            this.logger.info("[{}/{}] mapped groups synchronized by the cluster: {}", finished, groupNames.size(),
+                status.getGroupStatuses());
+            if (finished >= groupNames.size()) {
+                return;
+            }
+            // The other nodes stop by themselves at their next user boundary.
+            checkpoint.checkBudget();
+            Thread.sleep(POLL_INTERVAL);
+            // Take over the groups of the nodes which went down.
+            updateLeasedGroups(checkpoint.getRunId(), groupNames);
+        }
+    }
+
+    private boolean acquire(String runId, String groupName) throws XWikiException
+    {
+        XWikiContext context = this.contextProvider.get();
+        BaseObject lease = getLeaseDocument(groupName, context).getXObject(LEASE_CLASS_REFERENCE);
+        Object[] state = lease != null ? getLeaseState(lease.getId(), context) : null;
+        if (state == null) {
+            this.logger.warn("The LDAP synchronization lease of the group [{}] is missing.", groupName);
+            return false;
+        }
+        if (runId.equals(state[1]) && !isAvailable((String) state[2], (Long) state[3])) {
+            // The group is synchronized, or being synchronized by a live node.
+            return false;
+        }
+
+        long leaseId = lease.getId();
+        // Only one of the nodes claiming the lease at the same time finds the expected owner and expiration date.
+        boolean claimed = context.getWiki().getHibernateStore().executeWrite(context, session -> {
+            Query<?> claim = session.createQuery(CLAIM_STATEMENT);
+            claim.setParameter(LEASE_ID, leaseId);
+            claim.setParameter(VALUE, System.currentTimeMillis() + this.leaseDuration);
+            claim.setParameter(EXPECTED_EXPIRES, state[3]);
+            claim.setParameter(EXPECTED_OWNER, state[0]);
+            if (claim.executeUpdate() != 1) {
+                return false;
+            }
+            setLeaseValue(session, leaseId, OWNER, this.nodeId);
+            setLeaseValue(session, leaseId, RUN, runId);
+            setLeaseValue(session, leaseId, STATUS, RUNNING);
+            return true;
+        });
+        if (claimed) {
+            this.heldLeases.put(groupName, runId);
+            scheduleRenewal(runId, groupName);
+        }
+        return claimed;
+    }
+
+    private boolean isAvailable(String status, Long expires)
+    {
+        // The groups interrupted by the time budget are resumed by the next run.
+        return STOPPED.equals(status) || RUNNING.equals(status) && expires <= System.currentTimeMillis();
+    }
+
+    private void scheduleRenewal(String runId, String groupName)
+    {
+        this.renewer.schedule(() -> runInContext(null, () -> renew(runId, groupName)),
+            Math.max(this.leaseDuration / 3, 1), TimeUnit.MILLISECONDS);
+    }
+
+    private void renew(String runId, String groupName)
+    {
+        if (!runId.equals(this.heldLeases.get(groupName))) {
+            return;
+        }
+        try {
+            updateLease(runId, groupName, RUNNING);
+        } catch (XWikiException e) {
+            this.logger.warn("Failed to renew the LDAP synchronization lease of the group [{}].", groupName, e);
+        }
+        scheduleRenewal(runId, groupName);
+    }
+
+    private void release(String runId, String groupName, String status) throws XWikiException
+    {
+        this.heldLeases.remove(groupName, runId);
+        updateLease(runId, groupName, status);
+    }
+
+    private synchronized void updateLease(String runId, String groupName, String status) throws XWikiException
+    {
+        XWikiContext context = this.contextProvider.get();
+        BaseObject lease = getLeaseDocument(groupName, context).getXObject(LEASE_CLASS_REFERENCE);
+        if (lease == null) {
+            return;
+        }
+        long leaseId = lease.getId();
+        context.getWiki().getHibernateStore().executeWrite(context, session -> {
+            Query<?> renew = session.createQuery(RENEW_STATEMENT);
+            renew.setParameter(LEASE_ID, leaseId);
+            renew.setParameter(VALUE, System.currentTimeMillis() + this.leaseDuration);
+            renew.setParameter(EXPECTED_OWNER, this.nodeId);
+            renew.setParameter(EXPECTED_RUN, runId);
+            // The status is only changed while the lease is still held.
+            if (renew.executeUpdate() == 1) {
+                setLeaseValue(session, leaseId, STATUS, status);
+            }
+            return null;
+        });
+    }
+
+    private void setLeaseValue(Session session, long leaseId, String name, String value)
+    {
+        Query<?> update = session.createQuery(SET_STRING_STATEMENT);
+        update.setParameter(LEASE_ID, leaseId);
+        update.setParameter(PROPERTY_NAME, name);
+        update.setParameter(VALUE, value);
+        update.executeUpdate();
+    }
+
+    /**
+     * @return the owner, the run, the status and the expiration date of the lease, read from the database
+     */
+    private Object[] getLeaseState(long leaseId, XWikiContext context) throws XWikiException
+    {
+        return context.getWiki().getHibernateStore().executeRead(context, session -> {
+            Query<?> query = session.createQuery(LEASE_STATE_QUERY);
+            query.setParameter(LEASE_ID, leaseId);
+            return (Object[]) query.uniqueResult();
+        });
+    }
+
+    /**
+     * Create the missing lease documents, with a lease owned by nobody. They are only saved when created, the leases
+     * being then updated in the database.
+     */
+    private void createLeases(List<String> groupNames) throws XWikiException
+    {
+        XWikiContext context = this.contextProvider.get();
+        for (String groupName : groupNames) {
+            XWikiDocument leaseDocument = getLeaseDocument(groupName, context);
+            if (leaseDocument.getXObject(LEASE_CLASS_REFERENCE) == null) {
+                leaseDocument = leaseDocument.clone();
+                leaseDocument.setHidden(true);
+                BaseObject lease = leaseDocument.newXObject(LEASE_CLASS_REFERENCE, context);
+                lease.setStringValue(RUN, NONE);
+                lease.setStringValue(OWNER, NONE);
+                lease.setStringValue(STATUS, DONE);
+                lease.setLongValue(EXPIRES, 0);
+                context.getWiki().saveDocument(leaseDocument, "Created the LDAP synchronization lease.", true,
+                    context);
+            }
+        }
+    }
+
+    private XWikiDocument getLeaseDocument(String groupName, XWikiContext context) throws XWikiException
+    {
+        return context.getWiki()
+            .getDocument(new DocumentReference(context.getMainXWiki(), LEASES_SPACE, groupName), context);
+    }
+
+    private void runInContext(DocumentReference userReference, Runnable task)
+    {
+        try {
+            this.executionContextManager.initialize(new ExecutionContext());
+            XWikiContext context = this.contextProvider.get();
+            context.setWikiId(context.getMainXWiki());
+            context.setUserReference(userReference);
+            task.run();
+        } catch (ExecutionContextException e) {
+            this.logger.error("Failed to initialize the context of the LDAP group synchronization.", e);
+        } finally {
+            this.execution.removeContext();
+        }
+    }
+
+    private static String getHostName()
+    {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            return "unknown";
+        }
+    }
+}
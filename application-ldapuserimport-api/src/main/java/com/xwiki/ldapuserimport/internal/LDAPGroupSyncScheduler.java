@@ -0,0 +1,225 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.ldapuserimport.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.LocalDocumentReference;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xwiki.ldapuserimport.LDAPUserImportConfiguration;
+import com.xwiki.ldapuserimport.SyncRunReport;
+
+/**
+ * Decide which mapped groups are due for synchronization, based on how often they changed during their previous
+ * synchronizations.
+ * <p>
+ * The change rate of a group is estimated from its last successful synchronization reports, as the number of imported
+ * users and of added or removed memberships per hour. A group is synchronized again once about one change is expected
+ * since its last synchronization, but at most once an hour, and at least as often as required by its freshness
+ * requirement (see {@link LDAPUserImportConfiguration#getGroupSyncFreshness()}, one day by default). The due groups
+ * are checked every hour by the {@code LDAPUserImport.MappedGroupsDailyUpdater} scheduler job, and a group is
+ * considered due when its interval ends before the next check, so that it doesn't wait for one more check because its
+ * last synchronization ended a little after the job was triggered.
+ * <p>
+ * The synchronization reports are kept by the node which performed the synchronization, so the end date and the
+ * number of changes of the last successful synchronizations of each group are also stored in the shared database, as
+ * {@link #HISTORY_CLASS_REFERENCE} objects of the hidden {@code LDAPUserImport.GroupSyncHistory.<group>} documents,
+ * for the node running the scheduler job to know about the synchronizations performed by the whole cluster.
+ *
+ * @version $Id$
+ * @since 1.7.10
+ */
+@Component(roles = LDAPGroupSyncScheduler.class)
+@Singleton
+public class LDAPGroupSyncScheduler
+{
+    /**
+     * The freshness key applying to the groups which have no freshness requirement of their own.
+     */
+    public static final String DEFAULT_FRESHNESS = "*";
+
+    /**
+     * The reference of the class storing a successful synchronization of a group.
+     */
+    public static final LocalDocumentReference HISTORY_CLASS_REFERENCE =
+        new LocalDocumentReference("LDAPUserImport", "LDAPGroupSyncHistoryClass");
+
+    private static final List<String> HISTORY_SPACE = Arrays.asList("LDAPUserImport", "GroupSyncHistory");
+
+    private static final String END_DATE = "endDate";
+
+    private static final String CHANGES = "changes";
+
+    private static final long MIN_INTERVAL = TimeUnit.HOURS.toMillis(1);
+
+    private static final int MAX_INTERVAL_HOURS = 24;
+
+    /**
+     * The period of the scheduler job checking which groups are due.
+     */
+    private static final long TRIGGER_PERIOD = TimeUnit.HOURS.toMillis(1);
+
+    /**
+     * The number of previous synchronizations from which the change rate is estimated.
+     */
+    private static final int HISTORY = 10;
+
+    @Inject
+    private Provider<XWikiContext> contextProvider;
+
+    @Inject
+    private LDAPUserImportConfiguration ldapUserImportConfiguration;
+
+    @Inject
+    private LDAPSaveBatcher saveBatcher;
+
+    @Inject
+    private Logger logger;
+
+    /**
+     * @param groupNames the names of the mapped groups
+     * @return the groups due for synchronization, the most overdue first
+     * @throws XWikiException if the history of the synchronizations could not be read
+     */
+    public List<String> getDueGroups(List<String> groupNames) throws XWikiException
+    {
+        XWikiContext context = this.contextProvider.get();
+        Map<String, Integer> freshness = this.ldapUserImportConfiguration.getGroupSyncFreshness();
+        long now = System.currentTimeMillis();
+        Map<String, Double> overdue = new LinkedHashMap<>();
+        for (String groupName : groupNames) {
+            List<BaseObject> history = getHistory(getHistoryDocument(groupName, context));
+            if (history.isEmpty()) {
+                // Never synchronized.
+                overdue.put(groupName, Double.MAX_VALUE);
+            } else {
+                long elapsed = now - history.get(0).getLongValue(END_DATE);
+                long interval = getInterval(history, getMaxInterval(groupName, freshness));
+                this.logger.debug("The group [{}] is synchronized every [{}] minutes.", groupName,
+                    TimeUnit.MILLISECONDS.toMinutes(interval));
+                if (elapsed + TRIGGER_PERIOD >= interval) {
+                    overdue.put(groupName, (double) elapsed / interval);
+                }
+            }
+        }
+        List<String> dueGroups = new ArrayList<>(overdue.keySet());
+        dueGroups.sort((left, right) -> Double.compare(overdue.get(right), overdue.get(left)));
+        return dueGroups;
+    }
+
+    /**
+     * Store a synchronization of a group in the shared history, if it was successful.
+     *
+     * @param report the report of the synchronization
+     */
+    public void recordSync(SyncRunReport report)
+    {
+        if (!report.isSuccessful() || report.getEndDate() == null) {
+            return;
+        }
+
+        XWikiContext context = this.contextProvider.get();
+        try {
+            XWikiDocument historyDocument = getHistoryDocument(report.getGroupName(), context).clone();
+            // Only the last synchronizations are needed to estimate the change rate.
+            List<BaseObject> history = getHistory(historyDocument);
+            for (BaseObject previous : history.subList(Math.min(HISTORY - 1, history.size()), history.size())) {
+                historyDocument.removeXObject(previous);
+            }
+            BaseObject sync = historyDocument.newXObject(HISTORY_CLASS_REFERENCE, context);
+            sync.setLongValue(END_DATE, report.getEndDate().getTime());
+            sync.setLongValue(CHANGES, report.getCounter(SyncRunReport.USERS_IMPORTED)
+                + report.getCounter(SyncRunReport.MEMBERSHIPS_ADDED)
+                + report.getCounter(SyncRunReport.MEMBERSHIPS_REMOVED));
+            String comment = "Recorded the LDAP synchronization of the group.";
+            if (historyDocument.isNew()) {
+                historyDocument.setHidden(true);
+                context.getWiki().saveDocument(historyDocument, comment, true, context);
+            } else {
+                // The history of the synchronizations is in the objects, the document versions would only pile up.
+                this.saveBatcher.saveWithoutVersion(historyDocument, comment, context);
+            }
+        } catch (XWikiException e) {
+            this.logger.warn("Failed to record the synchronization of the group [{}]: {}", report.getGroupName(),
+                e.getMessage());
+        }
+    }
+
+    private long getInterval(List<BaseObject> history, long maxInterval)
+    {
+        if (history.size() < 2) {
+            // The change rate is not known yet.
+            return Math.min(MIN_INTERVAL, maxInterval);
+        }
+
+        // The changes of the oldest run happened before the observed period.
+        long changes = 0;
+        for (BaseObject sync : history.subList(0, history.size() - 1)) {
+            changes += sync.getLongValue(CHANGES);
+        }
+        long period = history.get(0).getLongValue(END_DATE) - history.get(history.size() - 1).getLongValue(END_DATE);
+        long interval = changes > 0 ? period / changes : maxInterval;
+        return Math.min(Math.max(interval, MIN_INTERVAL), maxInterval);
+    }
+
+    private long getMaxInterval(String groupName, Map<String, Integer> freshness)
+    {
+        Integer hours = freshness.get(groupName);
+        if (hours == null) {
+            hours = freshness.getOrDefault(DEFAULT_FRESHNESS, MAX_INTERVAL_HOURS);
+        }
+        return TimeUnit.HOURS.toMillis(hours);
+    }
+
+    /**
+     * @return the synchronizations stored in the given document, the most recent first
+     */
+    private List<BaseObject> getHistory(XWikiDocument historyDocument)
+    {
+        List<BaseObject> history = new ArrayList<>(historyDocument.getXObjects(HISTORY_CLASS_REFERENCE));
+        history.removeIf(Objects::isNull);
+        history.sort(Comparator.comparingLong((BaseObject sync) -> sync.getLongValue(END_DATE)).reversed());
+        return history;
+    }
+
+    private XWikiDocument getHistoryDocument(String groupName, XWikiContext context) throws XWikiException
+    {
+        return context.getWiki()
+            .getDocument(new DocumentReference(context.getMainXWiki(), HISTORY_SPACE, groupName), context);
+    }
+}
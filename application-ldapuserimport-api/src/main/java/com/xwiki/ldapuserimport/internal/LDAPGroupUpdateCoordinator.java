@@ -0,0 +1,177 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.ldapuserimport.internal;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.observation.ObservationManager;
+
+/**
+ * Make sure that a given XWiki group is synchronized with LDAP by a single run at a time.
+ * <p>
+ * The groups are identified by their serialized reference, including their wiki, so that the groups of the same name
+ * in different wikis are synchronized independently. A group update requested while the same group is already being
+ * synchronized on this node (from the administration, the daily scheduler or another administrator) does not start a
+ * second run: it waits for the running one and gets its result. The start and the end of each run are notified to the
+ * other cluster nodes with a {@link LDAPGroupUpdateEvent}. An update requested while the group is being synchronized
+ * on another node doesn't wait for it, since it could take long and hold a request thread: it fails with a
+ * {@link LDAPGroupUpdateRunningException} instead, and {@link #isRunningElsewhere(String)} lets the callers check it
+ * beforehand. A remote run is considered abandoned after {@value #REMOTE_TIMEOUT} minutes, in case the node running it
+ * went down.
+ *
+ * @version $Id$
+ * @since 1.7.10
+ */
+@Component(roles = LDAPGroupUpdateCoordinator.class)
+@Singleton
+public class LDAPGroupUpdateCoordinator
+{
+    /**
+     * The number of minutes after which a run of another cluster node is considered abandoned.
+     */
+    public static final int REMOTE_TIMEOUT = 60;
+
+    private final Map<String, CompletableFuture<Boolean>> localUpdates = new ConcurrentHashMap<>();
+
+    /**
+     * The start time, in milliseconds since the epoch, of the runs of the other cluster nodes.
+     */
+    private final Map<String, Long> remoteUpdates = new ConcurrentHashMap<>();
+
+    @Inject
+    private ObservationManager observationManager;
+
+    @Inject
+    @Named("currentmixed")
+    private DocumentReferenceResolver<String> documentReferenceResolver;
+
+    @Inject
+    private EntityReferenceSerializer<String> entityReferenceSerializer;
+
+    @Inject
+    private Logger logger;
+
+    /**
+     * Update a group, or attach to its running update.
+     *
+     * @param groupName the name of the XWiki group, relative to the current wiki
+     * @param update the update of the group
+     * @return the result of the update
+     * @throws LDAPGroupUpdateRunningException if the group is being synchronized by another cluster node
+     * @throws Exception if the update failed
+     */
+    public boolean update(String groupName, Callable<Boolean> update) throws Exception
+    {
+        String groupReference = getGroupReference(groupName);
+        if (isRemoteRunning(groupReference)) {
+            throw new LDAPGroupUpdateRunningException(String.format(
+                "The group [%s] is being synchronized by another cluster node.", groupReference));
+        }
+
+        CompletableFuture<Boolean> flight = new CompletableFuture<>();
+        CompletableFuture<Boolean> running = this.localUpdates.putIfAbsent(groupReference, flight);
+        if (running != null) {
+            this.logger.debug("The group [{}] is already being synchronized, waiting for it.", groupReference);
+            return await(running);
+        }
+
+        Boolean result = null;
+        this.observationManager.notify(new LDAPGroupUpdateEvent(groupReference, false, null), groupReference);
+        try {
+            result = update.call();
+            flight.complete(result);
+            return result;
+        } catch (Exception e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            this.localUpdates.remove(groupReference, flight);
+            this.observationManager.notify(new LDAPGroupUpdateEvent(groupReference, true, result), groupReference);
+        }
+    }
+
+    /**
+     * @param groupName the name of the XWiki group, relative to the current wiki
+     * @return {@code true} if the group is being synchronized by another cluster node, in which case
+     *     {@link #update(String, Callable)} fails right away
+     */
+    public boolean isRunningElsewhere(String groupName)
+    {
+        return isRemoteRunning(getGroupReference(groupName));
+    }
+
+    /**
+     * Keep track of the group updates running on the other cluster nodes.
+     *
+     * @param event the group update event received from another cluster node
+     */
+    public void onRemoteEvent(LDAPGroupUpdateEvent event)
+    {
+        if (event.isFinished()) {
+            this.remoteUpdates.remove(event.getGroupReference());
+        } else {
+            this.remoteUpdates.put(event.getGroupReference(), System.currentTimeMillis());
+        }
+    }
+
+    private String getGroupReference(String groupName)
+    {
+        return this.entityReferenceSerializer.serialize(this.documentReferenceResolver.resolve(groupName));
+    }
+
+    private boolean isRemoteRunning(String groupReference)
+    {
+        Long started = this.remoteUpdates.get(groupReference);
+        if (started == null) {
+            return false;
+        } else if (System.currentTimeMillis() - started > TimeUnit.MINUTES.toMillis(REMOTE_TIMEOUT)) {
+            this.logger.warn("Considering the synchronization of the group [{}] by another cluster node abandoned.",
+                groupReference);
+            this.remoteUpdates.remove(groupReference, started);
+            return false;
+        }
+        return true;
+    }
+
+    private boolean await(CompletableFuture<Boolean> running) throws Exception
+    {
+        try {
+            return running.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+}
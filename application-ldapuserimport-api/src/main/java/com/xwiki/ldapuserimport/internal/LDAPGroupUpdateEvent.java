@@ -0,0 +1,92 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.ldapuserimport.internal;
+
+import java.io.Serializable;
+
+import org.xwiki.observation.event.Event;
+
+/**
+ * Notified when the synchronization of an XWiki group with LDAP starts and finishes, so that the other cluster nodes
+ * don't synchronize the same group at the same time.
+ *
+ * @version $Id$
+ * @since 1.7.10
+ */
+public class LDAPGroupUpdateEvent implements Event, Serializable
+{
+    private static final long serialVersionUID = 1L;
+
+    private final String groupReference;
+
+    private final boolean finished;
+
+    private final Boolean result;
+
+    /**
+     * Matches all the group updates.
+     */
+    public LDAPGroupUpdateEvent()
+    {
+        this(null, false, null);
+    }
+
+    /**
+     * @param groupReference the serialized reference of the synchronized XWiki group, including its wiki
+     * @param finished {@code false} when the synchronization starts, {@code true} when it finishes
+     * @param result the result of the synchronization, {@code null} if it failed or is not finished
+     */
+    public LDAPGroupUpdateEvent(String groupReference, boolean finished, Boolean result)
+    {
+        this.groupReference = groupReference;
+        this.finished = finished;
+        this.result = result;
+    }
+
+    /**
+     * @return the serialized reference of the synchronized XWiki group, including its wiki
+     */
+    public String getGroupReference()
+    {
+        return this.groupReference;
+    }
+
+    /**
+     * @return {@code false} when the synchronization starts, {@code true} when it finishes
+     */
+    public boolean isFinished()
+    {
+        return this.finished;
+    }
+
+    /**
+     * @return the result of the synchronization, {@code null} if it failed or is not finished
+     */
+    public Boolean getResult()
+    {
+        return this.result;
+    }
+
+    @Override
+    public boolean matches(Object otherEvent)
+    {
+        return otherEvent instanceof LDAPGroupUpdateEvent;
+    }
+}
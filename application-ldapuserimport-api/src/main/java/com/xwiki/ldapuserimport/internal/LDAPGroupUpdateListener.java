@@ -0,0 +1,80 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.ldapuserimport.internal;
+
+import java.util.Arrays;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.observation.AbstractEventListener;
+import org.xwiki.observation.event.Event;
+import org.xwiki.observation.remote.RemoteObservationManagerContext;
+
+/**
+ * Forward the group updates of the other cluster nodes to the {@link LDAPGroupUpdateCoordinator}, and the
+ * synchronizations of all the mapped groups they start to the {@link LDAPGroupSyncDistributor}.
+ *
+ * @version $Id$
+ * @since 1.7.10
+ */
+@Component
+@Named(LDAPGroupUpdateListener.NAME)
+@Singleton
+public class LDAPGroupUpdateListener extends AbstractEventListener
+{
+    /**
+     * The name of the listener.
+     */
+    public static final String NAME = "com.xwiki.ldapuserimport.internal.LDAPGroupUpdateListener";
+
+    @Inject
+    private RemoteObservationManagerContext remoteObservationManagerContext;
+
+    @Inject
+    private LDAPGroupUpdateCoordinator coordinator;
+
+    @Inject
+    private LDAPGroupSyncDistributor distributor;
+
+    /**
+     * Default constructor.
+     */
+    public LDAPGroupUpdateListener()
+    {
+        super(NAME, Arrays.asList(new LDAPGroupUpdateEvent(), new LDAPGroupsUpdateEvent()));
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        // The local events are already handled by the node which notified them.
+        if (!this.remoteObservationManagerContext.isRemoteState()) {
+            return;
+        }
+        if (event instanceof LDAPGroupsUpdateEvent) {
+            this.distributor.onRemoteEvent((LDAPGroupsUpdateEvent) event);
+        } else {
+            this.coordinator.onRemoteEvent((LDAPGroupUpdateEvent) event);
+        }
+    }
+}
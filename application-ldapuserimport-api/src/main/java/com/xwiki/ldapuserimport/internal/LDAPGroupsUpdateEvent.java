@@ -0,0 +1,122 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.ldapuserimport.internal;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.observation.event.Event;
+
+/**
+ * Notified when a synchronization of all the mapped groups starts, so that the other cluster nodes take their share
+ * of the groups.
+ *
+ * @version $Id$
+ * @since 1.7.10
+ */
+public class LDAPGroupsUpdateEvent implements Event, Serializable
+{
+    private static final long serialVersionUID = 1L;
+
+    private final String runId;
+
+    private final ArrayList<String> groupNames;
+
+    private final DocumentReference userReference;
+
+    private final long leaseDuration;
+
+    private final long deadline;
+
+    /**
+     * Matches all the synchronizations of the mapped groups.
+     */
+    public LDAPGroupsUpdateEvent()
+    {
+        this(null, new ArrayList<>(), null, 0, 0);
+    }
+
+    /**
+     * @param runId the identifier of the synchronization run
+     * @param groupNames the names of the mapped groups to synchronize
+     * @param userReference the user who started the synchronization
+     * @param leaseDuration the number of milliseconds during which a group lease is valid if it is not renewed
+     * @param deadline the time, in milliseconds since the epoch, at which the synchronization should stop, or 0 if it
+     *     has no time budget
+     */
+    public LDAPGroupsUpdateEvent(String runId, List<String> groupNames, DocumentReference userReference,
+        long leaseDuration, long deadline)
+    {
+        this.runId = runId;
+        this.groupNames = new ArrayList<>(groupNames);
+        this.userReference = userReference;
+        this.leaseDuration = leaseDuration;
+        this.deadline = deadline;
+    }
+
+    /**
+     * @return the identifier of the synchronization run
+     */
+    public String getRunId()
+    {
+        return this.runId;
+    }
+
+    /**
+     * @return the names of the mapped groups to synchronize
+     */
+    public List<String> getGroupNames()
+    {
+        return this.groupNames;
+    }
+
+    /**
+     * @return the user who started the synchronization
+     */
+    public DocumentReference getUserReference()
+    {
+        return this.userReference;
+    }
+
+    /**
+     * @return the number of milliseconds during which a group lease is valid if it is not renewed
+     */
+    public long getLeaseDuration()
+    {
+        return this.leaseDuration;
+    }
+
+    /**
+     * @return the time, in milliseconds since the epoch, at which the synchronization should stop, or 0 if it has no
+     *     time budget
+     */
+    public long getDeadline()
+    {
+        return this.deadline;
+    }
+
+    @Override
+    public boolean matches(Object otherEvent)
+    {
+        return otherEvent instanceof LDAPGroupsUpdateEvent;
+    }
+}
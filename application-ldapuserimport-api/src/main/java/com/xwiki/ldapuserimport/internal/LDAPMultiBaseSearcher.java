@@ -0,0 +1,295 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.ldapuserimport.internal;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.contrib.ldap.PagedLDAPSearchResults;
+import org.xwiki.contrib.ldap.XWikiLDAPConfig;
+import org.xwiki.contrib.ldap.XWikiLDAPConnection;
+import org.xwiki.contrib.ldap.XWikiLDAPSearchAttribute;
+import org.xwiki.contrib.ldap.XWikiLDAPUtils;
+
+import com.novell.ldap.LDAPConnection;
+import com.novell.ldap.LDAPEntry;
+import com.xpn.xwiki.XWikiContext;
+import com.xwiki.ldapuserimport.LDAPUserImportConfiguration;
+import com.xwiki.ldapuserimport.internal.metrics.LDAPMetrics;
+
+import static com.xwiki.ldapuserimport.internal.XWikiLDAPUtilsHelper.LDAP_BASE_DN;
+
+/**
+ * Search LDAP users and groups concurrently in the configured search bases, each one possibly on its own server, and
+ * merge the results.
+ *
+ * @version $Id$
+ * @since 1.7.10
+ */
+@Component(roles = LDAPMultiBaseSearcher.class)
+@Singleton
+public class LDAPMultiBaseSearcher implements Initializable, Disposable
+{
+    @Inject
+    private Logger logger;
+
+    @Inject
+    private Provider<XWikiContext> contextProvider;
+
+    @Inject
+    private Provider<XWikiLDAPConfig> xwikiLDAPConfigProvider;
+
+    @Inject
+    private LDAPUserImportConfiguration ldapUserImportConfiguration;
+
+    @Inject
+    private XWikiLDAPFactory xWikiLDAPFactory;
+
+    @Inject
+    private LDAPMetrics metrics;
+
+    @Inject
+    private LDAPRateLimiter rateLimiter;
+
+    private ExecutorService executor;
+
+    @Override
+    public void initialize()
+    {
+        this.executor = Executors.newCachedThreadPool(
+            new BasicThreadFactory.Builder().namingPattern("LDAP search base %d").daemon(true).build());
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        this.executor.shutdownNow();
+    }
+
+    /**
+     * @param configuration the LDAP configuration
+     * @return the LDAP base DN followed by the additional search bases, or an empty list if there is no additional
+     *     search base, in which case the LDAP base DN should be searched directly
+     */
+    public List<LDAPSearchBase> getSearchBases(XWikiLDAPConfig configuration)
+    {
+        List<String> searchBases = this.ldapUserImportConfiguration.getSearchBases();
+        List<LDAPSearchBase> bases = new ArrayList<>();
+        if (!searchBases.isEmpty()) {
+            bases.add(LDAPSearchBase.of(configuration.getLDAPParam(LDAP_BASE_DN, "")));
+            for (String searchBase : searchBases) {
+                bases.add(LDAPSearchBase.parse(searchBase));
+            }
+        }
+        return bases;
+    }
+
+    /**
+     * Search the given bases concurrently. The bases which fail or which don't answer within the configured timeout,
+     * counted for each base from the moment its search starts, are skipped, and the entries found in several bases
+     * (e.g. both on a domain controller and on a global catalog) are only kept once. The entries of each base are
+     * handed over as soon as its search completes, following the order of the bases.
+     *
+     * @param bases the search bases
+     * @param filter the LDAP filter
+     * @param attributes the LDAP attributes to retrieve
+     * @param limit the maximum number of entries to retrieve from each base
+     * @param handler the handler of the entries found; the searches still running are cancelled when it doesn't want
+     *     more entries
+     * @throws Exception if none of the search bases could be searched or if the handler failed
+     */
+    public void search(List<LDAPSearchBase> bases, String filter, String[] attributes, int limit,
+        LDAPEntryHandler handler) throws Exception
+    {
+        XWikiContext context = this.contextProvider.get();
+        List<BaseSearch> searches = new ArrayList<>(bases.size());
+        for (LDAPSearchBase base : bases) {
+            // The configuration and the context are prepared in the current thread, which holds the execution context.
+            XWikiLDAPConfig configuration = base.configure(this.xwikiLDAPConfigProvider.get());
+            XWikiContext searchContext = context.clone();
+            BaseSearch search = new BaseSearch();
+            search.future = this.executor.submit(this.rateLimiter.propagate(() -> {
+                search.started = System.nanoTime();
+                return search(configuration, filter, attributes, limit, searchContext);
+            }));
+            searches.add(search);
+        }
+
+        long timeout = TimeUnit.SECONDS.toNanos(this.ldapUserImportConfiguration.getSearchBaseTimeout());
+        Set<String> handledDNs = new HashSet<>();
+        Exception failure = null;
+        boolean succeeded = false;
+        try {
+            for (int i = 0; i < searches.size(); i++) {
+                BaseSearch search = searches.get(i);
+                List<LDAPEntry> entries;
+                try {
+                    entries = search.get(timeout);
+                    succeeded = true;
+                } catch (TimeoutException e) {
+                    search.future.cancel(true);
+                    this.logger.warn("The LDAP search in [{}] timed out and was skipped.", bases.get(i));
+                    continue;
+                } catch (ExecutionException e) {
+                    this.logger.warn("The LDAP search in [{}] failed and was skipped.", bases.get(i), e.getCause());
+                    if (failure == null && e.getCause() instanceof Exception) {
+                        failure = (Exception) e.getCause();
+                    }
+                    continue;
+                }
+                for (LDAPEntry entry : entries) {
+                    if (handledDNs.add(entry.getDN().toLowerCase(Locale.ROOT)) && !handler.handle(entry)) {
+                        return;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw e;
+        } finally {
+            // Nothing is waited for anymore, whether all the entries were handled or not.
+            searches.forEach(search -> search.future.cancel(true));
+        }
+
+        if (!succeeded && failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Handles the entries found in the search bases.
+     *
+     * @version $Id$
+     * @since 1.7.10
+     */
+    @FunctionalInterface
+    public interface LDAPEntryHandler
+    {
+        /**
+         * @param entry an entry found in one of the search bases
+         * @return {@code true} to receive more entries, {@code false} to stop the search
+         * @throws Exception if the entry could not be handled, which stops the search
+         */
+        boolean handle(LDAPEntry entry) throws Exception;
+    }
+
+    /**
+     * The search of one base, which gets the whole timeout from the moment it actually starts, so that a slow base
+     * doesn't eat the time of the bases waited for after it.
+     */
+    private static final class BaseSearch
+    {
+        private Future<List<LDAPEntry>> future;
+
+        private volatile long started;
+
+        List<LDAPEntry> get(long timeout) throws InterruptedException, ExecutionException, TimeoutException
+        {
+            long waitStart = System.nanoTime();
+            while (true) {
+                // A search which didn't start yet is given the timeout from the moment it is waited for.
+                long start = this.started != 0 ? this.started : waitStart;
+                try {
+                    return this.future.get(Math.max(0, start + timeout - System.nanoTime()), TimeUnit.NANOSECONDS);
+                } catch (TimeoutException e) {
+                    // Wait again only for a search which started while it was waited for.
+                    if (this.started == 0 || this.started == start) {
+                        throw e;
+                    }
+                }
+            }
+        }
+    }
+
+    private List<LDAPEntry> search(XWikiLDAPConfig configuration, String filter, String[] attributes, int limit,
+        XWikiContext context) throws Exception
+    {
+        XWikiLDAPConnection connection = this.xWikiLDAPFactory.getLDAPConnection(configuration);
+        try {
+            connection.open(configuration.getLDAPBindDN(), configuration.getLDAPBindPassword(), context);
+            String base = configuration.getLDAPParam(LDAP_BASE_DN, "");
+            PagedLDAPSearchResults result =
+                connection.searchPaginated(base, LDAPConnection.SCOPE_SUB, filter, attributes, false);
+            List<LDAPEntry> entries = new ArrayList<>();
+            while (entries.size() < limit && result.hasMore()) {
+                LDAPEntry entry = result.next();
+                if (entry == null) {
+                    break;
+                }
+                this.metrics.countEntry(entry);
+                entries.add(entry);
+            }
+            return entries;
+        } finally {
+            connection.close();
+        }
+    }
+
+    /**
+     * Look for a user in the additional search bases, one after the other, used when the user is not found in the
+     * LDAP base DN.
+     *
+     * @param bases the search bases, starting with the LDAP base DN, which is skipped
+     * @param uid the user identifier
+     * @param attributes the LDAP attributes to retrieve
+     * @return the user attributes, including its DN, or {@code null} if the user was not found
+     */
+    public List<XWikiLDAPSearchAttribute> searchUserAttributesByUid(List<LDAPSearchBase> bases, String uid,
+        String[] attributes)
+    {
+        XWikiContext context = this.contextProvider.get();
+        for (LDAPSearchBase base : bases.subList(Math.min(1, bases.size()), bases.size())) {
+            XWikiLDAPConfig configuration = base.configure(this.xwikiLDAPConfigProvider.get());
+            XWikiLDAPConnection connection = this.xWikiLDAPFactory.getLDAPConnection(configuration);
+            try {
+                connection.open(configuration.getLDAPBindDN(), configuration.getLDAPBindPassword(), context);
+                XWikiLDAPUtils ldapUtils = this.xWikiLDAPFactory.getLDAPUtils(connection, configuration);
+                List<XWikiLDAPSearchAttribute> result = ldapUtils.searchUserAttributesByUid(uid, attributes);
+                if (result != null && !result.isEmpty()) {
+                    return result;
+                }
+            } catch (Exception e) {
+                this.logger.warn("Failed to search for the user [{}] in [{}].", uid, base, e);
+            } finally {
+                connection.close();
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.ldapuserimport.internal;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.LRUCacheConfiguration;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+
+import com.novell.ldap.LDAPException;
+import com.novell.ldap.LDAPReferralException;
+import com.xwiki.ldapuserimport.LDAPUserImportConfiguration;
+import com.xwiki.ldapuserimport.internal.metrics.LDAPMetrics;
+
+/**
+ * Remember the users and the group members which were not found in LDAP, e.g. the stale or foreign-domain members of
+ * a mapped group, so that the imports and the group updates don't search them again on each run.
+ * <p>
+ * The entries expire after the configured duration, so that the users created in LDAP afterwards are eventually found.
+ *
+ * @version $Id$
+ * @since 1.7.10
+ */
+@Component(roles = LDAPNegativeCache.class)
+@Singleton
+public class LDAPNegativeCache implements Initializable, Disposable
+{
+    private static final int CACHE_SIZE = 10000;
+
+    private static final String UID_PREFIX = "uid:";
+
+    private static final String DN_PREFIX = "dn:";
+
+    @Inject
+    private CacheManager cacheManager;
+
+    @Inject
+    private LDAPUserImportConfiguration ldapUserImportConfiguration;
+
+    @Inject
+    private LDAPMetrics metrics;
+
+    /**
+     * The expiration time of each entry, in milliseconds.
+     */
+    private Cache<Long> cache;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        try {
+            this.cache = this.cacheManager.createNewCache(
+                new LRUCacheConfiguration("ldapuserimport.notFound", CACHE_SIZE));
+        } catch (CacheException e) {
+            throw new InitializationException("Failed to create the LDAP negative cache.", e);
+        }
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        this.cache.dispose();
+    }
+
+    /**
+     * @param uid a user identifier
+     * @return {@code true} if the user was recently not found in LDAP, and shouldn't be searched again
+     */
+    public boolean isUnknownUser(String uid)
+    {
+        return contains(UID_PREFIX + uid);
+    }
+
+    /**
+     * @param uid a user identifier which was not found in LDAP
+     */
+    public void addUnknownUser(String uid)
+    {
+        add(UID_PREFIX + uid);
+    }
+
+    /**
+     * @param uid a user identifier which was found in LDAP
+     */
+    public void removeUnknownUser(String uid)
+    {
+        this.cache.remove((UID_PREFIX + uid).toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * @param dn the DN of a group member
+     * @return {@code true} if the group member was recently not found in LDAP, and shouldn't be searched again
+     */
+    public boolean isUnknownMember(String dn)
+    {
+        return contains(DN_PREFIX + dn);
+    }
+
+    /**
+     * @param dn the DN of a group member which was not found in LDAP
+     */
+    public void addUnknownMember(String dn)
+    {
+        add(DN_PREFIX + dn);
+    }
+
+    /**
+     * @param failure the failure of an LDAP search
+     * @return {@code true} if the searched entry is in another directory, and the search would fail the same way if
+     *     repeated
+     */
+    public static boolean isReferral(Throwable failure)
+    {
+        if (ExceptionUtils.indexOfType(failure, LDAPReferralException.class) >= 0) {
+            return true;
+        }
+        int index = ExceptionUtils.indexOfType(failure, LDAPException.class);
+        return index >= 0 && ((LDAPException) ExceptionUtils.getThrowables(failure)[index])
+            .getResultCode() == LDAPException.REFERRAL;
+    }
+
+    private boolean contains(String key)
+    {
+        if (this.ldapUserImportConfiguration.getNegativeCacheDuration() <= 0) {
+            return false;
+        }
+        String cacheKey = key.toLowerCase(Locale.ROOT);
+        Long expiration = this.cache.get(cacheKey);
+        if (expiration == null) {
+            return false;
+        } else if (expiration < System.currentTimeMillis()) {
+            this.cache.remove(cacheKey);
+            return false;
+        }
+        this.metrics.count(LDAPMetrics.NEGATIVE_CACHE_HITS, 1);
+        return true;
+    }
+
+    private void add(String key)
+    {
+        int duration = this.ldapUserImportConfiguration.getNegativeCacheDuration();
+        if (duration > 0) {
+            this.cache.set(key.toLowerCase(Locale.ROOT),
+                System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(duration));
+        }
+    }
+}
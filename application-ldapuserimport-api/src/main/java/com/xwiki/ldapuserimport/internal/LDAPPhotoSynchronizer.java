@@ -0,0 +1,259 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.ldapuserimport.internal;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.ldap.PagedLDAPSearchResults;
+import org.xwiki.contrib.ldap.XWikiLDAPConfig;
+import org.xwiki.contrib.ldap.XWikiLDAPConnection;
+import org.xwiki.job.Job;
+import org.xwiki.job.JobException;
+import org.xwiki.job.JobExecutor;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.LocalDocumentReference;
+
+import com.novell.ldap.LDAPAttribute;
+import com.novell.ldap.LDAPConnection;
+import com.novell.ldap.LDAPEntry;
+import com.novell.ldap.LDAPException;
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xwiki.ldapuserimport.LDAPUserImportConfiguration;
+import com.xwiki.ldapuserimport.LDAPUserImportConfiguration.SyncHistoryPolicy;
+import com.xwiki.ldapuserimport.internal.job.LDAPPhotoSyncJob;
+import com.xwiki.ldapuserimport.job.LDAPPhotoSyncRequest;
+
+/**
+ * Synchronize LDAP profile photos separately from the user synchronization. The LDAP entry change marker and a digest
+ * of the photo bytes are stored in the user profile, so that the binary photo attribute is only fetched for users
+ * whose entry changed since the last synchronization, and the photo is only attached again when its bytes changed.
+ *
+ * @version $Id$
+ * @since 1.7.10
+ */
+@Component(roles = LDAPPhotoSynchronizer.class)
+@Singleton
+public class LDAPPhotoSynchronizer
+{
+    /**
+     * The reference of the class storing the state of the photo synchronization in user profiles.
+     */
+    public static final LocalDocumentReference PHOTO_CLASS_REFERENCE =
+        new LocalDocumentReference("LDAPUserImport", "LDAPUserPhotoClass");
+
+    private static final LocalDocumentReference USER_CLASS_REFERENCE =
+        new LocalDocumentReference(XWiki.SYSTEM_SPACE, "XWikiUsers");
+
+    private static final String LDAP_PHOTO_ATTACHMENT_NAME = "ldap_photo_attachment_name";
+
+    private static final String DEFAULT_PHOTO_ATTACHMENT_NAME = "ldapPhoto";
+
+    private static final String DIGEST = "digest";
+
+    private static final String CHANGE_MARKER = "changeMarker";
+
+    private static final String ANY_OBJECT_FILTER = "(objectClass=*)";
+
+    private static final String PHOTO_SAVE_COMMENT = "Synchronized the LDAP profile photo.";
+
+    private static final AtomicLong JOB_COUNTER = new AtomicLong();
+
+    /**
+     * Operational attributes that change whenever the LDAP entry is modified (standard LDAP and Active Directory).
+     */
+    private static final String[] CHANGE_MARKER_ATTRIBUTES = new String[] { "modifyTimestamp", "whenChanged" };
+
+    @Inject
+    private JobExecutor jobExecutor;
+
+    @Inject
+    private XWikiLDAPFactory xWikiLDAPFactory;
+
+    @Inject
+    private LDAPUserImportConfiguration ldapUserImportConfiguration;
+
+    @Inject
+    private LDAPSaveBatcher saveBatcher;
+
+    @Inject
+    private Logger logger;
+
+    /**
+     * Make sure that the LDAP authenticator does not fetch and attach the user photo while synchronizing the user
+     * profile, since this is handled afterwards by {@link #schedule(List, String)}.
+     *
+     * @param configuration the LDAP configuration used for the user synchronization
+     * @return {@code true} if the photo synchronization was enabled and should be scheduled separately
+     */
+    public boolean detachPhotoUpdate(XWikiLDAPConfig configuration)
+    {
+        if (XWikiLDAPUtilsHelper.isPhotoUpdateEnabled(configuration)) {
+            configuration.setFinalProperty(XWikiLDAPConfig.PREF_LDAP_UPDATE_PHOTO, "0");
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Start a background job synchronizing the photos of the given users.
+     *
+     * @param userReferences the users whose photo should be synchronized
+     * @param wikiId the wiki in which the job is started
+     * @return the started job, or {@code null} if there was nothing to synchronize or the job could not be started
+     */
+    public Job schedule(List<DocumentReference> userReferences, String wikiId)
+    {
+        if (userReferences.isEmpty()) {
+            return null;
+        }
+
+        LDAPPhotoSyncRequest request = new LDAPPhotoSyncRequest();
+        // Several jobs can be scheduled within the same millisecond, e.g. for the chunks of a large group.
+        request.setId("ldap", "photoSync", wikiId, String.valueOf(System.currentTimeMillis()),
+            String.valueOf(JOB_COUNTER.incrementAndGet()));
+        request.setUserReferences(userReferences);
+        try {
+            return jobExecutor.execute(LDAPPhotoSyncJob.JOB_TYPE, request);
+        } catch (JobException e) {
+            logger.error("Failed to start the synchronization of the LDAP photos of [{}] users.",
+                userReferences.size(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Synchronize the photo of a user, if it changed in LDAP since the last synchronization.
+     *
+     * @param connection an opened LDAP connection
+     * @param configuration the LDAP configuration
+     * @param userReference the user profile
+     * @param context the XWiki context
+     * @return {@code true} if the photo was attached or replaced, {@code false} if it was left untouched
+     * @throws XWikiException if the user profile could not be loaded or saved
+     * @throws LDAPException if the LDAP entry of the user could not be read
+     */
+    public boolean synchronizePhoto(XWikiLDAPConnection connection, XWikiLDAPConfig configuration,
+        DocumentReference userReference, XWikiContext context) throws XWikiException, LDAPException
+    {
+        XWikiDocument userDoc = context.getWiki().getDocument(userReference, context);
+        String dn = xWikiLDAPFactory.getLDAPProfileXClass(context).getDn(userDoc);
+        if (StringUtils.isBlank(dn)) {
+            logger.debug("Skipping the photo of [{}] since it is not an LDAP user profile.", userReference);
+            return false;
+        }
+
+        BaseObject stateObject = userDoc.getXObject(PHOTO_CLASS_REFERENCE);
+        String changeMarker = getChangeMarker(connection, dn);
+        if (stateObject != null && StringUtils.isNotBlank(changeMarker)
+            && changeMarker.equals(stateObject.getStringValue(CHANGE_MARKER)))
+        {
+            logger.debug("The LDAP entry [{}] did not change since the last photo synchronization.", dn);
+            return false;
+        }
+
+        String photoAttribute = XWikiLDAPUtilsHelper.getPhotoAttribute(configuration);
+        LDAPEntry entry = readEntry(connection, dn, new String[] { photoAttribute });
+        LDAPAttribute photo = entry != null ? entry.getAttribute(photoAttribute) : null;
+        byte[] photoBytes = photo != null ? photo.getByteValue() : null;
+        String digest = photoBytes != null ? DigestUtils.sha256Hex(photoBytes) : StringUtils.EMPTY;
+
+        String attachmentName =
+            configuration.getLDAPParam(LDAP_PHOTO_ATTACHMENT_NAME, DEFAULT_PHOTO_ATTACHMENT_NAME);
+        boolean photoChanged = stateObject == null || !digest.equals(stateObject.getStringValue(DIGEST))
+            || (photoBytes != null && userDoc.getAttachment(attachmentName) == null);
+        boolean markerChanged = stateObject == null
+            || !StringUtils.defaultString(changeMarker).equals(stateObject.getStringValue(CHANGE_MARKER));
+        if (!photoChanged && !markerChanged) {
+            return false;
+        }
+
+        if (stateObject == null) {
+            stateObject = userDoc.newXObject(PHOTO_CLASS_REFERENCE, context);
+        }
+        stateObject.setStringValue(CHANGE_MARKER, StringUtils.defaultString(changeMarker));
+        stateObject.setStringValue(DIGEST, digest);
+
+        if (photoChanged && photoBytes != null) {
+            attachPhoto(userDoc, attachmentName, photoBytes, context);
+        }
+        saveUserDocument(userDoc, context);
+
+        return photoChanged;
+    }
+
+    private void saveUserDocument(XWikiDocument userDoc, XWikiContext context) throws XWikiException
+    {
+        // The photo updates follow the history policy of the user synchronization.
+        if (ldapUserImportConfiguration.getSyncHistoryPolicy() == SyncHistoryPolicy.NO_VERSION && !userDoc.isNew()) {
+            saveBatcher.saveWithoutVersion(userDoc, PHOTO_SAVE_COMMENT, context);
+        } else {
+            context.getWiki().saveDocument(userDoc, PHOTO_SAVE_COMMENT, true, context);
+        }
+    }
+
+    private void attachPhoto(XWikiDocument userDoc, String attachmentName, byte[] photoBytes, XWikiContext context)
+        throws XWikiException
+    {
+        try {
+            userDoc.setAttachment(attachmentName, new ByteArrayInputStream(photoBytes), context);
+        } catch (Exception e) {
+            throw new XWikiException(XWikiException.MODULE_XWIKI_STORE, XWikiException.ERROR_XWIKI_UNKNOWN,
+                String.format("Failed to attach the LDAP photo to [%s].", userDoc.getDocumentReference()), e);
+        }
+        BaseObject userObject = userDoc.getXObject(USER_CLASS_REFERENCE);
+        if (userObject != null) {
+            userObject.setStringValue("avatar", attachmentName);
+        }
+    }
+
+    private String getChangeMarker(XWikiLDAPConnection connection, String dn) throws LDAPException
+    {
+        LDAPEntry entry = readEntry(connection, dn, CHANGE_MARKER_ATTRIBUTES);
+        if (entry != null) {
+            for (String attributeName : CHANGE_MARKER_ATTRIBUTES) {
+                LDAPAttribute attribute = entry.getAttribute(attributeName);
+                if (attribute != null) {
+                    return attribute.getStringValue();
+                }
+            }
+        }
+        return null;
+    }
+
+    private LDAPEntry readEntry(XWikiLDAPConnection connection, String dn, String[] attributes) throws LDAPException
+    {
+        PagedLDAPSearchResults result =
+            connection.searchPaginated(dn, LDAPConnection.SCOPE_BASE, ANY_OBJECT_FILTER, attributes, false);
+        return result.hasMore() ? result.next() : null;
+    }
+}
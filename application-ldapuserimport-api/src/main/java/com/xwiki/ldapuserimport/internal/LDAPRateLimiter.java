@@ -0,0 +1,372 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.ldapuserimport.internal;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.ldap.XWikiLDAPConfig;
+
+import com.novell.ldap.LDAPException;
+
+/**
+ * Limit the rate and the concurrency of the LDAP operations, so that mass synchronizations don't get throttled by the
+ * LDAP server.
+ * <p>
+ * The operations performed by the synchronization and import jobs (see {@link #batch()}) wait for a token of a token
+ * bucket and for one of the slots not reserved to the interactive operations. The interactive operations, like the
+ * searches of the import wizard, are never delayed by the token bucket, but they consume tokens, and they can use the
+ * reserved slots.
+ * <p>
+ * When the LDAP server answers that it is busy, unavailable or that an administrative limit is exceeded, the rate is
+ * halved; it then grows back slowly as the operations succeed.
+ * <p>
+ * The limiter is configured with the LDAP parameters (in {@code xwiki.cfg} or in the global preferences):
+ * <ul>
+ * <li>{@value #RATE_PARAM}: the maximum number of operations per second, 0 for no limit (default)</li>
+ * <li>{@value #CONCURRENCY_PARAM}: the maximum number of concurrent operations, 0 for no limit (default)</li>
+ * <li>{@value #RESERVE_PARAM}: the number of concurrent operations reserved to interactive operations (default
+ * 2)</li>
+ * </ul>
+ *
+ * @version $Id$
+ * @since 1.7.10
+ */
+@Component(roles = LDAPRateLimiter.class)
+@Singleton
+public class LDAPRateLimiter
+{
+    /**
+     * The maximum number of operations per second.
+     */
+    public static final String RATE_PARAM = "ldap_rate_limit";
+
+    /**
+     * The maximum number of concurrent operations.
+     */
+    public static final String CONCURRENCY_PARAM = "ldap_max_concurrent_operations";
+
+    /**
+     * The number of concurrent operations reserved to interactive operations.
+     */
+    public static final String RESERVE_PARAM = "ldap_interactive_reserve";
+
+    /**
+     * The rate used when the server is busy and no rate limit is configured.
+     */
+    private static final double ADAPTIVE_RATE = 100;
+
+    private static final double MIN_RATE = 1;
+
+    /**
+     * The number of operations per second added to the rate after each successful operation, after a slow down.
+     */
+    private static final double RECOVERY_STEP = 0.1;
+
+    private static final int DEFAULT_RESERVE = 2;
+
+    private static final ThreadLocal<Boolean> BATCH = new ThreadLocal<>();
+
+    @Inject
+    private Logger logger;
+
+    private double configuredRate;
+
+    /**
+     * The current rate, lower than the configured one after the server reported being busy; 0 for no limit.
+     */
+    private double rate;
+
+    private double tokens;
+
+    private long lastRefill = System.nanoTime();
+
+    private int concurrency;
+
+    private int reserve;
+
+    private Slots slots;
+
+    /**
+     * Marks the operations of the current thread as batch operations until closed.
+     */
+    public static final class Scope implements AutoCloseable
+    {
+        private final Boolean previous;
+
+        private Scope(Boolean previous)
+        {
+            this.previous = previous;
+        }
+
+        @Override
+        public void close()
+        {
+            BATCH.set(this.previous);
+        }
+    }
+
+    /**
+     * The slot held by an operation.
+     */
+    public static final class Permit
+    {
+        private final Semaphore shared;
+
+        private final Semaphore batch;
+
+        private Permit(Semaphore shared, Semaphore batch)
+        {
+            this.shared = shared;
+            this.batch = batch;
+        }
+    }
+
+    private static final class Slots
+    {
+        private final Semaphore shared;
+
+        private final Semaphore batch;
+
+        Slots(int concurrency, int reserve)
+        {
+            this.shared = new Semaphore(concurrency, true);
+            this.batch = new Semaphore(Math.max(1, concurrency - reserve), true);
+        }
+    }
+
+    /**
+     * Mark the LDAP operations performed by the current thread as batch operations, until the returned scope is
+     * closed.
+     *
+     * @return the scope to close
+     */
+    public Scope batch()
+    {
+        Scope scope = new Scope(BATCH.get());
+        BATCH.set(Boolean.TRUE);
+        return scope;
+    }
+
+    /**
+     * @param task a task to run in another thread
+     * @param <T> the type of the task result
+     * @return a task running the given one with the priority of the current thread
+     */
+    public <T> Callable<T> propagate(Callable<T> task)
+    {
+        boolean isBatch = isBatch();
+        return () -> {
+            Boolean previous = BATCH.get();
+            BATCH.set(isBatch);
+            try {
+                return task.call();
+            } finally {
+                BATCH.set(previous);
+            }
+        };
+    }
+
+    /**
+     * Update the limits from the LDAP configuration.
+     *
+     * @param configuration the LDAP configuration
+     */
+    public synchronized void configure(XWikiLDAPConfig configuration)
+    {
+        double newRate = NumberUtils.toDouble(configuration.getLDAPParam(RATE_PARAM, null), 0);
+        if (newRate != this.configuredRate) {
+            this.configuredRate = newRate;
+            this.rate = newRate;
+            this.tokens = newRate;
+        }
+        int newConcurrency = NumberUtils.toInt(configuration.getLDAPParam(CONCURRENCY_PARAM, null), 0);
+        int newReserve = NumberUtils.toInt(configuration.getLDAPParam(RESERVE_PARAM, null), DEFAULT_RESERVE);
+        if (newConcurrency != this.concurrency || newReserve != this.reserve) {
+            this.concurrency = newConcurrency;
+            this.reserve = newReserve;
+            // The operations in progress release their slots in the previous semaphores.
+            this.slots = newConcurrency > 0 ? new Slots(newConcurrency, newReserve) : null;
+        }
+    }
+
+    /**
+     * Wait until an operation can be performed.
+     *
+     * @return the permit to give to {@link #release(Permit, Throwable)} once the operation is done
+     */
+    public Permit acquire()
+    {
+        boolean isBatch = isBatch();
+        Slots currentSlots;
+        synchronized (this) {
+            currentSlots = this.slots;
+        }
+        if (isBatch) {
+            waitForToken();
+        } else {
+            consumeToken();
+        }
+
+        if (currentSlots == null) {
+            return null;
+        }
+        Semaphore batch = isBatch ? currentSlots.batch : null;
+        if (batch != null) {
+            batch.acquireUninterruptibly();
+        }
+        currentSlots.shared.acquireUninterruptibly();
+        return new Permit(currentSlots.shared, batch);
+    }
+
+    /**
+     * Wait until one more operation can be sent on behalf of an operation already holding a permit, like the searches
+     * pipelined on a single connection: the operation is subject to the rate limit, but shares the concurrency slot
+     * of the permit.
+     */
+    public void acquireToken()
+    {
+        if (isBatch()) {
+            waitForToken();
+        } else {
+            consumeToken();
+        }
+    }
+
+    /**
+     * Release the permit of an operation, and slow down if the server reported being overloaded.
+     *
+     * @param permit the value returned by {@link #acquire()}
+     * @param failure the failure of the operation, or {@code null} if it succeeded
+     */
+    public void release(Permit permit, Throwable failure)
+    {
+        if (permit != null) {
+            permit.shared.release();
+            if (permit.batch != null) {
+                permit.batch.release();
+            }
+        }
+
+        if (isOverloaded(failure)) {
+            slowDown();
+        } else if (failure == null) {
+            recover();
+        }
+    }
+
+    /**
+     * @return {@code true} if the LDAP operations of the current thread are batch operations
+     * @see #batch()
+     */
+    public boolean isBatch()
+    {
+        return Boolean.TRUE.equals(BATCH.get());
+    }
+
+    private synchronized void slowDown()
+    {
+        double previousRate = this.rate;
+        if (previousRate > 0) {
+            refill();
+        } else {
+            this.tokens = 0;
+            this.lastRefill = System.nanoTime();
+        }
+        this.rate = Math.max(MIN_RATE, (this.rate > 0 ? this.rate : ADAPTIVE_RATE) / 2);
+        this.tokens = Math.min(this.tokens, this.rate);
+        this.logger.warn("The LDAP server is overloaded, slowing down from [{}] to [{}] operations per second.",
+            previousRate > 0 ? previousRate : "unlimited", this.rate);
+    }
+
+    private synchronized void recover()
+    {
+        if (this.rate > 0 && (this.configuredRate == 0 || this.rate < this.configuredRate)) {
+            this.rate += RECOVERY_STEP;
+            if (this.configuredRate > 0) {
+                this.rate = Math.min(this.rate, this.configuredRate);
+            } else if (this.rate >= ADAPTIVE_RATE) {
+                // Back to no limit.
+                this.rate = 0;
+            }
+        }
+    }
+
+    private synchronized void consumeToken()
+    {
+        if (this.rate > 0) {
+            refill();
+            // Interactive operations never wait, but they delay the next batch operations.
+            this.tokens = Math.max(this.tokens - 1, -this.rate);
+        }
+    }
+
+    private void waitForToken()
+    {
+        while (true) {
+            long waitNanos;
+            synchronized (this) {
+                if (this.rate <= 0) {
+                    return;
+                }
+                refill();
+                if (this.tokens >= 1) {
+                    this.tokens--;
+                    return;
+                }
+                waitNanos = (long) ((1 - this.tokens) / this.rate * TimeUnit.SECONDS.toNanos(1));
+            }
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void refill()
+    {
+        long now = System.nanoTime();
+        // The bucket holds at most one second of operations.
+        double refilled = (double) (now - this.lastRefill) / TimeUnit.SECONDS.toNanos(1) * this.rate;
+        this.tokens = Math.min(this.rate, this.tokens + refilled);
+        this.lastRefill = now;
+    }
+
+    private static boolean isOverloaded(Throwable failure)
+    {
+        LDAPException exception = ExceptionUtils.throwableOfType(failure, LDAPException.class);
+        if (exception != null) {
+            int resultCode = exception.getResultCode();
+            return resultCode == LDAPException.BUSY || resultCode == LDAPException.UNAVAILABLE
+                || resultCode == LDAPException.ADMIN_LIMIT_EXCEEDED;
+        }
+        return false;
+    }
+}
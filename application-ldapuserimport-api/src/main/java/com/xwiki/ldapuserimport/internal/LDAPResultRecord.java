@@ -0,0 +1,299 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.ldapuserimport.internal;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.xwiki.contrib.ldap.XWikiLDAPSearchAttribute;
+
+import com.novell.ldap.LDAPAttribute;
+import com.novell.ldap.LDAPEntry;
+
+/**
+ * A compact, immutable LDAP user or group search hit: the values are stored in an array indexed by a shared
+ * {@link LDAPResultSchema}, and are exposed as a {@code Map<String, String>} through {@link #asMap()}.
+ *
+ * @version $Id$
+ * @since 1.7.10
+ */
+public final class LDAPResultRecord
+{
+    private final LDAPResultSchema schema;
+
+    private final String[] values;
+
+    private LDAPResultRecord(LDAPResultSchema schema, String[] values)
+    {
+        this.schema = schema;
+        this.values = values;
+    }
+
+    /**
+     * @param schema the schema of the record
+     * @return a builder of records of the given schema
+     */
+    public static Builder builder(LDAPResultSchema schema)
+    {
+        return new Builder(schema);
+    }
+
+    /**
+     * Select the value of an LDAP attribute that a record holds: the last value of a multi-valued attribute, as when
+     * reading the attributes returned by the LDAP authenticator.
+     *
+     * @param attribute the LDAP attribute, can be {@code null}
+     * @return the selected value, or {@code null} if the attribute has no value
+     */
+    public static String getValue(LDAPAttribute attribute)
+    {
+        String[] attributeValues = attribute != null ? attribute.getStringValueArray() : null;
+        return attributeValues != null && attributeValues.length > 0 ? attributeValues[attributeValues.length - 1]
+            : null;
+    }
+
+    /**
+     * @param key the record key
+     * @return the value of the key, or {@code null} if the key is not set
+     */
+    public String get(String key)
+    {
+        int index = this.schema.indexOf(key);
+        return index >= 0 ? this.values[index] : null;
+    }
+
+    /**
+     * @return a map view of the record; the view supports {@code put} (e.g. for adding display messages from
+     *     Velocity) by copying the values on the first write, leaving the record itself untouched
+     */
+    public Map<String, String> asMap()
+    {
+        return new RecordMap(this.schema, this.values);
+    }
+
+    /**
+     * Builds {@link LDAPResultRecord}s.
+     *
+     * @version $Id$
+     */
+    public static final class Builder
+    {
+        private final LDAPResultSchema schema;
+
+        private final String[] values;
+
+        private Builder(LDAPResultSchema schema)
+        {
+            this.schema = schema;
+            this.values = new String[schema.size()];
+        }
+
+        /**
+         * @param key the record key, ignored if not part of the schema
+         * @param value the value
+         * @return this builder
+         */
+        public Builder set(String key, String value)
+        {
+            int index = this.schema.indexOf(key);
+            if (index >= 0) {
+                this.values[index] = value;
+            }
+            return this;
+        }
+
+        /**
+         * Read the values of the schema LDAP attributes directly from an LDAP entry. The last value of a multi-valued
+         * attribute is kept, as when reading the attributes returned by the LDAP authenticator.
+         *
+         * @param entry the LDAP entry
+         * @return this builder
+         */
+        public Builder setAttributes(LDAPEntry entry)
+        {
+            for (int i = 0; i < this.schema.getLDAPAttributeCount(); i++) {
+                String value = getValue(entry.getAttribute(this.schema.getLDAPAttribute(i)));
+                if (value != null) {
+                    this.values[this.schema.getLDAPAttributeSlot(i)] = value;
+                }
+            }
+            return this;
+        }
+
+        /**
+         * Read the values of the schema LDAP attributes from a list of attributes returned by the LDAP authenticator,
+         * which holds one attribute per value of the multi-valued attributes. The last value is kept.
+         *
+         * @param attributes the LDAP attributes
+         * @return this builder
+         */
+        public Builder setAttributes(List<XWikiLDAPSearchAttribute> attributes)
+        {
+            for (XWikiLDAPSearchAttribute attribute : attributes) {
+                int slot = this.schema.slotOf(attribute.name);
+                if (slot >= 0) {
+                    this.values[slot] = attribute.value;
+                }
+            }
+            return this;
+        }
+
+        /**
+         * Build the record, which takes over the values of this builder: the builder must not be used afterwards.
+         *
+         * @return the record
+         */
+        public LDAPResultRecord build()
+        {
+            return new LDAPResultRecord(this.schema, this.values);
+        }
+    }
+
+    private static final class RecordMap extends AbstractMap<String, String>
+    {
+        private final LDAPResultSchema schema;
+
+        private String[] values;
+
+        private boolean copied;
+
+        private Map<String, String> extraValues;
+
+        RecordMap(LDAPResultSchema schema, String[] values)
+        {
+            this.schema = schema;
+            this.values = values;
+        }
+
+        @Override
+        public String get(Object key)
+        {
+            int index = this.schema.indexOf(key);
+            if (index >= 0) {
+                return this.values[index];
+            }
+            return this.extraValues != null ? this.extraValues.get(key) : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key)
+        {
+            int index = this.schema.indexOf(key);
+            if (index >= 0) {
+                return this.values[index] != null;
+            }
+            return this.extraValues != null && this.extraValues.containsKey(key);
+        }
+
+        @Override
+        public String put(String key, String value)
+        {
+            int index = this.schema.indexOf(key);
+            if (index >= 0) {
+                if (!this.copied) {
+                    this.values = Arrays.copyOf(this.values, this.values.length);
+                    this.copied = true;
+                }
+                String previous = this.values[index];
+                this.values[index] = value;
+                return previous;
+            }
+            if (this.extraValues == null) {
+                this.extraValues = new HashMap<>();
+            }
+            return this.extraValues.put(key, value);
+        }
+
+        @Override
+        public Set<Entry<String, String>> entrySet()
+        {
+            return new AbstractSet<Entry<String, String>>()
+            {
+                @Override
+                public Iterator<Entry<String, String>> iterator()
+                {
+                    return new RecordIterator();
+                }
+
+                @Override
+                public int size()
+                {
+                    int size = RecordMap.this.extraValues != null ? RecordMap.this.extraValues.size() : 0;
+                    for (String value : RecordMap.this.values) {
+                        if (value != null) {
+                            size++;
+                        }
+                    }
+                    return size;
+                }
+            };
+        }
+
+        private final class RecordIterator implements Iterator<Entry<String, String>>
+        {
+            private int next = advance(0);
+
+            private Iterator<Entry<String, String>> extraIterator;
+
+            private int advance(int from)
+            {
+                int index = from;
+                while (index < RecordMap.this.values.length && RecordMap.this.values[index] == null) {
+                    index++;
+                }
+                return index;
+            }
+
+            @Override
+            public boolean hasNext()
+            {
+                if (this.next < RecordMap.this.values.length) {
+                    return true;
+                }
+                if (this.extraIterator == null && RecordMap.this.extraValues != null) {
+                    this.extraIterator = RecordMap.this.extraValues.entrySet().iterator();
+                }
+                return this.extraIterator != null && this.extraIterator.hasNext();
+            }
+
+            @Override
+            public Entry<String, String> next()
+            {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                if (this.next < RecordMap.this.values.length) {
+                    int index = this.next;
+                    this.next = advance(index + 1);
+                    return new SimpleImmutableEntry<>(RecordMap.this.schema.getKey(index),
+                        RecordMap.this.values[index]);
+                }
+                return this.extraIterator.next();
+            }
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.ldapuserimport.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The shared, immutable table of keys of {@link LDAPResultRecord}s. A schema is computed once per search and shared by
+ * all the records of that search, so that the key strings and the LDAP attribute to key mapping are not repeated for
+ * every entry.
+ *
+ * @version $Id$
+ * @since 1.7.10
+ */
+public final class LDAPResultSchema
+{
+    private final String[] keys;
+
+    private final Map<String, Integer> indexes;
+
+    private final String[] ldapAttributes;
+
+    private final int[] ldapAttributeSlots;
+
+    private final Map<String, Integer> ldapAttributeIndexes;
+
+    private LDAPResultSchema(List<String> keys, List<String> ldapAttributes, List<Integer> ldapAttributeSlots)
+    {
+        this.keys = keys.toArray(new String[0]);
+        Map<String, Integer> keyIndexes = new HashMap<>();
+        for (int i = 0; i < this.keys.length; i++) {
+            keyIndexes.put(this.keys[i], i);
+        }
+        this.indexes = Collections.unmodifiableMap(keyIndexes);
+
+        this.ldapAttributes = ldapAttributes.toArray(new String[0]);
+        this.ldapAttributeSlots = new int[ldapAttributeSlots.size()];
+        Map<String, Integer> attributeIndexes = new HashMap<>();
+        for (int i = 0; i < this.ldapAttributeSlots.length; i++) {
+            this.ldapAttributeSlots[i] = ldapAttributeSlots.get(i);
+            // The LDAP attribute names are case-insensitive.
+            attributeIndexes.put(this.ldapAttributes[i].toLowerCase(Locale.ROOT), this.ldapAttributeSlots[i]);
+        }
+        this.ldapAttributeIndexes = Collections.unmodifiableMap(attributeIndexes);
+    }
+
+    /**
+     * Create a schema.
+     *
+     * @param fixedKeys the keys whose values are not read from LDAP attributes
+     * @param ldapAttributes the LDAP attributes whose values are stored in the records
+     * @param fieldsMap the mapping between LDAP attribute names and record keys; LDAP attributes missing from this
+     *     mapping are stored under their own name
+     * @return the schema
+     */
+    public static LDAPResultSchema create(List<String> fixedKeys, List<String> ldapAttributes,
+        Map<String, String> fieldsMap)
+    {
+        List<String> keys = new ArrayList<>(fixedKeys);
+        List<String> attributes = new ArrayList<>();
+        Set<String> attributeNames = new HashSet<>();
+        List<Integer> slots = new ArrayList<>();
+        for (String ldapAttribute : ldapAttributes) {
+            if (!attributeNames.add(ldapAttribute.toLowerCase(Locale.ROOT))) {
+                continue;
+            }
+            String key = fieldsMap.getOrDefault(ldapAttribute, ldapAttribute);
+            int slot = keys.indexOf(key);
+            if (slot < 0) {
+                slot = keys.size();
+                keys.add(key);
+            }
+            attributes.add(ldapAttribute);
+            slots.add(slot);
+        }
+        return new LDAPResultSchema(keys, attributes, slots);
+    }
+
+    /**
+     * Create a schema.
+     *
+     * @param fixedKeys the keys whose values are not read from LDAP attributes
+     * @param ldapAttributes the LDAP attributes whose values are stored in the records, under their own name
+     * @return the schema
+     */
+    public static LDAPResultSchema create(List<String> fixedKeys, String... ldapAttributes)
+    {
+        return create(fixedKeys, Arrays.asList(ldapAttributes), Collections.emptyMap());
+    }
+
+    /**
+     * @return the number of keys
+     */
+    public int size()
+    {
+        return this.keys.length;
+    }
+
+    /**
+     * @param index the index of a key
+     * @return the key
+     */
+    public String getKey(int index)
+    {
+        return this.keys[index];
+    }
+
+    /**
+     * @param key a record key
+     * @return the index of the key, or {@code -1} if the key is not part of this schema
+     */
+    public int indexOf(Object key)
+    {
+        Integer index = this.indexes.get(key);
+        return index != null ? index : -1;
+    }
+
+    /**
+     * @return the number of LDAP attributes read by the records of this schema
+     */
+    public int getLDAPAttributeCount()
+    {
+        return this.ldapAttributes.length;
+    }
+
+    /**
+     * @param index the index of an LDAP attribute
+     * @return the LDAP attribute name
+     */
+    public String getLDAPAttribute(int index)
+    {
+        return this.ldapAttributes[index];
+    }
+
+    /**
+     * @param index the index of an LDAP attribute
+     * @return the index of the key under which the attribute value is stored
+     */
+    public int getLDAPAttributeSlot(int index)
+    {
+        return this.ldapAttributeSlots[index];
+    }
+
+    /**
+     * @param ldapAttribute an LDAP attribute name, in any case
+     * @return the index of the key under which the attribute value is stored, or {@code -1} if the attribute is not
+     *     part of this schema
+     */
+    public int slotOf(String ldapAttribute)
+    {
+        Integer index = this.ldapAttributeIndexes.get(ldapAttribute.toLowerCase(Locale.ROOT));
+        return index != null ? index : -1;
+    }
+}
@@ -0,0 +1,391 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.ldapuserimport.internal;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.function.Consumer;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.observation.event.Event;
+import org.xwiki.observation.remote.RemoteObservationManagerConfiguration;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.store.XWikiCacheStore;
+import com.xpn.xwiki.store.XWikiHibernateStore;
+import com.xpn.xwiki.store.XWikiStoreInterface;
+import com.xwiki.ldapuserimport.LDAPUserImportConfiguration;
+import com.xwiki.ldapuserimport.internal.metrics.LDAPMetrics;
+
+/**
+ * Group the document saves of many users in a few database transactions, instead of committing each save on its own.
+ * <p>
+ * The import and the synchronization of each user is submitted to a {@link Batch} as a unit of work. The works are
+ * run in a database transaction which the documents saved by the works join, and which is committed once it groups
+ * the configured number of works (see {@link LDAPUserImportConfiguration#getSaveBatchSize()}). The outcome of the
+ * works is only reported once they are committed.
+ * <p>
+ * When a work fails, or when the commit fails, the whole transaction is rolled back and its works are run again one
+ * by one, each with its own transactions, so that a single failing user doesn't prevent saving the others. The works
+ * must thus be safe to run again, which is the case of the LDAP synchronization of a user.
+ * <p>
+ * The documents saved in the transaction are evicted from the document cache once it ends, since the other threads
+ * may have cached their previous version in the meantime, and the cache may hold the rolled back version. The events
+ * notified through {@link #notify(Event, Object, Object)} are only sent once the transaction is committed.
+ * <p>
+ * The documents are saved before being committed, and the other cluster nodes are told about each save when it is
+ * done, so they could reload the previous version of a document in the meantime. The saves are thus not batched when
+ * the wiki is part of a cluster.
+ *
+ * @version $Id$
+ * @since 1.7.10
+ */
+@Component(roles = LDAPSaveBatcher.class)
+@Singleton
+public class LDAPSaveBatcher
+{
+    @Inject
+    private Logger logger;
+
+    @Inject
+    private Provider<XWikiContext> contextProvider;
+
+    @Inject
+    private LDAPUserImportConfiguration ldapUserImportConfiguration;
+
+    @Inject
+    private RemoteObservationManagerConfiguration remoteObservationManagerConfiguration;
+
+    @Inject
+    private LDAPMetrics metrics;
+
+    @Inject
+    private ObservationManager observationManager;
+
+    private final ThreadLocal<Batch> currentBatch = new ThreadLocal<>();
+
+    /**
+     * A work submitted to a batch, and the callbacks receiving its outcome.
+     *
+     * @param <T> the type of the result of the work
+     */
+    private static final class Work<T>
+    {
+        private final Callable<T> callable;
+
+        private final Consumer<T> onSuccess;
+
+        private final Consumer<Exception> onFailure;
+
+        private T result;
+
+        Work(Callable<T> callable, Consumer<T> onSuccess, Consumer<Exception> onFailure)
+        {
+            this.callable = callable;
+            this.onSuccess = onSuccess;
+            this.onFailure = onFailure;
+        }
+
+        void call() throws Exception
+        {
+            this.result = this.callable.call();
+        }
+
+        void succeed()
+        {
+            this.onSuccess.accept(this.result);
+        }
+
+        void run()
+        {
+            try {
+                call();
+            } catch (Exception e) {
+                this.onFailure.accept(e);
+                return;
+            }
+            succeed();
+        }
+    }
+
+    /**
+     * An event to send once the current transaction is committed.
+     */
+    private static final class Notification
+    {
+        private final Event event;
+
+        private final Object source;
+
+        private final Object data;
+
+        Notification(Event event, Object source, Object data)
+        {
+            this.event = event;
+            this.source = source;
+            this.data = data;
+        }
+    }
+
+    /**
+     * The works run in the current database transaction, until it is committed.
+     */
+    public class Batch implements AutoCloseable
+    {
+        private final XWikiContext context;
+
+        private final XWikiHibernateStore store;
+
+        private final int size;
+
+        private final Batch previous;
+
+        private final List<Work<?>> works = new ArrayList<>();
+
+        private final Map<DocumentReference, XWikiDocument> savedDocuments = new LinkedHashMap<>();
+
+        private final List<Notification> notifications = new ArrayList<>();
+
+        private boolean inTransaction;
+
+        Batch(XWikiContext context, XWikiHibernateStore store, int size, Batch previous)
+        {
+            this.context = context;
+            this.store = store;
+            this.size = size;
+            this.previous = previous;
+        }
+
+        /**
+         * Run a work in the current transaction. Its outcome is reported once the transaction is committed or, if
+         * the transaction is rolled back, once the work has been run again on its own.
+         *
+         * @param callable the work, saving documents
+         * @param onSuccess receives the result of the work
+         * @param onFailure receives the failure of the work; it can throw to stop the batch, in which case the works
+         *     not reported yet are dropped
+         * @param <T> the type of the result of the work
+         */
+        public <T> void submit(Callable<T> callable, Consumer<T> onSuccess, Consumer<Exception> onFailure)
+        {
+            Work<T> work = new Work<>(callable, onSuccess, onFailure);
+            if (!begin()) {
+                work.run();
+                return;
+            }
+
+            this.works.add(work);
+            try {
+                work.call();
+            } catch (Exception e) {
+                rollback(e);
+                return;
+            }
+            if (this.works.size() >= this.size) {
+                commit();
+            }
+        }
+
+        private boolean begin()
+        {
+            if (!this.inTransaction && this.store != null && this.size > 1) {
+                try {
+                    // A transaction already opened by the caller is not ours to commit.
+                    this.inTransaction = this.store.beginTransaction(this.context);
+                } catch (XWikiException e) {
+                    logger.warn("Failed to start a database transaction, saving the documents one by one.", e);
+                }
+            }
+            return this.inTransaction;
+        }
+
+        private void commit()
+        {
+            this.inTransaction = false;
+            try (LDAPMetrics.Sample sample = metrics.start(LDAPMetrics.WIKI_COMMIT)) {
+                this.store.endTransaction(this.context, true);
+            } catch (RuntimeException e) {
+                replay(e);
+                return;
+            }
+            // Other threads may have cached the previous version of the documents before they were committed.
+            evictSavedDocuments();
+            List<Notification> committedNotifications = new ArrayList<>(this.notifications);
+            this.notifications.clear();
+            for (Notification notification : committedNotifications) {
+                observationManager.notify(notification.event, notification.source, notification.data);
+            }
+            List<Work<?>> committed = new ArrayList<>(this.works);
+            this.works.clear();
+            committed.forEach(Work::succeed);
+        }
+
+        private void rollback(Exception cause)
+        {
+            this.inTransaction = false;
+            try {
+                this.store.endTransaction(this.context, false);
+            } catch (RuntimeException e) {
+                logger.debug("Failed to roll back the database transaction.", e);
+            }
+            replay(cause);
+        }
+
+        private void replay(Exception cause)
+        {
+            logger.warn("Failed to save a batch of [{}] users, saving them one by one. Root cause: [{}]",
+                this.works.size(), cause.getMessage());
+            // The cache may hold the documents saved by the rolled back transaction, whose events are dropped.
+            evictSavedDocuments();
+            this.notifications.clear();
+            List<Work<?>> rolledBack = new ArrayList<>(this.works);
+            this.works.clear();
+            rolledBack.forEach(Work::run);
+        }
+
+        private void evictSavedDocuments()
+        {
+            XWikiStoreInterface cacheStore = this.context.getWiki().getStore();
+            if (cacheStore instanceof XWikiCacheStore) {
+                XWikiCacheStore documentCache = (XWikiCacheStore) cacheStore;
+                for (XWikiDocument document : this.savedDocuments.values()) {
+                    String key = documentCache.getKey(document, this.context);
+                    documentCache.getCache().remove(key);
+                    documentCache.getPageExistCache().remove(key);
+                }
+            }
+            this.savedDocuments.clear();
+        }
+
+        /**
+         * Commit the works run since the last commit.
+         */
+        @Override
+        public void close()
+        {
+            try {
+                if (this.inTransaction) {
+                    commit();
+                }
+            } finally {
+                restore(this.previous);
+            }
+        }
+    }
+
+    /**
+     * Start a batch, to be closed once all the works have been submitted.
+     *
+     * @return the new batch
+     */
+    public Batch open()
+    {
+        XWikiContext context = this.contextProvider.get();
+        int size = this.ldapUserImportConfiguration.getSaveBatchSize();
+        Batch batch;
+        if (size <= 1 || this.remoteObservationManagerConfiguration.isEnabled()) {
+            batch = new Batch(context, null, 1, this.currentBatch.get());
+        } else {
+            batch = new Batch(context, context.getWiki().getHibernateStore(), size, this.currentBatch.get());
+        }
+        this.currentBatch.set(batch);
+        return batch;
+    }
+
+    /**
+     * Record a document saved by the current thread, to evict it from the document cache once the current transaction
+     * ends.
+     *
+     * @param document the saved document
+     */
+    public void onDocumentSaved(XWikiDocument document)
+    {
+        Batch batch = this.currentBatch.get();
+        if (batch != null && batch.inTransaction) {
+            batch.savedDocuments.put(document.getDocumentReferenceWithLocale(), document);
+        }
+    }
+
+    /**
+     * Save the changes of an existing document in its current version, without adding a version to its history.
+     * <p>
+     * The document is saved directly in the store, which only adds a version for the documents marked as modified, so
+     * the document update event is sent by this method, once the current transaction is committed.
+     *
+     * @param document the document to save
+     * @param comment the comment of the change, or {@code null} for none
+     * @param context the XWiki context
+     * @throws XWikiException if the document could not be saved
+     */
+    public void saveWithoutVersion(XWikiDocument document, String comment, XWikiContext context)
+        throws XWikiException
+    {
+        document.setComment(StringUtils.defaultString(comment));
+        document.setMinorEdit(true);
+        // Marking the document as modified makes the store add a version, so it is done right before saving it.
+        document.setMetaDataDirty(false);
+        document.setContentDirty(false);
+        context.getWiki().getStore().saveXWikiDoc(document, context);
+        onDocumentSaved(document);
+        notify(new DocumentUpdatedEvent(document.getDocumentReferenceWithLocale()), document, context);
+    }
+
+    /**
+     * Send an event once the current transaction is committed, or right away when the current thread is not saving
+     * documents in a transaction. The event is dropped if the transaction is rolled back, in which case the work
+     * which notified it is run again.
+     *
+     * @param event the event
+     * @param source the event source
+     * @param data the event data
+     */
+    public void notify(Event event, Object source, Object data)
+    {
+        Batch batch = this.currentBatch.get();
+        if (batch != null && batch.inTransaction) {
+            batch.notifications.add(new Notification(event, source, data));
+        } else {
+            this.observationManager.notify(event, source, data);
+        }
+    }
+
+    private void restore(Batch batch)
+    {
+        if (batch != null) {
+            this.currentBatch.set(batch);
+        } else {
+            this.currentBatch.remove();
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.ldapuserimport.internal;
+
+import org.apache.commons.lang3.StringUtils;
+import org.xwiki.contrib.ldap.XWikiLDAPConfig;
+
+import static com.xwiki.ldapuserimport.internal.XWikiLDAPUtilsHelper.LDAP_BASE_DN;
+import static com.xwiki.ldapuserimport.internal.XWikiLDAPUtilsHelper.LDAP_PORT;
+import static com.xwiki.ldapuserimport.internal.XWikiLDAPUtilsHelper.LDAP_SERVER;
+
+/**
+ * A base DN in which LDAP users and groups are searched, optionally on a dedicated server (e.g. a domain controller or
+ * a global catalog), written as {@code baseDN|host:port}.
+ *
+ * @version $Id$
+ * @since 1.7.10
+ */
+public final class LDAPSearchBase
+{
+    private static final String SERVER_SEPARATOR = "|";
+
+    private static final String PORT_SEPARATOR = ":";
+
+    private final String baseDN;
+
+    private final String host;
+
+    private final String port;
+
+    private LDAPSearchBase(String baseDN, String host, String port)
+    {
+        this.baseDN = baseDN;
+        this.host = host;
+        this.port = port;
+    }
+
+    /**
+     * @param searchBase the search base, as {@code baseDN} or {@code baseDN|host} or {@code baseDN|host:port}
+     * @return the parsed search base
+     */
+    public static LDAPSearchBase parse(String searchBase)
+    {
+        String baseDN = StringUtils.substringBefore(searchBase, SERVER_SEPARATOR).trim();
+        String server = StringUtils.substringAfter(searchBase, SERVER_SEPARATOR).trim();
+        String host = StringUtils.substringBeforeLast(server, PORT_SEPARATOR).trim();
+        String port = server.contains(PORT_SEPARATOR) ? StringUtils.substringAfterLast(server, PORT_SEPARATOR).trim()
+            : null;
+        return new LDAPSearchBase(baseDN, StringUtils.defaultIfBlank(host, null),
+            StringUtils.isNumeric(port) ? port : null);
+    }
+
+    /**
+     * @param baseDN the base DN, searched on the configured LDAP server
+     * @return the search base
+     */
+    public static LDAPSearchBase of(String baseDN)
+    {
+        return new LDAPSearchBase(baseDN, null, null);
+    }
+
+    /**
+     * @return the base DN
+     */
+    public String getBaseDN()
+    {
+        return this.baseDN;
+    }
+
+    /**
+     * Point the given configuration to this search base.
+     *
+     * @param configuration a configuration dedicated to this search base
+     * @return the configuration
+     */
+    public XWikiLDAPConfig configure(XWikiLDAPConfig configuration)
+    {
+        configuration.setFinalProperty(LDAP_BASE_DN, this.baseDN);
+        if (this.host != null) {
+            configuration.setFinalProperty(LDAP_SERVER, this.host);
+            // A dedicated server is not routed among the replicas of the LDAP server.
+            configuration.setFinalProperty(LDAPServerRouter.REPLICAS_PARAM, "");
+        }
+        if (this.port != null) {
+            configuration.setFinalProperty(LDAP_PORT, this.port);
+        }
+        return configuration;
+    }
+
+    @Override
+    public String toString()
+    {
+        return this.host != null ? this.baseDN + SERVER_SEPARATOR + this.host
+            + (this.port != null ? PORT_SEPARATOR + this.port : "") : this.baseDN;
+    }
+}
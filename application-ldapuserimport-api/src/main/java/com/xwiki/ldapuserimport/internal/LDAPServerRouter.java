@@ -0,0 +1,210 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.ldapuserimport.internal;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.ldap.XWikiLDAPConfig;
+
+import static com.xwiki.ldapuserimport.internal.XWikiLDAPUtilsHelper.LDAP_PORT;
+import static com.xwiki.ldapuserimport.internal.XWikiLDAPUtilsHelper.LDAP_SERVER;
+
+/**
+ * Route the LDAP operations among the replicas of the LDAP server, based on their latency and their health.
+ * <p>
+ * The replicas are listed in the {@value #REPLICAS_PARAM} LDAP parameter, as {@code host} or {@code host:port}
+ * separated by commas or spaces, the configured LDAP server being always part of them. Each connection is pointed at
+ * the healthy replica (see {@link LDAPCircuitBreaker}) with the lowest average latency; the connections of the
+ * synchronization and import jobs (see {@link LDAPRateLimiter#batch()}) are spread over all the healthy replicas
+ * which are not much slower than the fastest one.
+ *
+ * @version $Id$
+ * @since 1.7.10
+ */
+@Component(roles = LDAPServerRouter.class)
+@Singleton
+public class LDAPServerRouter
+{
+    /**
+     * The replicas of the LDAP server.
+     */
+    public static final String REPLICAS_PARAM = "ldap_replicas";
+
+    /**
+     * The servers among which a configuration is routed, remembered in the configuration since routing it changes its
+     * LDAP server.
+     */
+    private static final String ROUTED_SERVERS = "ldapuserimport_routed_servers";
+
+    private static final String SERVERS_SEPARATOR = ",";
+
+    private static final String PORT_SEPARATOR = ":";
+
+    /**
+     * The weight of the last operation in the average latency.
+     */
+    private static final double LATENCY_WEIGHT = 0.2;
+
+    /**
+     * The batch connections are spread over the replicas which are at most this times slower than the fastest one.
+     */
+    private static final double SPREAD_FACTOR = 2;
+
+    private final Map<String, double[]> latencies = new ConcurrentHashMap<>();
+
+    private final AtomicInteger spreadCounter = new AtomicInteger();
+
+    @Inject
+    private LDAPCircuitBreaker circuitBreaker;
+
+    @Inject
+    private LDAPRateLimiter rateLimiter;
+
+    @Inject
+    private Logger logger;
+
+    /**
+     * Point the configuration at the best replica.
+     *
+     * @param configuration the LDAP configuration
+     */
+    public void route(XWikiLDAPConfig configuration)
+    {
+        String server = select(configuration, Collections.emptySet());
+        if (server != null) {
+            setServer(configuration, server);
+        }
+    }
+
+    /**
+     * Point the configuration at the best replica other than the given ones, to fail over.
+     *
+     * @param configuration the LDAP configuration
+     * @param excludedServers the servers not to use, as {@code host:port}
+     * @return {@code true} if the configuration was pointed at another replica, {@code false} if there is no other
+     *     healthy replica
+     */
+    public boolean failOver(XWikiLDAPConfig configuration, Collection<String> excludedServers)
+    {
+        String current = XWikiLDAPUtilsHelper.getServer(configuration);
+        String server = select(configuration, excludedServers);
+        if (server != null && !server.equals(current)) {
+            this.logger.warn("Failing over from the LDAP server [{}] to [{}].", current, server);
+            setServer(configuration, server);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Record the duration of an operation.
+     *
+     * @param server the LDAP server, as {@code host:port}
+     * @param nanos the duration of the operation, in nanoseconds
+     */
+    public void record(String server, long nanos)
+    {
+        double[] latency = this.latencies.computeIfAbsent(server, key -> new double[] { -1 });
+        synchronized (latency) {
+            latency[0] = latency[0] < 0 ? nanos : latency[0] + LATENCY_WEIGHT * (nanos - latency[0]);
+        }
+    }
+
+    private String select(XWikiLDAPConfig configuration, Collection<String> excludedServers)
+    {
+        List<String> healthy = new ArrayList<>();
+        for (String server : getServers(configuration)) {
+            if (!excludedServers.contains(server) && !this.circuitBreaker.isOpen(server)) {
+                healthy.add(server);
+            }
+        }
+        if (healthy.size() < 2) {
+            return healthy.isEmpty() ? null : healthy.get(0);
+        }
+
+        // The replicas without any measure yet are considered the fastest, so that they get measured.
+        double best = healthy.stream().mapToDouble(this::getLatency).min().orElse(0);
+        if (this.rateLimiter.isBatch()) {
+            List<String> candidates = new ArrayList<>();
+            for (String server : healthy) {
+                if (getLatency(server) <= best * SPREAD_FACTOR) {
+                    candidates.add(server);
+                }
+            }
+            return candidates.get(Math.floorMod(this.spreadCounter.getAndIncrement(), candidates.size()));
+        }
+        return healthy.stream().filter(server -> getLatency(server) <= best).findFirst().orElse(null);
+    }
+
+    private Set<String> getServers(XWikiLDAPConfig configuration)
+    {
+        Set<String> servers = new LinkedHashSet<>();
+        String routedServers = configuration.getLDAPParam(ROUTED_SERVERS, null);
+        if (routedServers != null) {
+            servers.addAll(split(routedServers));
+        } else {
+            String replicas = configuration.getLDAPParam(REPLICAS_PARAM, "");
+            if (StringUtils.isNotBlank(replicas)) {
+                servers.add(XWikiLDAPUtilsHelper.getServer(configuration));
+                for (String replica : split(replicas)) {
+                    servers.add(replica.contains(PORT_SEPARATOR) ? replica
+                        : replica + PORT_SEPARATOR + configuration.getLDAPPort());
+                }
+                configuration.setFinalProperty(ROUTED_SERVERS, String.join(SERVERS_SEPARATOR, servers));
+            }
+        }
+        return servers;
+    }
+
+    private double getLatency(String server)
+    {
+        double[] latency = this.latencies.get(server);
+        return latency != null ? Math.max(latency[0], 0) : 0;
+    }
+
+    private static List<String> split(String servers)
+    {
+        List<String> result = new ArrayList<>();
+        for (String server : StringUtils.split(servers, ", ")) {
+            result.add(server.trim());
+        }
+        return result;
+    }
+
+    private static void setServer(XWikiLDAPConfig configuration, String server)
+    {
+        configuration.setFinalProperty(LDAP_SERVER, StringUtils.substringBeforeLast(server, PORT_SEPARATOR));
+        configuration.setFinalProperty(LDAP_PORT, StringUtils.substringAfterLast(server, PORT_SEPARATOR));
+    }
+}
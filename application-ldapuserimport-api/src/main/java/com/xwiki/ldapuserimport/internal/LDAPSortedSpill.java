@@ -0,0 +1,260 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.ldapuserimport.internal;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+
+/**
+ * A set of lines sorted in bounded memory: the lines are kept in memory until their number reaches the chunk size,
+ * after which each chunk is sorted and written to a temporary file, and the chunks are merged when iterating.
+ * <p>
+ * Used to reconcile the members of very large groups without holding all of them in memory, see
+ * {@link #mergeJoin(Iterator, Iterator, Consumer, Consumer, Consumer)}. The lines must not contain line breaks.
+ *
+ * @version $Id$
+ * @since 1.7.10
+ */
+public final class LDAPSortedSpill implements Closeable
+{
+    private final Path directory;
+
+    private final int chunkSize;
+
+    private final List<String> buffer = new ArrayList<>();
+
+    private final List<Path> chunks = new ArrayList<>();
+
+    private final List<BufferedReader> readers = new ArrayList<>();
+
+    /**
+     * A chunk being merged, with its current line.
+     */
+    private static final class ChunkCursor implements Comparable<ChunkCursor>
+    {
+        private final Iterator<String> lines;
+
+        private String line;
+
+        ChunkCursor(Iterator<String> lines)
+        {
+            this.lines = lines;
+        }
+
+        boolean advance()
+        {
+            this.line = this.lines.hasNext() ? this.lines.next() : null;
+            return this.line != null;
+        }
+
+        @Override
+        public int compareTo(ChunkCursor other)
+        {
+            return this.line.compareTo(other.line);
+        }
+    }
+
+    /**
+     * @param directory the directory of the temporary files
+     * @param chunkSize the maximum number of lines kept in memory
+     */
+    public LDAPSortedSpill(Path directory, int chunkSize)
+    {
+        this.directory = directory;
+        this.chunkSize = Math.max(chunkSize, 1);
+    }
+
+    /**
+     * @param line the line to add
+     * @throws IOException if the lines failed to be written to a temporary file
+     */
+    public void add(String line) throws IOException
+    {
+        this.buffer.add(line);
+        if (this.buffer.size() >= this.chunkSize) {
+            spill();
+        }
+    }
+
+    /**
+     * @return {@code true} if the lines were written to temporary files because they didn't fit in memory
+     */
+    public boolean isSpilled()
+    {
+        return !this.chunks.isEmpty();
+    }
+
+    /**
+     * Stop adding lines and iterate them. The lines can be iterated several times.
+     *
+     * @return the distinct lines, sorted in their natural order
+     * @throws IOException if the temporary files failed to be read
+     */
+    public Iterator<String> iterator() throws IOException
+    {
+        Collections.sort(this.buffer);
+        if (!isSpilled()) {
+            return distinct(this.buffer.iterator());
+        }
+
+        PriorityQueue<ChunkCursor> cursors = new PriorityQueue<>();
+        addCursor(cursors, this.buffer.iterator());
+        for (Path chunk : this.chunks) {
+            BufferedReader reader = Files.newBufferedReader(chunk, StandardCharsets.UTF_8);
+            this.readers.add(reader);
+            addCursor(cursors, reader.lines().iterator());
+        }
+        return distinct(new Iterator<String>()
+        {
+            @Override
+            public boolean hasNext()
+            {
+                return !cursors.isEmpty();
+            }
+
+            @Override
+            public String next()
+            {
+                ChunkCursor cursor = cursors.poll();
+                if (cursor == null) {
+                    throw new NoSuchElementException();
+                }
+                String line = cursor.line;
+                addCursor(cursors, cursor);
+                return line;
+            }
+        });
+    }
+
+    /**
+     * Compare two sorted iterators of distinct lines.
+     *
+     * @param left the first lines
+     * @param right the second lines
+     * @param leftOnly receives the lines only found in the first lines
+     * @param rightOnly receives the lines only found in the second lines
+     * @param both receives the lines found in both
+     */
+    public static void mergeJoin(Iterator<String> left, Iterator<String> right, Consumer<String> leftOnly,
+        Consumer<String> rightOnly, Consumer<String> both)
+    {
+        String leftLine = left.hasNext() ? left.next() : null;
+        String rightLine = right.hasNext() ? right.next() : null;
+        while (leftLine != null || rightLine != null) {
+            int comparison;
+            if (leftLine == null) {
+                comparison = 1;
+            } else if (rightLine == null) {
+                comparison = -1;
+            } else {
+                comparison = leftLine.compareTo(rightLine);
+            }
+            if (comparison < 0) {
+                leftOnly.accept(leftLine);
+                leftLine = left.hasNext() ? left.next() : null;
+            } else if (comparison > 0) {
+                rightOnly.accept(rightLine);
+                rightLine = right.hasNext() ? right.next() : null;
+            } else {
+                both.accept(leftLine);
+                leftLine = left.hasNext() ? left.next() : null;
+                rightLine = right.hasNext() ? right.next() : null;
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        for (BufferedReader reader : this.readers) {
+            reader.close();
+        }
+        for (Path chunk : this.chunks) {
+            Files.deleteIfExists(chunk);
+        }
+        this.buffer.clear();
+    }
+
+    private void spill() throws IOException
+    {
+        Collections.sort(this.buffer);
+        Files.createDirectories(this.directory);
+        Path chunk = Files.createTempFile(this.directory, "members", ".txt");
+        this.chunks.add(chunk);
+        try (BufferedWriter writer = Files.newBufferedWriter(chunk, StandardCharsets.UTF_8)) {
+            for (String line : this.buffer) {
+                writer.write(line);
+                writer.newLine();
+            }
+        }
+        this.buffer.clear();
+    }
+
+    private static void addCursor(PriorityQueue<ChunkCursor> cursors, Iterator<String> lines)
+    {
+        addCursor(cursors, new ChunkCursor(lines));
+    }
+
+    private static void addCursor(PriorityQueue<ChunkCursor> cursors, ChunkCursor cursor)
+    {
+        if (cursor.advance()) {
+            cursors.add(cursor);
+        }
+    }
+
+    private static Iterator<String> distinct(Iterator<String> lines)
+    {
+        return new Iterator<String>()
+        {
+            private String next = lines.hasNext() ? lines.next() : null;
+
+            @Override
+            public boolean hasNext()
+            {
+                return this.next != null;
+            }
+
+            @Override
+            public String next()
+            {
+                if (this.next == null) {
+                    throw new NoSuchElementException();
+                }
+                String line = this.next;
+                do {
+                    this.next = lines.hasNext() ? lines.next() : null;
+                } while (line.equals(this.next));
+                return line;
+            }
+        };
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.ldapuserimport.internal;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The progress of a synchronization of the mapped groups, which can be interrupted when its time budget is exhausted
+ * and resumed by the next run.
+ *
+ * @version $Id$
+ * @since 1.7.10
+ */
+public class LDAPSyncCheckpoint
+{
+    private final String runId;
+
+    private final long deadline;
+
+    private final Set<String> doneGroups = ConcurrentHashMap.newKeySet();
+
+    private final Set<String> doneUsers = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param runId the identifier of the synchronization run
+     * @param deadline the time, in milliseconds since the epoch, at which the synchronization should stop, or 0 if it
+     *     has no time budget
+     */
+    public LDAPSyncCheckpoint(String runId, long deadline)
+    {
+        this.runId = runId;
+        this.deadline = deadline;
+    }
+
+    /**
+     * @return the identifier of the synchronization run
+     */
+    public String getRunId()
+    {
+        return this.runId;
+    }
+
+    /**
+     * @return the time, in milliseconds since the epoch, at which the synchronization should stop, or 0 if it has no
+     *     time budget
+     */
+    public long getDeadline()
+    {
+        return this.deadline;
+    }
+
+    /**
+     * @return {@code true} if the time budget of the synchronization is exhausted
+     */
+    public boolean isExhausted()
+    {
+        return this.deadline > 0 && System.currentTimeMillis() >= this.deadline;
+    }
+
+    /**
+     * Stop the synchronization if its time budget is exhausted.
+     *
+     * @throws LDAPSyncBudgetExhaustedException if the time budget is exhausted
+     */
+    public void checkBudget()
+    {
+        if (isExhausted()) {
+            throw new LDAPSyncBudgetExhaustedException(
+                String.format("The synchronization time budget was exhausted at [%s].", new Date(this.deadline)));
+        }
+    }
+
+    /**
+     * @param groupName the name of an XWiki group
+     * @return {@code true} if the group was completely synchronized by this run
+     */
+    public boolean isGroupDone(String groupName)
+    {
+        return this.doneGroups.contains(groupName);
+    }
+
+    /**
+     * @param groupName the name of the XWiki group completely synchronized
+     */
+    public void markGroupDone(String groupName)
+    {
+        this.doneGroups.add(groupName);
+    }
+
+    /**
+     * @return the XWiki groups completely synchronized by this run
+     */
+    public Set<String> getDoneGroups()
+    {
+        return this.doneGroups;
+    }
+
+    /**
+     * @param uid the LDAP uid of a user
+     * @return {@code true} if the user was already imported or synchronized by this run
+     */
+    public boolean isUserDone(String uid)
+    {
+        return this.doneUsers.contains(uid);
+    }
+
+    /**
+     * @param uid the LDAP uid of the user imported or synchronized
+     */
+    public void markUserDone(String uid)
+    {
+        this.doneUsers.add(uid);
+    }
+
+    /**
+     * @return the LDAP uids of the users already imported or synchronized by this run
+     */
+    public Set<String> getDoneUsers()
+    {
+        return this.doneUsers;
+    }
+
+    /**
+     * @param groupNames the groups completely synchronized by this run
+     * @param uids the users already imported or synchronized by this run
+     */
+    public void addDone(Collection<String> groupNames, Collection<String> uids)
+    {
+        this.doneGroups.addAll(groupNames);
+        this.doneUsers.addAll(uids);
+    }
+}
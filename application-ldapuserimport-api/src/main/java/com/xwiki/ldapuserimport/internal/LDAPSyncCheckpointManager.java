@@ -0,0 +1,199 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.ldapuserimport.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.StringUtils;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.LocalDocumentReference;
+import org.xwiki.model.reference.WikiReference;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+/**
+ * Store the checkpoint of an interrupted synchronization of the mapped groups, so that the next run resumes it, and
+ * make the checkpoint of the running synchronization available to the threads performing it.
+ * <p>
+ * The checkpoint is stored in the shared database, in the hidden {@code LDAPUserImport.SyncCheckpoint} document, so
+ * that it is available to all the cluster nodes.
+ *
+ * @version $Id$
+ * @since 1.7.10
+ */
+@Component(roles = LDAPSyncCheckpointManager.class)
+@Singleton
+public class LDAPSyncCheckpointManager
+{
+    /**
+     * The reference of the class storing the checkpoint.
+     */
+    public static final LocalDocumentReference CHECKPOINT_CLASS_REFERENCE =
+        new LocalDocumentReference("LDAPUserImport", "LDAPSyncCheckpointClass");
+
+    private static final LocalDocumentReference CHECKPOINT_REFERENCE =
+        new LocalDocumentReference("SyncCheckpoint", CHECKPOINT_CLASS_REFERENCE.getParent());
+
+    private static final ThreadLocal<LDAPSyncCheckpoint> CURRENT = new ThreadLocal<>();
+
+    private static final String RUN = "run";
+
+    private static final String DONE_GROUPS = "doneGroups";
+
+    private static final String DONE_USERS = "doneUsers";
+
+    private static final String LINE_SEPARATOR = "\n";
+
+    @Inject
+    private Provider<XWikiContext> contextProvider;
+
+    /**
+     * Makes a checkpoint the one of the synchronization performed by the current thread until closed.
+     */
+    public static final class Scope implements AutoCloseable
+    {
+        private final LDAPSyncCheckpoint previous;
+
+        private Scope(LDAPSyncCheckpoint previous)
+        {
+            this.previous = previous;
+        }
+
+        @Override
+        public void close()
+        {
+            CURRENT.set(this.previous);
+        }
+    }
+
+    /**
+     * Load the checkpoint of a synchronization run.
+     *
+     * @param runId the identifier of the run to load, or {@code null} to resume the interrupted run, if any, or start
+     *     a new one
+     * @param deadline the time, in milliseconds since the epoch, at which the synchronization should stop, or 0 if it
+     *     has no time budget
+     * @return the checkpoint of the run
+     * @throws XWikiException if the stored checkpoint could not be read
+     */
+    public LDAPSyncCheckpoint load(String runId, long deadline) throws XWikiException
+    {
+        XWikiContext context = this.contextProvider.get();
+        BaseObject object = getDocument(context).getXObject(CHECKPOINT_CLASS_REFERENCE);
+        String storedRunId = object != null ? object.getStringValue(RUN) : null;
+        String resumedRunId = runId != null ? runId : storedRunId;
+        LDAPSyncCheckpoint checkpoint = new LDAPSyncCheckpoint(
+            StringUtils.isNotBlank(resumedRunId) ? resumedRunId : UUID.randomUUID().toString(), deadline);
+        if (object != null && checkpoint.getRunId().equals(storedRunId)) {
+            checkpoint.addDone(split(object.getLargeStringValue(DONE_GROUPS)),
+                split(object.getLargeStringValue(DONE_USERS)));
+        }
+        return checkpoint;
+    }
+
+    /**
+     * Store the checkpoint of an interrupted synchronization, adding its progress to the one already stored for the
+     * same run by the other cluster nodes.
+     *
+     * @param checkpoint the checkpoint to store
+     * @throws XWikiException if the checkpoint could not be saved
+     */
+    public synchronized void save(LDAPSyncCheckpoint checkpoint) throws XWikiException
+    {
+        XWikiContext context = this.contextProvider.get();
+        XWikiDocument document = getDocument(context);
+        BaseObject object = document.getXObject(CHECKPOINT_CLASS_REFERENCE);
+        if (object == null) {
+            document.setHidden(true);
+            object = document.newXObject(CHECKPOINT_CLASS_REFERENCE, context);
+        } else if (checkpoint.getRunId().equals(object.getStringValue(RUN))) {
+            checkpoint.addDone(split(object.getLargeStringValue(DONE_GROUPS)),
+                split(object.getLargeStringValue(DONE_USERS)));
+        }
+        object.setStringValue(RUN, checkpoint.getRunId());
+        object.setLargeStringValue(DONE_GROUPS, String.join(LINE_SEPARATOR, checkpoint.getDoneGroups()));
+        object.setLargeStringValue(DONE_USERS, String.join(LINE_SEPARATOR, checkpoint.getDoneUsers()));
+        context.getWiki().saveDocument(document, "Interrupted the LDAP synchronization.", true, context);
+    }
+
+    /**
+     * Remove the stored checkpoint, once the synchronization of all the groups is finished.
+     *
+     * @throws XWikiException if the checkpoint could not be removed
+     */
+    public synchronized void clear() throws XWikiException
+    {
+        XWikiContext context = this.contextProvider.get();
+        XWikiDocument document = getDocument(context);
+        if (document.removeXObjects(CHECKPOINT_CLASS_REFERENCE)) {
+            context.getWiki().saveDocument(document, "Finished the LDAP synchronization.", true, context);
+        }
+    }
+
+    /**
+     * Make the given checkpoint the one of the synchronization performed by the current thread, until the returned
+     * scope is closed.
+     *
+     * @param checkpoint the checkpoint of the synchronization
+     * @return the scope to close
+     */
+    public Scope attach(LDAPSyncCheckpoint checkpoint)
+    {
+        Scope scope = new Scope(CURRENT.get());
+        CURRENT.set(checkpoint);
+        return scope;
+    }
+
+    /**
+     * @return the checkpoint of the synchronization performed by the current thread, or {@code null} if the current
+     *     thread is not synchronizing the mapped groups
+     */
+    public LDAPSyncCheckpoint getCurrent()
+    {
+        return CURRENT.get();
+    }
+
+    private XWikiDocument getDocument(XWikiContext context) throws XWikiException
+    {
+        return context.getWiki().getDocument(
+            new DocumentReference(CHECKPOINT_REFERENCE, new WikiReference(context.getMainXWiki())), context);
+    }
+
+    private static Collection<String> split(String value)
+    {
+        List<String> values = new ArrayList<>();
+        if (StringUtils.isNotEmpty(value)) {
+            values.addAll(Arrays.asList(value.split(LINE_SEPARATOR)));
+        }
+        return values;
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.ldapuserimport.internal;
+
+import java.util.List;
+import java.util.Objects;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.StringUtils;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.LRUCacheConfiguration;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.contrib.ldap.XWikiLDAPConfig;
+import org.xwiki.contrib.ldap.XWikiLDAPSearchAttribute;
+import org.xwiki.contrib.ldap.XWikiLDAPUtils;
+import org.xwiki.model.ModelContext;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+
+/**
+ * Remember the user pages resolved from the LDAP attributes, so that the searches of the import wizard and the group
+ * updates don't format, clean and serialize the same page names again and again.
+ * <p>
+ * The entries are keyed by the page name formatter and the uid attribute name, so that the pages resolved with a
+ * previous formatter are not used anymore once the formatter changes.
+ *
+ * @version $Id$
+ * @since 1.7.10
+ */
+@Component(roles = LDAPUserPageNameCache.class)
+@Singleton
+public class LDAPUserPageNameCache implements Initializable, Disposable
+{
+    private static final int CACHE_SIZE = 50000;
+
+    private static final int CACHE_MAX_IDLE = 3600;
+
+    private static final char SEPARATOR = '\u0000';
+
+    @Inject
+    private CacheManager cacheManager;
+
+    @Inject
+    @Named("compact")
+    private EntityReferenceSerializer<String> serializer;
+
+    @Inject
+    private ModelContext modelContext;
+
+    private Cache<UserPage> cache;
+
+    /**
+     * The page of an LDAP user.
+     *
+     * @version $Id$
+     */
+    public static final class UserPage
+    {
+        private final DocumentReference reference;
+
+        private final EntityReference serializationBase;
+
+        private final String serializedReference;
+
+        /**
+         * @param reference the reference of the user page
+         * @param serializationBase the reference the page reference was serialized relative to
+         * @param serializedReference the compact serialization of the page reference
+         */
+        public UserPage(DocumentReference reference, EntityReference serializationBase, String serializedReference)
+        {
+            this.reference = reference;
+            this.serializationBase = serializationBase;
+            this.serializedReference = serializedReference;
+        }
+
+        /**
+         * @return the reference of the user page
+         */
+        public DocumentReference getReference()
+        {
+            return this.reference;
+        }
+
+        /**
+         * @return the name of the user page
+         */
+        public String getName()
+        {
+            return this.reference.getName();
+        }
+
+        /**
+         * @return the compact serialization of the page reference, relative to the current entity
+         */
+        public String getSerializedReference()
+        {
+            return this.serializedReference;
+        }
+    }
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        try {
+            this.cache = this.cacheManager.createNewCache(
+                new LRUCacheConfiguration("ldapuserimport.userPages", CACHE_SIZE, CACHE_MAX_IDLE));
+        } catch (CacheException e) {
+            throw new InitializationException("Failed to create the LDAP user pages cache.", e);
+        }
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        this.cache.dispose();
+    }
+
+    /**
+     * @param ldapUtils the LDAP tool formatting the user page names
+     * @param configuration the LDAP configuration, holding the page name formatter
+     * @param attributes the LDAP attributes of the user available to the page name formatter
+     * @param context the XWiki context
+     * @return the page of the user on the main wiki
+     */
+    public UserPage getUserPage(XWikiLDAPUtils ldapUtils, XWikiLDAPConfig configuration,
+        List<XWikiLDAPSearchAttribute> attributes, XWikiContext context)
+    {
+        String key = getKey(ldapUtils, configuration, attributes);
+        EntityReference currentReference = this.modelContext.getCurrentEntityReference();
+        UserPage userPage = this.cache.get(key);
+        if (userPage == null) {
+            String userPageName = ldapUtils.getUserPageName(attributes, context);
+            userPage = serialize(new DocumentReference(XWiki.DEFAULT_MAIN_WIKI, XWiki.SYSTEM_SPACE, userPageName),
+                currentReference);
+            this.cache.set(key, userPage);
+        } else if (!Objects.equals(userPage.serializationBase, currentReference)) {
+            // The compact serialization depends on the current entity.
+            userPage = serialize(userPage.reference, currentReference);
+            this.cache.set(key, userPage);
+        }
+        return userPage;
+    }
+
+    private UserPage serialize(DocumentReference reference, EntityReference currentReference)
+    {
+        return new UserPage(reference, currentReference, this.serializer.serialize(reference, currentReference));
+    }
+
+    private static String getKey(XWikiLDAPUtils ldapUtils, XWikiLDAPConfig configuration,
+        List<XWikiLDAPSearchAttribute> attributes)
+    {
+        StringBuilder key = new StringBuilder();
+        key.append(StringUtils.defaultString(configuration.getLDAPParam(XWikiLDAPUtilsHelper.LDAP_USER_PAGE_NAME,
+            null)));
+        key.append(SEPARATOR).append(ldapUtils.getUidAttributeName());
+        for (XWikiLDAPSearchAttribute attribute : attributes) {
+            key.append(SEPARATOR).append(attribute.name).append(SEPARATOR).append(attribute.value);
+        }
+        return key.toString();
+    }
+}
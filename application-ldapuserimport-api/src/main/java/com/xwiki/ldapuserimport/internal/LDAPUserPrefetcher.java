@@ -0,0 +1,367 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.ldapuserimport.internal;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.contrib.ldap.XWikiLDAPConfig;
+import org.xwiki.contrib.ldap.XWikiLDAPConnection;
+import org.xwiki.contrib.ldap.XWikiLDAPSearchAttribute;
+import org.xwiki.contrib.ldap.XWikiLDAPUtils;
+
+import com.novell.ldap.LDAPEntry;
+import com.novell.ldap.LDAPException;
+import com.xpn.xwiki.XWikiContext;
+import com.xwiki.ldapuserimport.LDAPUserImportConfiguration;
+import com.xwiki.ldapuserimport.internal.metrics.LDAPMetrics;
+
+/**
+ * Read the LDAP data of the users to synchronize ahead of their synchronization, so that the LDAP server is queried
+ * for the next users while the pages of the current ones are saved.
+ * <p>
+ * The data is read in another thread, on its own LDAP connection and configuration (the routing of the connection
+ * among the LDAP server replicas changes the configuration), into a queue bounded by the configured read-ahead
+ * depth, and consumed in the order of the users. The searches of the users read together are pipelined on the
+ * connection, so that their round trips overlap. When the reading thread stops before reading all the users, the
+ * remaining users fail with the reason why it stopped.
+ *
+ * @version $Id$
+ * @since 1.7.10
+ */
+@Component(roles = LDAPUserPrefetcher.class)
+@Singleton
+public class LDAPUserPrefetcher implements Initializable, Disposable
+{
+    @Inject
+    private Logger logger;
+
+    @Inject
+    private Provider<XWikiContext> contextProvider;
+
+    @Inject
+    private Provider<XWikiLDAPConfig> xwikiLDAPConfigProvider;
+
+    @Inject
+    private LDAPUserImportConfiguration ldapUserImportConfiguration;
+
+    @Inject
+    private XWikiLDAPFactory xWikiLDAPFactory;
+
+    @Inject
+    private LDAPRateLimiter rateLimiter;
+
+    @Inject
+    private LDAPMetrics metrics;
+
+    private ExecutorService executor;
+
+    /**
+     * The LDAP data of a user.
+     */
+    public static final class LDAPUserData
+    {
+        private final String uid;
+
+        private final List<XWikiLDAPSearchAttribute> attributes;
+
+        private final String dn;
+
+        private final Exception error;
+
+        private LDAPUserData(String uid, List<XWikiLDAPSearchAttribute> attributes, String dn, Exception error)
+        {
+            this.uid = uid;
+            this.attributes = attributes;
+            this.dn = dn;
+            this.error = error;
+        }
+
+        /**
+         * @return the user identifier
+         */
+        public String getUid()
+        {
+            return this.uid;
+        }
+
+        /**
+         * @return the LDAP attributes of the user
+         * @throws Exception if the attributes failed to be read
+         */
+        public List<XWikiLDAPSearchAttribute> getAttributes() throws Exception
+        {
+            if (this.error != null) {
+                throw this.error;
+            }
+            return this.attributes;
+        }
+
+        /**
+         * @return the DN of the user
+         */
+        public String getDN()
+        {
+            return this.dn;
+        }
+    }
+
+    /**
+     * The LDAP data of a list of users, to consume in the order of the users.
+     */
+    public static final class Prefetch implements AutoCloseable
+    {
+        /**
+         * The number of milliseconds to wait for the data of the next user before checking that it is still read.
+         */
+        private static final long POLL_TIMEOUT = 1000;
+
+        private final List<String> uidList;
+
+        private final Iterator<String> uids;
+
+        private final XWikiLDAPUtils ldapUtils;
+
+        private final String[] attributes;
+
+        private final BlockingQueue<LDAPUserData> queue;
+
+        private Future<?> reader;
+
+        private int consumed;
+
+        /**
+         * Read the data of each user only when it is requested.
+         *
+         * @param uids the identifiers of the users
+         * @param ldapUtils the LDAP utilities to read the data with
+         * @param attributes the LDAP attributes to read
+         */
+        public Prefetch(List<String> uids, XWikiLDAPUtils ldapUtils, String[] attributes)
+        {
+            this(uids, ldapUtils, attributes, null);
+        }
+
+        Prefetch(List<String> uids, XWikiLDAPUtils ldapUtils, String[] attributes, BlockingQueue<LDAPUserData> queue)
+        {
+            this.uidList = uids;
+            this.uids = uids.iterator();
+            this.ldapUtils = ldapUtils;
+            this.attributes = attributes;
+            this.queue = queue;
+        }
+
+        /**
+         * @return the LDAP data of the next user
+         * @throws InterruptedException if interrupted while waiting for the data to be read
+         */
+        public LDAPUserData next() throws InterruptedException
+        {
+            if (this.queue == null) {
+                return read(this.ldapUtils, this.uids.next(), this.attributes);
+            }
+            LDAPUserData userData = this.queue.poll();
+            while (userData == null) {
+                if (this.reader.isDone()) {
+                    // The reader may have queued the data right before ending.
+                    userData = this.queue.poll();
+                    if (userData == null) {
+                        userData = new LDAPUserData(this.uidList.get(this.consumed), null, null, getReaderFailure());
+                    }
+                } else {
+                    userData = this.queue.poll(POLL_TIMEOUT, TimeUnit.MILLISECONDS);
+                }
+            }
+            this.consumed++;
+            return userData;
+        }
+
+        private Exception getReaderFailure() throws InterruptedException
+        {
+            try {
+                this.reader.get();
+                return new IllegalStateException("The LDAP data of the user was not read.");
+            } catch (ExecutionException e) {
+                return e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            } catch (CancellationException e) {
+                return e;
+            }
+        }
+
+        /**
+         * Stop reading ahead, when not all the users are consumed.
+         */
+        @Override
+        public void close()
+        {
+            if (this.reader != null) {
+                this.reader.cancel(true);
+            }
+        }
+    }
+
+    @Override
+    public void initialize()
+    {
+        this.executor = Executors.newCachedThreadPool(
+            new BasicThreadFactory.Builder().namingPattern("LDAP user prefetch %d").daemon(true).build());
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        this.executor.shutdownNow();
+    }
+
+    /**
+     * Start reading the LDAP data of the given users.
+     *
+     * @param uids the identifiers of the users, in the order in which their data will be consumed
+     * @param configuration the LDAP configuration
+     * @param ldapUtils the LDAP utilities of the current thread, used when reading ahead is disabled
+     * @param attributes the LDAP attributes to read
+     * @return the LDAP data of the users
+     */
+    public Prefetch prefetch(List<String> uids, XWikiLDAPConfig configuration, XWikiLDAPUtils ldapUtils,
+        String[] attributes)
+    {
+        int depth = this.ldapUserImportConfiguration.getSyncReadAhead();
+        if (depth <= 0 || uids.size() < 2) {
+            return new Prefetch(uids, ldapUtils, attributes);
+        }
+
+        Prefetch prefetch = new Prefetch(uids, null, attributes, new ArrayBlockingQueue<>(depth));
+        // The context and the configuration are prepared in the current thread, which holds the execution context.
+        XWikiContext context = this.contextProvider.get().clone();
+        XWikiLDAPConfig readerConfiguration = this.xwikiLDAPConfigProvider.get();
+        readerConfiguration.setFinalProperty(XWikiLDAPUtilsHelper.LDAP_BASE_DN,
+            configuration.getLDAPParam(XWikiLDAPUtilsHelper.LDAP_BASE_DN, ""));
+        prefetch.reader = this.executor.submit(this.metrics
+            .propagate(this.rateLimiter.propagate(() -> readAhead(prefetch, readerConfiguration, context))));
+        return prefetch;
+    }
+
+    private Void readAhead(Prefetch prefetch, XWikiLDAPConfig configuration, XWikiContext context)
+        throws InterruptedException
+    {
+        XWikiLDAPConnection connection = this.xWikiLDAPFactory.getLDAPConnection(configuration);
+        try {
+            XWikiLDAPUtils ldapUtils = null;
+            try {
+                connection.open(configuration.getLDAPBindDN(), configuration.getLDAPBindPassword(), context);
+                ldapUtils = this.xWikiLDAPFactory.getLDAPUtils(connection, configuration);
+            } catch (Exception e) {
+                // Each user fails with the connection error, the same way as without reading ahead.
+                this.logger.debug("Failed to open the LDAP connection reading the users ahead.", e);
+                while (prefetch.uids.hasNext()) {
+                    prefetch.queue.put(new LDAPUserData(prefetch.uids.next(), null, null, e));
+                }
+                return null;
+            }
+            // The users are read by windows, whose searches are pipelined on the connection.
+            int windowSize = prefetch.queue.remainingCapacity();
+            List<String> window = new ArrayList<>(windowSize);
+            while (prefetch.uids.hasNext()) {
+                window.add(prefetch.uids.next());
+                if (window.size() >= windowSize || !prefetch.uids.hasNext()) {
+                    for (LDAPUserData userData : read(connection, ldapUtils, configuration, window,
+                        prefetch.attributes)) {
+                        prefetch.queue.put(userData);
+                    }
+                    window.clear();
+                }
+            }
+            return null;
+        } finally {
+            connection.close();
+        }
+    }
+
+    private List<LDAPUserData> read(XWikiLDAPConnection connection, XWikiLDAPUtils ldapUtils,
+        XWikiLDAPConfig configuration, List<String> uids, String[] attributes)
+    {
+        List<LDAPUserData> users = new ArrayList<>(uids.size());
+        if (!(connection instanceof InstrumentedXWikiLDAPConnection) || uids.size() < 2) {
+            for (String uid : uids) {
+                users.add(read(ldapUtils, uid, attributes));
+            }
+            return users;
+        }
+
+        Map<Integer, LDAPException> failures = new HashMap<>();
+        List<LDAPEntry> entries;
+        try {
+            List<String> filters = new ArrayList<>(uids.size());
+            for (String uid : uids) {
+                filters.add(XWikiLDAPUtilsHelper.getUserFilter(configuration, uid));
+            }
+            entries = ((InstrumentedXWikiLDAPConnection) connection).searchEntries(
+                configuration.getLDAPParam(XWikiLDAPUtilsHelper.LDAP_BASE_DN, ""), filters, attributes, failures);
+        } catch (LDAPException | RuntimeException e) {
+            for (String uid : uids) {
+                users.add(new LDAPUserData(uid, null, null, e));
+            }
+            return users;
+        }
+        for (int i = 0; i < uids.size(); i++) {
+            LDAPEntry entry = entries.get(i);
+            if (failures.containsKey(i)) {
+                users.add(new LDAPUserData(uids.get(i), null, null, failures.get(i)));
+            } else if (entry == null) {
+                users.add(new LDAPUserData(uids.get(i), null, null, null));
+            } else {
+                users.add(new LDAPUserData(uids.get(i), XWikiLDAPUtilsHelper.getSearchAttributes(entry),
+                    entry.getDN(), null));
+            }
+        }
+        return users;
+    }
+
+    private static LDAPUserData read(XWikiLDAPUtils ldapUtils, String uid, String[] attributes)
+    {
+        try {
+            List<XWikiLDAPSearchAttribute> userAttributes = ldapUtils.searchUserAttributesByUid(uid, attributes);
+            return new LDAPUserData(uid, userAttributes, ldapUtils.searchUserDNByUid(uid), null);
+        } catch (Exception e) {
+            return new LDAPUserData(uid, null, null, e);
+        }
+    }
+}
@@ -61,8 +61,6 @@ public class XWikiLDAPConfigProvider implements Provider<XWikiLDAPConfig>
 
     private static final String LDAP_FIELDS_MAPPING = "ldap_fields_mapping";
 
-    private static final String LDAP_USER_PAGE_NAME = "ldap_userPageName";
-
     private static final String DEFAULT_LDAP_FIELDS_MAPPING = "first_name=givenName,last_name=sn,email=mail";
 
     private static final String LDAP_SSL = "ldap_ssl";
@@ -141,7 +139,7 @@ public class XWikiLDAPConfigProvider implements Provider<XWikiLDAPConfig>
     {
         String pageNameFormatter = ldapUserImportConfiguration.getUserPageNameFormatter();
         if (StringUtils.isNoneBlank(pageNameFormatter)) {
-            configuration.setFinalProperty(LDAP_USER_PAGE_NAME, pageNameFormatter);
+            configuration.setFinalProperty(XWikiLDAPUtilsHelper.LDAP_USER_PAGE_NAME, pageNameFormatter);
         }
     }
 
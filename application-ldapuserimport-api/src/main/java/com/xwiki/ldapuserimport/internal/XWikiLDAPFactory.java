@@ -20,6 +20,7 @@ package com.xwiki.ldapuserimport.internal;
  * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
  */
 
+import javax.inject.Inject;
 import javax.inject.Singleton;
 
 import org.xwiki.component.annotation.Component;
@@ -30,6 +31,7 @@ import org.xwiki.contrib.ldap.XWikiLDAPUtils;
 
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.XWikiException;
+import com.xwiki.ldapuserimport.internal.metrics.LDAPMetrics;
 
 import static com.xwiki.ldapuserimport.internal.XWikiLDAPUtilsHelper.CN;
 import static com.xwiki.ldapuserimport.internal.XWikiLDAPUtilsHelper.LDAP_BASE_DN;
@@ -44,13 +46,29 @@ import static com.xwiki.ldapuserimport.internal.XWikiLDAPUtilsHelper.LDAP_BASE_D
 @Component(roles = XWikiLDAPFactory.class)
 public class XWikiLDAPFactory
 {
+    @Inject
+    private LDAPMetrics metrics;
+
+    @Inject
+    private LDAPCircuitBreaker circuitBreaker;
+
+    @Inject
+    private LDAPRateLimiter rateLimiter;
+
+    @Inject
+    private LDAPServerRouter router;
+
     /**
      * @param config the xwiki ldap configuration that should be used for instantiating a new connection.
-     * @return a new XWikiLDAPConnection.
+     * @return a new XWikiLDAPConnection to the best replica of the LDAP server, failing fast while the LDAP server is
+     *     considered unavailable and throttled by the rate limiter.
      */
     public XWikiLDAPConnection getLDAPConnection(XWikiLDAPConfig config)
     {
-        return new XWikiLDAPConnection(config);
+        this.rateLimiter.configure(config);
+        this.router.route(config);
+        return new InstrumentedXWikiLDAPConnection(config, this.metrics, this.circuitBreaker, this.rateLimiter,
+            this.router);
     }
 
     /**
@@ -19,6 +19,7 @@
  */
 package com.xwiki.ldapuserimport.internal;
 
+import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -28,6 +29,10 @@ import java.util.Set;
 
 import org.xwiki.contrib.ldap.XWikiLDAPConfig;
 import org.xwiki.contrib.ldap.XWikiLDAPConnection;
+import org.xwiki.contrib.ldap.XWikiLDAPSearchAttribute;
+
+import com.novell.ldap.LDAPAttribute;
+import com.novell.ldap.LDAPEntry;
 
 /**
  * Internal utility class to provide help methods to deal with LDAP queries.
@@ -52,6 +57,27 @@ public final class XWikiLDAPUtilsHelper
      */
     public static final String LDAP_BASE_DN = "ldap_base_DN";
 
+    /**
+     * Configuration key used in the LDAP Authenticator to define the host of the LDAP server.
+     */
+    public static final String LDAP_SERVER = "ldap_server";
+
+    /**
+     * Configuration key used in the LDAP Authenticator to define the port of the LDAP server.
+     */
+    public static final String LDAP_PORT = "ldap_port";
+
+    /**
+     * Configuration key used in the LDAP Authenticator to define the format of the user page names.
+     */
+    public static final String LDAP_USER_PAGE_NAME = "ldap_userPageName";
+
+    private static final String DN = "dn";
+
+    private static final String LDAP_USER_SEARCH_FORMAT_KEY = "ldap_user_search_fmt";
+
+    private static final String LDAP_USER_SEARCH_FORMAT = "({0}={1})";
+
     private static final String OR_FILTER_STARTING_MARK = "(|";
 
     private static final String AND_FILTER_STARTING_MARK = "(&";
@@ -228,11 +254,8 @@ public final class XWikiLDAPUtilsHelper
         configuration.getUserMappings(userAttributes);
         attributes.addAll(userAttributes);
 
-        // Also append the LDAP photo attribute if synchronization of LDAP profile pictures is enabled
-        if (configuration.getLDAPParam(XWikiLDAPConfig.PREF_LDAP_UPDATE_PHOTO, "0").equals("1")) {
-            attributes.add(configuration.getLDAPParam(XWikiLDAPConfig.PREF_LDAP_PHOTO_ATTRIBUTE,
-                XWikiLDAPConfig.DEFAULT_PHOTO_ATTRIBUTE));
-        }
+        // The LDAP photo attribute is deliberately not requested here: binary photos are handled separately by the
+        // LDAPPhotoSynchronizer, and only for the users whose photo may have changed.
 
         // Make sure to also add all the default LDAP fields mappings. LDAP configuration could provide only few of
         // them, but for display purposes, we need them all.
@@ -242,4 +265,67 @@ public final class XWikiLDAPUtilsHelper
 
         return attributes.toArray(new String[attributes.size()]);
     }
+
+    /**
+     * @param configuration the LDAP configuration
+     * @return {@code true} if the synchronization of LDAP profile pictures is enabled
+     * @since 1.7.10
+     */
+    public static boolean isPhotoUpdateEnabled(XWikiLDAPConfig configuration)
+    {
+        return "1".equals(configuration.getLDAPParam(XWikiLDAPConfig.PREF_LDAP_UPDATE_PHOTO, "0"));
+    }
+
+    /**
+     * @param configuration the LDAP configuration
+     * @return the name of the LDAP attribute holding the user profile picture
+     * @since 1.7.10
+     */
+    public static String getPhotoAttribute(XWikiLDAPConfig configuration)
+    {
+        return configuration.getLDAPParam(XWikiLDAPConfig.PREF_LDAP_PHOTO_ATTRIBUTE,
+            XWikiLDAPConfig.DEFAULT_PHOTO_ATTRIBUTE);
+    }
+
+    /**
+     * @param configuration the LDAP configuration
+     * @return the LDAP server of the configuration, as {@code host:port}
+     * @since 1.7.10
+     */
+    public static String getServer(XWikiLDAPConfig configuration)
+    {
+        return configuration.getLDAPParam(LDAP_SERVER, "localhost") + ':' + configuration.getLDAPPort();
+    }
+
+    /**
+     * @param configuration the LDAP configuration
+     * @param uid the user identifier
+     * @return the filter of the search of a user by its identifier, the same as the one of the LDAP authenticator
+     * @since 1.7.10
+     */
+    public static String getUserFilter(XWikiLDAPConfig configuration, String uid)
+    {
+        String uidAttributeName = configuration.getLDAPParam(XWikiLDAPConfig.PREF_LDAP_UID, CN);
+        return MessageFormat.format(configuration.getLDAPParam(LDAP_USER_SEARCH_FORMAT_KEY, LDAP_USER_SEARCH_FORMAT),
+            XWikiLDAPConnection.escapeLDAPSearchFilter(uidAttributeName),
+            XWikiLDAPConnection.escapeLDAPSearchFilter(uid));
+    }
+
+    /**
+     * @param entry an LDAP entry
+     * @return the DN and the attribute values of the entry, in the form returned by the LDAP authenticator searches
+     * @since 1.7.10
+     */
+    public static List<XWikiLDAPSearchAttribute> getSearchAttributes(LDAPEntry entry)
+    {
+        List<XWikiLDAPSearchAttribute> attributes = new ArrayList<>();
+        attributes.add(new XWikiLDAPSearchAttribute(DN, entry.getDN()));
+        for (Object attribute : entry.getAttributeSet()) {
+            LDAPAttribute ldapAttribute = (LDAPAttribute) attribute;
+            for (String value : ldapAttribute.getStringValueArray()) {
+                attributes.add(new XWikiLDAPSearchAttribute(ldapAttribute.getName(), value));
+            }
+        }
+        return attributes;
+    }
 }
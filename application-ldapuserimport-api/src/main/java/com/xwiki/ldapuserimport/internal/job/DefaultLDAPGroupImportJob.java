@@ -47,7 +47,9 @@ import com.xpn.xwiki.doc.XWikiDocument;
 import com.xwiki.ldapuserimport.LDAPGroupImportManager;
 import com.xwiki.ldapuserimport.LDAPUserImportConfiguration;
 import com.xwiki.ldapuserimport.LDAPUserImportManager;
+import com.xwiki.ldapuserimport.internal.LDAPRateLimiter;
 import com.xwiki.ldapuserimport.internal.XWikiLDAPUtilsHelper;
+import com.xwiki.ldapuserimport.internal.metrics.LDAPMetrics;
 import com.xwiki.ldapuserimport.job.LDAPGroupImportRequest;
 import com.xwiki.ldapuserimport.job.LDAPGroupImportStatus;
 
@@ -93,6 +95,14 @@ public class DefaultLDAPGroupImportJob extends AbstractJob<LDAPGroupImportReques
     @Inject
     private LDAPUserImportConfiguration configuration;
 
+    @Inject
+    private LDAPMetrics metrics;
+
+    @Inject
+    private LDAPRateLimiter rateLimiter;
+
+    private LDAPRateLimiter.Scope batchScope;
+
     @Override
     public String getType()
     {
@@ -107,6 +117,23 @@ public class DefaultLDAPGroupImportJob extends AbstractJob<LDAPGroupImportReques
         return new LDAPGroupImportStatus(getType(), request, currentJobStatus, observationManager, loggerManager);
     }
 
+    @Override
+    protected void jobStarting()
+    {
+        super.jobStarting();
+        // The LDAP operations of the job leave a share of the LDAP server to the interactive searches.
+        this.batchScope = rateLimiter.batch();
+    }
+
+    @Override
+    protected void jobFinished(Throwable error)
+    {
+        if (this.batchScope != null) {
+            this.batchScope.close();
+        }
+        super.jobFinished(error);
+    }
+
     @Override
     protected void runInternal() throws Exception
     {
@@ -160,7 +187,10 @@ public class DefaultLDAPGroupImportJob extends AbstractJob<LDAPGroupImportReques
     {
         XWikiContext context = xWikiContextProvider.get();
         XWiki xwiki = context.getWiki();
-        XWikiDocument groupDocument = xwiki.getDocument(groupReference, context);
+        XWikiDocument groupDocument;
+        try (LDAPMetrics.Sample sample = metrics.start(LDAPMetrics.WIKI_GET_DOCUMENT)) {
+            groupDocument = xwiki.getDocument(groupReference, context);
+        }
 
         // Make sure that the document is new, even this should have been handled beforehand
         // TODO: Define an exception specific to the LDAP User import module and use it here. Currently, it's not a
@@ -173,8 +203,10 @@ public class DefaultLDAPGroupImportJob extends AbstractJob<LDAPGroupImportReques
             XWiki.SYSTEM_SPACE, "XWikiGroups"), true, context);
 
         if (groupDocument.isNew()) {
-            xwiki.saveDocument(groupDocument,
-                String.format("Automated creation from LDAP group [%s]", groupReference), context);
+            try (LDAPMetrics.Sample sample = metrics.start(LDAPMetrics.WIKI_SAVE_DOCUMENT)) {
+                xwiki.saveDocument(groupDocument,
+                    String.format("Automated creation from LDAP group [%s]", groupReference), context);
+            }
         } else {
             logger.debug("The ldap group was associated to an existing xwiki group.");
         }
@@ -0,0 +1,162 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.ldapuserimport.internal.job;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.environment.Environment;
+import org.xwiki.job.AbstractJob;
+import org.xwiki.job.Job;
+import org.xwiki.job.event.status.JobProgressManager;
+import org.xwiki.job.event.status.JobStatus;
+
+import com.xwiki.ldapuserimport.LDAPOrganizationalUnitManager;
+import com.xwiki.ldapuserimport.LDAPUserImportManager;
+import com.xwiki.ldapuserimport.internal.LDAPRateLimiter;
+import com.xwiki.ldapuserimport.internal.LDAPSortedSpill;
+import com.xwiki.ldapuserimport.job.LDAPOrganizationalUnitImportRequest;
+import com.xwiki.ldapuserimport.job.LDAPOrganizationalUnitImportStatus;
+
+/**
+ * Import all the users located under an LDAP organizational unit, in batches, once they were read from LDAP.
+ *
+ * @version $Id$
+ * @since 1.7.10
+ */
+@Component
+@Named(LDAPOrganizationalUnitImportJob.JOB_TYPE)
+public class LDAPOrganizationalUnitImportJob
+    extends AbstractJob<LDAPOrganizationalUnitImportRequest, LDAPOrganizationalUnitImportStatus>
+{
+    /**
+     * The job type.
+     */
+    public static final String JOB_TYPE = "ldapUserImport/organizationalUnitImport";
+
+    private static final int BATCH_SIZE = 100;
+
+    private static final int SPILL_CHUNK_SIZE = 10000;
+
+    private static final String SPILL_DIRECTORY = "ldapuserimport";
+
+    @Inject
+    private JobProgressManager jobProgressManager;
+
+    @Inject
+    private LDAPOrganizationalUnitManager organizationalUnitManager;
+
+    @Inject
+    private LDAPUserImportManager ldapUserImportManager;
+
+    @Inject
+    private LDAPRateLimiter rateLimiter;
+
+    @Inject
+    private Environment environment;
+
+    private LDAPRateLimiter.Scope batchScope;
+
+    @Override
+    public String getType()
+    {
+        return JOB_TYPE;
+    }
+
+    @Override
+    protected LDAPOrganizationalUnitImportStatus createNewStatus(LDAPOrganizationalUnitImportRequest request)
+    {
+        Job currentJob = this.jobContext.getCurrentJob();
+        JobStatus currentJobStatus = currentJob != null ? currentJob.getStatus() : null;
+        return new LDAPOrganizationalUnitImportStatus(getType(), request, currentJobStatus, observationManager,
+            loggerManager);
+    }
+
+    @Override
+    protected void jobStarting()
+    {
+        super.jobStarting();
+        // The LDAP operations of the job leave a share of the LDAP server to the interactive searches.
+        this.batchScope = rateLimiter.batch();
+    }
+
+    @Override
+    protected void jobFinished(Throwable error)
+    {
+        if (this.batchScope != null) {
+            this.batchScope.close();
+        }
+        super.jobFinished(error);
+    }
+
+    @Override
+    protected void runInternal() throws Exception
+    {
+        // Only the user identifiers are read while the LDAP search is open, so that the search (and its connection)
+        // is not held while the users are imported. The identifiers are spilled to temporary files when the
+        // organizational unit is large, and the users are then imported batch by batch, their attributes being
+        // fetched again during the import.
+        jobProgressManager.pushLevelProgress(2, this);
+        Path spillDirectory = environment.getTemporaryDirectory().toPath().resolve(SPILL_DIRECTORY);
+        try (LDAPSortedSpill uids = new LDAPSortedSpill(spillDirectory, SPILL_CHUNK_SIZE)) {
+            jobProgressManager.startStep(this, "Read the users of the organizational unit");
+            int foundUsers = organizationalUnitManager.getUsers(request.getOrganizationalUnitDN(), (uid, user) -> {
+                uids.add(uid);
+                status.setFoundUsers(status.getFoundUsers() + 1);
+            });
+            jobProgressManager.endStep(this);
+
+            jobProgressManager.startStep(this, "Import the users of the organizational unit");
+            List<String> batch = new ArrayList<>(BATCH_SIZE);
+            Iterator<String> iterator = uids.iterator();
+            while (iterator.hasNext()) {
+                batch.add(iterator.next());
+                if (batch.size() >= BATCH_SIZE) {
+                    importBatch(batch);
+                }
+            }
+            importBatch(batch);
+            jobProgressManager.endStep(this);
+            logger.info("[{}] LDAP users found under [{}] were imported", foundUsers,
+                request.getOrganizationalUnitDN());
+        } finally {
+            jobProgressManager.popLevelProgress(this);
+        }
+    }
+
+    private void importBatch(List<String> batch)
+    {
+        if (!batch.isEmpty()) {
+            try {
+                status.addImportedUsers(ldapUserImportManager.importUsers(batch.toArray(new String[0]),
+                    request.getGroupName(), (uid, user) -> { }));
+            } catch (Exception e) {
+                logger.error("Failed to import the LDAP users [{}]", batch, e);
+            }
+            batch.clear();
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.ldapuserimport.internal.job;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.ldap.XWikiLDAPConfig;
+import org.xwiki.contrib.ldap.XWikiLDAPConnection;
+import org.xwiki.job.AbstractJob;
+import org.xwiki.job.Job;
+import org.xwiki.job.event.status.JobProgressManager;
+import org.xwiki.job.event.status.JobStatus;
+import org.xwiki.model.reference.DocumentReference;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xwiki.ldapuserimport.internal.LDAPPhotoSynchronizer;
+import com.xwiki.ldapuserimport.internal.LDAPRateLimiter;
+import com.xwiki.ldapuserimport.internal.XWikiLDAPFactory;
+import com.xwiki.ldapuserimport.job.LDAPPhotoSyncRequest;
+import com.xwiki.ldapuserimport.job.LDAPPhotoSyncStatus;
+
+/**
+ * Job synchronizing the LDAP profile photos of a list of users, outside of the user and group membership
+ * synchronization.
+ *
+ * @version $Id$
+ * @since 1.7.10
+ */
+@Component
+@Named(LDAPPhotoSyncJob.JOB_TYPE)
+public class LDAPPhotoSyncJob extends AbstractJob<LDAPPhotoSyncRequest, LDAPPhotoSyncStatus>
+{
+    /**
+     * The job type.
+     */
+    public static final String JOB_TYPE = "ldapUserImport/photoSync";
+
+    @Inject
+    private JobProgressManager jobProgressManager;
+
+    @Inject
+    private LDAPPhotoSynchronizer photoSynchronizer;
+
+    @Inject
+    private XWikiLDAPFactory xWikiLDAPFactory;
+
+    @Inject
+    private Provider<XWikiLDAPConfig> xWikiLDAPConfigProvider;
+
+    @Inject
+    private Provider<XWikiContext> xWikiContextProvider;
+
+    @Inject
+    private LDAPRateLimiter rateLimiter;
+
+    private LDAPRateLimiter.Scope batchScope;
+
+    @Override
+    public String getType()
+    {
+        return JOB_TYPE;
+    }
+
+    @Override
+    protected LDAPPhotoSyncStatus createNewStatus(LDAPPhotoSyncRequest request)
+    {
+        Job currentJob = this.jobContext.getCurrentJob();
+        JobStatus currentJobStatus = currentJob != null ? currentJob.getStatus() : null;
+        return new LDAPPhotoSyncStatus(getType(), request, currentJobStatus, observationManager, loggerManager);
+    }
+
+    @Override
+    protected void jobStarting()
+    {
+        super.jobStarting();
+        // The LDAP operations of the job leave a share of the LDAP server to the interactive searches.
+        this.batchScope = rateLimiter.batch();
+    }
+
+    @Override
+    protected void jobFinished(Throwable error)
+    {
+        if (this.batchScope != null) {
+            this.batchScope.close();
+        }
+        super.jobFinished(error);
+    }
+
+    @Override
+    protected void runInternal() throws Exception
+    {
+        XWikiContext context = xWikiContextProvider.get();
+        String currentWikiId = context.getWikiId();
+        // Make sure to use the main wiki configuration source.
+        context.setWikiId(context.getMainXWiki());
+
+        XWikiLDAPConfig configuration = xWikiLDAPConfigProvider.get();
+        XWikiLDAPConnection connection = xWikiLDAPFactory.getLDAPConnection(configuration);
+        try {
+            connection.open(configuration.getLDAPBindDN(), configuration.getLDAPBindPassword(), context);
+
+            jobProgressManager.pushLevelProgress(request.getUserReferences().size(), this);
+            for (DocumentReference userReference : request.getUserReferences()) {
+                jobProgressManager.startStep(this);
+                try {
+                    status.addSynchronizedPhoto(
+                        photoSynchronizer.synchronizePhoto(connection, configuration, userReference, context));
+                } catch (Exception e) {
+                    status.addFailedPhoto();
+                    logger.error("Failed to synchronize the LDAP photo of [{}].", userReference, e);
+                }
+                jobProgressManager.endStep(this);
+            }
+            jobProgressManager.popLevelProgress(this);
+
+            logger.info("LDAP photos synchronized: [{}] updated, [{}] unchanged, [{}] failed.",
+                status.getUpdatedPhotos(), status.getUnchangedPhotos(), status.getFailedPhotos());
+        } finally {
+            connection.close();
+            context.setWikiId(currentWikiId);
+        }
+    }
+}
@@ -0,0 +1,336 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.ldapuserimport.internal.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+
+import com.novell.ldap.LDAPAttribute;
+import com.novell.ldap.LDAPEntry;
+import com.xwiki.ldapuserimport.SyncRunReport;
+
+/**
+ * Collect the metrics of the LDAP operations, of the wiki I/O and of the synchronization phases, and publish them as
+ * JMX MBeans (under the {@value #JMX_DOMAIN} domain) and in the Micrometer global registry, when Micrometer is
+ * available.
+ * <p>
+ * Operations are timed with:
+ * <pre>{@code
+ * try (LDAPMetrics.Sample sample = metrics.start(LDAPMetrics.LDAP_SEARCH)) {
+ *     ...
+ * }
+ * }</pre>
+ * When a {@link SyncRunReport} is attached to the current thread, the phase durations, the LDAP round-trips, the
+ * document saves, the user failures and the negative cache hits recorded by this thread are also added to the
+ * report.
+ *
+ * @version $Id$
+ * @since 1.7.10
+ */
+@Component(roles = LDAPMetrics.class)
+@Singleton
+public class LDAPMetrics implements Disposable
+{
+    /**
+     * The LDAP bind operation.
+     */
+    public static final String LDAP_BIND = "ldap.bind";
+
+    /**
+     * The LDAP search operation.
+     */
+    public static final String LDAP_SEARCH = "ldap.search";
+
+    /**
+     * The request of one page of a paged LDAP search, until its first results are received.
+     */
+    public static final String LDAP_SEARCH_PAGE = "ldap.searchPage";
+
+    /**
+     * A group of LDAP searches sent on a single connection without waiting for each other's results.
+     */
+    public static final String LDAP_SEARCH_PIPELINED = "ldap.searchPipelined";
+
+    /**
+     * The synchronization of a user profile by the LDAP authenticator.
+     */
+    public static final String LDAP_SYNC_USER = "ldap.syncUser";
+
+    /**
+     * The counter of LDAP entries read.
+     */
+    public static final String LDAP_ENTRIES = "ldap.entries";
+
+    /**
+     * The counter of bytes of LDAP attribute values read.
+     */
+    public static final String LDAP_BYTES = "ldap.bytes";
+
+    /**
+     * The counter of LDAP searches skipped because the searched user or group member was recently not found.
+     */
+    public static final String NEGATIVE_CACHE_HITS = "ldap.negativeCacheHits";
+
+    /**
+     * The counter of users which failed to be imported or synchronized.
+     */
+    public static final String USER_FAILURES = "sync.userFailures";
+
+    /**
+     * The check of a wiki document existence.
+     */
+    public static final String WIKI_EXISTS = "wiki.exists";
+
+    /**
+     * The load of a wiki document.
+     */
+    public static final String WIKI_GET_DOCUMENT = "wiki.getDocument";
+
+    /**
+     * The save of a wiki document.
+     */
+    public static final String WIKI_SAVE_DOCUMENT = "wiki.saveDocument";
+
+    /**
+     * The commit of a database transaction grouping the saves of several wiki documents.
+     */
+    public static final String WIKI_COMMIT = "wiki.commit";
+
+    /**
+     * The prefix of the synchronization phases.
+     */
+    public static final String PHASE = "phase.";
+
+    private static final String JMX_DOMAIN = "com.xwiki.ldapuserimport";
+
+    private final ConcurrentMap<String, LDAPOperationMetrics> metrics = new ConcurrentHashMap<>();
+
+    private final boolean micrometer = MicrometerMetricsBinder.isAvailable();
+
+    private final ThreadLocal<SyncRunReport> currentReport = new ThreadLocal<>();
+
+    @Inject
+    private Logger logger;
+
+    /**
+     * Start timing an operation.
+     *
+     * @param operation the operation name
+     * @return the sample to close once the operation is done
+     */
+    public Sample start(String operation)
+    {
+        LDAPOperationMetrics operationMetrics = getMetrics(operation, true);
+        operationMetrics.start();
+        return new Sample(operationMetrics, this.currentReport.get());
+    }
+
+    /**
+     * Attach a synchronization report to the current thread, until {@link #detach()} is called.
+     *
+     * @param report the report collecting the operations of the current thread
+     */
+    public void attach(SyncRunReport report)
+    {
+        this.currentReport.set(report);
+    }
+
+    /**
+     * Detach the synchronization report from the current thread.
+     */
+    public void detach()
+    {
+        this.currentReport.remove();
+    }
+
+    /**
+     * @param task a task to run in another thread
+     * @param <T> the type of the task result
+     * @return a task recording its operations in the synchronization report of the current thread
+     */
+    public <T> Callable<T> propagate(Callable<T> task)
+    {
+        SyncRunReport report = this.currentReport.get();
+        return () -> {
+            SyncRunReport previous = this.currentReport.get();
+            this.currentReport.set(report);
+            try {
+                return task.call();
+            } finally {
+                this.currentReport.set(previous);
+            }
+        };
+    }
+
+    /**
+     * @param counter the counter name
+     * @param value the value to add to the counter
+     */
+    public void count(String counter, long value)
+    {
+        getMetrics(counter, false).add(value);
+        SyncRunReport report = this.currentReport.get();
+        if (report != null && NEGATIVE_CACHE_HITS.equals(counter)) {
+            report.addCounter(SyncRunReport.NEGATIVE_CACHE_HITS, value);
+        } else if (report != null && USER_FAILURES.equals(counter)) {
+            report.addCounter(SyncRunReport.USERS_FAILED, value);
+        }
+    }
+
+    /**
+     * Count an LDAP entry read, and the size of its attribute values. The size is measured in characters on the
+     * decoded string values, so that the values are not copied, which is exact for ASCII values and close enough for
+     * the others.
+     *
+     * @param entry the LDAP entry
+     */
+    public void countEntry(LDAPEntry entry)
+    {
+        if (entry != null) {
+            count(LDAP_ENTRIES, 1);
+            long bytes = 0;
+            for (Object attribute : entry.getAttributeSet()) {
+                Enumeration<?> values = ((LDAPAttribute) attribute).getStringValues();
+                while (values.hasMoreElements()) {
+                    Object value = values.nextElement();
+                    bytes += value != null ? value.toString().length() : 0;
+                }
+            }
+            count(LDAP_BYTES, bytes);
+        }
+    }
+
+    /**
+     * @return the metrics collected so far, by operation name
+     */
+    public Map<String, LDAPOperationMetrics> getMetrics()
+    {
+        return Collections.unmodifiableMap(this.metrics);
+    }
+
+    private LDAPOperationMetrics getMetrics(String name, boolean timed)
+    {
+        LDAPOperationMetrics operationMetrics = this.metrics.get(name);
+        if (operationMetrics == null) {
+            operationMetrics = new LDAPOperationMetrics(name);
+            LDAPOperationMetrics existing = this.metrics.putIfAbsent(name, operationMetrics);
+            if (existing != null) {
+                return existing;
+            }
+            publish(operationMetrics, timed);
+        }
+        return operationMetrics;
+    }
+
+    private void publish(LDAPOperationMetrics operationMetrics, boolean timed)
+    {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(operationMetrics,
+                getObjectName(operationMetrics.getName()));
+        } catch (JMException e) {
+            this.logger.warn("Failed to register the JMX MBean for the [{}] metrics.", operationMetrics.getName(), e);
+        }
+        if (this.micrometer) {
+            MicrometerMetricsBinder.bind(operationMetrics, timed);
+        }
+    }
+
+    private ObjectName getObjectName(String name) throws JMException
+    {
+        return new ObjectName(JMX_DOMAIN + ":type=Metrics,name=" + ObjectName.quote(name));
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (String name : this.metrics.keySet()) {
+            try {
+                server.unregisterMBean(getObjectName(name));
+            } catch (JMException e) {
+                this.logger.debug("Failed to unregister the JMX MBean for the [{}] metrics.", name, e);
+            }
+        }
+    }
+
+    /**
+     * A running operation, recorded when closed.
+     *
+     * @version $Id$
+     */
+    public static final class Sample implements AutoCloseable
+    {
+        private final LDAPOperationMetrics metrics;
+
+        private final SyncRunReport report;
+
+        private final long start = System.nanoTime();
+
+        private boolean stopped;
+
+        private Sample(LDAPOperationMetrics metrics, SyncRunReport report)
+        {
+            this.metrics = metrics;
+            this.report = report;
+        }
+
+        @Override
+        public void close()
+        {
+            if (!this.stopped) {
+                this.stopped = true;
+                long duration = System.nanoTime() - this.start;
+                this.metrics.stop(duration);
+                if (this.report != null) {
+                    record(this.report, this.metrics.getName(), duration);
+                }
+            }
+        }
+
+        private static void record(SyncRunReport report, String operation, long duration)
+        {
+            if (operation.startsWith(PHASE)) {
+                report.addPhaseDuration(operation.substring(PHASE.length()), TimeUnit.NANOSECONDS.toMillis(duration));
+            } else if (LDAP_BIND.equals(operation) || LDAP_SEARCH.equals(operation)
+                || LDAP_SEARCH_PAGE.equals(operation) || LDAP_SEARCH_PIPELINED.equals(operation)) {
+                report.addCounter(SyncRunReport.LDAP_ROUND_TRIPS, 1);
+            } else if (WIKI_SAVE_DOCUMENT.equals(operation)) {
+                report.addCounter(SyncRunReport.DOCUMENT_SAVES, 1);
+            }
+        }
+    }
+}
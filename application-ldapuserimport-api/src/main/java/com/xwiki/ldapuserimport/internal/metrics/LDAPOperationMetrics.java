@@ -0,0 +1,153 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.ldapuserimport.internal.metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The metrics of an LDAP User Import operation: a counter, the time spent, a latency histogram and the number of
+ * operations in flight. Counters (e.g. the number of LDAP entries read) only use the count.
+ *
+ * @version $Id$
+ * @since 1.7.10
+ */
+public class LDAPOperationMetrics implements LDAPOperationMetricsMBean
+{
+    private static final long[] BUCKET_BOUNDS = { 1, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000 };
+
+    private final String name;
+
+    private final LongAdder count = new LongAdder();
+
+    private final LongAdder totalNanos = new LongAdder();
+
+    private final LongAccumulator maxNanos = new LongAccumulator(Long::max, 0);
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private final LongAdder[] buckets = new LongAdder[BUCKET_BOUNDS.length + 1];
+
+    /**
+     * @param name the name of the operation
+     */
+    public LDAPOperationMetrics(String name)
+    {
+        this.name = name;
+        for (int i = 0; i < this.buckets.length; i++) {
+            this.buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * @return the name of the operation
+     */
+    public String getName()
+    {
+        return this.name;
+    }
+
+    void start()
+    {
+        this.inFlight.incrementAndGet();
+    }
+
+    void stop(long durationNanos)
+    {
+        this.inFlight.decrementAndGet();
+        this.count.increment();
+        this.totalNanos.add(durationNanos);
+        this.maxNanos.accumulate(durationNanos);
+
+        long duration = TimeUnit.NANOSECONDS.toMillis(durationNanos);
+        int bucket = Arrays.binarySearch(BUCKET_BOUNDS, duration);
+        this.buckets[bucket >= 0 ? bucket : -bucket - 1].increment();
+    }
+
+    void add(long value)
+    {
+        this.count.add(value);
+    }
+
+    @Override
+    public long getCount()
+    {
+        return this.count.sum();
+    }
+
+    @Override
+    public int getInFlight()
+    {
+        return this.inFlight.get();
+    }
+
+    /**
+     * @return the total time spent in the completed operations, in nanoseconds
+     */
+    public long getTotalTimeNanos()
+    {
+        return this.totalNanos.sum();
+    }
+
+    @Override
+    public long getTotalTime()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(getTotalTimeNanos());
+    }
+
+    @Override
+    public double getMeanTime()
+    {
+        long operations = getCount();
+        return operations > 0 ? getTotalTimeNanos() / (double) operations / TimeUnit.MILLISECONDS.toNanos(1) : 0;
+    }
+
+    @Override
+    public long getMaxTime()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(this.maxNanos.get());
+    }
+
+    @Override
+    public long[] getHistogramBounds()
+    {
+        return BUCKET_BOUNDS.clone();
+    }
+
+    @Override
+    public long[] getHistogramCounts()
+    {
+        return Arrays.stream(this.buckets).mapToLong(LongAdder::sum).toArray();
+    }
+
+    @Override
+    public void reset()
+    {
+        this.count.reset();
+        this.totalNanos.reset();
+        this.maxNanos.reset();
+        for (LongAdder bucket : this.buckets) {
+            bucket.reset();
+        }
+    }
+}
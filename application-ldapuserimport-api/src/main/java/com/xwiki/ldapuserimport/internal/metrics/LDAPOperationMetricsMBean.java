@@ -0,0 +1,70 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.ldapuserimport.internal.metrics;
+
+/**
+ * The JMX view of the metrics of an LDAP User Import operation.
+ *
+ * @version $Id$
+ * @since 1.7.10
+ */
+public interface LDAPOperationMetricsMBean
+{
+    /**
+     * @return the number of completed operations, or the value of the counter
+     */
+    long getCount();
+
+    /**
+     * @return the number of operations currently running
+     */
+    int getInFlight();
+
+    /**
+     * @return the total time spent in the completed operations, in milliseconds
+     */
+    long getTotalTime();
+
+    /**
+     * @return the mean duration of the completed operations, in milliseconds
+     */
+    double getMeanTime();
+
+    /**
+     * @return the longest duration of the completed operations, in milliseconds
+     */
+    long getMaxTime();
+
+    /**
+     * @return the upper bounds of the latency histogram buckets, in milliseconds; the last bucket, not listed here,
+     *     holds the operations slower than the last bound
+     */
+    long[] getHistogramBounds();
+
+    /**
+     * @return the number of completed operations in each latency histogram bucket
+     */
+    long[] getHistogramCounts();
+
+    /**
+     * Reset the metrics.
+     */
+    void reset();
+}
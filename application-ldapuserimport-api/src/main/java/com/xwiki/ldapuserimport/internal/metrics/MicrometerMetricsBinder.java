@@ -0,0 +1,68 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.ldapuserimport.internal.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+
+/**
+ * Publish the LDAP User Import metrics in the Micrometer global registry. This class must only be loaded when
+ * Micrometer is available, which is checked by {@link #isAvailable()}.
+ *
+ * @version $Id$
+ * @since 1.7.10
+ */
+final class MicrometerMetricsBinder
+{
+    private static final String PREFIX = "ldapuserimport.";
+
+    private MicrometerMetricsBinder()
+    {
+    }
+
+    static boolean isAvailable()
+    {
+        try {
+            Class.forName("io.micrometer.core.instrument.Metrics", false,
+                MicrometerMetricsBinder.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    static void bind(LDAPOperationMetrics metrics, boolean timed)
+    {
+        MeterRegistry registry = Metrics.globalRegistry;
+        String name = PREFIX + metrics.getName();
+        if (timed) {
+            FunctionTimer.builder(name, metrics, LDAPOperationMetrics::getCount,
+                LDAPOperationMetrics::getTotalTimeNanos, TimeUnit.NANOSECONDS).register(registry);
+            Gauge.builder(name + ".inflight", metrics, LDAPOperationMetrics::getInFlight).register(registry);
+        } else {
+            FunctionCounter.builder(name, metrics, LDAPOperationMetrics::getCount).register(registry);
+        }
+    }
+}
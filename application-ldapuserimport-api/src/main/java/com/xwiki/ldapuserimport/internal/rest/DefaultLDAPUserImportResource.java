@@ -0,0 +1,198 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.ldapuserimport.internal.rest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+
+import org.apache.commons.lang3.StringUtils;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.csrf.CSRFToken;
+import org.xwiki.localization.ContextualLocalizationManager;
+import org.xwiki.rest.XWikiResource;
+import org.xwiki.rest.XWikiRestException;
+
+import com.xwiki.ldapuserimport.LDAPUserImportConfiguration;
+import com.xwiki.ldapuserimport.LDAPUserImportManager;
+import com.xwiki.ldapuserimport.rest.LDAPUserImportResource;
+
+/**
+ * Default implementation of {@link LDAPUserImportResource}.
+ *
+ * @version $Id$
+ * @since 1.7.10
+ */
+@Component
+@Named("com.xwiki.ldapuserimport.internal.rest.DefaultLDAPUserImportResource")
+public class DefaultLDAPUserImportResource extends XWikiResource implements LDAPUserImportResource
+{
+    private static final String NDJSON_FORMAT = "ndjson";
+
+    private static final String FULL_SEARCH = "1";
+
+    private static final String USERS = "users";
+
+    private static final String EXISTS = "exists";
+
+    private static final String DESCRIPTION = "description";
+
+    private static final String USER_NO_RESULTS = "importUsers.modal.fieldValue.noResults";
+
+    private static final String GROUP_NO_RESULTS = "importUsers.associateGroups.modal.fieldValue.noResults";
+
+    /**
+     * Helper fields that are not displayed in the feedback message of a user.
+     */
+    private static final List<String> EXCLUDED_FIELDS =
+        Arrays.asList(EXISTS, "uid", "dn", "userProfile", "userProfileURL");
+
+    @Inject
+    private LDAPUserImportManager userImportManager;
+
+    @Inject
+    private ContextualLocalizationManager localization;
+
+    @Inject
+    private CSRFToken csrfToken;
+
+    @Inject
+    private LDAPUserImportConfiguration configuration;
+
+    @Override
+    public Response getUsers(String wikiName, String singleField, String allFields, String searchInput,
+        String searchType, Integer limit, String format) throws XWikiRestException
+    {
+        checkImportRight(wikiName);
+        int resultsLimit = getResultsLimit(limit);
+        boolean isFullSearch = FULL_SEARCH.equals(searchType);
+        return stream(format, USERS, USER_NO_RESULTS, true,
+            user -> this.localization.getTranslationPlain(Boolean.parseBoolean(user.get(EXISTS))
+                ? "importUsers.modal.user.alreadyImported" : "importUsers.modal.user.toImport", getUserParams(user)),
+            writer -> this.userImportManager.getUsers(singleField, allFields, searchInput, isFullSearch,
+                resultsLimit, writer));
+    }
+
+    @Override
+    public Response importUsers(String wikiName, List<String> users, String groupReference, String formToken,
+        String format) throws XWikiRestException
+    {
+        checkImportRight(wikiName);
+        if (!this.csrfToken.isTokenValid(formToken)) {
+            throw new WebApplicationException(Response.Status.FORBIDDEN);
+        }
+        String[] usersList = users != null ? users.toArray(new String[0]) : new String[0];
+        return stream(format, USERS, USER_NO_RESULTS, false,
+            user -> this.localization.getTranslationPlain("importUsers.modal.user.created", getUserParams(user)),
+            writer -> this.userImportManager.importUsers(usersList, groupReference, writer));
+    }
+
+    @Override
+    public Response getLDAPGroups(String wikiName, String searchInput, String xWikiGroupName, String searchType,
+        boolean isOUSearch, Integer limit, String format) throws XWikiRestException
+    {
+        checkImportRight(wikiName);
+        int resultsLimit = getResultsLimit(limit);
+        boolean isFullSearch = FULL_SEARCH.equals(searchType);
+        String idKey = isOUSearch ? "ou" : "cn";
+        return stream(format, "groups", GROUP_NO_RESULTS, true, group -> {
+            String description = StringUtils.defaultIfEmpty(group.get(DESCRIPTION), group.get("dn"));
+            return this.localization.getTranslationPlain(Boolean.parseBoolean(group.get("isAssociated"))
+                ? "importUsers.associateGroups.modal.alreadyAssociated"
+                : "importUsers.associateGroups.modal.toAssociate", StringUtils.defaultString(description),
+                StringUtils.defaultString(group.get(idKey)));
+        }, writer -> this.userImportManager.getLDAPGroups(searchInput, xWikiGroupName, isFullSearch, isOUSearch,
+            resultsLimit, writer));
+    }
+
+    private void checkImportRight(String wikiName) throws XWikiRestException
+    {
+        getXWikiContext().setWikiId(wikiName);
+        try {
+            if (!this.userImportManager.hasImport()) {
+                throw new WebApplicationException(Response.Status.FORBIDDEN);
+            }
+        } catch (WebApplicationException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new XWikiRestException(e);
+        }
+    }
+
+    /**
+     * The requested limit can only lower the configured one, which protects both the LDAP server and the wiki.
+     */
+    private int getResultsLimit(Integer limit)
+    {
+        int maxResults = this.configuration.getMaxUserImportWizardResults();
+        if (limit == null) {
+            return maxResults;
+        } else if (limit <= 0) {
+            throw new WebApplicationException(Response.Status.BAD_REQUEST);
+        }
+        return Math.min(limit, maxResults);
+    }
+
+    private String getUserParams(Map<String, String> user)
+    {
+        List<String> params = new ArrayList<>();
+        for (Map.Entry<String, String> field : user.entrySet()) {
+            if (!EXCLUDED_FIELDS.contains(field.getKey())) {
+                params.add(field.getValue());
+            }
+        }
+        return StringUtils.join(params, ", ");
+    }
+
+    private Response stream(String format, String collectionName, String noResultsKey, boolean withDisplayedMax,
+        Function<Map<String, String>, String> messageProvider, StreamingCall call)
+    {
+        boolean ndjson = NDJSON_FORMAT.equalsIgnoreCase(format);
+        StreamingOutput output = outputStream -> {
+            try (LDAPResultStreamWriter writer =
+                new LDAPResultStreamWriter(outputStream, ndjson, collectionName, messageProvider)) {
+                writer.start(this.localization.getTranslationPlain(noResultsKey));
+                int count = call.run(writer);
+                writer.end(withDisplayedMax ? this.userImportManager.displayedMax(count) : null);
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new WebApplicationException(e);
+            }
+        };
+        return Response.ok(output, ndjson ? NDJSON : MediaType.APPLICATION_JSON).build();
+    }
+
+    @FunctionalInterface
+    private interface StreamingCall
+    {
+        int run(LDAPResultStreamWriter writer) throws Exception;
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.ldapuserimport.internal.rest;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.xwiki.ldapuserimport.LDAPResultHandler;
+
+/**
+ * Writes LDAP result entries to an output stream as soon as they are handled, either as a single JSON object keyed by
+ * entry identifier, as expected by the import wizard, or as newline delimited JSON. The entries are written in the
+ * order they are handled, each identifier only once.
+ *
+ * @version $Id$
+ * @since 1.7.10
+ */
+public class LDAPResultStreamWriter implements LDAPResultHandler, Closeable
+{
+    private static final String DISPLAY_MESSAGE = "displayMessage";
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final JsonGenerator generator;
+
+    private final boolean ndjson;
+
+    private final String collectionName;
+
+    private final Function<Map<String, String>, String> messageProvider;
+
+    private final Set<String> ids = new HashSet<>();
+
+    /**
+     * @param outputStream the stream to write to
+     * @param ndjson {@code true} to write one JSON object per line, {@code false} to write a single JSON object
+     * @param collectionName the name of the JSON field holding the entries, when writing a single JSON object
+     * @param messageProvider computes the localized message displayed for each entry
+     * @throws IOException if the JSON generator cannot be created
+     */
+    public LDAPResultStreamWriter(OutputStream outputStream, boolean ndjson, String collectionName,
+        Function<Map<String, String>, String> messageProvider) throws IOException
+    {
+        this.generator = JSON_FACTORY.createGenerator(outputStream, JsonEncoding.UTF8);
+        this.generator.setRootValueSeparator(new SerializedString("\n"));
+        this.ndjson = ndjson;
+        this.collectionName = collectionName;
+        this.messageProvider = messageProvider;
+    }
+
+    /**
+     * Start the output.
+     *
+     * @param noResultsMessage the message to display when there are no results
+     * @throws IOException in case of output error
+     */
+    public void start(String noResultsMessage) throws IOException
+    {
+        if (!this.ndjson) {
+            this.generator.writeStartObject();
+            this.generator.writeStringField("noResults", noResultsMessage);
+            this.generator.writeObjectFieldStart(this.collectionName);
+        }
+    }
+
+    @Override
+    public void handle(String id, Map<String, String> entry) throws IOException
+    {
+        // Several LDAP entries can resolve to the same identifier (e.g. the same user page name), and a JSON object
+        // can't hold duplicate keys: only the first entry is written, since the previous ones are already sent.
+        if (!this.ids.add(id)) {
+            return;
+        }
+        if (this.ndjson) {
+            this.generator.writeStartObject();
+            this.generator.writeStringField("id", id);
+        } else {
+            this.generator.writeObjectFieldStart(String.valueOf(id));
+        }
+        for (Map.Entry<String, String> field : entry.entrySet()) {
+            this.generator.writeStringField(field.getKey(), field.getValue());
+        }
+        this.generator.writeStringField(DISPLAY_MESSAGE, this.messageProvider.apply(entry));
+        this.generator.writeEndObject();
+        // Push the entry to the client right away instead of buffering the whole result.
+        this.generator.flush();
+    }
+
+    /**
+     * End the output.
+     *
+     * @param displayedMax whether the number of returned entries reached the configured limit, or {@code null} if
+     *     this information is not relevant
+     * @throws IOException in case of output error
+     */
+    public void end(Boolean displayedMax) throws IOException
+    {
+        if (!this.ndjson) {
+            this.generator.writeEndObject();
+            if (displayedMax != null) {
+                this.generator.writeBooleanField("displayedMax", displayedMax);
+            }
+            this.generator.writeEndObject();
+        }
+        this.generator.flush();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        this.generator.close();
+    }
+}
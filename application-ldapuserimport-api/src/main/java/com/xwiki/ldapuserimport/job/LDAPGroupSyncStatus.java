@@ -0,0 +1,129 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.ldapuserimport.job;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.xwiki.job.DefaultJobStatus;
+import org.xwiki.job.Request;
+import org.xwiki.logging.LoggerManager;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.stability.Unstable;
+
+/**
+ * Status of a synchronization of the mapped groups, combining the progress of all the cluster nodes taking part in
+ * it. It is published by the node which started the synchronization in the job status store, under
+ * {@link #JOB_ID}.
+ *
+ * @version $Id$
+ * @since 1.7.10
+ */
+@Unstable
+public class LDAPGroupSyncStatus extends DefaultJobStatus<Request>
+{
+    /**
+     * The identifier under which the status of the last synchronization of the mapped groups is stored.
+     */
+    public static final List<String> JOB_ID = Collections.unmodifiableList(Arrays.asList("ldapuserimport",
+        "groupSync"));
+
+    /**
+     * The type of the synchronization of the mapped groups.
+     */
+    public static final String JOB_TYPE = "ldapUserImport/groupSync";
+
+    private final String runId;
+
+    private final List<String> groupNames;
+
+    private volatile Map<String, String> groupStatuses = Collections.emptyMap();
+
+    /**
+     * Create a new {@link LDAPGroupSyncStatus}.
+     *
+     * @see DefaultJobStatus
+     * @param request the request
+     * @param runId the identifier of the synchronization run
+     * @param groupNames the synchronized groups
+     * @param observationManager the observation manager
+     * @param loggerManager the logger manager
+     */
+    public LDAPGroupSyncStatus(Request request, String runId, List<String> groupNames,
+        ObservationManager observationManager, LoggerManager loggerManager)
+    {
+        super(JOB_TYPE, request, null, observationManager, loggerManager);
+        this.runId = runId;
+        this.groupNames = new ArrayList<>(groupNames);
+    }
+
+    /**
+     * @return the identifier of the synchronization run
+     */
+    public String getRunId()
+    {
+        return this.runId;
+    }
+
+    /**
+     * @return the synchronized groups
+     */
+    public List<String> getGroupNames()
+    {
+        return Collections.unmodifiableList(this.groupNames);
+    }
+
+    /**
+     * @return the status of each group taken by a node, with the node synchronizing it
+     */
+    public Map<String, String> getGroupStatuses()
+    {
+        return this.groupStatuses;
+    }
+
+    /**
+     * @param groupStatuses the status of each group taken by a node, with the node synchronizing it
+     */
+    public void setGroupStatuses(Map<String, String> groupStatuses)
+    {
+        this.groupStatuses = Collections.unmodifiableMap(new LinkedHashMap<>(groupStatuses));
+    }
+
+    /**
+     * @return the number of groups whose synchronization is over, successfully or not
+     */
+    public long getFinishedGroupCount()
+    {
+        return this.groupStatuses.values().stream().filter(LDAPGroupSyncStatus::isFinished).count();
+    }
+
+    /**
+     * @param groupStatus the status of a group, with the node synchronizing it
+     * @return whether the synchronization of the group is over, successfully or not
+     */
+    public static boolean isFinished(String groupStatus)
+    {
+        return groupStatus.startsWith("done") || groupStatus.startsWith("failed");
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.ldapuserimport.job;
+
+import org.xwiki.job.AbstractRequest;
+import org.xwiki.stability.Unstable;
+
+/**
+ * Request for the LDAP organizational unit users import job.
+ *
+ * @version $Id$
+ * @since 1.7.10
+ */
+@Unstable
+public class LDAPOrganizationalUnitImportRequest extends AbstractRequest
+{
+    private static final String PROP_ORGANIZATIONAL_UNIT_DN = "organizationalUnitDN";
+
+    private static final String PROP_GROUP_NAME = "groupName";
+
+    /**
+     * @return the DN of the organizational unit whose users should be imported
+     */
+    public String getOrganizationalUnitDN()
+    {
+        return getProperty(PROP_ORGANIZATIONAL_UNIT_DN);
+    }
+
+    /**
+     * @param organizationalUnitDN the DN of the organizational unit whose users should be imported
+     */
+    public void setOrganizationalUnitDN(String organizationalUnitDN)
+    {
+        setProperty(PROP_ORGANIZATIONAL_UNIT_DN, organizationalUnitDN);
+    }
+
+    /**
+     * @return the group to add the imported users in
+     */
+    public String getGroupName()
+    {
+        return getProperty(PROP_GROUP_NAME);
+    }
+
+    /**
+     * @param groupName the group to add the imported users in
+     */
+    public void setGroupName(String groupName)
+    {
+        setProperty(PROP_GROUP_NAME, groupName);
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.ldapuserimport.job;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.xwiki.job.DefaultJobStatus;
+import org.xwiki.job.event.status.JobStatus;
+import org.xwiki.logging.LoggerManager;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.stability.Unstable;
+
+/**
+ * Status for the LDAP organizational unit users import job.
+ *
+ * @version $Id$
+ * @since 1.7.10
+ */
+@Unstable
+public class LDAPOrganizationalUnitImportStatus extends DefaultJobStatus<LDAPOrganizationalUnitImportRequest>
+{
+    private final AtomicInteger foundUsers = new AtomicInteger();
+
+    private final AtomicInteger importedUsers = new AtomicInteger();
+
+    /**
+     * Create a new {@link LDAPOrganizationalUnitImportStatus}.
+     *
+     * @see DefaultJobStatus
+     * @param jobType the job type
+     * @param request the request
+     * @param parentJobStatus the parent job status
+     * @param observationManager the observation manager
+     * @param loggerManager the logger manager
+     */
+    public LDAPOrganizationalUnitImportStatus(String jobType, LDAPOrganizationalUnitImportRequest request,
+        JobStatus parentJobStatus, ObservationManager observationManager, LoggerManager loggerManager)
+    {
+        super(jobType, request, parentJobStatus, observationManager, loggerManager);
+    }
+
+    /**
+     * @return the number of users found in the organizational unit so far
+     */
+    public int getFoundUsers()
+    {
+        return this.foundUsers.get();
+    }
+
+    /**
+     * @param foundUsers the number of users found in the organizational unit so far
+     */
+    public void setFoundUsers(int foundUsers)
+    {
+        this.foundUsers.set(foundUsers);
+    }
+
+    /**
+     * @return the number of users imported or updated so far
+     */
+    public int getImportedUsers()
+    {
+        return this.importedUsers.get();
+    }
+
+    /**
+     * @param count the number of users which have just been imported or updated
+     */
+    public void addImportedUsers(int count)
+    {
+        this.importedUsers.addAndGet(count);
+    }
+}
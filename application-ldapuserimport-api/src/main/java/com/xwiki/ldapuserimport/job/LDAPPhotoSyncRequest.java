@@ -0,0 +1,55 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.ldapuserimport.job;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.xwiki.job.AbstractRequest;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.stability.Unstable;
+
+/**
+ * Request for the LDAP profile photo synchronization job.
+ *
+ * @version $Id$
+ * @since 1.7.10
+ */
+@Unstable
+public class LDAPPhotoSyncRequest extends AbstractRequest
+{
+    private static final String PROP_USER_REFERENCES = "userReferences";
+
+    /**
+     * @return the users whose LDAP profile photo should be synchronized
+     */
+    public List<DocumentReference> getUserReferences()
+    {
+        return getProperty(PROP_USER_REFERENCES, new ArrayList<>());
+    }
+
+    /**
+     * @param userReferences the users whose LDAP profile photo should be synchronized
+     */
+    public void setUserReferences(List<DocumentReference> userReferences)
+    {
+        setProperty(PROP_USER_REFERENCES, new ArrayList<>(userReferences));
+    }
+}
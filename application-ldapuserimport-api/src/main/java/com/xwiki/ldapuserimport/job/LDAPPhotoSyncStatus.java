@@ -0,0 +1,106 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.ldapuserimport.job;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.xwiki.job.DefaultJobStatus;
+import org.xwiki.job.event.status.JobStatus;
+import org.xwiki.logging.LoggerManager;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.stability.Unstable;
+
+/**
+ * Status for the LDAP profile photo synchronization job.
+ *
+ * @version $Id$
+ * @since 1.7.10
+ */
+@Unstable
+public class LDAPPhotoSyncStatus extends DefaultJobStatus<LDAPPhotoSyncRequest>
+{
+    private final AtomicInteger unchangedPhotos = new AtomicInteger();
+
+    private final AtomicInteger updatedPhotos = new AtomicInteger();
+
+    private final AtomicInteger failedPhotos = new AtomicInteger();
+
+    /**
+     * Create a new {@link LDAPPhotoSyncStatus}.
+     *
+     * @see DefaultJobStatus
+     * @param jobType the job type
+     * @param request the request
+     * @param parentJobStatus the parent job status
+     * @param observationManager the observation manager
+     * @param loggerManager the logger manager
+     */
+    public LDAPPhotoSyncStatus(String jobType, LDAPPhotoSyncRequest request, JobStatus parentJobStatus,
+        ObservationManager observationManager, LoggerManager loggerManager)
+    {
+        super(jobType, request, parentJobStatus, observationManager, loggerManager);
+    }
+
+    /**
+     * @return the number of users whose photo was left untouched because it did not change in LDAP
+     */
+    public int getUnchangedPhotos()
+    {
+        return unchangedPhotos.get();
+    }
+
+    /**
+     * @return the number of users whose photo was attached or replaced
+     */
+    public int getUpdatedPhotos()
+    {
+        return updatedPhotos.get();
+    }
+
+    /**
+     * @return the number of users whose photo could not be synchronized
+     */
+    public int getFailedPhotos()
+    {
+        return failedPhotos.get();
+    }
+
+    /**
+     * Record the outcome of the synchronization of one user photo.
+     *
+     * @param updated {@code true} if the photo was attached or replaced, {@code false} if it was left untouched
+     */
+    public void addSynchronizedPhoto(boolean updated)
+    {
+        if (updated) {
+            updatedPhotos.incrementAndGet();
+        } else {
+            unchangedPhotos.incrementAndGet();
+        }
+    }
+
+    /**
+     * Record a user whose photo could not be synchronized.
+     */
+    public void addFailedPhoto()
+    {
+        failedPhotos.incrementAndGet();
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.ldapuserimport.rest;
+
+import java.util.List;
+
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.FormParam;
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import org.xwiki.rest.XWikiRestException;
+import org.xwiki.stability.Unstable;
+
+/**
+ * Streams the LDAP search and import results as JSON (or as newline delimited JSON), directly from the LDAP search
+ * results, so that large result sets are never held in memory as a whole.
+ *
+ * @version $Id$
+ * @since 1.7.10
+ */
+@Unstable
+@Path("/wikis/{wikiName}/ldapuserimport")
+@Produces({ MediaType.APPLICATION_JSON, LDAPUserImportResource.NDJSON })
+public interface LDAPUserImportResource
+{
+    /**
+     * The media type of newline delimited JSON, where each line holds one result entry.
+     */
+    String NDJSON = "application/x-ndjson";
+
+    /**
+     * Search for LDAP users.
+     *
+     * @param wikiName the wiki in which the search is performed
+     * @param singleField the field to only filter when the single field search is enabled
+     * @param allFields the list of all configured fields
+     * @param searchInput the value to search for
+     * @param searchType {@code 1} for a "contains" search, anything else for a "begin with" search
+     * @param limit the maximum number of users to return, capped by the configured limit (used when not set); values
+     *     lower than 1 are rejected
+     * @param format {@code json} or {@code ndjson}
+     * @return the streamed users
+     * @throws XWikiRestException if the current user is not allowed to search users
+     */
+    @GET
+    @Path("/users")
+    Response getUsers(@PathParam("wikiName") String wikiName, @QueryParam("singleField") String singleField,
+        @QueryParam("allFields") String allFields, @QueryParam("searchInput") String searchInput,
+        @QueryParam("searchType") String searchType, @QueryParam("limit") Integer limit,
+        @QueryParam("format") @DefaultValue("json") String format) throws XWikiRestException;
+
+    /**
+     * Import LDAP users.
+     *
+     * @param wikiName the wiki in which the import is performed
+     * @param users the uids of the users to import
+     * @param groupReference the group in which the users should be added, can be empty
+     * @param formToken the CSRF token
+     * @param format {@code json} or {@code ndjson}
+     * @return the streamed imported users
+     * @throws XWikiRestException if the current user is not allowed to import users
+     */
+    @POST
+    @Path("/users/import")
+    Response importUsers(@PathParam("wikiName") String wikiName, @FormParam("user") List<String> users,
+        @FormParam("groupReference") String groupReference, @FormParam("form_token") String formToken,
+        @FormParam("format") @DefaultValue("json") String format) throws XWikiRestException;
+
+    /**
+     * Search for LDAP groups or organizational units.
+     *
+     * @param wikiName the wiki in which the search is performed
+     * @param searchInput the value to search for
+     * @param xWikiGroupName the XWiki group whose association with the LDAP groups should be checked
+     * @param searchType {@code 1} for a "contains" search, anything else for a "begin with" search
+     * @param isOUSearch {@code true} to search organizational units instead of groups
+     * @param limit the maximum number of groups to return, capped by the configured limit (used when not set); values
+     *     lower than 1 are rejected
+     * @param format {@code json} or {@code ndjson}
+     * @return the streamed groups
+     * @throws XWikiRestException if the current user is not allowed to search groups
+     */
+    @GET
+    @Path("/groups")
+    Response getLDAPGroups(@PathParam("wikiName") String wikiName, @QueryParam("searchInput") String searchInput,
+        @QueryParam("xWikiGroupName") String xWikiGroupName, @QueryParam("searchType") String searchType,
+        @QueryParam("ou") @DefaultValue("false") boolean isOUSearch, @QueryParam("limit") Integer limit,
+        @QueryParam("format") @DefaultValue("json") String format) throws XWikiRestException;
+}
@@ -34,8 +34,11 @@ import org.xwiki.security.authorization.Right;
 import org.xwiki.stability.Unstable;
 
 import com.xwiki.ldapuserimport.LDAPGroupImportManager;
+import com.xwiki.ldapuserimport.LDAPOrganizationalUnitManager;
+import com.xwiki.ldapuserimport.LDAPSyncReportManager;
 import com.xwiki.ldapuserimport.LDAPUserImportConfiguration;
 import com.xwiki.ldapuserimport.LDAPUserImportManager;
+import com.xwiki.ldapuserimport.SyncRunReport;
 
 /**
  * @version $Id$
@@ -52,6 +55,12 @@ public class LDAPUserImportScriptService implements ScriptService
     @Inject
     private LDAPUserImportManager userImportManager;
 
+    @Inject
+    private LDAPOrganizationalUnitManager organizationalUnitManager;
+
+    @Inject
+    private LDAPSyncReportManager syncReportManager;
+
     @Inject
     private LDAPUserImportConfiguration configuration;
 
@@ -156,6 +165,20 @@ public class LDAPUserImportScriptService implements ScriptService
         return false;
     }
 
+    /**
+     * Check whether an XWiki group is being synchronized by another cluster node, in which case it can't be updated
+     * until that synchronization finishes.
+     *
+     * @param xWikiGroupName the group name
+     * @return {@code true} if the group is being synchronized by another cluster node
+     * @since 1.7.10
+     */
+    @Unstable
+    public boolean isGroupUpdateRunningElsewhere(String xWikiGroupName)
+    {
+        return userImportManager.isGroupUpdateRunningElsewhere(xWikiGroupName);
+    }
+
     /**
      * Create or update users from LDAP in all the XWiki groups that are included in the groups mapping.
      *
@@ -166,6 +189,19 @@ public class LDAPUserImportScriptService implements ScriptService
         userImportManager.updateGroups();
     }
 
+    /**
+     * Create or update users from LDAP in the XWiki groups included in the groups mapping which are due for
+     * synchronization, depending on how often they changed during their previous synchronizations.
+     *
+     * @throws Exception in case of exceptions
+     * @since 1.7.10
+     */
+    @Unstable
+    public void updateDueGroups() throws Exception
+    {
+        userImportManager.updateDueGroups();
+    }
+
     /**
      * Get all the LDAP groups from a domain. Each group contains information about the relation with the current XWiki
      * group (associated or not).
@@ -238,4 +274,91 @@ public class LDAPUserImportScriptService implements ScriptService
         contextualAuthorizationManager.checkAccess(Right.PROGRAM);
         return groupImportManager.importLDAPGroups();
     }
+
+    /**
+     * Get the organizational units and containers located directly under the given DN, to browse the LDAP directory
+     * tree one level at a time.
+     *
+     * @param parentDN the DN of the parent entry, or an empty value for the LDAP base DN
+     * @return the child entries
+     * @throws Exception in case of exceptions
+     * @since 1.7.10
+     */
+    @Unstable
+    public List<Map<String, String>> getOrganizationalUnits(String parentDN) throws Exception
+    {
+        if (hasImport()) {
+            return organizationalUnitManager.getChildren(parentDN);
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * Start a job importing all the users located under the given organizational unit.
+     *
+     * @param organizationalUnitDN the DN of the organizational unit
+     * @param groupName the group to add the imported users in, or {@code null}
+     * @return the import job, or {@code null} if the current user is not allowed to import users
+     * @throws Exception in case of exceptions
+     * @since 1.7.10
+     */
+    @Unstable
+    public Job importOrganizationalUnitUsers(String organizationalUnitDN, String groupName) throws Exception
+    {
+        if (hasImport()) {
+            return organizationalUnitManager.importUsers(organizationalUnitDN, groupName);
+        }
+        return null;
+    }
+
+    /**
+     * @return the names of the XWiki groups for which synchronization reports are available
+     * @throws Exception in case of exceptions
+     * @since 1.7.10
+     */
+    @Unstable
+    public List<String> getSyncReportGroups() throws Exception
+    {
+        if (hasImport()) {
+            return syncReportManager.getGroups();
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * Get the reports of the last synchronization runs of a group.
+     *
+     * @param xWikiGroupName the group name
+     * @param limit the maximum number of reports to return
+     * @return the most recent reports, the most recent first
+     * @throws Exception in case of exceptions
+     * @since 1.7.10
+     */
+    @Unstable
+    public List<SyncRunReport> getSyncReports(String xWikiGroupName, int limit) throws Exception
+    {
+        if (hasImport()) {
+            return syncReportManager.getReports(xWikiGroupName, limit);
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * Get how the synchronization time of a group evolves over its last runs.
+     *
+     * @param xWikiGroupName the group name
+     * @param runs the number of recent runs to consider
+     * @return the average variation of the synchronization time from one run to the next, in milliseconds; a positive
+     *     value means that the synchronization of the group gets slower
+     * @throws Exception in case of exceptions
+     * @since 1.7.10
+     */
+    @Unstable
+    public double getSyncDurationTrend(String xWikiGroupName, int runs) throws Exception
+    {
+        if (hasImport()) {
+            return syncReportManager.getDurationTrend(xWikiGroupName, runs);
+        }
+        return 0;
+    }
 }
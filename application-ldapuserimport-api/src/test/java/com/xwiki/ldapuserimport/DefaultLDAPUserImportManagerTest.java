@@ -27,7 +27,9 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import javax.inject.Named;
@@ -37,6 +39,7 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mock;
 import org.slf4j.Logger;
+import org.suigeneris.jrcs.rcs.Version;
 import org.xwiki.component.util.ReflectionUtils;
 import org.xwiki.contrib.ldap.LDAPProfileXClass;
 import org.xwiki.contrib.ldap.PagedLDAPSearchResults;
@@ -68,6 +71,11 @@ import com.xpn.xwiki.objects.BaseObject;
 import com.xpn.xwiki.objects.classes.BaseClass;
 import com.xpn.xwiki.web.Utils;
 import com.xwiki.ldapuserimport.internal.DefaultLDAPUserImportManager;
+import com.xwiki.ldapuserimport.internal.LDAPGroupUpdateCoordinator;
+import com.xwiki.ldapuserimport.internal.LDAPNegativeCache;
+import com.xwiki.ldapuserimport.internal.LDAPSaveBatcher;
+import com.xwiki.ldapuserimport.internal.LDAPUserPageNameCache;
+import com.xwiki.ldapuserimport.internal.LDAPUserPrefetcher;
 import com.xwiki.ldapuserimport.internal.XWikiLDAPFactory;
 
 import static org.mockito.ArgumentMatchers.any;
@@ -75,6 +83,7 @@ import static org.mockito.ArgumentMatchers.anyBoolean;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
@@ -127,6 +136,24 @@ public class DefaultLDAPUserImportManagerTest
     @MockComponent
     private XWikiLDAPFactory xWikiLDAPFactory;
 
+    @MockComponent
+    private LDAPGroupUpdateCoordinator groupUpdateCoordinator;
+
+    @MockComponent
+    private LDAPSaveBatcher saveBatcher;
+
+    @Mock
+    private LDAPSaveBatcher.Batch saveBatch;
+
+    @MockComponent
+    private LDAPUserPrefetcher userPrefetcher;
+
+    @MockComponent
+    private LDAPUserPageNameCache userPageNameCache;
+
+    @MockComponent
+    private LDAPNegativeCache negativeCache;
+
     @Mock
     private XWikiContext context;
 
@@ -179,6 +206,23 @@ public class DefaultLDAPUserImportManagerTest
         when(this.ldapUserImportConfiguration.getUserImportPolicy()).thenReturn(
             LDAPUserImportConfiguration.UserImportPolicy.GROUP_EDITORS);
 
+        when(this.groupUpdateCoordinator.update(any(), any()))
+            .thenAnswer(inv -> inv.<Callable<Boolean>>getArgument(1).call());
+        when(this.saveBatcher.open()).thenReturn(this.saveBatch);
+        doAnswer(inv -> {
+            Object result;
+            try {
+                result = inv.<Callable<Object>>getArgument(0).call();
+            } catch (Exception e) {
+                inv.<Consumer<Exception>>getArgument(2).accept(e);
+                return null;
+            }
+            inv.<Consumer<Object>>getArgument(1).accept(result);
+            return null;
+        }).when(this.saveBatch).submit(any(), any(), any());
+        when(this.userPrefetcher.prefetch(any(), any(), any(), any())).thenAnswer(
+            inv -> new LDAPUserPrefetcher.Prefetch(inv.getArgument(0), inv.getArgument(2), inv.getArgument(3)));
+
         when(this.ldapConfig.getLDAPPort()).thenReturn(1234);
         when(this.ldapConfig.getLDAPBindDN()).thenReturn("binddn");
         when(this.ldapConfig.getLDAPBindPassword()).thenReturn("pass");
@@ -255,6 +299,12 @@ public class DefaultLDAPUserImportManagerTest
             List<XWikiLDAPSearchAttribute> attrs = invocation.getArgument(0);
             return attrs.get(0).value;
         });
+        when(this.userPageNameCache.getUserPage(any(), any(), any(), any())).thenAnswer(invocation -> {
+            XWikiLDAPUtils ldapUtils = invocation.getArgument(0);
+            DocumentReference reference = new DocumentReference(XWiki.DEFAULT_MAIN_WIKI, XWiki.SYSTEM_SPACE,
+                ldapUtils.getUserPageName(invocation.getArgument(2), invocation.getArgument(3)));
+            return new LDAPUserPageNameCache.UserPage(reference, null, this.serializer.serialize(reference, null));
+        });
 
         when(this.xWikiLDAPConnection.searchPaginated(any(String.class), anyInt(), any(String.class),
             any(String[].class), anyBoolean())).thenReturn(this.searchResults);
@@ -293,6 +343,25 @@ public class DefaultLDAPUserImportManagerTest
         }, true);
     }
 
+    @Test
+    void importUserRecentlyNotFound() throws Exception
+    {
+        when(this.xWiki.exists(any(DocumentReference.class), any())).thenReturn(true);
+        when(this.negativeCache.isUnknownUser("user1")).thenReturn(true);
+        when(this.xWikiLDAPUtils.searchUserAttributesByUid(eq("user1"), any()))
+            .thenReturn(Collections.singletonList(new XWikiLDAPSearchAttribute(LDAP_UID_ATTR, "user1")));
+
+        // The users selected in the wizard are imported even if they were recently not found.
+        testUsersImport(new String[] { "user1" }, null, () -> {
+            try {
+                defaultLDAPUserImportManager.importUsers(new String[] { "user1" }, null);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }, false);
+        verify(this.negativeCache).removeUnknownUser("user1");
+    }
+
     @Test
     void updateGroupWithOneNewUsersTest() throws Exception
     {
@@ -440,6 +509,70 @@ public class DefaultLDAPUserImportManagerTest
         verify(this.xWiki, times(2)).saveDocument(this.groupDocument, this.context);
     }
 
+    @Test
+    void updateGroupWithoutHistoryTest() throws XWikiException
+    {
+        String[] users = { "user0", "user1" };
+        Map<String, String> usersMap = new HashMap<>();
+        for (String user : users) {
+            usersMap.put("XWiki." + user, user);
+        }
+        when(this.xWikiLDAPUtils.getGroupMembers("ldapgroup", this.context)).thenReturn(usersMap);
+        when(this.xWiki.getDocument(XWIKI_GROUP, this.context)).thenReturn(this.groupDocument);
+        when(this.xWiki.exists(any(DocumentReference.class), eq(this.context))).thenReturn(false);
+        when(this.ldapUserImportConfiguration.getSyncHistoryPolicy())
+            .thenReturn(LDAPUserImportConfiguration.SyncHistoryPolicy.NO_VERSION);
+        when(this.ldapUserImportConfiguration.getGroupHistorySize()).thenReturn(10);
+        // The group is saved without creating a new version.
+        when(this.groupDocument.getVersion()).thenReturn("12.1");
+        Version[] versions = new Version[12];
+        for (int i = 0; i < versions.length; i++) {
+            versions[i] = new Version((i + 1) + ".1");
+        }
+        when(this.groupDocument.getRevisions(this.context)).thenReturn(versions);
+
+        testUsersImport(users, XWIKI_GROUP, () -> {
+            try {
+                defaultLDAPUserImportManager.updateGroup(XWIKI_GROUP);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }, false);
+
+        // The current version of the group is updated in place, and only the last 10 versions are kept.
+        verify(this.saveBatcher).saveWithoutVersion(this.groupDocument, null, this.context);
+        verify(this.xWiki, never()).saveDocument(eq(this.groupDocument), anyString(), anyBoolean(), eq(this.context));
+        verify(this.xWiki, never()).saveDocument(this.groupDocument, this.context);
+        verify(this.xWiki).deleteDocumentVersions(this.groupDocument, "1.1", "2.1", this.context);
+    }
+
+    @Test
+    void keepShortGroupHistory() throws XWikiException
+    {
+        String[] users = { "user0" };
+        when(this.xWikiLDAPUtils.getGroupMembers("ldapgroup", this.context))
+            .thenReturn(Collections.singletonMap("XWiki.user0", "user0"));
+        when(this.xWiki.getDocument(XWIKI_GROUP, this.context)).thenReturn(this.groupDocument);
+        when(this.xWiki.exists(any(DocumentReference.class), eq(this.context))).thenReturn(false);
+        when(this.ldapUserImportConfiguration.getSyncHistoryPolicy())
+            .thenReturn(LDAPUserImportConfiguration.SyncHistoryPolicy.NO_VERSION);
+        when(this.ldapUserImportConfiguration.getGroupHistorySize()).thenReturn(10);
+        when(this.groupDocument.getVersion()).thenReturn("2.1");
+        when(this.groupDocument.getRevisions(this.context))
+            .thenReturn(new Version[] { new Version("1.1"), new Version("2.1") });
+
+        testUsersImport(users, XWIKI_GROUP, () -> {
+            try {
+                defaultLDAPUserImportManager.updateGroup(XWIKI_GROUP);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }, false);
+
+        verify(this.xWiki, never()).deleteDocumentVersions(any(XWikiDocument.class), anyString(), anyString(),
+            eq(this.context));
+    }
+
     private void testUsersImport(String[] users, String group, Runnable runnable, boolean addUsersInGroup)
         throws XWikiException
     {
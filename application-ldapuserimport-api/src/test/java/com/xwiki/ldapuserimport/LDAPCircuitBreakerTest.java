@@ -0,0 +1,125 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.ldapuserimport;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.xwiki.contrib.ldap.XWikiLDAPConfig;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+
+import com.xwiki.ldapuserimport.internal.LDAPCircuitBreaker;
+import com.xwiki.ldapuserimport.internal.LDAPCircuitOpenException;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.when;
+
+@ComponentTest
+class LDAPCircuitBreakerTest
+{
+    @InjectMockComponents
+    private LDAPCircuitBreaker circuitBreaker;
+
+    @Mock
+    private XWikiLDAPConfig configuration;
+
+    @BeforeEach
+    void setUp()
+    {
+        when(this.configuration.getLDAPParam(anyString(), any())).thenAnswer(invocation -> invocation.getArgument(1));
+        when(this.configuration.getLDAPParam("ldap_server", "localhost")).thenReturn("dc1.example.com");
+        when(this.configuration.getLDAPParam(eq(LDAPCircuitBreaker.FAILURE_THRESHOLD_PARAM), any()))
+            .thenReturn("2");
+    }
+
+    @Test
+    void opensAfterConsecutiveFailures()
+    {
+        when(this.configuration.getLDAPParam(eq(LDAPCircuitBreaker.OPEN_DURATION_PARAM), any())).thenReturn("3600");
+        LDAPCircuitBreaker.Circuit circuit = this.circuitBreaker.getCircuit(this.configuration);
+        assertSame(circuit, this.circuitBreaker.getCircuit(this.configuration));
+
+        circuit.release(circuit.acquire(), true);
+        circuit.release(circuit.acquire(), false);
+        circuit.release(circuit.acquire(), true);
+        assertFalse(circuit.isOpen());
+
+        circuit.release(circuit.acquire(), true);
+        assertTrue(circuit.isOpen());
+        assertThrows(LDAPCircuitOpenException.class, circuit::acquire);
+    }
+
+    @Test
+    void slowCallsCountAsFailures()
+    {
+        when(this.configuration.getLDAPParam(eq(LDAPCircuitBreaker.LATENCY_THRESHOLD_PARAM), any())).thenReturn("10");
+        when(this.configuration.getLDAPParam(eq(LDAPCircuitBreaker.OPEN_DURATION_PARAM), any())).thenReturn("3600");
+        LDAPCircuitBreaker.Circuit circuit = this.circuitBreaker.getCircuit(this.configuration);
+
+        long start = circuit.acquire() - 20_000_000L;
+        circuit.release(start, false);
+        circuit.release(start, false);
+        assertTrue(circuit.isOpen());
+    }
+
+    @Test
+    void untimedCallsAreNotSlow()
+    {
+        when(this.configuration.getLDAPParam(eq(LDAPCircuitBreaker.LATENCY_THRESHOLD_PARAM), any())).thenReturn("10");
+        when(this.configuration.getLDAPParam(eq(LDAPCircuitBreaker.OPEN_DURATION_PARAM), any())).thenReturn("3600");
+        LDAPCircuitBreaker.Circuit circuit = this.circuitBreaker.getCircuit(this.configuration);
+
+        long start = circuit.acquire() - 20_000_000L;
+        circuit.release(start, false, false);
+        circuit.release(start, false, false);
+        assertFalse(circuit.isOpen());
+
+        circuit.release(start, true, false);
+        circuit.release(start, true, false);
+        assertTrue(circuit.isOpen());
+    }
+
+    @Test
+    void probesOnceTheOpenDurationHasElapsed()
+    {
+        when(this.configuration.getLDAPParam(eq(LDAPCircuitBreaker.OPEN_DURATION_PARAM), any())).thenReturn("0");
+        LDAPCircuitBreaker.Circuit circuit = this.circuitBreaker.getCircuit(this.configuration);
+        circuit.release(circuit.acquire(), true);
+        circuit.release(circuit.acquire(), true);
+
+        // Only one probe at a time.
+        long probe = circuit.acquire();
+        assertThrows(LDAPCircuitOpenException.class, circuit::acquire);
+
+        // A failed probe opens the circuit again, a successful one closes it.
+        circuit.release(probe, true);
+        circuit.release(circuit.acquire(), false);
+        assertFalse(circuit.isOpen());
+        circuit.release(circuit.acquire(), true);
+        assertFalse(circuit.isOpen());
+    }
+}
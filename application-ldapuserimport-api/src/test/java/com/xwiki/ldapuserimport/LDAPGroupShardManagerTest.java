@@ -0,0 +1,145 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.ldapuserimport;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Named;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.model.reference.LocalDocumentReference;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xwiki.ldapuserimport.internal.LDAPGroupShardManager;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ComponentTest
+class LDAPGroupShardManagerTest
+{
+    private static final LocalDocumentReference GROUP_CLASS = new LocalDocumentReference("XWiki", "XWikiGroups");
+
+    private static final DocumentReference GROUP = new DocumentReference("xwiki", "XWiki", "BigGroup");
+
+    private static final DocumentReference SHARD_0 = new DocumentReference("xwiki", "XWiki", "BigGroupShard0");
+
+    private static final DocumentReference SHARD_1 = new DocumentReference("xwiki", "XWiki", "BigGroupShard1");
+
+    @InjectMockComponents
+    private LDAPGroupShardManager shardManager;
+
+    @MockComponent
+    @Named("local")
+    private EntityReferenceSerializer<String> localSerializer;
+
+    @Mock
+    private XWikiContext context;
+
+    @Mock
+    private XWiki xwiki;
+
+    private final List<XWikiDocument> savedDocuments = new ArrayList<>();
+
+    @BeforeEach
+    void setUp()
+    {
+        when(this.context.getWiki()).thenReturn(this.xwiki);
+        when(this.localSerializer.serialize(any())).thenAnswer(
+            inv -> "XWiki." + inv.<DocumentReference>getArgument(0).getName());
+    }
+
+    @Test
+    void getShards()
+    {
+        XWikiDocument groupDoc = mock(XWikiDocument.class);
+        when(groupDoc.getDocumentReference()).thenReturn(GROUP);
+        List<BaseObject> members =
+            Arrays.asList(member("XWiki.BigGroupShard1"), member("XWiki.alice"), member("XWiki.BigGroupShard0"));
+        when(groupDoc.getXObjects(GROUP_CLASS)).thenReturn(members);
+
+        assertEquals(Arrays.asList(SHARD_0, SHARD_1), this.shardManager.getShards(groupDoc));
+    }
+
+    @Test
+    void synchronizeOnlySavesChangedShards() throws XWikiException
+    {
+        List<String> shard0Members = new ArrayList<>();
+        List<String> shard1Members = new ArrayList<>();
+        for (int i = 0; shard0Members.size() < 1 || shard1Members.size() < 2; i++) {
+            String user = "XWiki.user" + i;
+            (LDAPGroupShardManager.getShardIndex(user, 2) == 0 ? shard0Members : shard1Members).add(user);
+        }
+        Map<String, String> ldapMembers = new HashMap<>();
+        ldapMembers.put(shard0Members.get(0), "dn0");
+        ldapMembers.put(shard1Members.get(0), "dn1");
+
+        // The first shard is up to date, the second one has a member which left the LDAP group.
+        XWikiDocument shard0 = shard(SHARD_0, member(shard0Members.get(0)));
+        BaseObject leftMember = member(shard1Members.get(1));
+        XWikiDocument shard1 = shard(SHARD_1, leftMember);
+        when(shard1.newXObject(GROUP_CLASS, this.context)).thenReturn(mock(BaseObject.class));
+
+        SyncRunReport report = new SyncRunReport("XWiki.BigGroup");
+        this.shardManager.synchronize(Arrays.asList(SHARD_0, SHARD_1), ldapMembers, member -> true,
+            (document, comment) -> this.savedDocuments.add(document), report, this.context);
+
+        assertEquals(Arrays.asList(shard1), this.savedDocuments);
+        verify(shard1).removeXObject(leftMember);
+        verify(shard0, never()).newXObject(GROUP_CLASS, this.context);
+        assertEquals(1, report.getCounter(SyncRunReport.MEMBERSHIPS_ADDED));
+        assertEquals(1, report.getCounter(SyncRunReport.MEMBERSHIPS_REMOVED));
+    }
+
+    private XWikiDocument shard(DocumentReference reference, BaseObject... members) throws XWikiException
+    {
+        XWikiDocument shard = mock(XWikiDocument.class);
+        when(shard.getDocumentReference()).thenReturn(reference);
+        when(shard.getXObjects(GROUP_CLASS)).thenReturn(Arrays.asList(members));
+        when(this.xwiki.getDocument(reference, this.context)).thenReturn(shard);
+        return shard;
+    }
+
+    private BaseObject member(String member)
+    {
+        BaseObject memberObject = mock(BaseObject.class);
+        when(memberObject.getStringValue("member")).thenReturn(member);
+        return memberObject;
+    }
+}
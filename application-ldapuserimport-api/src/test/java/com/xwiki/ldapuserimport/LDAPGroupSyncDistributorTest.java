@@ -0,0 +1,233 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.ldapuserimport;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import javax.inject.Provider;
+
+import org.hibernate.Session;
+import org.hibernate.query.Query;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.xwiki.contrib.ldap.XWikiLDAPConfig;
+import org.xwiki.job.JobStatusStore;
+import org.xwiki.job.event.status.JobStatus;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.observation.remote.RemoteObservationManagerConfiguration;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.store.XWikiHibernateBaseStore;
+import com.xpn.xwiki.store.XWikiHibernateStore;
+import com.xwiki.ldapuserimport.internal.LDAPGroupSyncDistributor;
+import com.xwiki.ldapuserimport.internal.LDAPSyncBudgetExhaustedException;
+import com.xwiki.ldapuserimport.internal.LDAPSyncCheckpoint;
+import com.xwiki.ldapuserimport.internal.LDAPSyncCheckpointManager;
+import com.xwiki.ldapuserimport.job.LDAPGroupSyncStatus;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ComponentTest
+class LDAPGroupSyncDistributorTest
+{
+    private static final String GROUP1 = "XWiki.Group1";
+
+    private static final String GROUP2 = "XWiki.Group2";
+
+    @InjectMockComponents
+    private LDAPGroupSyncDistributor distributor;
+
+    @MockComponent
+    private Provider<LDAPUserImportManager> userImportManagerProvider;
+
+    @MockComponent
+    private RemoteObservationManagerConfiguration remoteObservationManagerConfiguration;
+
+    @MockComponent
+    private ObservationManager observationManager;
+
+    @MockComponent
+    private LDAPUserImportConfiguration ldapUserImportConfiguration;
+
+    @MockComponent
+    private LDAPSyncCheckpointManager checkpointManager;
+
+    @MockComponent
+    private JobStatusStore jobStatusStore;
+
+    @MockComponent
+    private Provider<XWikiContext> contextProvider;
+
+    @MockComponent
+    private Provider<XWikiLDAPConfig> xwikiLDAPConfigProvider;
+
+    @Mock
+    private LDAPUserImportManager userImportManager;
+
+    @Mock
+    private XWikiContext context;
+
+    @Mock
+    private XWiki xwiki;
+
+    @Mock
+    private XWikiHibernateStore hibernateStore;
+
+    @Mock
+    private Session session;
+
+    @Mock
+    private Query<?> query;
+
+    @BeforeEach
+    void setUp() throws Exception
+    {
+        when(this.userImportManagerProvider.get()).thenReturn(this.userImportManager);
+    }
+
+    @Test
+    void updateGroupsLocallyWithoutCluster() throws Exception
+    {
+        when(this.checkpointManager.load(null, 0)).thenReturn(new LDAPSyncCheckpoint("run", 0));
+
+        this.distributor.updateGroups(Arrays.asList(GROUP1, GROUP2));
+
+        InOrder order = inOrder(this.userImportManager);
+        order.verify(this.userImportManager).updateGroup(GROUP1);
+        order.verify(this.userImportManager).updateGroup(GROUP2);
+        verify(this.observationManager, never()).notify(any(), any());
+        verify(this.checkpointManager).clear();
+
+        // The combined status of the synchronization is published.
+        ArgumentCaptor<LDAPGroupSyncStatus> status = ArgumentCaptor.forClass(LDAPGroupSyncStatus.class);
+        verify(this.jobStatusStore, atLeastOnce()).storeAsync(status.capture());
+        assertEquals(JobStatus.State.FINISHED, status.getValue().getState());
+        assertEquals(2, status.getValue().getFinishedGroupCount());
+    }
+
+    @Test
+    void takeTheLeaseOnlyIfNotClaimedByAnotherNode() throws Exception
+    {
+        setUpCluster();
+        // The lease of the group expired, but another node claims it first and synchronizes the group.
+        when(this.query.uniqueResult()).thenReturn(new Object[] { "node1", "run", "running", 0L },
+            new Object[] { "node1", "run", "done", 0L });
+        when(this.query.executeUpdate()).thenReturn(0);
+
+        this.distributor.updateGroups(Collections.singletonList(GROUP1));
+
+        verify(this.userImportManager, never()).updateGroup(GROUP1);
+        verify(this.query).setParameter("expectedOwner", "node1");
+        verify(this.query).setParameter("expectedExpires", 0L);
+        verify(this.checkpointManager).clear();
+    }
+
+    @Test
+    void synchronizeTheGroupWhenTheLeaseIsTaken() throws Exception
+    {
+        setUpCluster();
+        when(this.query.uniqueResult()).thenReturn(new Object[] { "node1", "previousRun", "done", 0L },
+            new Object[] { "node2", "run", "done", 0L });
+        when(this.query.executeUpdate()).thenReturn(1);
+
+        this.distributor.updateGroups(Collections.singletonList(GROUP1));
+
+        verify(this.userImportManager).updateGroup(GROUP1);
+        verify(this.query).setParameter("value", "running");
+        verify(this.query).setParameter("value", "done");
+        // The leases are updated in the database, without saving their documents.
+        verify(this.xwiki, never()).saveDocument(any(XWikiDocument.class), anyString(), eq(true), eq(this.context));
+    }
+
+    private void setUpCluster() throws Exception
+    {
+        when(this.remoteObservationManagerConfiguration.isEnabled()).thenReturn(true);
+        LDAPSyncCheckpoint checkpoint = new LDAPSyncCheckpoint("run", 0);
+        when(this.checkpointManager.load(null, 0)).thenReturn(checkpoint);
+        when(this.checkpointManager.getCurrent()).thenReturn(checkpoint);
+        when(this.xwikiLDAPConfigProvider.get()).thenReturn(mock(XWikiLDAPConfig.class));
+        when(this.contextProvider.get()).thenReturn(this.context);
+        when(this.context.getWiki()).thenReturn(this.xwiki);
+        when(this.context.getMainXWiki()).thenReturn("xwiki");
+
+        XWikiDocument leaseDocument = mock(XWikiDocument.class);
+        BaseObject lease = mock(BaseObject.class);
+        when(lease.getId()).thenReturn(42L);
+        when(leaseDocument.getXObject(LDAPGroupSyncDistributor.LEASE_CLASS_REFERENCE)).thenReturn(lease);
+        when(this.xwiki.getDocument(any(DocumentReference.class), eq(this.context))).thenReturn(leaseDocument);
+
+        when(this.xwiki.getHibernateStore()).thenReturn(this.hibernateStore);
+        when(this.hibernateStore.executeRead(eq(this.context), any())).thenAnswer(
+            invocation -> invocation.<XWikiHibernateBaseStore.HibernateCallback<?>>getArgument(1)
+                .doInHibernate(this.session));
+        when(this.hibernateStore.executeWrite(eq(this.context), any())).thenAnswer(
+            invocation -> invocation.<XWikiHibernateBaseStore.HibernateCallback<?>>getArgument(1)
+                .doInHibernate(this.session));
+        when(this.session.createQuery(anyString())).thenAnswer(invocation -> this.query);
+    }
+
+    @Test
+    void stopWhenTheTimeBudgetIsExhaustedAndResume() throws Exception
+    {
+        when(this.ldapUserImportConfiguration.getSyncTimeBudget()).thenReturn(60);
+        LDAPSyncCheckpoint checkpoint = new LDAPSyncCheckpoint("run", System.currentTimeMillis() + 3600000);
+        when(this.checkpointManager.load(eq(null), anyLong())).thenReturn(checkpoint);
+        when(this.userImportManager.updateGroup(GROUP1)).thenThrow(new LDAPSyncBudgetExhaustedException("Exhausted"));
+
+        this.distributor.updateGroups(Arrays.asList(GROUP1, GROUP2));
+
+        verify(this.userImportManager, never()).updateGroup(GROUP2);
+        verify(this.checkpointManager).save(checkpoint);
+        verify(this.checkpointManager, never()).clear();
+
+        // The next run resumes after the groups already synchronized.
+        LDAPSyncCheckpoint resumed = new LDAPSyncCheckpoint("run", System.currentTimeMillis() + 3600000);
+        resumed.markGroupDone(GROUP1);
+        when(this.checkpointManager.load(eq(null), anyLong())).thenReturn(resumed);
+
+        this.distributor.updateGroups(Arrays.asList(GROUP1, GROUP2));
+
+        // Only the interrupted update of the first group.
+        verify(this.userImportManager).updateGroup(GROUP1);
+        verify(this.userImportManager).updateGroup(GROUP2);
+        verify(this.checkpointManager).clear();
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.ldapuserimport;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Provider;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xwiki.ldapuserimport.internal.LDAPGroupSyncScheduler;
+import com.xwiki.ldapuserimport.internal.LDAPSaveBatcher;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ComponentTest
+class LDAPGroupSyncSchedulerTest
+{
+    private static final String VOLATILE_GROUP = "XWiki.VolatileGroup";
+
+    private static final String STABLE_GROUP = "XWiki.StableGroup";
+
+    private static final String NEW_GROUP = "XWiki.NewGroup";
+
+    @InjectMockComponents
+    private LDAPGroupSyncScheduler scheduler;
+
+    @MockComponent
+    private Provider<XWikiContext> contextProvider;
+
+    @MockComponent
+    private LDAPUserImportConfiguration ldapUserImportConfiguration;
+
+    @MockComponent
+    private LDAPSaveBatcher saveBatcher;
+
+    @Mock
+    private XWikiContext context;
+
+    @Mock
+    private XWiki xwiki;
+
+    private final Map<String, List<BaseObject>> histories = new HashMap<>();
+
+    @BeforeEach
+    void setUp() throws XWikiException
+    {
+        when(this.contextProvider.get()).thenReturn(this.context);
+        when(this.context.getWiki()).thenReturn(this.xwiki);
+        when(this.context.getMainXWiki()).thenReturn("xwiki");
+        when(this.xwiki.getDocument(any(DocumentReference.class), eq(this.context))).thenAnswer(invocation -> {
+            DocumentReference reference = invocation.getArgument(0);
+            XWikiDocument document = mock(XWikiDocument.class);
+            when(document.getXObjects(LDAPGroupSyncScheduler.HISTORY_CLASS_REFERENCE))
+                .thenReturn(this.histories.getOrDefault(reference.getName(), Collections.emptyList()));
+            when(document.clone()).thenReturn(document);
+            return document;
+        });
+    }
+
+    @Test
+    void syncVolatileGroupsMoreOften() throws XWikiException
+    {
+        // 10 changes per hour, last synchronized 2 hours ago.
+        this.histories.put(VOLATILE_GROUP, Arrays.asList(sync(3, 10), sync(2, 10)));
+        // No change in 6 days, last synchronized 30 hours ago.
+        this.histories.put(STABLE_GROUP, Arrays.asList(sync(30, 0), sync(168, 0)));
+
+        List<String> groups = Arrays.asList(STABLE_GROUP, VOLATILE_GROUP, NEW_GROUP);
+        // The stable group is due once the default freshness requirement of one day is reached.
+        assertEquals(Arrays.asList(NEW_GROUP, VOLATILE_GROUP, STABLE_GROUP), this.scheduler.getDueGroups(groups));
+
+        when(this.ldapUserImportConfiguration.getGroupSyncFreshness())
+            .thenReturn(Collections.singletonMap(LDAPGroupSyncScheduler.DEFAULT_FRESHNESS, 168));
+        assertEquals(Arrays.asList(NEW_GROUP, VOLATILE_GROUP), this.scheduler.getDueGroups(groups));
+
+        when(this.ldapUserImportConfiguration.getGroupSyncFreshness())
+            .thenReturn(Collections.singletonMap(STABLE_GROUP, 72));
+        assertEquals(Arrays.asList(NEW_GROUP, VOLATILE_GROUP), this.scheduler.getDueGroups(groups));
+    }
+
+    @Test
+    void syncGroupsDueBeforeTheNextCheck() throws XWikiException
+    {
+        // Synchronized daily, the last time a little less than a day ago.
+        this.histories.put(STABLE_GROUP, Arrays.asList(sync(23, 0), sync(47, 0)));
+        // Synchronized hourly, the last time just now.
+        this.histories.put(VOLATILE_GROUP, Arrays.asList(sync(0, 10), sync(1, 0)));
+        assertEquals(Arrays.asList(STABLE_GROUP, VOLATILE_GROUP),
+            this.scheduler.getDueGroups(Arrays.asList(STABLE_GROUP, VOLATILE_GROUP)));
+
+        // Not due before the next check.
+        this.histories.put(STABLE_GROUP, Arrays.asList(sync(22, 0), sync(46, 0)));
+        assertEquals(Collections.singletonList(VOLATILE_GROUP),
+            this.scheduler.getDueGroups(Arrays.asList(STABLE_GROUP, VOLATILE_GROUP)));
+    }
+
+    @Test
+    void recordSuccessfulSyncInSharedHistory() throws XWikiException
+    {
+        List<BaseObject> history = new ArrayList<>();
+        for (int i = 1; i <= 10; i++) {
+            history.add(sync(i, 0));
+        }
+        XWikiDocument document = mock(XWikiDocument.class);
+        when(this.xwiki.getDocument(any(DocumentReference.class), eq(this.context))).thenReturn(document);
+        when(document.clone()).thenReturn(document);
+        when(document.getXObjects(LDAPGroupSyncScheduler.HISTORY_CLASS_REFERENCE)).thenReturn(history);
+        BaseObject recorded = mock(BaseObject.class);
+        when(document.newXObject(LDAPGroupSyncScheduler.HISTORY_CLASS_REFERENCE, this.context)).thenReturn(recorded);
+
+        SyncRunReport report = new SyncRunReport(VOLATILE_GROUP);
+        report.setEndDate(new Date(1000));
+        report.addCounter(SyncRunReport.USERS_IMPORTED, 2);
+        report.addCounter(SyncRunReport.MEMBERSHIPS_REMOVED, 1);
+        this.scheduler.recordSync(report);
+
+        // Only the most recent synchronizations are kept.
+        verify(document).removeXObject(history.get(9));
+        verify(document, never()).removeXObject(history.get(8));
+        verify(recorded).setLongValue("endDate", 1000);
+        verify(recorded).setLongValue("changes", 3);
+        verify(this.saveBatcher).saveWithoutVersion(eq(document), anyString(), eq(this.context));
+
+        // The failed synchronizations are not recorded.
+        SyncRunReport failed = new SyncRunReport(VOLATILE_GROUP);
+        failed.setEndDate(new Date());
+        failed.setError("failed");
+        this.scheduler.recordSync(failed);
+        verify(this.saveBatcher).saveWithoutVersion(any(XWikiDocument.class), anyString(), eq(this.context));
+        verify(this.xwiki, never()).saveDocument(any(XWikiDocument.class), anyString(), anyBoolean(),
+            eq(this.context));
+    }
+
+    private BaseObject sync(int hoursAgo, long changes)
+    {
+        BaseObject sync = mock(BaseObject.class);
+        when(sync.getLongValue("endDate")).thenReturn(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(hoursAgo));
+        when(sync.getLongValue("changes")).thenReturn(changes);
+        return sync;
+    }
+}
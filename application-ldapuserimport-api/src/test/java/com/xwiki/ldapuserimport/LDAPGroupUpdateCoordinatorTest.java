@@ -0,0 +1,169 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.ldapuserimport;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.inject.Named;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.xwiki.ldapuserimport.internal.LDAPGroupUpdateCoordinator;
+import com.xwiki.ldapuserimport.internal.LDAPGroupUpdateEvent;
+import com.xwiki.ldapuserimport.internal.LDAPGroupUpdateRunningException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ComponentTest
+class LDAPGroupUpdateCoordinatorTest
+{
+    private static final String GROUP = "XWiki.Group1";
+
+    private static final String GROUP_REFERENCE = "wiki1:" + GROUP;
+
+    @InjectMockComponents
+    private LDAPGroupUpdateCoordinator coordinator;
+
+    @MockComponent
+    private ObservationManager observationManager;
+
+    @MockComponent
+    @Named("currentmixed")
+    private DocumentReferenceResolver<String> documentReferenceResolver;
+
+    @MockComponent
+    private EntityReferenceSerializer<String> entityReferenceSerializer;
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @BeforeEach
+    void setUp()
+    {
+        DocumentReference groupReference = new DocumentReference("wiki1", "XWiki", "Group1");
+        when(this.documentReferenceResolver.resolve(GROUP)).thenReturn(groupReference);
+        when(this.entityReferenceSerializer.serialize(groupReference)).thenReturn(GROUP_REFERENCE);
+    }
+
+    @AfterEach
+    void tearDown()
+    {
+        this.executor.shutdownNow();
+    }
+
+    @Test
+    void concurrentUpdatesShareTheRunningOne() throws Exception
+    {
+        AtomicInteger runs = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Future<Boolean> first = this.executor.submit(() -> this.coordinator.update(GROUP, () -> {
+            runs.incrementAndGet();
+            started.countDown();
+            release.await();
+            return true;
+        }));
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        Future<Boolean> second = this.executor.submit(() -> this.coordinator.update(GROUP, () -> {
+            runs.incrementAndGet();
+            return false;
+        }));
+        release.countDown();
+
+        assertTrue(first.get(10, TimeUnit.SECONDS));
+        assertTrue(second.get(10, TimeUnit.SECONDS));
+        assertEquals(1, runs.get());
+        verify(this.observationManager, times(2)).notify(any(LDAPGroupUpdateEvent.class), eq(GROUP_REFERENCE));
+
+        // Once finished, the group can be updated again.
+        assertFalse(this.coordinator.update(GROUP, () -> false));
+    }
+
+    @Test
+    void failureIsSharedWithTheWaitingUpdates() throws Exception
+    {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        IllegalStateException failure = new IllegalStateException("LDAP down");
+        Future<Boolean> first = this.executor.submit(() -> this.coordinator.update(GROUP, () -> {
+            started.countDown();
+            release.await();
+            throw failure;
+        }));
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        Future<Boolean> second = this.executor.submit(() -> this.coordinator.update(GROUP, () -> true));
+        release.countDown();
+
+        assertThrows(Exception.class, () -> first.get(10, TimeUnit.SECONDS));
+        Exception exception = assertThrows(Exception.class, () -> second.get(10, TimeUnit.SECONDS));
+        assertSame(failure, exception.getCause());
+    }
+
+    @Test
+    void failWithoutWaitingWhileTheGroupRunsElsewhere() throws Exception
+    {
+        this.coordinator.onRemoteEvent(new LDAPGroupUpdateEvent(GROUP_REFERENCE, false, null));
+        AtomicInteger runs = new AtomicInteger();
+
+        assertTrue(this.coordinator.isRunningElsewhere(GROUP));
+        assertThrows(LDAPGroupUpdateRunningException.class, () -> this.coordinator.update(GROUP, () -> {
+            runs.incrementAndGet();
+            return false;
+        }));
+        assertEquals(0, runs.get());
+
+        this.coordinator.onRemoteEvent(new LDAPGroupUpdateEvent(GROUP_REFERENCE, true, null));
+        assertFalse(this.coordinator.isRunningElsewhere(GROUP));
+        assertTrue(this.coordinator.update(GROUP, () -> true));
+    }
+
+    @Test
+    void sameGroupNameInAnotherWikiIsNotBlocked() throws Exception
+    {
+        this.coordinator.onRemoteEvent(new LDAPGroupUpdateEvent("wiki2:" + GROUP, false, null));
+
+        assertFalse(this.coordinator.isRunningElsewhere(GROUP));
+        assertTrue(this.coordinator.update(GROUP, () -> true));
+        verify(this.observationManager, times(2)).notify(any(LDAPGroupUpdateEvent.class), eq(GROUP_REFERENCE));
+    }
+}
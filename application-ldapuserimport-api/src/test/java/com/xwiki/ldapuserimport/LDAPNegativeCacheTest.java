@@ -0,0 +1,133 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.ldapuserimport;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.test.annotation.BeforeComponent;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.novell.ldap.LDAPException;
+import com.novell.ldap.LDAPReferralException;
+import com.xwiki.ldapuserimport.internal.LDAPNegativeCache;
+import com.xwiki.ldapuserimport.internal.metrics.LDAPMetrics;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ComponentTest
+class LDAPNegativeCacheTest
+{
+    @InjectMockComponents
+    private LDAPNegativeCache negativeCache;
+
+    @MockComponent
+    private CacheManager cacheManager;
+
+    @MockComponent
+    private LDAPUserImportConfiguration configuration;
+
+    @MockComponent
+    private LDAPMetrics metrics;
+
+    private final Map<String, Long> values = new HashMap<>();
+
+    @BeforeComponent
+    @SuppressWarnings("unchecked")
+    void configure() throws Exception
+    {
+        Cache<Long> cache = mock(Cache.class);
+        when(cache.get(anyString())).thenAnswer(invocation -> this.values.get(invocation.getArgument(0)));
+        doAnswer(invocation -> this.values.put(invocation.getArgument(0), invocation.getArgument(1))).when(cache)
+            .set(anyString(), any());
+        doAnswer(invocation -> this.values.remove(invocation.getArgument(0))).when(cache).remove(anyString());
+        when(this.cacheManager.<Long>createNewCache(any())).thenReturn(cache);
+    }
+
+    @Test
+    void rememberUnknownUsersAndMembers()
+    {
+        when(this.configuration.getNegativeCacheDuration()).thenReturn(60);
+
+        this.negativeCache.addUnknownUser("JDoe");
+        this.negativeCache.addUnknownMember("CN=Stale,DC=example,DC=com");
+
+        assertTrue(this.negativeCache.isUnknownUser("jdoe"));
+        assertFalse(this.negativeCache.isUnknownUser("asmith"));
+        assertTrue(this.negativeCache.isUnknownMember("cn=stale,dc=example,dc=com"));
+        // The users and the group members are distinct.
+        assertFalse(this.negativeCache.isUnknownMember("jdoe"));
+        verify(this.metrics, times(2)).count(LDAPMetrics.NEGATIVE_CACHE_HITS, 1);
+    }
+
+    @Test
+    void forgetUsersFoundAgain()
+    {
+        when(this.configuration.getNegativeCacheDuration()).thenReturn(60);
+        this.negativeCache.addUnknownUser("JDoe");
+
+        this.negativeCache.removeUnknownUser("jdoe");
+
+        assertFalse(this.negativeCache.isUnknownUser("JDoe"));
+        assertTrue(this.values.isEmpty());
+    }
+
+    @Test
+    void forgetExpiredEntries()
+    {
+        when(this.configuration.getNegativeCacheDuration()).thenReturn(60);
+        this.values.put("uid:jdoe", System.currentTimeMillis() - 1);
+
+        assertFalse(this.negativeCache.isUnknownUser("jdoe"));
+        assertFalse(this.values.containsKey("uid:jdoe"));
+    }
+
+    @Test
+    void disabledWithoutDuration()
+    {
+        this.negativeCache.addUnknownUser("jdoe");
+        assertFalse(this.negativeCache.isUnknownUser("jdoe"));
+        assertTrue(this.values.isEmpty());
+        verify(this.metrics, never()).count(anyString(), anyLong());
+    }
+
+    @Test
+    void isReferral()
+    {
+        assertTrue(LDAPNegativeCache.isReferral(new Exception(new LDAPReferralException())));
+        assertTrue(LDAPNegativeCache.isReferral(new LDAPException("referral", LDAPException.REFERRAL, null)));
+        assertFalse(LDAPNegativeCache.isReferral(new LDAPException("down", LDAPException.SERVER_DOWN, null)));
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.ldapuserimport;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.xwiki.contrib.ldap.LDAPProfileXClass;
+import org.xwiki.contrib.ldap.PagedLDAPSearchResults;
+import org.xwiki.contrib.ldap.XWikiLDAPConfig;
+import org.xwiki.contrib.ldap.XWikiLDAPConnection;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.novell.ldap.LDAPAttribute;
+import com.novell.ldap.LDAPAttributeSet;
+import com.novell.ldap.LDAPEntry;
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiAttachment;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xwiki.ldapuserimport.internal.LDAPPhotoSynchronizer;
+import com.xwiki.ldapuserimport.internal.LDAPSaveBatcher;
+import com.xwiki.ldapuserimport.internal.XWikiLDAPFactory;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ComponentTest
+class LDAPPhotoSynchronizerTest
+{
+    private static final DocumentReference USER_REFERENCE = new DocumentReference("xwiki", "XWiki", "User1");
+
+    private static final String USER_DN = "cn=User1,dc=example,dc=com";
+
+    private static final String PHOTO_ATTRIBUTE = "thumbnailPhoto";
+
+    private static final String MODIFY_TIMESTAMP = "modifyTimestamp";
+
+    @InjectMockComponents
+    private LDAPPhotoSynchronizer photoSynchronizer;
+
+    @MockComponent
+    private XWikiLDAPFactory xWikiLDAPFactory;
+
+    @MockComponent
+    private LDAPUserImportConfiguration ldapUserImportConfiguration;
+
+    @MockComponent
+    private LDAPSaveBatcher saveBatcher;
+
+    @Mock
+    private XWikiContext context;
+
+    @Mock
+    private XWiki xWiki;
+
+    @Mock
+    private XWikiLDAPConfig configuration;
+
+    @Mock
+    private XWikiLDAPConnection connection;
+
+    @Mock
+    private LDAPProfileXClass ldapProfileXClass;
+
+    @Mock
+    private XWikiDocument userDocument;
+
+    @Mock
+    private BaseObject photoState;
+
+    @BeforeEach
+    void setup() throws Exception
+    {
+        when(this.context.getWiki()).thenReturn(this.xWiki);
+        when(this.xWiki.getDocument(USER_REFERENCE, this.context)).thenReturn(this.userDocument);
+        when(this.xWikiLDAPFactory.getLDAPProfileXClass(this.context)).thenReturn(this.ldapProfileXClass);
+        when(this.ldapProfileXClass.getDn(this.userDocument)).thenReturn(USER_DN);
+        when(this.configuration.getLDAPParam(any(), any())).thenAnswer(invocation -> invocation.getArgument(1));
+        when(this.configuration.getLDAPParam(eq(XWikiLDAPConfig.PREF_LDAP_PHOTO_ATTRIBUTE), any()))
+            .thenReturn(PHOTO_ATTRIBUTE);
+        when(this.userDocument.getXObject(LDAPPhotoSynchronizer.PHOTO_CLASS_REFERENCE)).thenReturn(this.photoState);
+    }
+
+    @Test
+    void synchronizePhotoWhenEntryDidNotChange() throws Exception
+    {
+        mockSearch(new String[] { MODIFY_TIMESTAMP }, entry(new LDAPAttribute(MODIFY_TIMESTAMP, "20240101")));
+        when(this.photoState.getStringValue("changeMarker")).thenReturn("20240101");
+
+        assertFalse(this.photoSynchronizer.synchronizePhoto(this.connection, this.configuration, USER_REFERENCE,
+            this.context));
+
+        verify(this.connection, times(1)).searchPaginated(anyString(), anyInt(), anyString(), any(String[].class),
+            anyBoolean());
+        verify(this.xWiki, never()).saveDocument(any(), anyString(), anyBoolean(), any());
+    }
+
+    @Test
+    void synchronizePhotoWhenPhotoChanged() throws Exception
+    {
+        mockSearch(new String[] { MODIFY_TIMESTAMP }, entry(new LDAPAttribute(MODIFY_TIMESTAMP, "20240102")));
+        mockSearch(new String[] { PHOTO_ATTRIBUTE }, entry(new LDAPAttribute(PHOTO_ATTRIBUTE, new byte[] { 1, 2 })));
+        when(this.photoState.getStringValue("changeMarker")).thenReturn("20240101");
+        when(this.photoState.getStringValue("digest")).thenReturn("previousDigest");
+
+        assertTrue(this.photoSynchronizer.synchronizePhoto(this.connection, this.configuration, USER_REFERENCE,
+            this.context));
+
+        verify(this.userDocument).setAttachment(eq("ldapPhoto"), any(), eq(this.context));
+        verify(this.photoState).setStringValue("changeMarker", "20240102");
+        verify(this.xWiki).saveDocument(eq(this.userDocument), anyString(), eq(true), eq(this.context));
+    }
+
+    @Test
+    void synchronizePhotoWhenOnlyTheEntryChanged() throws Exception
+    {
+        byte[] photo = new byte[] { 1, 2 };
+        mockSearch(new String[] { MODIFY_TIMESTAMP }, entry(new LDAPAttribute(MODIFY_TIMESTAMP, "20240102")));
+        mockSearch(new String[] { PHOTO_ATTRIBUTE }, entry(new LDAPAttribute(PHOTO_ATTRIBUTE, photo)));
+        when(this.photoState.getStringValue("changeMarker")).thenReturn("20240101");
+        when(this.photoState.getStringValue("digest"))
+            .thenReturn(DigestUtils.sha256Hex(photo));
+        when(this.userDocument.getAttachment("ldapPhoto")).thenReturn(mock(XWikiAttachment.class));
+
+        assertFalse(this.photoSynchronizer.synchronizePhoto(this.connection, this.configuration, USER_REFERENCE,
+            this.context));
+
+        verify(this.userDocument, never()).setAttachment(anyString(), any(), any());
+        verify(this.xWiki).saveDocument(eq(this.userDocument), anyString(), eq(true), eq(this.context));
+    }
+
+    @Test
+    void synchronizePhotoWithoutVersion() throws Exception
+    {
+        mockSearch(new String[] { MODIFY_TIMESTAMP }, entry(new LDAPAttribute(MODIFY_TIMESTAMP, "20240102")));
+        mockSearch(new String[] { PHOTO_ATTRIBUTE }, entry(new LDAPAttribute(PHOTO_ATTRIBUTE, new byte[] { 1, 2 })));
+        when(this.photoState.getStringValue("changeMarker")).thenReturn("20240101");
+        when(this.ldapUserImportConfiguration.getSyncHistoryPolicy())
+            .thenReturn(LDAPUserImportConfiguration.SyncHistoryPolicy.NO_VERSION);
+
+        assertTrue(this.photoSynchronizer.synchronizePhoto(this.connection, this.configuration, USER_REFERENCE,
+            this.context));
+
+        verify(this.saveBatcher).saveWithoutVersion(eq(this.userDocument), anyString(), eq(this.context));
+        verify(this.xWiki, never()).saveDocument(any(), anyString(), anyBoolean(), any());
+    }
+
+    private void mockSearch(String[] attributes, LDAPEntry entry) throws Exception
+    {
+        PagedLDAPSearchResults results = mock(PagedLDAPSearchResults.class);
+        when(results.hasMore()).thenReturn(true);
+        when(results.next()).thenReturn(entry);
+        when(this.connection.searchPaginated(eq(USER_DN), anyInt(), anyString(),
+            argThat(value -> value != null && value.length > 0
+                && value[0].equals(attributes[0])), anyBoolean())).thenReturn(results);
+    }
+
+    private LDAPEntry entry(LDAPAttribute attribute)
+    {
+        LDAPAttributeSet attributeSet = new LDAPAttributeSet();
+        attributeSet.add(attribute);
+        return new LDAPEntry(USER_DN, attributeSet);
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.ldapuserimport;
+
+import java.util.concurrent.Callable;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.xwiki.contrib.ldap.XWikiLDAPConfig;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+
+import com.novell.ldap.LDAPException;
+import com.xwiki.ldapuserimport.internal.LDAPRateLimiter;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.when;
+
+@ComponentTest
+class LDAPRateLimiterTest
+{
+    @InjectMockComponents
+    private LDAPRateLimiter rateLimiter;
+
+    @Mock
+    private XWikiLDAPConfig configuration;
+
+    @BeforeEach
+    void setUp()
+    {
+        when(this.configuration.getLDAPParam(anyString(), any())).thenAnswer(invocation -> invocation.getArgument(1));
+    }
+
+    @Test
+    void interactiveOperationsWaitForTokens() throws Exception
+    {
+        when(this.configuration.getLDAPParam(eq(LDAPRateLimiter.RATE_PARAM), any())).thenReturn("20");
+        this.rateLimiter.configure(this.configuration);
+
+        // Interactive operations don't wait, they only consume the tokens.
+        long start = System.nanoTime();
+        for (int i = 0; i < 20; i++) {
+            this.rateLimiter.release(this.rateLimiter.acquire(), null);
+        }
+        assertTrue(System.nanoTime() - start < 100_000_000L);
+
+        // The bucket is empty, so the next batch operations wait for 50 ms each.
+        start = System.nanoTime();
+        try (LDAPRateLimiter.Scope scope = this.rateLimiter.batch()) {
+            for (int i = 0; i < 5; i++) {
+                this.rateLimiter.release(this.rateLimiter.acquire(), null);
+            }
+        }
+        assertTrue(System.nanoTime() - start >= 200_000_000L);
+    }
+
+    @Test
+    void slowDownWhenTheServerIsBusy() throws Exception
+    {
+        this.rateLimiter.configure(this.configuration);
+        LDAPException busy = new LDAPException("Busy", LDAPException.BUSY, null);
+        for (int i = 0; i < 10; i++) {
+            this.rateLimiter.release(this.rateLimiter.acquire(), busy);
+        }
+
+        // 100 operations per second halved 10 times gives the minimum rate of 1 operation per second.
+        long start = System.nanoTime();
+        try (LDAPRateLimiter.Scope scope = this.rateLimiter.batch()) {
+            this.rateLimiter.release(this.rateLimiter.acquire(), null);
+            this.rateLimiter.release(this.rateLimiter.acquire(), null);
+        }
+        assertTrue(System.nanoTime() - start >= 500_000_000L);
+    }
+
+    @Test
+    void interactiveOperationsHaveReservedSlots() throws Exception
+    {
+        when(this.configuration.getLDAPParam(eq(LDAPRateLimiter.CONCURRENCY_PARAM), any())).thenReturn("3");
+        when(this.configuration.getLDAPParam(eq(LDAPRateLimiter.RESERVE_PARAM), any())).thenReturn("1");
+        this.rateLimiter.configure(this.configuration);
+
+        LDAPRateLimiter.Permit first;
+        LDAPRateLimiter.Permit second;
+        try (LDAPRateLimiter.Scope scope = this.rateLimiter.batch()) {
+            first = this.rateLimiter.acquire();
+            second = this.rateLimiter.acquire();
+        }
+
+        // The batch slots are all taken, but an interactive operation still gets one.
+        Callable<Boolean> interactiveOperation = this.rateLimiter.propagate(() -> {
+            this.rateLimiter.release(this.rateLimiter.acquire(), null);
+            return true;
+        });
+        Thread batchThread = new Thread(() -> {
+            try (LDAPRateLimiter.Scope scope = this.rateLimiter.batch()) {
+                this.rateLimiter.release(this.rateLimiter.acquire(), null);
+            }
+        });
+        batchThread.start();
+        assertTrue(interactiveOperation.call());
+        batchThread.join(200);
+        assertTrue(batchThread.isAlive());
+
+        this.rateLimiter.release(first, null);
+        batchThread.join(1000);
+        assertFalse(batchThread.isAlive());
+        this.rateLimiter.release(second, null);
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.ldapuserimport;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.xwiki.contrib.ldap.XWikiLDAPSearchAttribute;
+
+import com.novell.ldap.LDAPAttribute;
+import com.novell.ldap.LDAPAttributeSet;
+import com.novell.ldap.LDAPEntry;
+import com.xwiki.ldapuserimport.internal.LDAPResultRecord;
+import com.xwiki.ldapuserimport.internal.LDAPResultSchema;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class LDAPResultRecordTest
+{
+    private static final String USERNAME = "username";
+
+    private static final String FIRST_NAME = "first_name";
+
+    private static final String GIVEN_NAME = "givenName";
+
+    private static final String MAIL = "mail";
+
+    private static final LDAPResultSchema SCHEMA = LDAPResultSchema.create(Collections.singletonList(USERNAME),
+        Arrays.asList(GIVEN_NAME, MAIL), Collections.singletonMap(GIVEN_NAME, FIRST_NAME));
+
+    @Test
+    void buildFromLDAPEntry()
+    {
+        LDAPAttributeSet attributeSet = new LDAPAttributeSet();
+        attributeSet.add(new LDAPAttribute(GIVEN_NAME, "John"));
+        attributeSet.add(new LDAPAttribute("sn", "Doe"));
+
+        Map<String, String> user = LDAPResultRecord.builder(SCHEMA)
+            .setAttributes(new LDAPEntry("uid=jdoe", attributeSet))
+            .set(USERNAME, "JohnDoe")
+            .build().asMap();
+
+        assertEquals(Map.of(USERNAME, "JohnDoe", FIRST_NAME, "John"), user);
+        assertFalse(user.containsKey(MAIL));
+        assertNull(user.get("sn"));
+    }
+
+    @Test
+    void buildFromSearchAttributes()
+    {
+        LDAPResultRecord record = LDAPResultRecord.builder(SCHEMA)
+            .setAttributes(Arrays.asList(new XWikiLDAPSearchAttribute(GIVEN_NAME, "John"),
+                new XWikiLDAPSearchAttribute(MAIL, "john@example.com"), new XWikiLDAPSearchAttribute("dn", "uid=jdoe")))
+            .build();
+
+        assertEquals(Map.of(FIRST_NAME, "John", MAIL, "john@example.com"), record.asMap());
+    }
+
+    @Test
+    void readAttributesInAnyCase()
+    {
+        LDAPResultRecord record = LDAPResultRecord.builder(SCHEMA)
+            .setAttributes(Arrays.asList(new XWikiLDAPSearchAttribute("GIVENNAME", "John"),
+                new XWikiLDAPSearchAttribute("Mail", "john@example.com")))
+            .build();
+
+        assertEquals(Map.of(FIRST_NAME, "John", MAIL, "john@example.com"), record.asMap());
+    }
+
+    @Test
+    void keepTheLastValueOfMultiValuedAttributes()
+    {
+        LDAPAttributeSet attributeSet = new LDAPAttributeSet();
+        attributeSet.add(new LDAPAttribute(MAIL, new String[] { "jdoe@example.com", "john@example.com" }));
+
+        LDAPResultRecord record =
+            LDAPResultRecord.builder(SCHEMA).setAttributes(new LDAPEntry("uid=jdoe", attributeSet)).build();
+
+        assertEquals("john@example.com", record.get(MAIL));
+    }
+
+    @Test
+    void writesToTheMapViewDoNotChangeTheRecord()
+    {
+        LDAPResultRecord record = LDAPResultRecord.builder(SCHEMA).set(USERNAME, "JohnDoe").build();
+
+        Map<String, String> user = record.asMap();
+        user.put(USERNAME, "Other");
+        user.put("displayMessage", "Imported");
+
+        assertEquals(Map.of(USERNAME, "Other", "displayMessage", "Imported"), user);
+        assertEquals("JohnDoe", record.get(USERNAME));
+        assertEquals(Map.of(USERNAME, "JohnDoe"), record.asMap());
+    }
+}
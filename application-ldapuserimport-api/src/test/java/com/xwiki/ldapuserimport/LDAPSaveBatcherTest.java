@@ -0,0 +1,236 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.ldapuserimport;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.inject.Provider;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.cache.Cache;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.observation.event.Event;
+import org.xwiki.observation.remote.RemoteObservationManagerConfiguration;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.store.XWikiCacheStore;
+import com.xpn.xwiki.store.XWikiHibernateStore;
+import com.xwiki.ldapuserimport.internal.LDAPSaveBatcher;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ComponentTest
+class LDAPSaveBatcherTest
+{
+    @InjectMockComponents
+    private LDAPSaveBatcher saveBatcher;
+
+    @MockComponent
+    private Provider<XWikiContext> contextProvider;
+
+    @MockComponent
+    private LDAPUserImportConfiguration ldapUserImportConfiguration;
+
+    @MockComponent
+    private RemoteObservationManagerConfiguration remoteObservationManagerConfiguration;
+
+    @Mock
+    private XWikiContext context;
+
+    @Mock
+    private XWiki xwiki;
+
+    @Mock
+    private XWikiHibernateStore hibernateStore;
+
+    @MockComponent
+    private ObservationManager observationManager;
+
+    @Mock
+    private XWikiCacheStore cacheStore;
+
+    @Mock
+    private Cache<XWikiDocument> documentCache;
+
+    @Mock
+    private Cache<Boolean> pageExistCache;
+
+    private final List<String> succeeded = new ArrayList<>();
+
+    private final List<String> failed = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() throws XWikiException
+    {
+        when(this.contextProvider.get()).thenReturn(this.context);
+        when(this.context.getWiki()).thenReturn(this.xwiki);
+        when(this.xwiki.getHibernateStore()).thenReturn(this.hibernateStore);
+        when(this.xwiki.getStore()).thenReturn(this.cacheStore);
+        when(this.cacheStore.getCache()).thenReturn(this.documentCache);
+        when(this.cacheStore.getPageExistCache()).thenReturn(this.pageExistCache);
+        when(this.hibernateStore.beginTransaction(this.context)).thenReturn(true);
+        when(this.ldapUserImportConfiguration.getSaveBatchSize()).thenReturn(2);
+    }
+
+    @Test
+    void commitEveryBatch() throws XWikiException
+    {
+        try (LDAPSaveBatcher.Batch batch = this.saveBatcher.open()) {
+            submit(batch, "alice", false);
+            // The outcome is only reported once committed.
+            assertTrue(this.succeeded.isEmpty());
+            submit(batch, "bob", false);
+            assertEquals(Arrays.asList("alice", "bob"), this.succeeded);
+            submit(batch, "carol", false);
+        }
+
+        assertEquals(Arrays.asList("alice", "bob", "carol"), this.succeeded);
+        verify(this.hibernateStore, times(2)).beginTransaction(this.context);
+        verify(this.hibernateStore, times(2)).endTransaction(this.context, true);
+        verify(this.hibernateStore, never()).endTransaction(this.context, false);
+    }
+
+    @Test
+    void evictSavedDocumentsAndNotifyAfterCommit()
+    {
+        XWikiDocument document = mock(XWikiDocument.class);
+        when(this.cacheStore.getKey(document, this.context)).thenReturn("xwiki:XWiki.alice");
+        Event event = mock(Event.class);
+
+        try (LDAPSaveBatcher.Batch batch = this.saveBatcher.open()) {
+            batch.submit(() -> {
+                this.saveBatcher.onDocumentSaved(document);
+                this.saveBatcher.notify(event, document, this.context);
+                return "alice";
+            }, this.succeeded::add, e -> this.failed.add("alice"));
+            // Nothing is sent before the commit.
+            verify(this.observationManager, never()).notify(event, document, this.context);
+        }
+
+        verify(this.observationManager).notify(event, document, this.context);
+        verify(this.documentCache).remove("xwiki:XWiki.alice");
+        verify(this.pageExistCache).remove("xwiki:XWiki.alice");
+        verify(this.cacheStore, never()).flushCache();
+    }
+
+    @Test
+    void saveOneByOneWhenBatchFails() throws XWikiException
+    {
+        XWikiDocument document = mock(XWikiDocument.class);
+        when(this.cacheStore.getKey(document, this.context)).thenReturn("xwiki:XWiki.alice");
+        Event event = mock(Event.class);
+        AtomicInteger aliceRuns = new AtomicInteger();
+        try (LDAPSaveBatcher.Batch batch = this.saveBatcher.open()) {
+            batch.submit(() -> {
+                this.saveBatcher.onDocumentSaved(document);
+                this.saveBatcher.notify(event, document, this.context);
+                return aliceRuns.incrementAndGet();
+            }, runs -> this.succeeded.add("alice"), e -> this.failed.add("alice"));
+            submit(batch, "bob", true);
+            submit(batch, "carol", false);
+        }
+
+        // The batch is rolled back and the users it contained are saved again one by one.
+        verify(this.hibernateStore).endTransaction(this.context, false);
+        // The document saved by the rolled back transaction is evicted, and its event is only sent by the replay.
+        verify(this.documentCache).remove("xwiki:XWiki.alice");
+        verify(this.observationManager).notify(event, document, this.context);
+        assertEquals(2, aliceRuns.get());
+        assertEquals(Arrays.asList("alice", "carol"), this.succeeded);
+        assertEquals(Collections.singletonList("bob"), this.failed);
+        verify(this.hibernateStore).endTransaction(this.context, true);
+    }
+
+    @Test
+    void saveWithoutVersion() throws XWikiException
+    {
+        // The document is marked as modified by its changes, and the store adds a version to the modified documents.
+        XWikiDocument document = mock(XWikiDocument.class);
+        AtomicBoolean dirty = new AtomicBoolean(true);
+        doAnswer(invocation -> {
+            dirty.set(invocation.getArgument(0));
+            return null;
+        }).when(document).setMetaDataDirty(anyBoolean());
+        when(document.isMetaDataDirty()).thenAnswer(invocation -> dirty.get());
+        AtomicReference<String> version = new AtomicReference<>("3.1");
+        doAnswer(invocation -> {
+            XWikiDocument saved = invocation.getArgument(0);
+            if (saved.isMetaDataDirty() || saved.isContentDirty()) {
+                version.set("4.1");
+            }
+            return null;
+        }).when(this.cacheStore).saveXWikiDoc(document, this.context);
+
+        this.saveBatcher.saveWithoutVersion(document, "Synchronized", this.context);
+
+        assertEquals("3.1", version.get());
+        verify(document).setComment("Synchronized");
+        verify(document).setMinorEdit(true);
+        verify(this.observationManager).notify(any(DocumentUpdatedEvent.class), eq(document), eq(this.context));
+    }
+
+    @Test
+    void saveOneByOneInCluster() throws XWikiException
+    {
+        when(this.remoteObservationManagerConfiguration.isEnabled()).thenReturn(true);
+
+        try (LDAPSaveBatcher.Batch batch = this.saveBatcher.open()) {
+            submit(batch, "alice", false);
+            assertEquals(Collections.singletonList("alice"), this.succeeded);
+        }
+
+        verify(this.hibernateStore, never()).beginTransaction(this.context);
+    }
+
+    private void submit(LDAPSaveBatcher.Batch batch, String user, boolean fail)
+    {
+        batch.submit(() -> {
+            if (fail) {
+                throw new XWikiException();
+            }
+            return user;
+        }, this.succeeded::add, e -> this.failed.add(user));
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.ldapuserimport;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.xwiki.contrib.ldap.PagedLDAPSearchResults;
+import org.xwiki.contrib.ldap.XWikiLDAPConfig;
+import org.xwiki.contrib.ldap.XWikiLDAPConnection;
+import org.xwiki.test.annotation.ComponentList;
+import org.xwiki.test.internal.MockConfigurationSource;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectComponentManager;
+import org.xwiki.test.junit5.mockito.MockComponent;
+import org.xwiki.test.mockito.MockitoComponentManager;
+
+import com.novell.ldap.LDAPConnection;
+import com.novell.ldap.LDAPException;
+import com.unboundid.ldap.listener.InMemoryDirectoryServer;
+import com.unboundid.ldap.listener.InMemoryDirectoryServerConfig;
+import com.xpn.xwiki.XWikiContext;
+import com.xwiki.ldapuserimport.internal.LDAPCircuitBreaker;
+import com.xwiki.ldapuserimport.internal.LDAPRateLimiter;
+import com.xwiki.ldapuserimport.internal.LDAPServerRouter;
+import com.xwiki.ldapuserimport.internal.XWikiLDAPFactory;
+import com.xwiki.ldapuserimport.internal.metrics.LDAPMetrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@ComponentTest
+@ComponentList({
+    XWikiLDAPFactory.class,
+    LDAPCircuitBreaker.class,
+    LDAPRateLimiter.class,
+    LDAPServerRouter.class
+})
+class LDAPServerRouterTest
+{
+    private static final String BASE_DN = "dc=example,dc=com";
+
+    private static final String BIND_DN = "cn=admin";
+
+    private static final String BIND_PASSWORD = "secret";
+
+    private static final String LDAP_PORT = "ldap_port";
+
+    private static final String USER_FILTER = "(uid=*)";
+
+    @InjectComponentManager
+    private MockitoComponentManager componentManager;
+
+    @MockComponent
+    private LDAPMetrics metrics;
+
+    @Mock
+    private XWikiContext context;
+
+    private final List<InMemoryDirectoryServer> servers = new ArrayList<>();
+
+    private XWikiLDAPFactory factory;
+
+    private LDAPServerRouter router;
+
+    @BeforeEach
+    void setUp() throws Exception
+    {
+        for (int i = 0; i < 3; i++) {
+            InMemoryDirectoryServerConfig config = new InMemoryDirectoryServerConfig(BASE_DN);
+            config.addAdditionalBindCredentials(BIND_DN, BIND_PASSWORD);
+            InMemoryDirectoryServer server = new InMemoryDirectoryServer(config);
+            server.add("dn: " + BASE_DN, "objectClass: domain", "dc: example");
+            server.add("dn: uid=user1," + BASE_DN, "objectClass: inetOrgPerson", "uid: user1", "cn: User 1",
+                "sn: User");
+            server.startListening();
+            this.servers.add(server);
+        }
+        this.factory = this.componentManager.getInstance(XWikiLDAPFactory.class);
+        this.router = this.componentManager.getInstance(LDAPServerRouter.class);
+    }
+
+    @AfterEach
+    void tearDown()
+    {
+        this.servers.forEach(server -> server.shutDown(true));
+    }
+
+    @Test
+    void routeToTheFastestReplica()
+    {
+        this.router.record(getServer(0), 9_000_000L);
+        this.router.record(getServer(1), 1_000_000L);
+        this.router.record(getServer(2), 5_000_000L);
+
+        XWikiLDAPConfig configuration = createConfiguration();
+        this.factory.getLDAPConnection(configuration);
+        assertEquals(String.valueOf(this.servers.get(1).getListenPort()), configuration.getLDAPParam(LDAP_PORT, ""));
+    }
+
+    @Test
+    void spreadBatchConnections() throws Exception
+    {
+        Set<String> ports = new HashSet<>();
+        LDAPRateLimiter rateLimiter = this.componentManager.getInstance(LDAPRateLimiter.class);
+        try (LDAPRateLimiter.Scope scope = rateLimiter.batch()) {
+            for (int i = 0; i < 6; i++) {
+                XWikiLDAPConfig configuration = createConfiguration();
+                this.factory.getLDAPConnection(configuration);
+                ports.add(configuration.getLDAPParam(LDAP_PORT, ""));
+            }
+        }
+        assertEquals(3, ports.size());
+    }
+
+    @Test
+    void failOverMidRun() throws Exception
+    {
+        this.router.record(getServer(0), 1_000_000L);
+        this.router.record(getServer(1), 5_000_000L);
+        this.router.record(getServer(2), 9_000_000L);
+
+        XWikiLDAPConfig configuration = createConfiguration();
+        XWikiLDAPConnection connection = this.factory.getLDAPConnection(configuration);
+        try {
+            assertTrue(connection.open(BIND_DN, BIND_PASSWORD, this.context));
+            assertTrue(search(connection).hasMore());
+
+            // The first replica goes down: the failing search opens its circuit, the next one fails over.
+            this.servers.get(0).shutDown(true);
+            assertThrows(LDAPException.class, () -> search(connection).hasMore());
+            assertTrue(search(connection).hasMore());
+            assertNotEquals(String.valueOf(this.servers.get(0).getListenPort()),
+                configuration.getLDAPParam(LDAP_PORT, ""));
+        } finally {
+            connection.close();
+        }
+    }
+
+    private PagedLDAPSearchResults search(XWikiLDAPConnection connection) throws LDAPException
+    {
+        return connection.searchPaginated(BASE_DN, LDAPConnection.SCOPE_SUB, USER_FILTER, new String[] { "uid" },
+            false);
+    }
+
+    private String getServer(int index)
+    {
+        return "localhost:" + this.servers.get(index).getListenPort();
+    }
+
+    private XWikiLDAPConfig createConfiguration()
+    {
+        XWikiLDAPConfig configuration = new XWikiLDAPConfig(null, new MockConfigurationSource());
+        configuration.setFinalProperty("ldap_server", "localhost");
+        configuration.setFinalProperty(LDAP_PORT, String.valueOf(this.servers.get(0).getListenPort()));
+        configuration.setFinalProperty("ldap_base_DN", BASE_DN);
+        configuration.setFinalProperty("ldap_bind_DN", BIND_DN);
+        configuration.setFinalProperty("ldap_bind_pass", BIND_PASSWORD);
+        configuration.setFinalProperty(LDAPServerRouter.REPLICAS_PARAM, getServer(1) + ',' + getServer(2));
+        configuration.setFinalProperty(LDAPCircuitBreaker.FAILURE_THRESHOLD_PARAM, "1");
+        return configuration;
+    }
+}
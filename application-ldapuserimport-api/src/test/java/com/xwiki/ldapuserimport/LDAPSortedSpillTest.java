@@ -0,0 +1,103 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.ldapuserimport;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.xwiki.ldapuserimport.internal.LDAPSortedSpill;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LDAPSortedSpillTest
+{
+    @Test
+    void sortInMemory(@TempDir File directory) throws Exception
+    {
+        try (LDAPSortedSpill spill = new LDAPSortedSpill(directory.toPath(), 10)) {
+            for (String line : Arrays.asList("c", "a", "b", "a")) {
+                spill.add(line);
+            }
+
+            assertFalse(spill.isSpilled());
+            assertEquals(Arrays.asList("a", "b", "c"), toList(spill.iterator()));
+        }
+    }
+
+    @Test
+    void sortOnDisk(@TempDir File directory) throws Exception
+    {
+        Path spillDirectory = directory.toPath().resolve("spill");
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            lines.add(String.format("user%03d", i));
+        }
+        List<String> shuffledLines = new ArrayList<>(lines);
+        // Each line is added twice, in different chunks.
+        shuffledLines.addAll(lines);
+        Collections.shuffle(shuffledLines);
+
+        try (LDAPSortedSpill spill = new LDAPSortedSpill(spillDirectory, 7)) {
+            for (String line : shuffledLines) {
+                spill.add(line);
+            }
+
+            assertTrue(spill.isSpilled());
+            assertEquals(lines, toList(spill.iterator()));
+        }
+        try (Stream<Path> files = Files.list(spillDirectory)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    void mergeJoin()
+    {
+        List<String> leftOnly = new ArrayList<>();
+        List<String> rightOnly = new ArrayList<>();
+        List<String> both = new ArrayList<>();
+
+        LDAPSortedSpill.mergeJoin(Arrays.asList("a", "c", "d", "f").iterator(),
+            Arrays.asList("b", "c", "f", "g").iterator(), leftOnly::add, rightOnly::add, both::add);
+
+        assertEquals(Arrays.asList("a", "d"), leftOnly);
+        assertEquals(Arrays.asList("b", "g"), rightOnly);
+        assertEquals(Arrays.asList("c", "f"), both);
+    }
+
+    private static List<String> toList(Iterator<String> iterator)
+    {
+        List<String> list = new ArrayList<>();
+        iterator.forEachRemaining(list::add);
+        return list;
+    }
+}
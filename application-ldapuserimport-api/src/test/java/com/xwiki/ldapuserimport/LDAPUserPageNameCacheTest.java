@@ -0,0 +1,149 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.ldapuserimport;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Named;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.contrib.ldap.XWikiLDAPConfig;
+import org.xwiki.contrib.ldap.XWikiLDAPSearchAttribute;
+import org.xwiki.contrib.ldap.XWikiLDAPUtils;
+import org.xwiki.model.ModelContext;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.test.annotation.BeforeComponent;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xwiki.ldapuserimport.internal.LDAPUserPageNameCache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ComponentTest
+class LDAPUserPageNameCacheTest
+{
+    private static final String PAGE_NAME_PARAM = "ldap_userPageName";
+
+    @InjectMockComponents
+    private LDAPUserPageNameCache userPageNameCache;
+
+    @MockComponent
+    private CacheManager cacheManager;
+
+    @MockComponent
+    @Named("compact")
+    private EntityReferenceSerializer<String> serializer;
+
+    @MockComponent
+    private ModelContext modelContext;
+
+    @Mock
+    private XWikiLDAPUtils ldapUtils;
+
+    @Mock
+    private XWikiLDAPConfig configuration;
+
+    @Mock
+    private XWikiContext context;
+
+    private final List<XWikiLDAPSearchAttribute> attributes =
+        Collections.singletonList(new XWikiLDAPSearchAttribute("uid", "jdoe"));
+
+    @BeforeComponent
+    @SuppressWarnings("unchecked")
+    void configure() throws Exception
+    {
+        Map<String, Object> values = new HashMap<>();
+        Cache<Object> cache = mock(Cache.class);
+        when(cache.get(anyString())).thenAnswer(invocation -> values.get(invocation.getArgument(0)));
+        doAnswer(invocation -> values.put(invocation.getArgument(0), invocation.getArgument(1))).when(cache)
+            .set(anyString(), any());
+        when(this.cacheManager.createNewCache(any())).thenReturn(cache);
+    }
+
+    @BeforeEach
+    void setUp()
+    {
+        when(this.ldapUtils.getUidAttributeName()).thenReturn("uid");
+        when(this.ldapUtils.getUserPageName(this.attributes, this.context)).thenReturn("JDoe");
+        when(this.configuration.getLDAPParam(PAGE_NAME_PARAM, null)).thenReturn("${uid}");
+        when(this.serializer.serialize(any(), any())).thenAnswer(invocation -> {
+            EntityReference base = invocation.getArgument(1);
+            String page = invocation.<EntityReference>getArgument(0).getName();
+            return base != null ? base.getName() + ':' + page : page;
+        });
+    }
+
+    @Test
+    void resolveEachUserPageOnce()
+    {
+        LDAPUserPageNameCache.UserPage userPage =
+            this.userPageNameCache.getUserPage(this.ldapUtils, this.configuration, this.attributes, this.context);
+        assertEquals(new DocumentReference("xwiki", "XWiki", "JDoe"), userPage.getReference());
+        assertEquals("JDoe", userPage.getName());
+        assertEquals("JDoe", userPage.getSerializedReference());
+
+        this.userPageNameCache.getUserPage(this.ldapUtils, this.configuration, this.attributes, this.context);
+        verify(this.ldapUtils, times(1)).getUserPageName(this.attributes, this.context);
+        verify(this.serializer, times(1)).serialize(any(), any());
+    }
+
+    @Test
+    void resolveAgainWhenTheFormatterChanges()
+    {
+        this.userPageNameCache.getUserPage(this.ldapUtils, this.configuration, this.attributes, this.context);
+        when(this.configuration.getLDAPParam(PAGE_NAME_PARAM, null)).thenReturn("LDAP-${uid}");
+        when(this.ldapUtils.getUserPageName(this.attributes, this.context)).thenReturn("LDAP-JDoe");
+
+        assertEquals("LDAP-JDoe", this.userPageNameCache
+            .getUserPage(this.ldapUtils, this.configuration, this.attributes, this.context).getName());
+    }
+
+    @Test
+    void serializeAgainWhenTheCurrentEntityChanges()
+    {
+        this.userPageNameCache.getUserPage(this.ldapUtils, this.configuration, this.attributes, this.context);
+        when(this.modelContext.getCurrentEntityReference()).thenReturn(new WikiReference("sub"));
+
+        assertEquals("sub:JDoe", this.userPageNameCache
+            .getUserPage(this.ldapUtils, this.configuration, this.attributes, this.context).getSerializedReference());
+        verify(this.ldapUtils, times(1)).getUserPageName(this.attributes, this.context);
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.ldapuserimport;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import javax.inject.Provider;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.xwiki.contrib.ldap.XWikiLDAPConfig;
+import org.xwiki.contrib.ldap.XWikiLDAPConnection;
+import org.xwiki.contrib.ldap.XWikiLDAPException;
+import org.xwiki.contrib.ldap.XWikiLDAPSearchAttribute;
+import org.xwiki.contrib.ldap.XWikiLDAPUtils;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xwiki.ldapuserimport.internal.LDAPRateLimiter;
+import com.xwiki.ldapuserimport.internal.LDAPUserPrefetcher;
+import com.xwiki.ldapuserimport.internal.XWikiLDAPFactory;
+import com.xwiki.ldapuserimport.internal.metrics.LDAPMetrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ComponentTest
+class LDAPUserPrefetcherTest
+{
+    private static final List<String> UIDS = Arrays.asList("alice", "bob", "carol", "dave");
+
+    private static final String[] ATTRIBUTES = new String[] { "uid" };
+
+    @InjectMockComponents
+    private LDAPUserPrefetcher userPrefetcher;
+
+    @MockComponent
+    private Provider<XWikiContext> contextProvider;
+
+    @MockComponent
+    private Provider<XWikiLDAPConfig> xwikiLDAPConfigProvider;
+
+    @MockComponent
+    private LDAPUserImportConfiguration ldapUserImportConfiguration;
+
+    @MockComponent
+    private XWikiLDAPFactory xWikiLDAPFactory;
+
+    @MockComponent
+    private LDAPRateLimiter rateLimiter;
+
+    @MockComponent
+    private LDAPMetrics metrics;
+
+    @Mock
+    private XWikiContext context;
+
+    @Mock
+    private XWikiLDAPConfig ldapConfig;
+
+    @Mock
+    private XWikiLDAPConfig readerConfig;
+
+    @Mock
+    private XWikiLDAPConnection connection;
+
+    @Mock
+    private XWikiLDAPUtils ldapUtils;
+
+    @Mock
+    private XWikiLDAPUtils currentLDAPUtils;
+
+    @BeforeEach
+    void setUp() throws Exception
+    {
+        when(this.contextProvider.get()).thenReturn(this.context);
+        when(this.context.clone()).thenReturn(this.context);
+        when(this.rateLimiter.propagate(any())).thenAnswer(inv -> inv.<Callable<?>>getArgument(0));
+        when(this.metrics.propagate(any())).thenAnswer(inv -> inv.<Callable<?>>getArgument(0));
+        when(this.xwikiLDAPConfigProvider.get()).thenReturn(this.readerConfig);
+        when(this.ldapConfig.getLDAPParam("ldap_base_DN", "")).thenReturn("dc=example");
+        when(this.xWikiLDAPFactory.getLDAPConnection(this.readerConfig)).thenReturn(this.connection);
+        when(this.xWikiLDAPFactory.getLDAPUtils(this.connection, this.readerConfig)).thenReturn(this.ldapUtils);
+        when(this.ldapUtils.searchUserAttributesByUid(anyString(), any())).thenAnswer(inv -> Collections
+            .singletonList(new XWikiLDAPSearchAttribute("uid", inv.getArgument(0))));
+        when(this.ldapUtils.searchUserDNByUid(anyString())).thenAnswer(inv -> "uid=" + inv.getArgument(0));
+    }
+
+    @Test
+    void readAheadInOrder() throws Exception
+    {
+        when(this.ldapUserImportConfiguration.getSyncReadAhead()).thenReturn(2);
+
+        try (LDAPUserPrefetcher.Prefetch prefetch =
+            this.userPrefetcher.prefetch(UIDS, this.ldapConfig, this.currentLDAPUtils, ATTRIBUTES)) {
+            for (String uid : UIDS) {
+                LDAPUserPrefetcher.LDAPUserData userData = prefetch.next();
+                assertEquals(uid, userData.getUid());
+                assertEquals(uid, userData.getAttributes().get(0).value);
+                assertEquals("uid=" + uid, userData.getDN());
+            }
+        }
+
+        verify(this.connection, timeout(1000)).close();
+        verify(this.currentLDAPUtils, never()).searchUserAttributesByUid(anyString(), any());
+        // The reader doesn't share the configuration of the current thread, which the routing changes.
+        verify(this.readerConfig).setFinalProperty("ldap_base_DN", "dc=example");
+        verify(this.xWikiLDAPFactory, never()).getLDAPConnection(this.ldapConfig);
+    }
+
+    @Test
+    void readWhenRequestedWithoutReadAhead() throws Exception
+    {
+        when(this.currentLDAPUtils.searchUserDNByUid("alice")).thenReturn("uid=alice");
+
+        try (LDAPUserPrefetcher.Prefetch prefetch =
+            this.userPrefetcher.prefetch(UIDS, this.ldapConfig, this.currentLDAPUtils, ATTRIBUTES)) {
+            assertEquals("uid=alice", prefetch.next().getDN());
+        }
+
+        verify(this.xWikiLDAPFactory, never()).getLDAPConnection(any());
+    }
+
+    @Test
+    void failEachUserWhenTheConnectionFails() throws Exception
+    {
+        when(this.ldapUserImportConfiguration.getSyncReadAhead()).thenReturn(2);
+        XWikiLDAPException exception = new XWikiLDAPException("Bind failed");
+        doThrow(exception).when(this.connection).open(any(), any(), any());
+
+        try (LDAPUserPrefetcher.Prefetch prefetch =
+            this.userPrefetcher.prefetch(UIDS, this.ldapConfig, this.currentLDAPUtils, ATTRIBUTES)) {
+            for (String uid : UIDS) {
+                LDAPUserPrefetcher.LDAPUserData userData = prefetch.next();
+                assertEquals(uid, userData.getUid());
+                assertSame(exception, assertThrows(XWikiLDAPException.class, userData::getAttributes));
+            }
+        }
+    }
+
+    @Test
+    void failRemainingUsersWhenTheReaderStops() throws Exception
+    {
+        when(this.ldapUserImportConfiguration.getSyncReadAhead()).thenReturn(2);
+        IllegalStateException exception = new IllegalStateException("No LDAP server");
+        when(this.xWikiLDAPFactory.getLDAPConnection(this.readerConfig)).thenThrow(exception);
+
+        try (LDAPUserPrefetcher.Prefetch prefetch =
+            this.userPrefetcher.prefetch(UIDS, this.ldapConfig, this.currentLDAPUtils, ATTRIBUTES)) {
+            for (String uid : UIDS) {
+                LDAPUserPrefetcher.LDAPUserData userData = prefetch.next();
+                assertEquals(uid, userData.getUid());
+                assertSame(exception, assertThrows(IllegalStateException.class, userData::getAttributes));
+            }
+        }
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.ldapuserimport.scale;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import com.unboundid.ldap.listener.InMemoryDirectoryServer;
+import com.unboundid.ldap.sdk.Attribute;
+import com.unboundid.ldap.sdk.Entry;
+import com.unboundid.ldap.sdk.LDAPException;
+
+/**
+ * Fill an in-memory LDAP directory with users and groups. The generated directory only depends on the seed and on the
+ * sizes, so that the timings of two runs can be compared.
+ * <p>
+ * Each group holds a random sample of the users; the first {@link #largeGroupCount} groups are large groups holding
+ * {@link #largeGroupMembers} users each, and the groups are nested up to {@link #nestingDepth} levels: each group of a
+ * level is a member of a group of the level above.
+ *
+ * @version $Id$
+ */
+public class LDAPDirectoryGenerator
+{
+    /**
+     * The base DN of the generated directory.
+     */
+    public static final String BASE_DN = "dc=example,dc=com";
+
+    /**
+     * The DN under which the users are created.
+     */
+    public static final String USERS_DN = "ou=users," + BASE_DN;
+
+    /**
+     * The DN under which the groups are created.
+     */
+    public static final String GROUPS_DN = "ou=groups," + BASE_DN;
+
+    private static final String OBJECT_CLASS = "objectClass";
+
+    private static final String TOP = "top";
+
+    private static final int BATCH_SIZE = 10000;
+
+    private static final String[] FIRST_NAMES = { "Alice", "Bob", "Carol", "David", "Emma", "Farid", "Grace", "Hugo",
+        "Ines", "Jun", "Karim", "Lena", "Mihai", "Nora", "Oscar", "Paula" };
+
+    private static final String[] LAST_NAMES = { "Martin", "Popescu", "Smith", "Nguyen", "Garcia", "Muller", "Rossi",
+        "Dubois", "Kowalski", "Ionescu", "Silva", "Novak" };
+
+    private long seed = Long.getLong("scale.seed", 42);
+
+    private int userCount = Integer.getInteger("scale.users", 100000);
+
+    private int groupCount = Integer.getInteger("scale.groups", 5000);
+
+    private int groupMembers = Integer.getInteger("scale.groupMembers", 50);
+
+    private int largeGroupCount = Integer.getInteger("scale.largeGroups", 2);
+
+    private int largeGroupMembers = Integer.getInteger("scale.largeGroupMembers", 40000);
+
+    private int nestingDepth = Integer.getInteger("scale.nestingDepth", 3);
+
+    /**
+     * @return the number of generated users
+     */
+    public int getUserCount()
+    {
+        return this.userCount;
+    }
+
+    /**
+     * @return the number of generated groups
+     */
+    public int getGroupCount()
+    {
+        return this.groupCount;
+    }
+
+    /**
+     * @return the number of large groups, which are the first generated groups
+     */
+    public int getLargeGroupCount()
+    {
+        return this.largeGroupCount;
+    }
+
+    /**
+     * @param index the user index
+     * @return the uid of the user
+     */
+    public static String getUid(int index)
+    {
+        return String.format("user%06d", index);
+    }
+
+    /**
+     * @param index the user index
+     * @return the DN of the user
+     */
+    public static String getUserDN(int index)
+    {
+        return "uid=" + getUid(index) + ',' + USERS_DN;
+    }
+
+    /**
+     * @param index the group index
+     * @return the DN of the group
+     */
+    public static String getGroupDN(int index)
+    {
+        return String.format("cn=group%05d,%s", index, GROUPS_DN);
+    }
+
+    /**
+     * Add the generated entries to the directory.
+     *
+     * @param server the in-memory directory
+     * @throws LDAPException if the entries cannot be added
+     */
+    public void generate(InMemoryDirectoryServer server) throws LDAPException
+    {
+        Random random = new Random(this.seed);
+
+        server.add(new Entry(BASE_DN, attribute(OBJECT_CLASS, TOP, "domain"), attribute("dc", "example")));
+        server.add(organizationalUnit(USERS_DN, "users"));
+        server.add(organizationalUnit(GROUPS_DN, "groups"));
+
+        List<Entry> batch = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < this.userCount; i++) {
+            batch.add(user(i, random));
+            batch = flush(server, batch);
+        }
+        for (int i = 0; i < this.groupCount; i++) {
+            batch.add(group(i, random));
+            batch = flush(server, batch);
+        }
+        if (!batch.isEmpty()) {
+            server.addEntries(batch);
+        }
+    }
+
+    private List<Entry> flush(InMemoryDirectoryServer server, List<Entry> batch) throws LDAPException
+    {
+        if (batch.size() < BATCH_SIZE) {
+            return batch;
+        }
+        server.addEntries(batch);
+        return new ArrayList<>(BATCH_SIZE);
+    }
+
+    private Entry organizationalUnit(String dn, String name)
+    {
+        return new Entry(dn, attribute(OBJECT_CLASS, TOP, "organizationalUnit"), attribute("ou", name));
+    }
+
+    private Entry user(int index, Random random)
+    {
+        String firstName = FIRST_NAMES[random.nextInt(FIRST_NAMES.length)];
+        String lastName = LAST_NAMES[random.nextInt(LAST_NAMES.length)];
+        return new Entry(getUserDN(index),
+            attribute(OBJECT_CLASS, TOP, "person", "organizationalPerson", "inetOrgPerson"),
+            attribute("uid", getUid(index)),
+            attribute("cn", firstName + ' ' + lastName + ' ' + index),
+            attribute("givenName", firstName),
+            attribute("sn", lastName),
+            attribute("mail", getUid(index) + "@example.com"),
+            attribute("description", "Generated user " + index));
+    }
+
+    private Entry group(int index, Random random)
+    {
+        int size = index < this.largeGroupCount ? this.largeGroupMembers : this.groupMembers;
+        Set<String> members = new LinkedHashSet<>();
+        while (members.size() < Math.min(size, this.userCount)) {
+            members.add(getUserDN(random.nextInt(this.userCount)));
+        }
+        // Nest the groups: group i is a member of the group i / 10 of the level above, up to the nesting depth.
+        for (int child = index * 10 + 1; child <= index * 10 + 10 && child < this.groupCount; child++) {
+            if (getLevel(child) <= this.nestingDepth) {
+                members.add(getGroupDN(child));
+            }
+        }
+        return new Entry(getGroupDN(index),
+            attribute(OBJECT_CLASS, TOP, "groupOfNames"),
+            attribute("cn", String.format("group%05d", index)),
+            attribute("description", "Generated group " + index),
+            attribute("member", members.toArray(new String[0])));
+    }
+
+    private int getLevel(int groupIndex)
+    {
+        int level = 0;
+        for (int index = groupIndex; index > 0; index = (index - 1) / 10) {
+            level++;
+        }
+        return level;
+    }
+
+    private static Attribute attribute(String name, String... values)
+    {
+        return new Attribute(name, values);
+    }
+}
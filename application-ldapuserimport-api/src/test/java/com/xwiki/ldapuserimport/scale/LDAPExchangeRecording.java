@@ -0,0 +1,240 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.ldapuserimport.scale;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.unboundid.ldap.protocol.SearchRequestProtocolOp;
+import com.unboundid.ldap.sdk.DN;
+import com.unboundid.ldap.sdk.Entry;
+import com.unboundid.ldap.sdk.LDAPException;
+import com.unboundid.ldap.sdk.ResultCode;
+import com.unboundid.ldif.LDIFException;
+
+/**
+ * The LDAP exchanges recorded by an {@link LDAPStandIn}, indexed by request so that they can be replayed
+ * deterministically. The bind passwords are never recorded.
+ * <p>
+ * A recording is saved as a JSON file holding one object per exchange, with the entries in LDIF.
+ *
+ * @version $Id$
+ */
+public class LDAPExchangeRecording
+{
+    private static final String KEY = "key";
+
+    private static final String RESULT_CODE = "resultCode";
+
+    private static final String DIAGNOSTIC_MESSAGE = "diagnosticMessage";
+
+    private static final String ENTRIES = "entries";
+
+    private static final String SEPARATOR = "|";
+
+    private final Map<String, Exchange> exchanges = new ConcurrentHashMap<>();
+
+    /**
+     * The recorded answer to a request.
+     */
+    public static final class Exchange
+    {
+        private final ResultCode resultCode;
+
+        private final String diagnosticMessage;
+
+        private final List<Entry> entries;
+
+        /**
+         * @param resultCode the result code
+         * @param diagnosticMessage the diagnostic message, or {@code null}
+         * @param entries the returned entries, in order
+         */
+        public Exchange(ResultCode resultCode, String diagnosticMessage, List<Entry> entries)
+        {
+            this.resultCode = resultCode;
+            this.diagnosticMessage = diagnosticMessage;
+            this.entries = Collections.unmodifiableList(new ArrayList<>(entries));
+        }
+
+        /**
+         * @return the result code
+         */
+        public ResultCode getResultCode()
+        {
+            return this.resultCode;
+        }
+
+        /**
+         * @return the diagnostic message, or {@code null}
+         */
+        public String getDiagnosticMessage()
+        {
+            return this.diagnosticMessage;
+        }
+
+        /**
+         * @return the returned entries, in order
+         */
+        public List<Entry> getEntries()
+        {
+            return this.entries;
+        }
+    }
+
+    /**
+     * @param bindDN the DN of a bind request
+     * @return the key of the bind request
+     */
+    public static String getBindKey(String bindDN)
+    {
+        return "bind" + SEPARATOR + bindDN.toLowerCase();
+    }
+
+    /**
+     * Compute the key of a search request. Two requests which differ only by the case of the DN, the form of the
+     * filter or the order of the attributes have the same key.
+     *
+     * @param request the search request
+     * @return the key of the search request
+     * @throws LDAPException if the base DN is not valid
+     */
+    public static String getSearchKey(SearchRequestProtocolOp request) throws LDAPException
+    {
+        TreeSet<String> attributes = new TreeSet<>();
+        request.getAttributes().forEach(attribute -> attributes.add(attribute.toLowerCase()));
+        return String.join(SEPARATOR, "search", new DN(request.getBaseDN()).toNormalizedString(),
+            request.getScope().getName(), request.getFilter().toNormalizedString(), String.join(",", attributes));
+    }
+
+    /**
+     * @param key the key of the request
+     * @param exchange the answer to the request
+     */
+    public void put(String key, Exchange exchange)
+    {
+        this.exchanges.put(key, exchange);
+    }
+
+    /**
+     * @param key the key of the request
+     * @return the recorded answer to the request, or {@code null} if the request was not recorded
+     */
+    public Exchange get(String key)
+    {
+        return this.exchanges.get(key);
+    }
+
+    /**
+     * @return the number of recorded exchanges
+     */
+    public int size()
+    {
+        return this.exchanges.size();
+    }
+
+    /**
+     * Save the recording.
+     *
+     * @param file the file to write
+     * @throws IOException in case of failure
+     */
+    public void save(File file) throws IOException
+    {
+        try (JsonGenerator generator = new JsonFactory().createGenerator(file, JsonEncoding.UTF8)) {
+            generator.writeStartArray();
+            for (Map.Entry<String, Exchange> exchange : this.exchanges.entrySet()) {
+                generator.writeStartObject();
+                generator.writeStringField(KEY, exchange.getKey());
+                generator.writeNumberField(RESULT_CODE, exchange.getValue().getResultCode().intValue());
+                if (exchange.getValue().getDiagnosticMessage() != null) {
+                    generator.writeStringField(DIAGNOSTIC_MESSAGE, exchange.getValue().getDiagnosticMessage());
+                }
+                generator.writeArrayFieldStart(ENTRIES);
+                for (Entry entry : exchange.getValue().getEntries()) {
+                    generator.writeString(entry.toLDIFString());
+                }
+                generator.writeEndArray();
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+        }
+    }
+
+    /**
+     * Load a recording saved with {@link #save(File)}.
+     *
+     * @param file the file to read
+     * @return the recording
+     * @throws IOException in case of failure
+     */
+    public static LDAPExchangeRecording load(File file) throws IOException
+    {
+        LDAPExchangeRecording recording = new LDAPExchangeRecording();
+        try (JsonParser parser = new JsonFactory().createParser(file)) {
+            parser.nextToken();
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                String key = null;
+                int resultCode = 0;
+                String diagnosticMessage = null;
+                List<Entry> entries = new ArrayList<>();
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = parser.getCurrentName();
+                    parser.nextToken();
+                    if (KEY.equals(field)) {
+                        key = parser.getText();
+                    } else if (RESULT_CODE.equals(field)) {
+                        resultCode = parser.getIntValue();
+                    } else if (DIAGNOSTIC_MESSAGE.equals(field)) {
+                        diagnosticMessage = parser.getText();
+                    } else if (ENTRIES.equals(field)) {
+                        while (parser.nextToken() == JsonToken.VALUE_STRING) {
+                            entries.add(parseEntry(parser.getText()));
+                        }
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+                recording.put(key, new Exchange(ResultCode.valueOf(resultCode), diagnosticMessage, entries));
+            }
+        }
+        return recording;
+    }
+
+    private static Entry parseEntry(String ldif) throws IOException
+    {
+        try {
+            return new Entry(ldif.split("\\R"));
+        } catch (LDIFException e) {
+            throw new IOException("Invalid recorded entry: " + ldif, e);
+        }
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.ldapuserimport.scale;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import com.unboundid.ldap.sdk.DN;
+import com.unboundid.ldap.sdk.LDAPException;
+
+/**
+ * The network conditions simulated by an {@link LDAPStandIn}: the latency of each operation with its jitter, the
+ * maximum page size enforced by the server and the search bases answered with a referral.
+ * <p>
+ * The jitter is drawn from a seeded random generator, so that two runs with the same conditions see the same delays.
+ *
+ * @version $Id$
+ */
+public class LDAPNetworkConditions
+{
+    /**
+     * The simulated round-trips.
+     */
+    public enum Operation
+    {
+        /**
+         * A bind request.
+         */
+        BIND,
+
+        /**
+         * A search request, or the request of the next page of a paged search.
+         */
+        SEARCH,
+
+        /**
+         * Any other request.
+         */
+        OTHER
+    }
+
+    private final Map<Operation, Long> latencies = new EnumMap<>(Operation.class);
+
+    private final Map<DN, String> referrals = new LinkedHashMap<>();
+
+    private long jitter;
+
+    private int maxPageSize;
+
+    private Random random = new Random(0);
+
+    /**
+     * Create conditions from the {@code scale.latency} (milliseconds, applied to every operation),
+     * {@code scale.jitter} (milliseconds) and {@code scale.maxPageSize} system properties.
+     *
+     * @return the conditions
+     */
+    public static LDAPNetworkConditions fromSystemProperties()
+    {
+        LDAPNetworkConditions conditions = new LDAPNetworkConditions();
+        long latency = Long.getLong("scale.latency", 0);
+        for (Operation operation : Operation.values()) {
+            conditions.withLatency(operation, latency);
+        }
+        return conditions.withJitter(Long.getLong("scale.jitter", 0))
+            .withMaxPageSize(Integer.getInteger("scale.maxPageSize", 0)).withSeed(Long.getLong("scale.seed", 42));
+    }
+
+    /**
+     * @return {@code true} if these conditions delay some operation
+     */
+    public boolean hasLatency()
+    {
+        return this.jitter > 0 || this.latencies.values().stream().anyMatch(latency -> latency > 0);
+    }
+
+    /**
+     * @param operation the operation
+     * @param milliseconds the average latency of the operation
+     * @return these conditions
+     */
+    public LDAPNetworkConditions withLatency(Operation operation, long milliseconds)
+    {
+        this.latencies.put(operation, milliseconds);
+        return this;
+    }
+
+    /**
+     * @param milliseconds the maximum deviation from the average latency, in both directions
+     * @return these conditions
+     */
+    public LDAPNetworkConditions withJitter(long milliseconds)
+    {
+        this.jitter = milliseconds;
+        return this;
+    }
+
+    /**
+     * @param seed the seed of the jitter
+     * @return these conditions
+     */
+    public LDAPNetworkConditions withSeed(long seed)
+    {
+        this.random = new Random(seed);
+        return this;
+    }
+
+    /**
+     * @param pageSize the maximum number of entries returned by one search request, like the {@code MaxPageSize}
+     *     policy of Active Directory; 0 for no limit
+     * @return these conditions
+     */
+    public LDAPNetworkConditions withMaxPageSize(int pageSize)
+    {
+        this.maxPageSize = pageSize;
+        return this;
+    }
+
+    /**
+     * Answer the searches under the given DN with a referral.
+     *
+     * @param baseDN the base DN of the referred subtree
+     * @param url the LDAP URL of the referral
+     * @return these conditions
+     * @throws LDAPException if the DN is not valid
+     */
+    public LDAPNetworkConditions withReferral(String baseDN, String url) throws LDAPException
+    {
+        this.referrals.put(new DN(baseDN), url);
+        return this;
+    }
+
+    /**
+     * Wait for the simulated duration of an operation.
+     *
+     * @param operation the operation
+     */
+    public void delay(Operation operation)
+    {
+        long latency = this.latencies.getOrDefault(operation, 0L);
+        if (this.jitter > 0) {
+            synchronized (this) {
+                latency += (long) ((this.random.nextDouble() * 2 - 1) * this.jitter);
+            }
+        }
+        if (latency > 0) {
+            try {
+                Thread.sleep(latency);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * @param requestedPageSize the page size requested by the client, 0 if the client did not request paging
+     * @return the number of entries to return, 0 for all of them
+     */
+    public int getPageSize(int requestedPageSize)
+    {
+        if (this.maxPageSize > 0 && (requestedPageSize <= 0 || requestedPageSize > this.maxPageSize)) {
+            return this.maxPageSize;
+        }
+        return Math.max(requestedPageSize, 0);
+    }
+
+    /**
+     * @param baseDN the base DN of a search
+     * @return the referral URL answering searches under this DN, or {@code null} if the search is not referred
+     * @throws LDAPException if the DN is not valid
+     */
+    public String getReferral(String baseDN) throws LDAPException
+    {
+        DN dn = new DN(baseDN);
+        for (Map.Entry<DN, String> referral : this.referrals.entrySet()) {
+            if (dn.isDescendantOf(referral.getKey(), true)) {
+                return referral.getValue();
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.ldapuserimport.scale;
+
+import java.io.IOException;
+
+import com.unboundid.ldap.listener.LDAPListener;
+import com.unboundid.ldap.listener.LDAPListenerConfig;
+
+/**
+ * An LDAP server standing in for a real one during performance tests. It either forwards the requests to a real LDAP
+ * server, recording the exchanges if needed, or replays a recording without any network; in both cases it simulates
+ * the given {@link LDAPNetworkConditions}, so that the import can be measured under WAN conditions on a laptop.
+ * <p>
+ * Point the {@code ldap_server} and {@code ldap_port} configuration at {@code localhost} and {@link #getPort()}.
+ *
+ * @version $Id$
+ */
+public final class LDAPStandIn implements AutoCloseable
+{
+    private final LDAPListener listener;
+
+    private final LDAPExchangeRecording recording;
+
+    private LDAPStandIn(LDAPStandInRequestHandler handler, LDAPExchangeRecording recording) throws IOException
+    {
+        this.listener = new LDAPListener(new LDAPListenerConfig(0, handler));
+        this.listener.startListening();
+        this.recording = recording;
+    }
+
+    /**
+     * Start a stand-in forwarding the requests to a real LDAP server.
+     *
+     * @param host the host of the LDAP server
+     * @param port the port of the LDAP server
+     * @param recording the recording to fill, or {@code null} to only simulate the network conditions
+     * @param conditions the simulated network conditions
+     * @return the started stand-in
+     * @throws IOException if the stand-in cannot listen
+     */
+    public static LDAPStandIn forward(String host, int port, LDAPExchangeRecording recording,
+        LDAPNetworkConditions conditions) throws IOException
+    {
+        return new LDAPStandIn(new LDAPStandInRequestHandler(host, port, recording, conditions), recording);
+    }
+
+    /**
+     * Start a stand-in replaying a recording. The searches which were not recorded fail.
+     *
+     * @param recording the recording to replay
+     * @param conditions the simulated network conditions
+     * @return the started stand-in
+     * @throws IOException if the stand-in cannot listen
+     */
+    public static LDAPStandIn replay(LDAPExchangeRecording recording, LDAPNetworkConditions conditions)
+        throws IOException
+    {
+        return new LDAPStandIn(new LDAPStandInRequestHandler(null, 0, recording, conditions), recording);
+    }
+
+    /**
+     * @return the port on which the stand-in listens
+     */
+    public int getPort()
+    {
+        return this.listener.getListenPort();
+    }
+
+    /**
+     * @return the recording filled or replayed by the stand-in, or {@code null}
+     */
+    public LDAPExchangeRecording getRecording()
+    {
+        return this.recording;
+    }
+
+    @Override
+    public void close()
+    {
+        this.listener.shutDown(true);
+    }
+}
@@ -0,0 +1,335 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.ldapuserimport.scale;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.unboundid.asn1.ASN1OctetString;
+import com.unboundid.ldap.listener.LDAPListenerClientConnection;
+import com.unboundid.ldap.listener.LDAPListenerRequestHandler;
+import com.unboundid.ldap.protocol.AddRequestProtocolOp;
+import com.unboundid.ldap.protocol.AddResponseProtocolOp;
+import com.unboundid.ldap.protocol.BindRequestProtocolOp;
+import com.unboundid.ldap.protocol.BindResponseProtocolOp;
+import com.unboundid.ldap.protocol.CompareRequestProtocolOp;
+import com.unboundid.ldap.protocol.CompareResponseProtocolOp;
+import com.unboundid.ldap.protocol.DeleteRequestProtocolOp;
+import com.unboundid.ldap.protocol.DeleteResponseProtocolOp;
+import com.unboundid.ldap.protocol.ExtendedRequestProtocolOp;
+import com.unboundid.ldap.protocol.ExtendedResponseProtocolOp;
+import com.unboundid.ldap.protocol.LDAPMessage;
+import com.unboundid.ldap.protocol.ModifyDNRequestProtocolOp;
+import com.unboundid.ldap.protocol.ModifyDNResponseProtocolOp;
+import com.unboundid.ldap.protocol.ModifyRequestProtocolOp;
+import com.unboundid.ldap.protocol.ModifyResponseProtocolOp;
+import com.unboundid.ldap.protocol.SearchRequestProtocolOp;
+import com.unboundid.ldap.protocol.SearchResultDoneProtocolOp;
+import com.unboundid.ldap.protocol.SearchResultEntryProtocolOp;
+import com.unboundid.ldap.sdk.Control;
+import com.unboundid.ldap.sdk.Entry;
+import com.unboundid.ldap.sdk.LDAPConnection;
+import com.unboundid.ldap.sdk.LDAPException;
+import com.unboundid.ldap.sdk.LDAPSearchException;
+import com.unboundid.ldap.sdk.ResultCode;
+import com.unboundid.ldap.sdk.SearchRequest;
+import com.unboundid.ldap.sdk.SearchResult;
+import com.unboundid.ldap.sdk.SimpleBindRequest;
+import com.unboundid.ldap.sdk.controls.SimplePagedResultsControl;
+import com.xwiki.ldapuserimport.scale.LDAPExchangeRecording.Exchange;
+import com.xwiki.ldapuserimport.scale.LDAPNetworkConditions.Operation;
+
+/**
+ * Answer the requests of one client connection of an {@link LDAPStandIn}, either by forwarding them to a real LDAP
+ * server (and optionally recording the answers) or by replaying a recording.
+ * <p>
+ * The whole result of a search is fetched (or replayed) on the first request and then served page by page, so that
+ * the page size enforced by the {@link LDAPNetworkConditions} does not depend on the page size of the real server.
+ *
+ * @version $Id$
+ */
+class LDAPStandInRequestHandler extends LDAPListenerRequestHandler
+{
+    private static final int BACKEND_PAGE_SIZE = 500;
+
+    private static final String NOT_SUPPORTED = "Only bind and search requests are supported";
+
+    private final String backendHost;
+
+    private final int backendPort;
+
+    private final LDAPExchangeRecording recording;
+
+    private final LDAPNetworkConditions conditions;
+
+    private final LDAPListenerClientConnection clientConnection;
+
+    private final LDAPConnection backend;
+
+    /**
+     * The results of the paged searches being served on this connection.
+     */
+    private final Map<String, Exchange> pagedSearches = new HashMap<>();
+
+    /**
+     * @param backendHost the host of the LDAP server to forward the requests to, or {@code null} to replay
+     * @param backendPort the port of the LDAP server to forward the requests to
+     * @param recording the recording to fill or to replay, may be {@code null} when forwarding
+     * @param conditions the simulated network conditions
+     */
+    LDAPStandInRequestHandler(String backendHost, int backendPort, LDAPExchangeRecording recording,
+        LDAPNetworkConditions conditions)
+    {
+        this(backendHost, backendPort, recording, conditions, null, null);
+    }
+
+    private LDAPStandInRequestHandler(String backendHost, int backendPort, LDAPExchangeRecording recording,
+        LDAPNetworkConditions conditions, LDAPListenerClientConnection clientConnection, LDAPConnection backend)
+    {
+        this.backendHost = backendHost;
+        this.backendPort = backendPort;
+        this.recording = recording;
+        this.conditions = conditions;
+        this.clientConnection = clientConnection;
+        this.backend = backend;
+    }
+
+    @Override
+    public LDAPListenerRequestHandler newInstance(LDAPListenerClientConnection connection) throws LDAPException
+    {
+        LDAPConnection backendConnection = null;
+        if (this.backendHost != null) {
+            backendConnection = new LDAPConnection(this.backendHost, this.backendPort);
+        }
+        return new LDAPStandInRequestHandler(this.backendHost, this.backendPort, this.recording, this.conditions,
+            connection, backendConnection);
+    }
+
+    @Override
+    public void closeInstance()
+    {
+        if (this.backend != null) {
+            this.backend.close();
+        }
+    }
+
+    @Override
+    public LDAPMessage processBindRequest(int messageID, BindRequestProtocolOp request, List<Control> controls)
+    {
+        this.conditions.delay(Operation.BIND);
+        if (request.getCredentialsType() != BindRequestProtocolOp.CRED_TYPE_SIMPLE) {
+            return new LDAPMessage(messageID, new BindResponseProtocolOp(
+                ResultCode.AUTH_METHOD_NOT_SUPPORTED.intValue(), null, "Only simple binds are supported", null, null));
+        }
+
+        String key = LDAPExchangeRecording.getBindKey(request.getBindDN());
+        Exchange exchange;
+        if (this.backend != null) {
+            try {
+                this.backend.bind(new SimpleBindRequest(request.getBindDN(), request.getSimplePassword().getValue()));
+                exchange = new Exchange(ResultCode.SUCCESS, null, Collections.emptyList());
+            } catch (LDAPException e) {
+                exchange = new Exchange(e.getResultCode(), e.getDiagnosticMessage(), Collections.emptyList());
+            }
+            record(key, exchange);
+        } else {
+            exchange = this.recording.get(key);
+            if (exchange == null) {
+                exchange = new Exchange(ResultCode.SUCCESS, null, Collections.emptyList());
+            }
+        }
+
+        return new LDAPMessage(messageID, new BindResponseProtocolOp(exchange.getResultCode().intValue(), null,
+            exchange.getDiagnosticMessage(), null, null));
+    }
+
+    @Override
+    public LDAPMessage processSearchRequest(int messageID, SearchRequestProtocolOp request, List<Control> controls)
+    {
+        this.conditions.delay(Operation.SEARCH);
+        try {
+            String referral = this.conditions.getReferral(request.getBaseDN());
+            if (referral != null) {
+                return new LDAPMessage(messageID, new SearchResultDoneProtocolOp(ResultCode.REFERRAL.intValue(), null,
+                    null, Collections.singletonList(referral)));
+            }
+
+            SimplePagedResultsControl pagedControl = getPagedResultsControl(controls);
+            int offset = 0;
+            if (pagedControl != null && pagedControl.getCookie().getValueLength() > 0) {
+                offset = Integer.parseInt(pagedControl.getCookie().stringValue());
+            }
+
+            String key = LDAPExchangeRecording.getSearchKey(request);
+            Exchange exchange = getSearchExchange(key, request, offset);
+            if (exchange == null) {
+                return done(messageID, ResultCode.UNWILLING_TO_PERFORM, "No recorded exchange for " + key);
+            }
+
+            return sendPage(messageID, request, key, exchange, pagedControl, offset);
+        } catch (LDAPException e) {
+            return done(messageID, e.getResultCode(), e.getDiagnosticMessage());
+        }
+    }
+
+    private Exchange getSearchExchange(String key, SearchRequestProtocolOp request, int offset) throws LDAPException
+    {
+        Exchange exchange = offset > 0 ? this.pagedSearches.get(key) : null;
+        if (exchange == null) {
+            if (this.backend != null) {
+                exchange = search(request);
+                record(key, exchange);
+            } else {
+                exchange = this.recording.get(key);
+            }
+        }
+        return exchange;
+    }
+
+    private LDAPMessage sendPage(int messageID, SearchRequestProtocolOp request, String key, Exchange exchange,
+        SimplePagedResultsControl pagedControl, int offset) throws LDAPException
+    {
+        List<Entry> entries = exchange.getEntries();
+        int pageSize = this.conditions.getPageSize(pagedControl != null ? pagedControl.getSize() : 0);
+        if (pagedControl == null && request.getSizeLimit() > 0) {
+            pageSize = pageSize > 0 ? Math.min(pageSize, request.getSizeLimit()) : request.getSizeLimit();
+        }
+        int end = pageSize > 0 ? Math.min(offset + pageSize, entries.size()) : entries.size();
+
+        for (Entry entry : entries.subList(Math.min(offset, end), end)) {
+            this.clientConnection.sendSearchResultEntry(messageID, new SearchResultEntryProtocolOp(entry));
+        }
+
+        if (pagedControl != null) {
+            ASN1OctetString cookie = new ASN1OctetString();
+            if (end < entries.size()) {
+                cookie = new ASN1OctetString(String.valueOf(end));
+                this.pagedSearches.put(key, exchange);
+            } else {
+                this.pagedSearches.remove(key);
+            }
+            return new LDAPMessage(messageID, new SearchResultDoneProtocolOp(exchange.getResultCode().intValue(),
+                null, exchange.getDiagnosticMessage(), null), new SimplePagedResultsControl(entries.size(), cookie));
+        } else if (end < entries.size()) {
+            // Like a server enforcing a size limit, return the first entries with an error.
+            return done(messageID, ResultCode.SIZE_LIMIT_EXCEEDED, "Size limit exceeded");
+        }
+        return done(messageID, exchange.getResultCode(), exchange.getDiagnosticMessage());
+    }
+
+    private Exchange search(SearchRequestProtocolOp request) throws LDAPException
+    {
+        SearchRequest searchRequest = new SearchRequest(request.getBaseDN(), request.getScope(),
+            request.getDerefPolicy(), 0, request.getTimeLimit(), request.typesOnly(), request.getFilter(),
+            request.getAttributes().toArray(new String[0]));
+        List<Entry> entries = new ArrayList<>();
+        ASN1OctetString cookie = null;
+        do {
+            searchRequest.setControls(new SimplePagedResultsControl(BACKEND_PAGE_SIZE, cookie));
+            SearchResult result;
+            try {
+                result = this.backend.search(searchRequest);
+            } catch (LDAPSearchException e) {
+                entries.addAll(e.getSearchEntries());
+                return new Exchange(e.getResultCode(), e.getDiagnosticMessage(), entries);
+            }
+            entries.addAll(result.getSearchEntries());
+            SimplePagedResultsControl response = SimplePagedResultsControl.get(result);
+            cookie = response != null && response.moreResultsToReturn() ? response.getCookie() : null;
+        } while (cookie != null);
+        return new Exchange(ResultCode.SUCCESS, null, entries);
+    }
+
+    private void record(String key, Exchange exchange)
+    {
+        if (this.recording != null) {
+            this.recording.put(key, exchange);
+        }
+    }
+
+    private static SimplePagedResultsControl getPagedResultsControl(List<Control> controls) throws LDAPException
+    {
+        for (Control control : controls) {
+            if (SimplePagedResultsControl.PAGED_RESULTS_OID.equals(control.getOID())) {
+                return new SimplePagedResultsControl(control.getOID(), control.isCritical(), control.getValue());
+            }
+        }
+        return null;
+    }
+
+    private static LDAPMessage done(int messageID, ResultCode resultCode, String diagnosticMessage)
+    {
+        return new LDAPMessage(messageID,
+            new SearchResultDoneProtocolOp(resultCode.intValue(), null, diagnosticMessage, null));
+    }
+
+    @Override
+    public LDAPMessage processAddRequest(int messageID, AddRequestProtocolOp request, List<Control> controls)
+    {
+        this.conditions.delay(Operation.OTHER);
+        return new LDAPMessage(messageID,
+            new AddResponseProtocolOp(ResultCode.UNWILLING_TO_PERFORM.intValue(), null, NOT_SUPPORTED, null));
+    }
+
+    @Override
+    public LDAPMessage processCompareRequest(int messageID, CompareRequestProtocolOp request, List<Control> controls)
+    {
+        this.conditions.delay(Operation.OTHER);
+        return new LDAPMessage(messageID,
+            new CompareResponseProtocolOp(ResultCode.UNWILLING_TO_PERFORM.intValue(), null, NOT_SUPPORTED, null));
+    }
+
+    @Override
+    public LDAPMessage processDeleteRequest(int messageID, DeleteRequestProtocolOp request, List<Control> controls)
+    {
+        this.conditions.delay(Operation.OTHER);
+        return new LDAPMessage(messageID,
+            new DeleteResponseProtocolOp(ResultCode.UNWILLING_TO_PERFORM.intValue(), null, NOT_SUPPORTED, null));
+    }
+
+    @Override
+    public LDAPMessage processExtendedRequest(int messageID, ExtendedRequestProtocolOp request,
+        List<Control> controls)
+    {
+        this.conditions.delay(Operation.OTHER);
+        return new LDAPMessage(messageID, new ExtendedResponseProtocolOp(ResultCode.UNWILLING_TO_PERFORM.intValue(),
+            null, NOT_SUPPORTED, null, null, null));
+    }
+
+    @Override
+    public LDAPMessage processModifyRequest(int messageID, ModifyRequestProtocolOp request, List<Control> controls)
+    {
+        this.conditions.delay(Operation.OTHER);
+        return new LDAPMessage(messageID,
+            new ModifyResponseProtocolOp(ResultCode.UNWILLING_TO_PERFORM.intValue(), null, NOT_SUPPORTED, null));
+    }
+
+    @Override
+    public LDAPMessage processModifyDNRequest(int messageID, ModifyDNRequestProtocolOp request,
+        List<Control> controls)
+    {
+        this.conditions.delay(Operation.OTHER);
+        return new LDAPMessage(messageID,
+            new ModifyDNResponseProtocolOp(ResultCode.UNWILLING_TO_PERFORM.intValue(), null, NOT_SUPPORTED, null));
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.ldapuserimport.scale;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.unboundid.asn1.ASN1OctetString;
+import com.unboundid.ldap.listener.InMemoryDirectoryServer;
+import com.unboundid.ldap.listener.InMemoryDirectoryServerConfig;
+import com.unboundid.ldap.sdk.LDAPConnection;
+import com.unboundid.ldap.sdk.LDAPSearchException;
+import com.unboundid.ldap.sdk.ResultCode;
+import com.unboundid.ldap.sdk.SearchRequest;
+import com.unboundid.ldap.sdk.SearchResult;
+import com.unboundid.ldap.sdk.SearchResultEntry;
+import com.unboundid.ldap.sdk.SearchScope;
+import com.unboundid.ldap.sdk.controls.SimplePagedResultsControl;
+import com.xwiki.ldapuserimport.scale.LDAPNetworkConditions.Operation;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LDAPStandInTest
+{
+    private static final String BASE_DN = "dc=example,dc=com";
+
+    private static final String USERS_DN = "ou=users," + BASE_DN;
+
+    private static final String USER_FILTER = "(objectClass=inetOrgPerson)";
+
+    private static final int USER_COUNT = 5;
+
+    private InMemoryDirectoryServer server;
+
+    @BeforeEach
+    void setUp() throws Exception
+    {
+        this.server = new InMemoryDirectoryServer(new InMemoryDirectoryServerConfig(BASE_DN));
+        this.server.add("dn: " + BASE_DN, "objectClass: domain", "dc: example");
+        this.server.add("dn: " + USERS_DN, "objectClass: organizationalUnit", "ou: users");
+        for (int i = 0; i < USER_COUNT; i++) {
+            this.server.add("dn: uid=user" + i + ',' + USERS_DN, "objectClass: inetOrgPerson", "uid: user" + i,
+                "cn: User " + i, "sn: User" + i);
+        }
+        this.server.startListening();
+    }
+
+    @AfterEach
+    void tearDown()
+    {
+        this.server.shutDown(true);
+    }
+
+    @Test
+    void recordAndReplay(@TempDir File directory) throws Exception
+    {
+        File file = new File(directory, "recording.json");
+        try (LDAPStandIn standIn = LDAPStandIn.forward("localhost", this.server.getListenPort(),
+            new LDAPExchangeRecording(), new LDAPNetworkConditions())) {
+            assertEquals(USER_COUNT, searchPaged(standIn.getPort(), 2).size());
+            standIn.getRecording().save(file);
+        }
+        this.server.shutDown(true);
+
+        try (LDAPStandIn standIn =
+            LDAPStandIn.replay(LDAPExchangeRecording.load(file), new LDAPNetworkConditions())) {
+            List<SearchResultEntry> entries = searchPaged(standIn.getPort(), 3);
+            assertEquals(USER_COUNT, entries.size());
+            assertEquals("User 0", entries.get(0).getAttributeValue("cn"));
+
+            // A search which was not recorded fails.
+            try (LDAPConnection connection = new LDAPConnection("localhost", standIn.getPort())) {
+                LDAPSearchException exception = assertThrows(LDAPSearchException.class,
+                    () -> connection.search(BASE_DN, SearchScope.SUB, "(uid=unknown)"));
+                assertEquals(ResultCode.UNWILLING_TO_PERFORM, exception.getResultCode());
+            }
+        }
+    }
+
+    @Test
+    void maxPageSize() throws Exception
+    {
+        try (LDAPStandIn standIn = LDAPStandIn.forward("localhost", this.server.getListenPort(), null,
+            new LDAPNetworkConditions().withMaxPageSize(2))) {
+            // Paged searches get pages of at most 2 entries.
+            assertEquals(USER_COUNT, searchPaged(standIn.getPort(), 100).size());
+
+            // Other searches get the first 2 entries and an error.
+            try (LDAPConnection connection = new LDAPConnection("localhost", standIn.getPort())) {
+                LDAPSearchException exception = assertThrows(LDAPSearchException.class,
+                    () -> connection.search(USERS_DN, SearchScope.ONE, USER_FILTER));
+                assertEquals(ResultCode.SIZE_LIMIT_EXCEEDED, exception.getResultCode());
+                assertEquals(2, exception.getEntryCount());
+            }
+        }
+    }
+
+    @Test
+    void latency() throws Exception
+    {
+        try (LDAPStandIn standIn = LDAPStandIn.forward("localhost", this.server.getListenPort(), null,
+            new LDAPNetworkConditions().withLatency(Operation.SEARCH, 30).withJitter(10))) {
+            long start = System.nanoTime();
+            // 3 pages, so 3 round-trips of at least 20 ms.
+            searchPaged(standIn.getPort(), 2);
+            assertTrue(System.nanoTime() - start >= 60_000_000L);
+        }
+    }
+
+    @Test
+    void referral() throws Exception
+    {
+        try (LDAPStandIn standIn = LDAPStandIn.forward("localhost", this.server.getListenPort(), null,
+            new LDAPNetworkConditions().withReferral(USERS_DN, "ldap://remote.example.com:389/"))) {
+            try (LDAPConnection connection = new LDAPConnection("localhost", standIn.getPort())) {
+                LDAPSearchException exception = assertThrows(LDAPSearchException.class,
+                    () -> connection.search(USERS_DN, SearchScope.ONE, USER_FILTER));
+                assertEquals(ResultCode.REFERRAL, exception.getResultCode());
+                assertEquals("ldap://remote.example.com:389/", exception.getReferralURLs()[0]);
+            }
+        }
+    }
+
+    private List<SearchResultEntry> searchPaged(int port, int pageSize) throws Exception
+    {
+        try (LDAPConnection connection = new LDAPConnection("localhost", port)) {
+            SearchRequest request = new SearchRequest(USERS_DN, SearchScope.ONE, USER_FILTER, "uid", "cn");
+            List<SearchResultEntry> entries = new ArrayList<>();
+            ASN1OctetString cookie = null;
+            do {
+                request.setControls(new SimplePagedResultsControl(pageSize, cookie));
+                SearchResult result = connection.search(request);
+                entries.addAll(result.getSearchEntries());
+                SimplePagedResultsControl response = SimplePagedResultsControl.get(result);
+                cookie = response.moreResultsToReturn() ? response.getCookie() : null;
+            } while (cookie != null);
+            entries.sort((first, second) -> first.getDN().compareTo(second.getDN()));
+            return entries;
+        }
+    }
+}
@@ -0,0 +1,381 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.ldapuserimport.scale;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import javax.inject.Named;
+import javax.inject.Provider;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.context.ExecutionContextManager;
+import org.xwiki.contrib.ldap.LDAPDocumentHelper;
+import org.xwiki.contrib.ldap.XWikiLDAPConfig;
+import org.xwiki.contrib.ldap.XWikiLDAPSearchAttribute;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.LocalDocumentReference;
+import org.xwiki.observation.remote.RemoteObservationManagerConfiguration;
+import org.xwiki.test.annotation.ComponentList;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+import org.xwiki.wiki.descriptor.WikiDescriptorManager;
+
+import com.unboundid.ldap.listener.InMemoryDirectoryServer;
+import com.unboundid.ldap.listener.InMemoryDirectoryServerConfig;
+import com.unboundid.ldap.listener.InMemoryListenerConfig;
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.test.MockitoOldcore;
+import com.xpn.xwiki.test.junit5.mockito.InjectMockitoOldcore;
+import com.xpn.xwiki.test.junit5.mockito.OldcoreTest;
+import com.xpn.xwiki.test.reference.ReferenceComponentList;
+import com.xwiki.ldapuserimport.LDAPSyncReportManager;
+import com.xwiki.ldapuserimport.LDAPUserImportConfiguration;
+import com.xwiki.ldapuserimport.LDAPUserImportManager;
+import com.xwiki.ldapuserimport.internal.DefaultLDAPGroupImportManager;
+import com.xwiki.ldapuserimport.internal.DefaultLDAPUserImportManager;
+import com.xwiki.ldapuserimport.internal.LDAPCircuitBreaker;
+import com.xwiki.ldapuserimport.internal.LDAPGroupShardManager;
+import com.xwiki.ldapuserimport.internal.LDAPGroupSyncDistributor;
+import com.xwiki.ldapuserimport.internal.LDAPGroupSyncScheduler;
+import com.xwiki.ldapuserimport.internal.LDAPGroupUpdateCoordinator;
+import com.xwiki.ldapuserimport.internal.LDAPMultiBaseSearcher;
+import com.xwiki.ldapuserimport.internal.LDAPNegativeCache;
+import com.xwiki.ldapuserimport.internal.LDAPPhotoSynchronizer;
+import com.xwiki.ldapuserimport.internal.LDAPRateLimiter;
+import com.xwiki.ldapuserimport.internal.LDAPSaveBatcher;
+import com.xwiki.ldapuserimport.internal.LDAPServerRouter;
+import com.xwiki.ldapuserimport.internal.LDAPSyncCheckpointManager;
+import com.xwiki.ldapuserimport.internal.LDAPUserPageNameCache;
+import com.xwiki.ldapuserimport.internal.LDAPUserPrefetcher;
+import com.xwiki.ldapuserimport.internal.XWikiLDAPFactory;
+import com.xwiki.ldapuserimport.internal.job.DefaultLDAPGroupImportJob;
+import com.xwiki.ldapuserimport.internal.metrics.LDAPMetrics;
+import com.xwiki.ldapuserimport.job.LDAPGroupImportRequest;
+import com.xwiki.ldapuserimport.job.LDAPGroupImportStatus;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Drive the user import against an in-memory LDAP directory and an in-memory wiki, and record the throughput and the
+ * latency of each scenario in {@code target/scale-results.json}.
+ * <p>
+ * These tests are slow and only run with {@code mvn test -Pscale-tests}. The size of the directory is set with the
+ * {@code scale.*} system properties read by {@link LDAPDirectoryGenerator}, and the size of the scenarios with:
+ * <ul>
+ * <li>{@code scale.searches}: the number of user searches (200 by default)</li>
+ * <li>{@code scale.importBatches} and {@code scale.importBatchSize}: the user imports (10 imports of 100 users)</li>
+ * <li>{@code scale.mappedGroups}: the number of groups synchronized by {@code updateGroups} (50)</li>
+ * </ul>
+ * The network conditions of a remote LDAP server are simulated with an {@link LDAPStandIn} when any of the
+ * {@code scale.latency}, {@code scale.jitter} or {@code scale.maxPageSize} properties is set (see
+ * {@link LDAPNetworkConditions#fromSystemProperties()}). The LDAP exchanges are saved in the file named by
+ * {@code scale.record}, and a saved file named by {@code scale.replay} is replayed instead of generating the directory.
+ *
+ * @version $Id$
+ */
+@Tag("scale")
+@OldcoreTest
+@ReferenceComponentList
+@ComponentList({
+    DefaultLDAPUserImportManager.class,
+    DefaultLDAPGroupImportManager.class,
+    XWikiLDAPFactory.class,
+    LDAPCircuitBreaker.class,
+    LDAPRateLimiter.class,
+    LDAPServerRouter.class,
+    LDAPGroupUpdateCoordinator.class,
+    LDAPGroupSyncDistributor.class,
+    LDAPSyncCheckpointManager.class,
+    LDAPGroupSyncScheduler.class,
+    LDAPSaveBatcher.class,
+    LDAPGroupShardManager.class,
+    LDAPUserPrefetcher.class,
+    LDAPNegativeCache.class,
+    LDAPUserPageNameCache.class,
+    LDAPMetrics.class
+})
+class LDAPUserImportScaleTest
+{
+    private static final String BIND_DN = "cn=admin";
+
+    private static final String BIND_PASSWORD = "secret";
+
+    private static final String LARGE_GROUP = "XWiki.ScaleLargeGroup";
+
+    private static final LocalDocumentReference PREFERENCES_REFERENCE =
+        new LocalDocumentReference(XWiki.SYSTEM_SPACE, "XWikiPreferences");
+
+    private static final LDAPDirectoryGenerator GENERATOR = new LDAPDirectoryGenerator();
+
+    private static final ScaleScenarioRecorder RECORDER = new ScaleScenarioRecorder();
+
+    private static InMemoryDirectoryServer server;
+
+    private static LDAPStandIn standIn;
+
+    private static int ldapPort;
+
+    @InjectMockitoOldcore
+    private MockitoOldcore oldcore;
+
+    @InjectMockComponents
+    private DefaultLDAPGroupImportJob groupImportJob;
+
+    @MockComponent
+    private Provider<XWikiLDAPConfig> configurationProvider;
+
+    @MockComponent
+    private LDAPUserImportConfiguration importConfiguration;
+
+    @MockComponent
+    @Named("context")
+    private Provider<ComponentManager> contextComponentManagerProvider;
+
+    @MockComponent
+    private LDAPDocumentHelper documentHelper;
+
+    @MockComponent
+    private CacheManager cacheManager;
+
+    @MockComponent
+    private WikiDescriptorManager wikiDescriptorManager;
+
+    @MockComponent
+    private LDAPPhotoSynchronizer photoSynchronizer;
+
+    @MockComponent
+    private LDAPMultiBaseSearcher multiBaseSearcher;
+
+    @MockComponent
+    private LDAPSyncReportManager syncReportManager;
+
+    @MockComponent
+    private RemoteObservationManagerConfiguration remoteObservationManagerConfiguration;
+
+    @MockComponent
+    private ExecutionContextManager executionContextManager;
+
+    private LDAPUserImportManager userImportManager;
+
+    private String groupMapping;
+
+    @BeforeAll
+    static void startDirectory() throws Exception
+    {
+        LDAPNetworkConditions conditions = LDAPNetworkConditions.fromSystemProperties();
+        String replay = System.getProperty("scale.replay");
+        if (replay != null) {
+            standIn = LDAPStandIn.replay(LDAPExchangeRecording.load(new File(replay)), conditions);
+            ldapPort = standIn.getPort();
+            return;
+        }
+
+        InMemoryDirectoryServerConfig config = new InMemoryDirectoryServerConfig(LDAPDirectoryGenerator.BASE_DN);
+        config.addAdditionalBindCredentials(BIND_DN, BIND_PASSWORD);
+        config.setListenerConfigs(InMemoryListenerConfig.createLDAPConfig("default", 0));
+        server = new InMemoryDirectoryServer(config);
+        GENERATOR.generate(server);
+        server.startListening();
+        ldapPort = server.getListenPort();
+
+        String record = System.getProperty("scale.record");
+        if (record != null || conditions.hasLatency() || Integer.getInteger("scale.maxPageSize", 0) > 0) {
+            standIn = LDAPStandIn.forward("localhost", ldapPort,
+                record != null ? new LDAPExchangeRecording() : null, conditions);
+            ldapPort = standIn.getPort();
+        }
+    }
+
+    @AfterAll
+    static void stopDirectory() throws Exception
+    {
+        if (standIn != null) {
+            standIn.close();
+            if (System.getProperty("scale.record") != null) {
+                standIn.getRecording().save(new File(System.getProperty("scale.record")));
+            }
+        }
+        if (server != null) {
+            server.shutDown(true);
+        }
+        RECORDER.write(new File("target/scale-results.json"));
+    }
+
+    @BeforeEach
+    void setUp() throws Exception
+    {
+        XWikiContext context = this.oldcore.getXWikiContext();
+        this.userImportManager = this.oldcore.getMocker().getInstance(LDAPUserImportManager.class);
+        this.groupMapping = LARGE_GROUP + '=' + LDAPDirectoryGenerator.getGroupDN(0);
+
+        when(this.configurationProvider.get()).thenAnswer(invocation -> createConfiguration());
+        when(this.contextComponentManagerProvider.get()).thenReturn(this.oldcore.getMocker());
+        when(this.wikiDescriptorManager.getCurrentWikiId()).thenReturn(context.getWikiId());
+        when(this.wikiDescriptorManager.getMainWikiId()).thenReturn(context.getMainXWiki());
+        when(this.importConfiguration.getMaxUserImportWizardResults()).thenReturn(100);
+        when(this.importConfiguration.getTriggerGroupUpdate()).thenReturn(true);
+        when(this.importConfiguration.getForceUserGroupMembershipUpdate()).thenReturn(true);
+        when(this.importConfiguration.getGroupMembershipAttribute()).thenReturn("");
+        when(this.importConfiguration.getSyncReadAhead()).thenReturn(50);
+        when(this.importConfiguration.getUserImportPolicy())
+            .thenReturn(LDAPUserImportConfiguration.UserImportPolicy.GLOBAL_ADMINS);
+
+        // Page names are computed from the uid (users) or the cn (groups), without involving the name formatters.
+        when(this.documentHelper.getDocumentName(any(), any(), any(), any())).thenAnswer(invocation -> {
+            String attributeName = invocation.getArgument(1);
+            Collection<XWikiLDAPSearchAttribute> attributes = invocation.getArgument(2);
+            return attributes.stream().filter(attribute -> attributeName.equalsIgnoreCase(attribute.name))
+                .map(attribute -> attribute.value.replaceAll("[^A-Za-z0-9]", "")).findFirst().orElse("unknown");
+        });
+        when(this.cacheManager.createNewCache(any())).thenAnswer(invocation -> createCache());
+
+        // The group mappings are written in the global preferences, which must exist.
+        XWikiDocument preferences = new XWikiDocument(
+            new DocumentReference(PREFERENCES_REFERENCE, context.getWikiReference()));
+        preferences.newXObject(PREFERENCES_REFERENCE, context);
+        this.oldcore.getSpyXWiki().saveDocument(preferences, context);
+    }
+
+    @Test
+    void searchUsers() throws Exception
+    {
+        ScaleScenarioRecorder.Scenario scenario = RECORDER.start("getUsers");
+        Random random = new Random(1);
+        int searches = Integer.getInteger("scale.searches", 200);
+        for (int i = 0; i < searches; i++) {
+            // Search for a prefix of the uid matching between 1 and 100 users.
+            String prefix = LDAPDirectoryGenerator.getUid(random.nextInt(GENERATOR.getUserCount())).substring(0, 6);
+            scenario.time(1, () -> this.userImportManager.getUsers("", "uid,cn,mail", prefix, false));
+        }
+    }
+
+    @Test
+    void importUsers() throws Exception
+    {
+        ScaleScenarioRecorder.Scenario scenario = RECORDER.start("importUsers");
+        int batches = Integer.getInteger("scale.importBatches", 10);
+        int batchSize = Integer.getInteger("scale.importBatchSize", 100);
+        for (int batch = 0; batch < batches; batch++) {
+            String[] uids = IntStream.range(batch * batchSize, (batch + 1) * batchSize)
+                .mapToObj(LDAPDirectoryGenerator::getUid).toArray(String[]::new);
+            Map<String, Map<String, String>> imported =
+                scenario.time(batchSize, () -> this.userImportManager.importUsers(uids, null));
+            assertEquals(batchSize, imported.size());
+        }
+    }
+
+    @Test
+    void updateLargeGroup() throws Exception
+    {
+        int members = this.userImportManager.getGroupMemberSize(LARGE_GROUP);
+        assertFalse(members == 0);
+
+        // The first synchronization imports all the members, the second one only checks them.
+        RECORDER.start("updateGroup.import").time(members, () -> this.userImportManager.updateGroup(LARGE_GROUP));
+        RECORDER.start("updateGroup.unchanged")
+            .time(members, () -> this.userImportManager.updateGroup(LARGE_GROUP));
+    }
+
+    @Test
+    void updateGroups() throws Exception
+    {
+        int mappedGroups = Integer.getInteger("scale.mappedGroups", 50);
+        int first = GENERATOR.getLargeGroupCount();
+        this.groupMapping = IntStream.range(first, Math.min(first + mappedGroups, GENERATOR.getGroupCount()))
+            .mapToObj(index -> "XWiki.ScaleGroup" + index + '=' + LDAPDirectoryGenerator.getGroupDN(index))
+            .collect(Collectors.joining("|"));
+
+        RECORDER.start("updateGroups").time(mappedGroups, () -> {
+            this.userImportManager.updateGroups();
+            return null;
+        });
+    }
+
+    @Test
+    void importGroups() throws Exception
+    {
+        LDAPGroupImportRequest request = new LDAPGroupImportRequest();
+        request.setId("ldap", "groupImport", "scale");
+        request.setLDAPGroupSearchDN(LDAPDirectoryGenerator.GROUPS_DN);
+        request.setLDAPGroupSearchFilter("(objectClass=groupOfNames)");
+        request.setLDAPGroupSearchAttributes(Arrays.asList("cn", "description"));
+        request.setGroupPageNameFormat("LDAP_${cn}");
+        this.groupImportJob.initialize(request);
+
+        RECORDER.start("groupImportJob").time(GENERATOR.getGroupCount(), () -> {
+            this.groupImportJob.run();
+            return null;
+        });
+        assertEquals(GENERATOR.getGroupCount() - 1,
+            ((LDAPGroupImportStatus) this.groupImportJob.getStatus()).getImportedGroups().size());
+    }
+
+    private XWikiLDAPConfig createConfiguration()
+    {
+        XWikiLDAPConfig configuration = new XWikiLDAPConfig(null, this.oldcore.getConfigurationSource());
+        configuration.setFinalProperty("ldap_server", "localhost");
+        configuration.setFinalProperty("ldap_port", String.valueOf(ldapPort));
+        configuration.setFinalProperty("ldap_base_DN", LDAPDirectoryGenerator.BASE_DN);
+        configuration.setFinalProperty("ldap_bind_DN", BIND_DN);
+        configuration.setFinalProperty("ldap_bind_pass", BIND_PASSWORD);
+        configuration.setFinalProperty(XWikiLDAPConfig.PREF_LDAP_UID, "uid");
+        configuration.setFinalProperty("ldap_fields_mapping", "last_name=sn,first_name=givenName,email=mail");
+        configuration.setFinalProperty("ldap_group_mapping", this.groupMapping);
+        return configuration;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Cache<Object> createCache()
+    {
+        Map<String, Object> values = new ConcurrentHashMap<>();
+        Cache<Object> cache = mock(Cache.class);
+        when(cache.get(anyString())).thenAnswer(invocation -> values.get(invocation.getArgument(0)));
+        doAnswer(invocation -> values.put(invocation.getArgument(0), invocation.getArgument(1))).when(cache)
+            .set(anyString(), any());
+        doAnswer(invocation -> values.remove(invocation.getArgument(0))).when(cache).remove(anyString());
+        doAnswer(invocation -> {
+            values.clear();
+            return null;
+        }).when(cache).removeAll();
+        return cache;
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.ldapuserimport.scale;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Record the throughput and the latency distribution of the scale scenarios, and write them to
+ * {@code target/scale-results.json} so that runs can be compared.
+ *
+ * @version $Id$
+ */
+public class ScaleScenarioRecorder
+{
+    private static final double[] PERCENTILES = { 50, 95, 99 };
+
+    private final List<Scenario> scenarios = new ArrayList<>();
+
+    /**
+     * An operation of a scenario.
+     *
+     * @param <T> the type of the operation result
+     */
+    @FunctionalInterface
+    public interface Operation<T>
+    {
+        /**
+         * @return the result of the operation
+         * @throws Exception in case of failure
+         */
+        T run() throws Exception;
+    }
+
+    /**
+     * The measures of a scenario.
+     */
+    public static final class Scenario
+    {
+        private final String name;
+
+        private final List<Long> latencies = new ArrayList<>();
+
+        private long items;
+
+        private long elapsed;
+
+        private Scenario(String name)
+        {
+            this.name = name;
+        }
+
+        /**
+         * Time one operation of the scenario.
+         *
+         * @param itemCount the number of items (users, groups) handled by the operation
+         * @param operation the operation
+         * @param <T> the type of the operation result
+         * @return the result of the operation
+         * @throws Exception in case of failure of the operation
+         */
+        public <T> T time(int itemCount, Operation<T> operation) throws Exception
+        {
+            long start = System.nanoTime();
+            try {
+                return operation.run();
+            } finally {
+                long duration = System.nanoTime() - start;
+                this.latencies.add(duration);
+                this.elapsed += duration;
+                this.items += itemCount;
+            }
+        }
+
+        /**
+         * @return the number of items handled per second
+         */
+        public double getThroughput()
+        {
+            return this.elapsed == 0 ? 0 : this.items * (double) TimeUnit.SECONDS.toNanos(1) / this.elapsed;
+        }
+
+        /**
+         * @param percentile the percentile, between 0 and 100
+         * @return the latency of the operations at the given percentile, in milliseconds
+         */
+        public double getLatency(double percentile)
+        {
+            if (this.latencies.isEmpty()) {
+                return 0;
+            }
+            long[] sorted = this.latencies.stream().mapToLong(Long::longValue).toArray();
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+            return sorted[Math.max(index, 0)] / (double) TimeUnit.MILLISECONDS.toNanos(1);
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%s: %d operations, %d items, %.1f items/s, p50 %.1f ms, p95 %.1f ms, p99 %.1f ms",
+                this.name, this.latencies.size(), this.items, getThroughput(), getLatency(50), getLatency(95),
+                getLatency(99));
+        }
+    }
+
+    /**
+     * @param name the scenario name
+     * @return the new scenario
+     */
+    public Scenario start(String name)
+    {
+        Scenario scenario = new Scenario(name);
+        this.scenarios.add(scenario);
+        return scenario;
+    }
+
+    /**
+     * Write the measures of all the scenarios.
+     *
+     * @param file the JSON file to write
+     * @throws IOException if the file cannot be written
+     */
+    public void write(File file) throws IOException
+    {
+        file.getParentFile().mkdirs();
+        try (JsonGenerator generator = new JsonFactory().createGenerator(file, JsonEncoding.UTF8)) {
+            generator.useDefaultPrettyPrinter();
+            generator.writeStartArray();
+            for (Scenario scenario : this.scenarios) {
+                generator.writeStartObject();
+                generator.writeStringField("scenario", scenario.name);
+                generator.writeNumberField("operations", scenario.latencies.size());
+                generator.writeNumberField("items", scenario.items);
+                generator.writeNumberField("elapsedMs", TimeUnit.NANOSECONDS.toMillis(scenario.elapsed));
+                generator.writeNumberField("throughput", scenario.getThroughput());
+                for (double percentile : PERCENTILES) {
+                    generator.writeNumberField(String.format("p%.0fMs", percentile), scenario.getLatency(percentile));
+                }
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+        }
+    }
+
+    /**
+     * @return the recorded scenarios
+     */
+    public List<Scenario> getScenarios()
+    {
+        return this.scenarios;
+    }
+}
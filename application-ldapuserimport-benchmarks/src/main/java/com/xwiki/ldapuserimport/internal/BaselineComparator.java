@@ -0,0 +1,190 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.ldapuserimport.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Compare JMH results (written with {@code -rf json}) with the checked-in baseline and report the regressions.
+ * <p>
+ * Usage: {@code BaselineComparator <baseline.json> <result.json> [threshold percentage, 10 by default]}. A benchmark
+ * regresses when its score is worse than the baseline by more than the threshold and by more than the sum of both
+ * score errors. The process exits with status 1 when at least one benchmark regressed, and with status 2 when the
+ * baseline is missing or doesn't cover all the benchmarks, which must then be recorded first.
+ *
+ * @version $Id$
+ * @since 1.7.10
+ */
+public final class BaselineComparator
+{
+    private static final String THROUGHPUT_MODE = "thrpt";
+
+    private static final double DEFAULT_THRESHOLD = 10;
+
+    private static final double PERCENT = 100;
+
+    private BaselineComparator()
+    {
+    }
+
+    /**
+     * @param args the baseline file, the result file and the optional threshold
+     * @throws IOException if the files cannot be read
+     */
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length < 2) {
+            System.err.println("Usage: BaselineComparator <baseline.json> <result.json> [threshold percentage]");
+            System.exit(2);
+        }
+        File baselineFile = new File(args[0]);
+        if (!baselineFile.exists()) {
+            System.err.printf("No baseline found at [%s]. Copy [%s] there to record the current results.%n",
+                baselineFile, args[1]);
+            System.exit(2);
+        }
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) : DEFAULT_THRESHOLD;
+
+        Map<String, Score> baseline = read(baselineFile);
+        Map<String, Score> results = read(new File(args[1]));
+        int regressions = 0;
+        int unrecorded = 0;
+        for (Map.Entry<String, Score> result : new TreeMap<>(results).entrySet()) {
+            Score reference = baseline.get(result.getKey());
+            if (reference == null) {
+                unrecorded++;
+                System.out.printf("NEW        %s: %.3f %s%n", result.getKey(), result.getValue().value,
+                    result.getValue().unit);
+                continue;
+            }
+            double change = result.getValue().getChange(reference);
+            boolean regressed = change > threshold && result.getValue().isSignificant(reference);
+            if (regressed) {
+                regressions++;
+            }
+            System.out.printf("%-10s %s: %.3f -> %.3f %s (%+.1f%%)%n", regressed ? "REGRESSION" : "OK",
+                result.getKey(), reference.value, result.getValue().value, result.getValue().unit, change);
+        }
+        if (regressions > 0) {
+            System.out.printf("%d benchmark(s) regressed by more than %.1f%%.%n", regressions, threshold);
+            System.exit(1);
+        }
+        if (unrecorded > 0) {
+            System.err.printf("%d benchmark(s) are missing from the baseline [%s], record it again.%n", unrecorded,
+                baselineFile);
+            System.exit(2);
+        }
+    }
+
+    private static Map<String, Score> read(File file) throws IOException
+    {
+        Map<String, Score> scores = new LinkedHashMap<>();
+        try (JsonParser parser = new JsonFactory().createParser(file)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new IOException(String.format("[%s] is not a JMH JSON result file.", file));
+            }
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                readBenchmark(parser, scores);
+            }
+        }
+        return scores;
+    }
+
+    private static void readBenchmark(JsonParser parser, Map<String, Score> scores) throws IOException
+    {
+        String benchmark = null;
+        String mode = null;
+        Map<String, String> params = new TreeMap<>();
+        Score score = new Score();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            if ("benchmark".equals(field)) {
+                benchmark = parser.getValueAsString();
+            } else if ("mode".equals(field)) {
+                mode = parser.getValueAsString();
+            } else if ("params".equals(field)) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String name = parser.getCurrentName();
+                    parser.nextToken();
+                    params.put(name, parser.getValueAsString());
+                }
+            } else if ("primaryMetric".equals(field)) {
+                readPrimaryMetric(parser, score);
+            } else {
+                parser.skipChildren();
+            }
+        }
+        score.higherIsBetter = THROUGHPUT_MODE.equals(mode);
+        scores.put(params.isEmpty() ? benchmark : benchmark + params, score);
+    }
+
+    private static void readPrimaryMetric(JsonParser parser, Score score) throws IOException
+    {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            if ("score".equals(field)) {
+                score.value = parser.getValueAsDouble();
+            } else if ("scoreError".equals(field)) {
+                // The error is "NaN" when there are not enough iterations to compute it.
+                double error = parser.getValueAsDouble();
+                score.error = Double.isNaN(error) ? 0 : error;
+            } else if ("scoreUnit".equals(field)) {
+                score.unit = parser.getValueAsString();
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private static final class Score
+    {
+        private double value;
+
+        private double error;
+
+        private String unit;
+
+        private boolean higherIsBetter;
+
+        /**
+         * @return how much worse this score is than the reference, in percent (negative for an improvement)
+         */
+        double getChange(Score reference)
+        {
+            double change = (this.value - reference.value) / reference.value * PERCENT;
+            return this.higherIsBetter ? -change : change;
+        }
+
+        boolean isSignificant(Score reference)
+        {
+            return Math.abs(this.value - reference.value) > this.error + reference.error;
+        }
+    }
+}
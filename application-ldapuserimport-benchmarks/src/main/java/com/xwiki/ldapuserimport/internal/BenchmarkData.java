@@ -0,0 +1,126 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.ldapuserimport.internal;
+
+import org.xwiki.contrib.ldap.XWikiLDAPConfig;
+
+import com.novell.ldap.LDAPAttribute;
+import com.novell.ldap.LDAPAttributeSet;
+import com.novell.ldap.LDAPEntry;
+
+/**
+ * Fixtures shared by the benchmarks, built to look like a typical Active Directory setup.
+ *
+ * @version $Id$
+ * @since 1.7.10
+ */
+public final class BenchmarkData
+{
+    /**
+     * The LDAP attribute holding the uid of the users.
+     */
+    public static final String UID = "sAMAccountName";
+
+    /**
+     * The LDAP fields mapping of the benchmarked configuration.
+     */
+    public static final String FIELDS_MAPPING = "name=sAMAccountName,first_name=givenName,last_name=sn,"
+        + "email=mail,company=company,phone=telephoneNumber,address=streetAddress,comment=description";
+
+    private BenchmarkData()
+    {
+    }
+
+    /**
+     * @return an LDAP configuration, as set up by {@link XWikiLDAPConfigProvider}
+     */
+    public static XWikiLDAPConfig createConfiguration()
+    {
+        XWikiLDAPConfig configuration = new XWikiLDAPConfig(null, new MapConfigurationSource());
+        configuration.setFinalProperty(XWikiLDAPConfig.PREF_LDAP_UID, UID);
+        configuration.setFinalProperty("ldap_fields_mapping", FIELDS_MAPPING);
+        configuration.setFinalProperty("ldap_user_classes", "user,person,organizationalPerson");
+        configuration.setFinalProperty("ldap_group_classes", "group,groupOfNames,groupOfUniqueNames");
+        configuration.setFinalProperty("ldap_group_searchfields", "cn,description");
+        return configuration;
+    }
+
+    /**
+     * @param index the index of the user
+     * @param attributeNames the LDAP attributes of the entry
+     * @return an LDAP user entry having a value for each of the given attributes
+     */
+    public static LDAPEntry createUserEntry(int index, String[] attributeNames)
+    {
+        LDAPAttributeSet attributes = new LDAPAttributeSet();
+        for (String attributeName : attributeNames) {
+            attributes.add(new LDAPAttribute(attributeName, attributeName + " of user " + index));
+        }
+        attributes.add(new LDAPAttribute(UID, getUid(index)));
+        return new LDAPEntry(getUserDN(index), attributes);
+    }
+
+    /**
+     * @param index the index of the user
+     * @return the uid of the user
+     */
+    public static String getUid(int index)
+    {
+        return "user" + index;
+    }
+
+    /**
+     * @param index the index of the user
+     * @return the DN of the user
+     */
+    public static String getUserDN(int index)
+    {
+        return String.format("CN=User %d,OU=Employees,DC=example,DC=com", index);
+    }
+
+    /**
+     * @param index the index of the group
+     * @return an LDAP group entry
+     */
+    public static LDAPEntry createGroupEntry(int index)
+    {
+        LDAPAttributeSet attributes = new LDAPAttributeSet();
+        attributes.add(new LDAPAttribute("cn", "Group " + index));
+        attributes.add(new LDAPAttribute("description", "The members of the team " + index));
+        attributes.add(new LDAPAttribute("objectClass", new String[] { "top", "group" }));
+        return new LDAPEntry(String.format("CN=Group %d,OU=Groups,DC=example,DC=com", index), attributes);
+    }
+
+    /**
+     * @param count the number of XWiki groups to map
+     * @return the value of the {@code ldap_group_mapping} LDAP property mapping each XWiki group to an LDAP group
+     */
+    public static String getGroupMapping(int count)
+    {
+        StringBuilder mapping = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                mapping.append('|');
+            }
+            mapping.append("XWiki.Group").append(i).append('=').append(createGroupEntry(i * 2).getDN());
+        }
+        return mapping.toString();
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.ldapuserimport.internal;
+
+import java.lang.reflect.Type;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import javax.inject.Provider;
+
+import org.xwiki.component.util.DefaultParameterizedType;
+import org.xwiki.contrib.ldap.XWikiLDAPConfig;
+import org.xwiki.contrib.ldap.XWikiLDAPConnection;
+import org.xwiki.contrib.ldap.XWikiLDAPSearchAttribute;
+import org.xwiki.contrib.ldap.XWikiLDAPUtils;
+import org.xwiki.environment.Environment;
+import org.xwiki.model.ModelContext;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.test.annotation.ComponentList;
+import org.xwiki.test.mockito.MockitoComponentManager;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.test.MockitoOldcore;
+import com.xpn.xwiki.test.reference.ReferenceComponentList;
+import com.xwiki.ldapuserimport.LDAPSyncReportManager;
+import com.xwiki.ldapuserimport.LDAPUserImportConfiguration;
+import com.xwiki.ldapuserimport.LDAPUserImportManager;
+import com.xwiki.ldapuserimport.internal.metrics.LDAPMetrics;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * An in-memory wiki running the {@link DefaultLDAPUserImportManager} component, so that the benchmarks go through the
+ * production code of the manager. The LDAP server and the components around the manager (caches, prefetching, save
+ * batching, cluster coordination) are mocked.
+ *
+ * @version $Id$
+ * @since 1.7.10
+ */
+@ComponentList({
+    DefaultLDAPUserImportManager.class
+})
+@ReferenceComponentList
+public class BenchmarkWiki implements AutoCloseable
+{
+    private final MockitoComponentManager componentManager = new MockitoComponentManager();
+
+    private final MockitoOldcore oldcore = new MockitoOldcore(this.componentManager);
+
+    private final LDAPUserImportConfiguration configuration;
+
+    private final XWikiLDAPFactory ldapFactory;
+
+    private final XWikiLDAPConnection connection = mock(XWikiLDAPConnection.class);
+
+    private final XWikiLDAPUtils ldapUtils = mock(XWikiLDAPUtils.class);
+
+    private final LDAPMultiBaseSearcher multiBaseSearcher;
+
+    private final LDAPSyncCheckpointManager checkpointManager;
+
+    private String groupMapping = "";
+
+    /**
+     * Start the wiki.
+     *
+     * @throws Exception if the wiki fails to start
+     */
+    public BenchmarkWiki() throws Exception
+    {
+        this.componentManager.initializeTest(this);
+        this.oldcore.before(BenchmarkWiki.class);
+
+        Provider<XWikiLDAPConfig> configurationProvider =
+            this.componentManager.registerMockComponent(getProviderType(XWikiLDAPConfig.class));
+        when(configurationProvider.get()).thenAnswer(invocation -> {
+            XWikiLDAPConfig ldapConfiguration = BenchmarkData.createConfiguration();
+            ldapConfiguration.setFinalProperty("ldap_group_mapping", this.groupMapping);
+            return ldapConfiguration;
+        });
+        this.configuration = this.componentManager.registerMockComponent(LDAPUserImportConfiguration.class);
+        this.ldapFactory = this.componentManager.registerMockComponent(XWikiLDAPFactory.class);
+        when(this.ldapFactory.getLDAPConnection(any())).thenReturn(this.connection);
+        when(this.ldapFactory.getLDAPUtils(any(), any())).thenReturn(this.ldapUtils);
+        when(this.ldapUtils.getUidAttributeName()).thenReturn(BenchmarkData.UID);
+        this.multiBaseSearcher = this.componentManager.registerMockComponent(LDAPMultiBaseSearcher.class);
+        this.checkpointManager = this.componentManager.registerMockComponent(LDAPSyncCheckpointManager.class);
+
+        // The page names of the users are their uids, without involving the name formatters.
+        LDAPUserPageNameCache userPageNameCache =
+            this.componentManager.registerMockComponent(LDAPUserPageNameCache.class);
+        when(userPageNameCache.getUserPage(any(), any(), any(), any())).thenAnswer(invocation -> {
+            List<XWikiLDAPSearchAttribute> attributes = invocation.getArgument(2);
+            String uid = attributes.stream().filter(attribute -> BenchmarkData.UID.equals(attribute.name))
+                .map(attribute -> attribute.value).findFirst().orElse("unknown");
+            return new LDAPUserPageNameCache.UserPage(
+                new DocumentReference(XWiki.DEFAULT_MAIN_WIKI, XWiki.SYSTEM_SPACE, uid), null,
+                getUserProfile(uid));
+        });
+
+        // The group updates run directly, without the cluster coordination.
+        LDAPGroupUpdateCoordinator groupUpdateCoordinator =
+            this.componentManager.registerMockComponent(LDAPGroupUpdateCoordinator.class);
+        when(groupUpdateCoordinator.update(anyString(), any()))
+            .thenAnswer(invocation -> invocation.<Callable<Boolean>>getArgument(1).call());
+
+        for (Type role : Arrays.<Type>asList(LDAPPhotoSynchronizer.class, LDAPMetrics.class,
+            LDAPSyncReportManager.class, LDAPRateLimiter.class, LDAPGroupSyncDistributor.class,
+            LDAPGroupSyncScheduler.class, LDAPSaveBatcher.class, LDAPGroupShardManager.class,
+            LDAPUserPrefetcher.class, LDAPNegativeCache.class)) {
+            this.componentManager.registerMockComponent(role);
+        }
+        for (Type role : Arrays.<Type>asList(Environment.class, ModelContext.class)) {
+            if (!this.componentManager.hasComponent(role)) {
+                this.componentManager.registerMockComponent(role);
+            }
+        }
+    }
+
+    /**
+     * @param uid the uid of an LDAP user
+     * @return the reference of the profile of the user, as stored in the member objects of the groups
+     */
+    public static String getUserProfile(String uid)
+    {
+        return XWiki.SYSTEM_SPACE + '.' + uid;
+    }
+
+    /**
+     * @return the user import manager component
+     * @throws Exception if the component cannot be created
+     */
+    public LDAPUserImportManager getUserImportManager() throws Exception
+    {
+        return this.componentManager.getInstance(LDAPUserImportManager.class);
+    }
+
+    /**
+     * @return the configuration of the application
+     */
+    public LDAPUserImportConfiguration getConfiguration()
+    {
+        return this.configuration;
+    }
+
+    /**
+     * @return the LDAP factory, returning {@link #getLDAPUtils()}
+     */
+    public XWikiLDAPFactory getLDAPFactory()
+    {
+        return this.ldapFactory;
+    }
+
+    /**
+     * @return the LDAP tool used by the manager
+     */
+    public XWikiLDAPUtils getLDAPUtils()
+    {
+        return this.ldapUtils;
+    }
+
+    /**
+     * @return the searcher of the additional search bases
+     */
+    public LDAPMultiBaseSearcher getMultiBaseSearcher()
+    {
+        return this.multiBaseSearcher;
+    }
+
+    /**
+     * @return the manager of the checkpoints of the synchronizations
+     */
+    public LDAPSyncCheckpointManager getCheckpointManager()
+    {
+        return this.checkpointManager;
+    }
+
+    /**
+     * @param groupMapping the value of the {@code ldap_group_mapping} LDAP property
+     */
+    public void setGroupMapping(String groupMapping)
+    {
+        this.groupMapping = groupMapping;
+    }
+
+    /**
+     * @return the context of the wiki
+     */
+    public XWikiContext getXWikiContext()
+    {
+        return this.oldcore.getXWikiContext();
+    }
+
+    /**
+     * @return the wiki
+     */
+    public XWiki getXWiki()
+    {
+        return this.oldcore.getSpyXWiki();
+    }
+
+    private static Type getProviderType(Type type)
+    {
+        return new DefaultParameterizedType(null, Provider.class, type);
+    }
+
+    @Override
+    public void close() throws Exception
+    {
+        this.oldcore.after();
+    }
+}
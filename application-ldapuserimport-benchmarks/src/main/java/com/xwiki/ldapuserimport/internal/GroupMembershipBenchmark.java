@@ -0,0 +1,223 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.ldapuserimport.internal;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xwiki.contrib.ldap.LDAPProfileXClass;
+import org.xwiki.contrib.ldap.XWikiLDAPSearchAttribute;
+import org.xwiki.contrib.ldap.XWikiLDAPUtils;
+import org.xwiki.model.reference.DocumentReference;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xwiki.ldapuserimport.LDAPUserImportManager;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Benchmark the group membership update of a group synchronization, through
+ * {@link LDAPUserImportManager#updateGroup(String)}: {@link #unchanged} only compares the members of the XWiki group
+ * with the members of the LDAP group, {@link #add} adds a tenth of new members and {@link #remove} removes a tenth of
+ * the members. The members are existing users, already synchronized by an interrupted run of the synchronization, so
+ * that the users themselves are not synchronized again.
+ *
+ * @version $Id$
+ * @since 1.7.10
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GroupMembershipBenchmark
+{
+    private static final String GROUP = "XWiki.BenchmarkGroup";
+
+    private static final String GROUP_DN = "CN=Benchmark,OU=Groups,DC=example,DC=com";
+
+    private static final String MEMBER = "member";
+
+    /**
+     * The number of members of the XWiki group.
+     */
+    @Param({ "100", "1000", "10000" })
+    private int memberCount;
+
+    private BenchmarkWiki wiki;
+
+    private LDAPUserImportManager userImportManager;
+
+    private XWikiDocument groupDocument;
+
+    private Map<String, String> userDNs;
+
+    private Map<String, String> unchangedMembers;
+
+    private Map<String, String> joinedMembers;
+
+    private Map<String, String> leftMembers;
+
+    private Map<String, String> ldapMembers;
+
+    /**
+     * Prepare the wiki and the members of the XWiki group and of the LDAP group.
+     *
+     * @throws Exception if the wiki fails to start
+     */
+    @Setup
+    public void setUp() throws Exception
+    {
+        this.wiki = new BenchmarkWiki();
+        this.wiki.setGroupMapping(GROUP + '=' + GROUP_DN);
+        this.userImportManager = this.wiki.getUserImportManager();
+        XWikiContext context = this.wiki.getXWikiContext();
+
+        LDAPSyncCheckpoint checkpoint = mock(LDAPSyncCheckpoint.class);
+        when(checkpoint.isUserDone(anyString())).thenReturn(true);
+        when(this.wiki.getCheckpointManager().getCurrent()).thenReturn(checkpoint);
+        when(this.wiki.getConfiguration().getForceUserGroupMembershipUpdate()).thenReturn(true);
+        doReturn(true).when(this.wiki.getXWiki()).exists(any(DocumentReference.class), any(XWikiContext.class));
+        LDAPProfileXClass ldapProfileClass = mock(LDAPProfileXClass.class);
+        when(ldapProfileClass.getUid(any())).thenReturn(BenchmarkData.getUid(0));
+        when(this.wiki.getLDAPFactory().getLDAPProfileXClass(any())).thenReturn(ldapProfileClass);
+
+        int churn = this.memberCount / 10;
+        this.userDNs = new HashMap<>();
+        for (int i = 0; i < this.memberCount + churn; i++) {
+            this.userDNs.put(BenchmarkData.getUid(i), BenchmarkData.getUserDN(i));
+        }
+        this.unchangedMembers = getLDAPMembers(0, this.memberCount);
+        this.joinedMembers = getLDAPMembers(0, this.memberCount + churn);
+        this.leftMembers = getLDAPMembers(churn, this.memberCount);
+        XWikiLDAPUtils ldapUtils = this.wiki.getLDAPUtils();
+        when(ldapUtils.getGroupMembers(eq(GROUP_DN), any())).thenAnswer(invocation -> this.ldapMembers);
+        when(ldapUtils.searchUserAttributesByUid(anyString(), any())).thenAnswer(invocation -> {
+            String uid = invocation.getArgument(0);
+            return Arrays.asList(new XWikiLDAPSearchAttribute(BenchmarkData.UID, uid),
+                new XWikiLDAPSearchAttribute("dn", this.userDNs.get(uid)));
+        });
+
+        DocumentReference groupClassReference =
+            new DocumentReference(context.getWikiId(), XWiki.SYSTEM_SPACE, "XWikiGroups");
+        XWikiDocument groupClassDocument = new XWikiDocument(groupClassReference);
+        groupClassDocument.getXClass().addTextField(MEMBER, "Member", 30);
+        this.wiki.getXWiki().saveDocument(groupClassDocument, context);
+
+        this.groupDocument =
+            new XWikiDocument(new DocumentReference(context.getWikiId(), XWiki.SYSTEM_SPACE, "BenchmarkGroup"));
+        for (int i = 0; i < this.memberCount; i++) {
+            this.groupDocument.newXObject(groupClassReference, context)
+                .setStringValue(MEMBER, BenchmarkWiki.getUserProfile(BenchmarkData.getUid(i)));
+        }
+    }
+
+    /**
+     * Restore the members of the XWiki group changed by the previous synchronization.
+     *
+     * @throws Exception if the group cannot be saved
+     */
+    @Setup(Level.Invocation)
+    public void resetGroup() throws Exception
+    {
+        XWikiContext context = this.wiki.getXWikiContext();
+        this.wiki.getXWiki().saveDocument(this.groupDocument.clone(), context);
+    }
+
+    /**
+     * Stop the wiki.
+     *
+     * @throws Exception if the wiki fails to stop
+     */
+    @TearDown
+    public void tearDown() throws Exception
+    {
+        this.wiki.close();
+    }
+
+    /**
+     * @return the result of the synchronization
+     * @throws Exception if the synchronization fails
+     */
+    @Benchmark
+    public boolean unchanged() throws Exception
+    {
+        this.ldapMembers = this.unchangedMembers;
+        return this.userImportManager.updateGroup(GROUP);
+    }
+
+    /**
+     * @return the result of the synchronization
+     * @throws Exception if the synchronization fails
+     */
+    @Benchmark
+    public boolean add() throws Exception
+    {
+        this.ldapMembers = this.joinedMembers;
+        return this.userImportManager.updateGroup(GROUP);
+    }
+
+    /**
+     * @return the result of the synchronization
+     * @throws Exception if the synchronization fails
+     */
+    @Benchmark
+    public boolean remove() throws Exception
+    {
+        this.ldapMembers = this.leftMembers;
+        return this.userImportManager.updateGroup(GROUP);
+    }
+
+    /**
+     * @return the members of the LDAP group, as a pair of lowercase dn and uid
+     */
+    private Map<String, String> getLDAPMembers(int first, int last)
+    {
+        Map<String, String> members = new HashMap<>();
+        for (int i = first; i < last; i++) {
+            members.put(BenchmarkData.getUserDN(i).toLowerCase(Locale.ROOT), BenchmarkData.getUid(i));
+        }
+        return members;
+    }
+}
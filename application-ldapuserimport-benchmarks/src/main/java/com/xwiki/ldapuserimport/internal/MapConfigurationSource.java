@@ -0,0 +1,98 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.ldapuserimport.internal;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.xwiki.configuration.ConfigurationSource;
+
+/**
+ * In-memory configuration source, to create an {@link org.xwiki.contrib.ldap.XWikiLDAPConfig} outside of XWiki.
+ *
+ * @version $Id$
+ * @since 1.7.10
+ */
+public class MapConfigurationSource implements ConfigurationSource
+{
+    private final Map<String, Object> properties = new HashMap<>();
+
+    /**
+     * @param key the property name
+     * @param value the property value
+     */
+    public void setProperty(String key, Object value)
+    {
+        this.properties.put(key, value);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T getProperty(String key, T defaultValue)
+    {
+        return this.properties.containsKey(key) ? (T) this.properties.get(key) : defaultValue;
+    }
+
+    @Override
+    public <T> T getProperty(String key, Class<T> valueClass)
+    {
+        return getProperty(key, valueClass, null);
+    }
+
+    @Override
+    public <T> T getProperty(String key, Class<T> valueClass, T defaultValue)
+    {
+        Object value = this.properties.get(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        if (valueClass == String.class) {
+            return valueClass.cast(String.valueOf(value));
+        }
+        return valueClass.cast(value);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T getProperty(String key)
+    {
+        return (T) this.properties.get(key);
+    }
+
+    @Override
+    public List<String> getKeys()
+    {
+        return new ArrayList<>(this.properties.keySet());
+    }
+
+    @Override
+    public boolean containsKey(String key)
+    {
+        return this.properties.containsKey(key);
+    }
+
+    @Override
+    public boolean isEmpty()
+    {
+        return this.properties.isEmpty();
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.ldapuserimport.internal;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.novell.ldap.LDAPEntry;
+import com.xwiki.ldapuserimport.LDAPResultHandler;
+import com.xwiki.ldapuserimport.LDAPUserImportManager;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.when;
+
+/**
+ * Benchmark the conversion of a page of LDAP search results to the maps returned to the UI, through
+ * {@link LDAPUserImportManager#getUsers(String, String, String, boolean, int, LDAPResultHandler)} and
+ * {@link LDAPUserImportManager#getLDAPGroups(String, String, boolean, boolean, int, LDAPResultHandler)}. The LDAP
+ * server is replaced by a search base returning the prepared entries, and the users are not imported yet.
+ *
+ * @version $Id$
+ * @since 1.7.10
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResultConversionBenchmark
+{
+    /**
+     * The number of entries in the page of results.
+     */
+    @Param({ "20", "500" })
+    private int entryCount;
+
+    /**
+     * The number of XWiki groups mapped to LDAP groups.
+     */
+    @Param({ "10", "200" })
+    private int mappedGroupCount;
+
+    private BenchmarkWiki wiki;
+
+    private LDAPUserImportManager userImportManager;
+
+    private List<LDAPEntry> userEntries;
+
+    private List<LDAPEntry> groupEntries;
+
+    private Collection<LDAPEntry> searchResults;
+
+    /**
+     * Prepare the wiki and the LDAP entries.
+     *
+     * @throws Exception if the wiki fails to start
+     */
+    @Setup
+    public void setUp() throws Exception
+    {
+        this.wiki = new BenchmarkWiki();
+        this.wiki.setGroupMapping(BenchmarkData.getGroupMapping(this.mappedGroupCount));
+        this.userImportManager = this.wiki.getUserImportManager();
+
+        String[] attributes =
+            XWikiLDAPUtilsHelper.getUserAttributes(BenchmarkData.createConfiguration(), new HashMap<>());
+        this.userEntries = new ArrayList<>(this.entryCount);
+        this.groupEntries = new ArrayList<>(this.entryCount);
+        for (int i = 0; i < this.entryCount; i++) {
+            this.userEntries.add(BenchmarkData.createUserEntry(i, attributes));
+            this.groupEntries.add(BenchmarkData.createGroupEntry(i));
+        }
+
+        LDAPMultiBaseSearcher multiBaseSearcher = this.wiki.getMultiBaseSearcher();
+        when(multiBaseSearcher.getSearchBases(any()))
+            .thenReturn(Collections.singletonList(LDAPSearchBase.of("DC=example,DC=com")));
+        doAnswer(invocation -> {
+            LDAPMultiBaseSearcher.LDAPEntryHandler handler = invocation.getArgument(4);
+            for (LDAPEntry entry : this.searchResults) {
+                if (!handler.handle(entry)) {
+                    break;
+                }
+            }
+            return null;
+        }).when(multiBaseSearcher).search(any(), anyString(), any(), anyInt(), any());
+    }
+
+    /**
+     * Stop the wiki.
+     *
+     * @throws Exception if the wiki fails to stop
+     */
+    @TearDown
+    public void tearDown() throws Exception
+    {
+        this.wiki.close();
+    }
+
+    /**
+     * @param blackhole consumes the converted users
+     * @return the number of converted users
+     * @throws Exception if the search fails
+     */
+    @Benchmark
+    public int users(Blackhole blackhole) throws Exception
+    {
+        this.searchResults = this.userEntries;
+        return this.userImportManager.getUsers(null, null, "user", false, this.entryCount,
+            (uid, user) -> blackhole.consume(user));
+    }
+
+    /**
+     * @param blackhole consumes the converted groups
+     * @return the number of converted groups
+     * @throws Exception if the search fails
+     */
+    @Benchmark
+    public int groupsOfXWikiGroup(Blackhole blackhole) throws Exception
+    {
+        this.searchResults = this.groupEntries;
+        return this.userImportManager.getLDAPGroups("group", "XWiki.Group0", false, false, this.entryCount,
+            (cn, group) -> blackhole.consume(group));
+    }
+
+    /**
+     * @param blackhole consumes the converted groups
+     * @return the number of converted groups
+     * @throws Exception if the search fails
+     */
+    @Benchmark
+    public int groupsOfAllXWikiGroups(Blackhole blackhole) throws Exception
+    {
+        // Without an XWiki group, each LDAP group is looked up in all the group mappings.
+        this.searchResults = this.groupEntries;
+        return this.userImportManager.getLDAPGroups("group", null, false, false, this.entryCount,
+            (cn, group) -> blackhole.consume(group));
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.ldapuserimport.internal;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xwiki.contrib.ldap.XWikiLDAPConfig;
+
+/**
+ * Benchmark the LDAP search filters built by {@link XWikiLDAPUtilsHelper} for each user and group search.
+ *
+ * @version $Id$
+ * @since 1.7.10
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SearchFilterBenchmark
+{
+    /**
+     * The number of LDAP fields searched.
+     */
+    @Param({ "1", "4", "8" })
+    private int fieldCount;
+
+    private XWikiLDAPConfig configuration;
+
+    private String[] searchFields;
+
+    private String searchFieldsString;
+
+    /**
+     * Prepare the configuration and the searched fields.
+     */
+    @Setup
+    public void setUp()
+    {
+        this.configuration = BenchmarkData.createConfiguration();
+        String[] fields = { "sAMAccountName", "givenName", "sn", "mail", "company", "telephoneNumber",
+            "streetAddress", "description" };
+        this.searchFields = new String[this.fieldCount];
+        System.arraycopy(fields, 0, this.searchFields, 0, this.fieldCount);
+        this.searchFieldsString = String.join(",", this.searchFields);
+    }
+
+    /**
+     * @return the generic search filter
+     */
+    @Benchmark
+    public String searchFilter()
+    {
+        return XWikiLDAPUtilsHelper.getSearchFilter("user,person,organizationalPerson", "jo(h)n*",
+            this.searchFields, true);
+    }
+
+    /**
+     * @return the user search filter, parsing the comma-separated list of fields
+     */
+    @Benchmark
+    public String usersFilter()
+    {
+        return XWikiLDAPUtilsHelper.getUsersFilter("john", this.searchFieldsString, this.configuration, false);
+    }
+
+    /**
+     * @return the group search filter
+     */
+    @Benchmark
+    public String groupsFilter()
+    {
+        return XWikiLDAPUtilsHelper.getGroupsFilter("team", this.configuration, true);
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.ldapuserimport.internal;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xwiki.contrib.ldap.XWikiLDAPConfig;
+
+/**
+ * Benchmark the computation of the requested LDAP user attributes and of their mapping to XWiki fields, done for each
+ * user search and each import.
+ *
+ * @version $Id$
+ * @since 1.7.10
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UserAttributesBenchmark
+{
+    private XWikiLDAPConfig configuration;
+
+    private Map<String, String> defaultMapping;
+
+    /**
+     * Prepare the configuration.
+     */
+    @Setup
+    public void setUp()
+    {
+        this.configuration = BenchmarkData.createConfiguration();
+        this.defaultMapping = new HashMap<>();
+        this.defaultMapping.put("first_name", "givenName");
+        this.defaultMapping.put("last_name", "sn");
+        this.defaultMapping.put("email", "mail");
+    }
+
+    /**
+     * @return the mapping of the LDAP attributes to XWiki fields
+     */
+    @Benchmark
+    public Map<String, String> userFieldsMap()
+    {
+        return XWikiLDAPUtilsHelper.getUserFieldsMap(this.configuration, this.defaultMapping);
+    }
+
+    /**
+     * @return the LDAP attributes requested for each user
+     */
+    @Benchmark
+    public String[] userAttributes()
+    {
+        return XWikiLDAPUtilsHelper.getUserAttributes(this.configuration, this.defaultMapping);
+    }
+}